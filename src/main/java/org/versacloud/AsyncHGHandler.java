@@ -0,0 +1,305 @@
+/**
+ * 
+ */
+package org.versacloud;
+
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hypergraphdb.HGHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.versacloud.api.IAsyncRightHandler;
+import org.versacloud.api.IResultCallback;
+
+/**
+ * Asynchronous front-end of a {@link HGHandler}. All operations are performed
+ * on a bounded executor dedicated to storage I/O, the caller receives a
+ * future and optionally a callback. Since the queue of the executor is
+ * bounded, a caller submitting faster than the storage serves is rejected
+ * with a {@link RejectedExecutionException} instead of piling up requests.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class AsyncHGHandler implements IAsyncRightHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AsyncHGHandler.class);
+
+    /** Handler performing the operations. */
+    private final HGHandler mHandler;
+
+    /** Executor for the operations. */
+    private final ExecutorService mExecutor;
+
+    /** Flag denoting that the executor is owned and shut down by this handler. */
+    private final boolean mOwnsExecutor;
+
+    /**
+     * Constructor, creating a dedicated executor.
+     * 
+     * @param paramHandler
+     *            performing the operations
+     * @param paramThreads
+     *            number of threads performing operations concurrently
+     * @param paramQueueSize
+     *            number of operations waiting for a thread at most
+     */
+    public AsyncHGHandler(final HGHandler paramHandler, final int paramThreads, final int paramQueueSize) {
+        this(paramHandler, createExecutor(paramThreads, paramQueueSize), true);
+    }
+
+    /**
+     * Constructor, using the denoted executor.
+     * 
+     * @param paramHandler
+     *            performing the operations
+     * @param paramExecutor
+     *            for the operations, not shut down by this handler
+     */
+    public AsyncHGHandler(final HGHandler paramHandler, final ExecutorService paramExecutor) {
+        this(paramHandler, paramExecutor, false);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param paramHandler
+     *            performing the operations
+     * @param paramExecutor
+     *            for the operations
+     * @param paramOwnsExecutor
+     *            true if the executor is shut down by this handler
+     */
+    private AsyncHGHandler(final HGHandler paramHandler, final ExecutorService paramExecutor,
+        final boolean paramOwnsExecutor) {
+        mHandler = paramHandler;
+        mExecutor = paramExecutor;
+        mOwnsExecutor = paramOwnsExecutor;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Future<byte[]> getRightMaterial(final long key, final long version,
+        final IResultCallback<byte[]> callback) {
+        return submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return mHandler.getRightMaterial(key, version);
+            }
+        }, callback);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Future<byte[]> getLatestRightMaterial(final long key, final IResultCallback<byte[]> callback) {
+        return submit(new Callable<byte[]>() {
+            @Override
+            public byte[] call() throws Exception {
+                return mHandler.getLatestRightMaterial(key);
+            }
+        }, callback);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Future<byte[][]> getRightMaterial(final long[] keys, final long[] versions,
+        final IResultCallback<byte[][]> callback) {
+        return submit(new Callable<byte[][]>() {
+            @Override
+            public byte[][] call() throws Exception {
+                return mHandler.getRightMaterial(keys, versions);
+            }
+        }, callback);
+    }
+
+    /**
+     * Activating a right, see {@link HGHandler#activateRight(Set, Set)}.
+     * 
+     * @param parents
+     *            the clients gaining the right
+     * @param children
+     *            the groups, providing the right
+     * @param callback
+     *            informed about the result, might be null
+     * @return the future denoting if a new edge is inserted
+     */
+    public Future<Boolean> activateRight(final Set<HGHandle> parents, final Set<HGHandle> children,
+        final IResultCallback<Boolean> callback) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mHandler.activateRight(parents, children);
+            }
+        }, callback);
+    }
+
+    /**
+     * Deactivating a right, see {@link HGHandler#deactivateRight(Set, Set)}.
+     * 
+     * @param parents
+     *            the clients losing the right
+     * @param children
+     *            the groups, providing the right
+     * @param callback
+     *            informed about the result, might be null
+     * @return the future denoting if an edge is removed
+     */
+    public Future<Boolean> deactivateRight(final Set<HGHandle> parents, final Set<HGHandle> children,
+        final IResultCallback<Boolean> callback) {
+        return submit(new Callable<Boolean>() {
+            @Override
+            public Boolean call() throws Exception {
+                return mHandler.deactivateRight(parents, children);
+            }
+        }, callback);
+    }
+
+    /**
+     * Getting all descendants of one root, see
+     * {@link HGHandler#getDescendants(HGHandle)}.
+     * 
+     * @param root
+     *            handle to start
+     * @param callback
+     *            informed about the result, might be null
+     * @return the future of all handles reachable from the root
+     */
+    public Future<Set<HGHandle>> getDescendants(final HGHandle root,
+        final IResultCallback<Set<HGHandle>> callback) {
+        return submit(new Callable<Set<HGHandle>>() {
+            @Override
+            public Set<HGHandle> call() throws Exception {
+                return mHandler.getDescendants(root);
+            }
+        }, callback);
+    }
+
+    /**
+     * Getting the underlying handler.
+     * 
+     * @return the handler
+     */
+    public HGHandler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * Shutting down the executor if created by this handler. Operations
+     * already submitted are still performed.
+     */
+    public void shutdown() {
+        if (mOwnsExecutor) {
+            mExecutor.shutdown();
+        }
+    }
+
+    /**
+     * Submitting one operation.
+     * 
+     * @param <T>
+     *            type of the result
+     * @param operation
+     *            to be performed
+     * @param callback
+     *            informed about the result, might be null
+     * @return the future of the result
+     * @throws RejectedExecutionException
+     *             if the queue of the executor is full
+     */
+    private <T> Future<T> submit(final Callable<T> operation, final IResultCallback<T> callback) {
+        final CallbackTask<T> task = new CallbackTask<T>(operation, callback);
+        mExecutor.execute(task);
+        return task;
+    }
+
+    /**
+     * Creating an executor with a bounded queue.
+     * 
+     * @param threads
+     *            number of threads
+     * @param queueSize
+     *            capacity of the queue
+     * @return the executor
+     */
+    private static ExecutorService createExecutor(final int threads, final int queueSize) {
+        return new ThreadPoolExecutor(threads, threads, 0L, TimeUnit.MILLISECONDS,
+            new ArrayBlockingQueue<Runnable>(queueSize), new ThreadFactory() {
+                /** Counter for naming the threads. */
+                private final AtomicInteger mCounter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread = new Thread(runnable, "versacloud-io-" + mCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+    }
+
+    /**
+     * Task informing a callback once it is done.
+     * 
+     * @param <T>
+     *            type of the result
+     */
+    private static final class CallbackTask<T> extends FutureTask<T> {
+
+        /** Callback to be informed, might be null. */
+        private final IResultCallback<T> mCallback;
+
+        /**
+         * Constructor.
+         * 
+         * @param paramOperation
+         *            to be performed
+         * @param paramCallback
+         *            to be informed, might be null
+         */
+        CallbackTask(final Callable<T> paramOperation, final IResultCallback<T> paramCallback) {
+            super(paramOperation);
+            mCallback = paramCallback;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        protected void done() {
+            if (mCallback == null) {
+                return;
+            }
+            try {
+                mCallback.completed(get());
+            } catch (final ExecutionException exc) {
+                mCallback.failed(exc.getCause());
+            } catch (final CancellationException exc) {
+                mCallback.failed(exc);
+            } catch (final InterruptedException exc) {
+                // cannot happen since the task is done
+                Thread.currentThread().interrupt();
+            } catch (final RuntimeException exc) {
+                // the callback itself failed, the worker must survive
+                LOGGER.error("Callback failed: " + exc);
+            }
+        }
+    }
+
+}
@@ -0,0 +1,200 @@
+/**
+ * 
+ */
+package org.versacloud;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.versacloud.model.Node;
+
+/**
+ * Session for inserting a large number of nodes, e.g. on restores or
+ * migrations. Nodes are buffered and inserted in batches, each batch within
+ * one transaction. The maintenance of the db runs once on {@link #commit()}.
+ * Sessions are received by {@link HGHandler#beginBulkLoad(int)} and are not
+ * thread-safe.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class BulkLoadSession {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(BulkLoadSession.class);
+
+    /** Handler the nodes are inserted in. */
+    private final HGHandler mHandler;
+
+    /** Number of nodes inserted within one transaction. */
+    private final int mBatchSize;
+
+    /** Buffered nodes. */
+    private final List<Node> mBuffer;
+
+    /** Number of inserted nodes. */
+    private long mCount;
+
+    /** Start of the session in nanoseconds. */
+    private final long mStart;
+
+    /** Flag denoting a committed session. */
+    private boolean mCommitted;
+
+    /**
+     * Constructor.
+     * 
+     * @param paramHandler
+     *            handler the nodes are inserted in
+     * @param paramBatchSize
+     *            number of nodes inserted within one transaction
+     */
+    BulkLoadSession(final HGHandler paramHandler, final int paramBatchSize) {
+        if (paramBatchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive but is " + paramBatchSize);
+        }
+        mHandler = paramHandler;
+        mBatchSize = paramBatchSize;
+        mBuffer = new ArrayList<Node>(paramBatchSize);
+        mStart = System.nanoTime();
+    }
+
+    /**
+     * Adding nodes, this includes NOT the adding of any rights related to the
+     * nodes. The nodes are inserted as soon as a batch is full.
+     * 
+     * @param paramNodes
+     *            to be added
+     * @throws IllegalStateException
+     *             if the session is already committed or a node with the
+     *             same key and version is already stored
+     */
+    public void add(final Node... paramNodes) {
+        if (mCommitted) {
+            throw new IllegalStateException("Session is already committed");
+        }
+        for (final Node node : paramNodes) {
+            mBuffer.add(node);
+            if (mBuffer.size() == mBatchSize) {
+                flush();
+            }
+        }
+    }
+
+    /**
+     * Inserting all buffered nodes, running the maintenance of the db and
+     * finishing the session.
+     * 
+     * @return the statistics of the session
+     */
+    public Result commit() {
+        if (mCommitted) {
+            throw new IllegalStateException("Session is already committed");
+        }
+        mCommitted = true;
+        final long maintenanceStart;
+        try {
+            flush();
+        } finally {
+            // the session must be finished even if the last batch fails
+            maintenanceStart = System.nanoTime();
+            mHandler.finishBulkLoad();
+        }
+        final long end = System.nanoTime();
+        final Result result = new Result(mCount, end - mStart, end - maintenanceStart);
+        LOGGER.info("Finished bulk load: " + result);
+        return result;
+    }
+
+    /**
+     * Inserting the buffered nodes within one transaction.
+     */
+    private void flush() {
+        if (mBuffer.isEmpty()) {
+            return;
+        }
+        final Node[] nodes = mBuffer.toArray(new Node[mBuffer.size()]);
+        mBuffer.clear();
+        mHandler.insertNodes(nodes, true);
+        mCount += nodes.length;
+    }
+
+    /**
+     * Statistics of one bulk load.
+     */
+    public static final class Result {
+
+        /** Number of inserted nodes. */
+        private final long mNodes;
+
+        /** Overall duration in nanoseconds. */
+        private final long mDuration;
+
+        /** Duration of the maintenance of the db in nanoseconds. */
+        private final long mMaintenanceDuration;
+
+        /**
+         * Constructor.
+         * 
+         * @param paramNodes
+         *            number of inserted nodes
+         * @param paramDuration
+         *            overall duration in nanoseconds
+         * @param paramMaintenanceDuration
+         *            duration of the maintenance of the db in nanoseconds
+         */
+        Result(final long paramNodes, final long paramDuration, final long paramMaintenanceDuration) {
+            mNodes = paramNodes;
+            mDuration = paramDuration;
+            mMaintenanceDuration = paramMaintenanceDuration;
+        }
+
+        /**
+         * Getting the number of inserted nodes.
+         * 
+         * @return the number of nodes
+         */
+        public long getNodes() {
+            return mNodes;
+        }
+
+        /**
+         * Getting the overall duration.
+         * 
+         * @return the duration in milliseconds
+         */
+        public long getDurationMillis() {
+            return mDuration / 1000000;
+        }
+
+        /**
+         * Getting the duration of the maintenance of the db.
+         * 
+         * @return the duration in milliseconds
+         */
+        public long getMaintenanceDurationMillis() {
+            return mMaintenanceDuration / 1000000;
+        }
+
+        /**
+         * Getting the throughput.
+         * 
+         * @return the inserted nodes per second
+         */
+        public double getNodesPerSecond() {
+            return mDuration == 0 ? 0 : mNodes * 1000000000d / mDuration;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public String toString() {
+            return "Result [nodes=" + mNodes + ", durationMillis=" + getDurationMillis()
+                + ", maintenanceDurationMillis=" + getMaintenanceDurationMillis() + ", nodesPerSecond="
+                + (long)getNodesPerSecond() + "]";
+        }
+    }
+
+}
@@ -0,0 +1,643 @@
+/**
+ * 
+ */
+package org.versacloud;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGQuery.hg;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.atom.HGBergeLink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.versacloud.api.ILinkListener;
+import org.versacloud.api.IRightHandler;
+import org.versacloud.api.IRightListener;
+import org.versacloud.model.Node;
+import org.versacloud.model.RemovalResult;
+import org.versacloud.model.RightOperation;
+
+/**
+ * In-memory engine in front of a {@link HGHandler} for graphs fitting in
+ * memory. Each node and each link is mapped to a dense int id, the links are
+ * stored in compressed sparse row arrays: one pair of arrays maps each node to
+ * the links containing it in the tail, another pair maps each link to its
+ * head. Traversals are served from memory without querying or deserializing
+ * any atom of the db, the material is read from the handler.
+ * 
+ * Nodes and links modified at the handler are tracked by listening to it,
+ * independent of the modifications being made over this engine or directly at
+ * the handler. A modified link only patches the rows of the nodes entering or
+ * leaving its tail and its own head, the arrays are rebuilt once the patches
+ * exceed a fraction of the rows. Ids of removed nodes are not reused until the
+ * engine is recreated or the handler is reindexed.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class CSRHandler implements IRightHandler, IRightListener, ILinkListener {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(CSRHandler.class);
+
+    /** Minimal number of patches before the arrays are rebuilt. */
+    private static final int MIN_PATCHES = 64;
+
+    /** Rows per patch before the arrays are rebuilt. */
+    private static final int PATCH_RATIO = 8;
+
+    /** Row without any entries. */
+    private static final int[] EMPTY = new int[0];
+
+    /** Handler the modifications are written through to. */
+    private final HGHandler mHandler;
+
+    /** Lock guarding all structures below. */
+    private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    /** Ids of the nodes. */
+    private final Map<HGPersistentHandle, Integer> mIds = new HashMap<HGPersistentHandle, Integer>();
+
+    /** Handles of the nodes by id, null for removed nodes. */
+    private final List<HGPersistentHandle> mHandles = new ArrayList<HGPersistentHandle>();
+
+    /** Ids of the links. */
+    private final Map<HGPersistentHandle, Integer> mLinkIds = new HashMap<HGPersistentHandle, Integer>();
+
+    /** Links by id, tail and head given as sorted ids, null for removed links. */
+    private final List<Link> mLinks = new ArrayList<Link>();
+
+    /** Patched rows of the nodes, replacing the ones within the arrays. */
+    private final Map<Integer, int[]> mRows = new HashMap<Integer, int[]>();
+
+    /** Links within the arrays whose head is read from {@link #mLinks}. */
+    private final BitSet mPatchedLinks = new BitSet();
+
+    /** Number of patched rows and links since the last rebuild. */
+    private int mPatches;
+
+    /** Start of the links of each node within {@link #mNodeLinks}, one entry more than nodes. */
+    private int[] mNodeOffsets;
+
+    /** Ids of the links containing a node in the tail, grouped by node. */
+    private int[] mNodeLinks;
+
+    /** Start of the head of each link within {@link #mLinkHeads}, one entry more than links. */
+    private int[] mLinkOffsets;
+
+    /** Ids of the nodes in the heads, grouped by link. */
+    private int[] mLinkHeads;
+
+    /**
+     * Constructor, loading all nodes and links of the handler and registering
+     * as listener at the handler.
+     * 
+     * @param paramHandler
+     *            the modifications are written through to
+     */
+    public CSRHandler(final HGHandler paramHandler) {
+        mHandler = paramHandler;
+        mLock.writeLock().lock();
+        try {
+            // registering within the lock, modifications made meanwhile are
+            // applied after the loading
+            mHandler.addRightListener(this);
+            mHandler.addLinkListener(this);
+            load();
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getRightMaterial(final long key, final long version) {
+        return mHandler.getRightMaterial(key, version);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getLatestRightMaterial(final long key) {
+        return mHandler.getLatestRightMaterial(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[][] getRightMaterial(final long[] keys, final long[] versions) {
+        return mHandler.getRightMaterial(keys, versions);
+    }
+
+    /**
+     * Adding nodes, see {@link HGHandler#addRight(Node...)}.
+     * 
+     * @param paramNodes
+     *            to be added
+     * @return the related handles
+     */
+    public HGHandle[] addRight(final Node... paramNodes) {
+        // the nodes are tracked by listening
+        return mHandler.addRight(paramNodes);
+    }
+
+    /**
+     * Removing a node and adapting all incident links, see
+     * {@link HGHandler#removeRight(Node)}.
+     * 
+     * @param paramNode
+     *            to be removed
+     * @return statistics of the removal
+     */
+    public RemovalResult removeRight(final Node paramNode) {
+        // the node and the adapted links are tracked by listening
+        return mHandler.removeRight(paramNode);
+    }
+
+    /**
+     * Granting a right, see {@link HGHandler#activateRight(Set, Set)}.
+     * 
+     * @param parents
+     *            the clients gaining the right
+     * @param children
+     *            the groups, providing the right
+     * @return true if a new edge is inserted, false otherwise
+     */
+    public boolean activateRight(final Set<HGHandle> parents, final Set<HGHandle> children) {
+        return mHandler.activateRight(parents, children);
+    }
+
+    /**
+     * Revoking a right, see {@link HGHandler#deactivateRight(Set, Set)}.
+     * 
+     * @param parents
+     *            the clients losing the right
+     * @param children
+     *            the groups, providing the right
+     * @return true if an edge is removed, false otherwise
+     */
+    public boolean deactivateRight(final Set<HGHandle> parents, final Set<HGHandle> children) {
+        return mHandler.deactivateRight(parents, children);
+    }
+
+    /**
+     * Applying a batch of grants and revocations, see
+     * {@link HGHandler#applyRights(List)}.
+     * 
+     * @param operations
+     *            to be applied in the given order
+     * @return the results of the operations in the order of the input
+     */
+    public boolean[] applyRights(final List<RightOperation> operations) {
+        return mHandler.applyRights(operations);
+    }
+
+    /**
+     * Getting all descendants of one root, see
+     * {@link HGHandler#getDescendants(HGHandle)}.
+     * 
+     * @param root
+     *            handle to start
+     * @return all handles reachable from the root
+     */
+    public Set<HGHandle> getDescendants(final HGHandle root) {
+        final Set<HGHandle> roots = new HashSet<HGHandle>();
+        roots.add(root);
+        return getDescendants(roots);
+    }
+
+    /**
+     * Getting all descendants of multiple roots with one breadth-first
+     * traversal over the arrays and the patches.
+     * 
+     * @param roots
+     *            handles to start
+     * @return all handles reachable from the roots
+     */
+    public Set<HGHandle> getDescendants(final Collection<HGHandle> roots) {
+        mLock.readLock().lock();
+        try {
+            final int nodes = mNodeOffsets.length - 1;
+            final int links = mLinkOffsets.length - 1;
+            final boolean patched = mPatches > 0 || mHandles.size() > nodes || mLinks.size() > links;
+            final int[] queue = new int[mHandles.size()];
+            // nodes ever put in the queue and nodes reached as children
+            final BitSet queued = new BitSet(queue.length);
+            final BitSet visited = new BitSet(queue.length);
+            int tail = 0;
+            for (final HGHandle root : roots) {
+                final Integer id = mIds.get(mHandler.getHGDB().getPersistentHandle(root));
+                if (id != null && !queued.get(id)) {
+                    queued.set(id);
+                    queue[tail++] = id;
+                }
+            }
+            final Set<HGHandle> returnval = new HashSet<HGHandle>();
+            int head = 0;
+            while (head < tail) {
+                final int node = queue[head++];
+                final int[] row = patched ? getPatchedRow(node, nodes) : null;
+                final int rowEnd = row == null ? mNodeOffsets[node + 1] : row.length;
+                for (int i = row == null ? mNodeOffsets[node] : 0; i < rowEnd; i++) {
+                    final int link = row == null ? mNodeLinks[i] : row[i];
+                    final int[] heads = patched ? getPatchedHead(link, links) : null;
+                    final int headEnd = heads == null ? mLinkOffsets[link + 1] : heads.length;
+                    for (int j = heads == null ? mLinkOffsets[link] : 0; j < headEnd; j++) {
+                        final int child = heads == null ? mLinkHeads[j] : heads[j];
+                        // roots are only reported if reached as children,
+                        // removed nodes are skipped
+                        final HGHandle handle = mHandles.get(child);
+                        if (handle != null && !visited.get(child)) {
+                            visited.set(child);
+                            returnval.add(handle);
+                            if (!queued.get(child)) {
+                                queued.set(child);
+                                queue[tail++] = child;
+                            }
+                        }
+                    }
+                }
+            }
+            return returnval;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Getting the number of nodes tracked.
+     * 
+     * @return the number of nodes
+     */
+    public int size() {
+        mLock.readLock().lock();
+        try {
+            return mIds.size();
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Getting the underlying handler.
+     * 
+     * @return the handler
+     */
+    public HGHandler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * Stopping to listen to the handler. The engine must not be used
+     * afterwards.
+     */
+    public void close() {
+        mHandler.removeRightListener(this);
+        mHandler.removeLinkListener(this);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rightAdded(final HGHandle handle, final Node node) {
+        mLock.writeLock().lock();
+        try {
+            toId(handle);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rightRemoved(final HGHandle handle, final Node node) {
+        mLock.writeLock().lock();
+        try {
+            final Integer id = mIds.remove(mHandler.getHGDB().getPersistentHandle(handle));
+            if (id != null) {
+                mHandles.set(id, null);
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rightReplaced(final HGHandle handle, final Node oldNode, final Node newNode) {
+        // the handle and therefore the id stays the same
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void linkChanged(final HGHandle handle) {
+        mLock.writeLock().lock();
+        try {
+            updateLink(handle);
+            if (mPatches > Math.max(MIN_PATCHES, (mNodeOffsets.length + mLinkOffsets.length) / PATCH_RATIO)) {
+                rebuild();
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void linksReloaded() {
+        mLock.writeLock().lock();
+        try {
+            load();
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Loading all nodes and links from the db and building the arrays. Must be
+     * called while holding the write lock.
+     */
+    private void load() {
+        final HyperGraph db = mHandler.getHGDB();
+        mIds.clear();
+        mHandles.clear();
+        mLinkIds.clear();
+        mLinks.clear();
+        final List<HGHandle> nodes = hg.findAll(db, hg.type(Node.class));
+        for (final HGHandle handle : nodes) {
+            toId(handle);
+        }
+        final List<HGHandle> links = hg.findAll(db, hg.type(HGBergeLink.class));
+        for (final HGHandle handle : links) {
+            final HGBergeLink link = db.get(handle);
+            mLinkIds.put(db.getPersistentHandle(handle), mLinks.size());
+            mLinks.add(new Link(toIds(link.getTail()), toIds(link.getHead())));
+        }
+        rebuild();
+        LOGGER.debug("Loaded " + mIds.size() + " nodes and " + mLinkIds.size() + " links");
+    }
+
+    /**
+     * Reloading one link from the db and patching the rows of the nodes
+     * entering or leaving its tail. Must be called while holding the write
+     * lock.
+     * 
+     * @param handle
+     *            of the link, not present within the db any more if removed
+     */
+    private void updateLink(final HGHandle handle) {
+        final HyperGraph db = mHandler.getHGDB();
+        final HGPersistentHandle persistent = db.getPersistentHandle(handle);
+        final HGBergeLink link = db.get(handle);
+        Integer id = mLinkIds.get(persistent);
+        if (id == null) {
+            if (link == null) {
+                return;
+            }
+            id = mLinks.size();
+            mLinkIds.put(persistent, id);
+            mLinks.add(null);
+        }
+        final Link old = mLinks.get(id);
+        final Link current;
+        if (link == null) {
+            current = null;
+            mLinkIds.remove(persistent);
+        } else {
+            current = new Link(toIds(link.getTail()), toIds(link.getHead()));
+        }
+        mLinks.set(id, current);
+
+        // walking both sorted tails, patching the nodes contained in only one
+        final int[] oldTail = old == null ? EMPTY : old.mTail;
+        final int[] newTail = current == null ? EMPTY : current.mTail;
+        int i = 0;
+        int j = 0;
+        while (i < oldTail.length || j < newTail.length) {
+            if (j == newTail.length || (i < oldTail.length && oldTail[i] < newTail[j])) {
+                patchRow(oldTail[i++], id, false);
+            } else if (i == oldTail.length || newTail[j] < oldTail[i]) {
+                patchRow(newTail[j++], id, true);
+            } else {
+                i++;
+                j++;
+            }
+        }
+
+        // links beyond the arrays are always read from the list
+        if (current != null && id < mLinkOffsets.length - 1 && !mPatchedLinks.get(id)
+            && (old == null || !Arrays.equals(old.mHead, current.mHead))) {
+            mPatchedLinks.set(id);
+            mPatches++;
+        }
+    }
+
+    /**
+     * Adding a link to or removing it from the row of a node. Must be called
+     * while holding the write lock.
+     * 
+     * @param node
+     *            id of the node
+     * @param link
+     *            id of the link
+     * @param add
+     *            true if the link is added, false if it is removed
+     */
+    private void patchRow(final int node, final int link, final boolean add) {
+        final int nodes = mNodeOffsets.length - 1;
+        int[] row = getPatchedRow(node, nodes);
+        if (row == null) {
+            row = Arrays.copyOfRange(mNodeLinks, mNodeOffsets[node], mNodeOffsets[node + 1]);
+        }
+        final int pos = Arrays.binarySearch(row, link);
+        final int[] patched;
+        if (add) {
+            if (pos >= 0) {
+                return;
+            }
+            final int insert = -pos - 1;
+            patched = new int[row.length + 1];
+            System.arraycopy(row, 0, patched, 0, insert);
+            patched[insert] = link;
+            System.arraycopy(row, insert, patched, insert + 1, row.length - insert);
+        } else {
+            if (pos < 0) {
+                return;
+            }
+            patched = new int[row.length - 1];
+            System.arraycopy(row, 0, patched, 0, pos);
+            System.arraycopy(row, pos + 1, patched, pos, patched.length - pos);
+        }
+        if (mRows.put(node, patched) == null) {
+            mPatches++;
+        }
+    }
+
+    /**
+     * Getting the row of a node if it is not served by the arrays.
+     * 
+     * @param node
+     *            id of the node
+     * @param nodes
+     *            number of nodes covered by the arrays
+     * @return the patched row, null if the row is served by the arrays
+     */
+    private int[] getPatchedRow(final int node, final int nodes) {
+        final int[] row = mRows.isEmpty() ? null : mRows.get(node);
+        if (row == null && node >= nodes) {
+            return EMPTY;
+        }
+        return row;
+    }
+
+    /**
+     * Getting the head of a link if it is not served by the arrays.
+     * 
+     * @param link
+     *            id of the link
+     * @param links
+     *            number of links covered by the arrays
+     * @return the patched head, null if the head is served by the arrays
+     */
+    private int[] getPatchedHead(final int link, final int links) {
+        if (link < links && !mPatchedLinks.get(link)) {
+            return null;
+        }
+        final Link current = mLinks.get(link);
+        return current == null ? EMPTY : current.mHead;
+    }
+
+    /**
+     * Getting the id of a node, assigning a new one if the node is unknown.
+     * Must be called while holding the write lock.
+     * 
+     * @param handle
+     *            of the node
+     * @return the id
+     */
+    private int toId(final HGHandle handle) {
+        final HGPersistentHandle persistent = mHandler.getHGDB().getPersistentHandle(handle);
+        Integer id = mIds.get(persistent);
+        if (id == null) {
+            // nodes beyond the arrays have an empty row until patched
+            id = mHandles.size();
+            mIds.put(persistent, id);
+            mHandles.add(persistent);
+        }
+        return id;
+    }
+
+    /**
+     * Converting handles to sorted ids. Must be called while holding the write
+     * lock.
+     * 
+     * @param handles
+     *            to be converted
+     * @return the ids
+     */
+    private int[] toIds(final Set<HGHandle> handles) {
+        final int[] returnval = new int[handles.size()];
+        int i = 0;
+        for (final HGHandle handle : handles) {
+            returnval[i++] = toId(handle);
+        }
+        Arrays.sort(returnval);
+        return returnval;
+    }
+
+    /**
+     * Rebuilding the arrays from the links, compacting the ids of the links and
+     * dropping all patches. Must be called while holding the write lock.
+     */
+    private void rebuild() {
+        final int nodes = mHandles.size();
+        final Link[] links = new Link[mLinkIds.size()];
+        int count = 0;
+        for (final Map.Entry<HGPersistentHandle, Integer> entry : mLinkIds.entrySet()) {
+            links[count] = mLinks.get(entry.getValue());
+            entry.setValue(count++);
+        }
+        mLinks.clear();
+        mLinks.addAll(Arrays.asList(links));
+        final int[] nodeOffsets = new int[nodes + 1];
+        final int[] linkOffsets = new int[links.length + 1];
+        // counting the links per node and the heads per link...
+        for (int i = 0; i < links.length; i++) {
+            for (final int node : links[i].mTail) {
+                nodeOffsets[node + 1]++;
+            }
+            linkOffsets[i + 1] = linkOffsets[i] + links[i].mHead.length;
+        }
+        for (int i = 0; i < nodes; i++) {
+            nodeOffsets[i + 1] += nodeOffsets[i];
+        }
+        // ...and filling the arrays afterwards, the rows are sorted by link
+        final int[] nodeLinks = new int[nodeOffsets[nodes]];
+        final int[] linkHeads = new int[linkOffsets[links.length]];
+        final int[] fill = Arrays.copyOf(nodeOffsets, nodes);
+        for (int i = 0; i < links.length; i++) {
+            for (final int node : links[i].mTail) {
+                nodeLinks[fill[node]++] = i;
+            }
+            System.arraycopy(links[i].mHead, 0, linkHeads, linkOffsets[i], links[i].mHead.length);
+        }
+        mNodeOffsets = nodeOffsets;
+        mNodeLinks = nodeLinks;
+        mLinkOffsets = linkOffsets;
+        mLinkHeads = linkHeads;
+        mRows.clear();
+        mPatchedLinks.clear();
+        mPatches = 0;
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Rebuilt arrays for " + nodes + " nodes and " + links.length + " links");
+        }
+    }
+
+    /**
+     * Link with tail and head given as sorted ids.
+     */
+    private static final class Link {
+        /** Ids of the parents. */
+        final int[] mTail;
+
+        /** Ids of the children. */
+        final int[] mHead;
+
+        /**
+         * Constructor.
+         * 
+         * @param paramTail
+         *            ids of the parents
+         * @param paramHead
+         *            ids of the children
+         */
+        Link(final int[] paramTail, final int[] paramHead) {
+            mTail = paramTail;
+            mHead = paramHead;
+        }
+    }
+
+}
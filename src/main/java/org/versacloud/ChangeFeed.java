@@ -0,0 +1,216 @@
+/**
+ * 
+ */
+package org.versacloud;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.versacloud.api.IChangeListener;
+import org.versacloud.model.ChangeEvent;
+import org.versacloud.store.ChangeLog;
+
+/**
+ * Ordered stream of the modifications of a handler, set with
+ * {@link HGHandler#setChangeFeed(ChangeFeed)}. Each modification gets the
+ * next sequence, is appended to the optional log and is delivered to all
+ * listeners before the next modification is published. The handlers hold the
+ * lock of the feed from the commit of a modification until its events are
+ * published, the sequences therefore follow the order of the commits, even
+ * for multiple handlers sharing one feed. Listeners joining later catch up
+ * from the log with {@link #addChangeListener(IChangeListener, long)} without
+ * missing or duplicating any event. A failing listener is logged and does
+ * not affect the other listeners.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class ChangeFeed {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangeFeed.class);
+
+    /** Registered listeners. */
+    private final List<IChangeListener> mListeners = new CopyOnWriteArrayList<IChangeListener>();
+
+    /** Log for replaying the events, might be null. */
+    private final ChangeLog mLog;
+
+    /** Lock serializing the modifications and the events. */
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    /** Sequence of the last published event, guarded by the lock. */
+    private long mLastSequence;
+
+    /**
+     * Constructor for a feed without log, sequences start with 1.
+     */
+    public ChangeFeed() {
+        this(null);
+    }
+
+    /**
+     * Constructor, continuing the sequences of the log.
+     * 
+     * @param paramLog
+     *            log for replaying the events, null for none
+     */
+    public ChangeFeed(final ChangeLog paramLog) {
+        mLog = paramLog;
+        mLastSequence = paramLog == null ? 0 : paramLog.getLastSequence();
+    }
+
+    /**
+     * Registering a listener for all events published from now on.
+     * 
+     * @param listener
+     *            to be registered
+     */
+    public void addChangeListener(final IChangeListener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Registering a listener after replaying the logged events starting with
+     * a sequence. No event is published while replaying, the listener
+     * therefore receives each event from the denoted sequence on exactly
+     * once.
+     * 
+     * @param listener
+     *            to be registered
+     * @param paramFromSequence
+     *            sequence of the first event to be received
+     * @throws IllegalStateException
+     *             if the feed has no log
+     * @throws IOException
+     *             if the log cannot be read
+     */
+    public void addChangeListener(final IChangeListener listener, final long paramFromSequence)
+        throws IOException {
+        if (mLog == null) {
+            throw new IllegalStateException("No log to replay from");
+        }
+        mLock.lock();
+        try {
+            mLog.replay(paramFromSequence, listener);
+            mListeners.add(listener);
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Deregistering a listener.
+     * 
+     * @param listener
+     *            to be removed
+     */
+    public void removeChangeListener(final IChangeListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Getting the sequence of the last published event.
+     * 
+     * @return the last sequence, 0 if no event was published
+     */
+    public long getLastSequence() {
+        mLock.lock();
+        try {
+            return mLastSequence;
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Acquiring the lock of the feed, held by a handler from the commit of a
+     * modification until its events are published.
+     */
+    void lock() {
+        mLock.lock();
+    }
+
+    /**
+     * Releasing the lock acquired by {@link #lock()}.
+     */
+    void unlock() {
+        mLock.unlock();
+    }
+
+    /**
+     * Publishing the modification of a node.
+     * 
+     * @param type
+     *            of the modification
+     * @param handle
+     *            of the node
+     * @param oldKey
+     *            key before the modification
+     * @param oldVersion
+     *            version before the modification
+     * @param key
+     *            key after the modification
+     * @param version
+     *            version after the modification
+     */
+    void nodeChanged(final ChangeEvent.Type type, final HGPersistentHandle handle, final long oldKey,
+        final long oldVersion, final long key, final long version) {
+        mLock.lock();
+        try {
+            publish(ChangeEvent
+                .nodeChange(mLastSequence + 1, type, handle, oldKey, oldVersion, key, version));
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Publishing the modification of a right.
+     * 
+     * @param type
+     *            of the modification
+     * @param parents
+     *            of the right
+     * @param children
+     *            of the right
+     */
+    void rightChanged(final ChangeEvent.Type type, final Set<HGHandle> parents,
+        final Set<HGHandle> children) {
+        mLock.lock();
+        try {
+            publish(ChangeEvent.rightChange(mLastSequence + 1, type, parents, children));
+        } finally {
+            mLock.unlock();
+        }
+    }
+
+    /**
+     * Logging an event and delivering it to all listeners. Must be called
+     * while holding the lock of this feed.
+     * 
+     * @param event
+     *            to be published
+     */
+    private void publish(final ChangeEvent event) {
+        if (mLog != null) {
+            mLog.append(event);
+        }
+        mLastSequence = event.getSequence();
+        for (final IChangeListener listener : mListeners) {
+            try {
+                listener.changed(event);
+            } catch (final RuntimeException exc) {
+                // the modification is committed and logged already
+                LOGGER.error("Listener " + listener + " failed on " + event, exc);
+            }
+        }
+    }
+
+}
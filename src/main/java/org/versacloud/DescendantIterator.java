@@ -0,0 +1,101 @@
+/**
+ * 
+ */
+package org.versacloud;
+
+import java.util.ArrayDeque;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Queue;
+import java.util.Set;
+
+import org.hypergraphdb.HGHandle;
+import org.versacloud.api.IDescendantFilter;
+
+/**
+ * Lazy breadth-first iterator over the descendants of a set of handles. The
+ * children of one handle are fetched only once all children fetched before
+ * are consumed, an iteration stopped early never fetches the rest of the
+ * subgraph. Handles rejected by the filter are returned but not expanded.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+final class DescendantIterator implements Iterator<HGHandle> {
+
+    /** Handler fetching the children. */
+    private final HGHandler mHandler;
+
+    /** Filter deciding which handles are expanded, null for all. */
+    private final IDescendantFilter mFilter;
+
+    /** Handles whose children are not fetched yet. */
+    private final Queue<HGHandle> mToExpand = new ArrayDeque<HGHandle>();
+
+    /** Children fetched but not returned yet. */
+    private final Queue<HGHandle> mPending = new ArrayDeque<HGHandle>();
+
+    /** Handles reached as children so far. */
+    private final Set<HGHandle> mVisited = new HashSet<HGHandle>();
+
+    /**
+     * Constructor.
+     * 
+     * @param paramHandler
+     *            fetching the children
+     * @param paramRoots
+     *            handles to start
+     * @param paramFilter
+     *            deciding which handles are expanded, null for all
+     */
+    DescendantIterator(final HGHandler paramHandler, final Set<HGHandle> paramRoots,
+        final IDescendantFilter paramFilter) {
+        mHandler = paramHandler;
+        mFilter = paramFilter;
+        mToExpand.addAll(paramRoots);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean hasNext() {
+        // expanding one handle at a time until a new child is reached
+        while (mPending.isEmpty() && !mToExpand.isEmpty()) {
+            for (final HGHandle child : mHandler.getAllChildren(mToExpand.poll())) {
+                if (mVisited.add(child)) {
+                    mPending.add(child);
+                }
+            }
+        }
+        return !mPending.isEmpty();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HGHandle next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        final HGHandle returnval = mPending.poll();
+        if (mFilter == null || mFilter.expand(returnval)) {
+            mToExpand.add(returnval);
+        }
+        return returnval;
+    }
+
+    /**
+     * Not supported.
+     * 
+     * @throws UnsupportedOperationException
+     *             always
+     */
+    @Override
+    public void remove() {
+        throw new UnsupportedOperationException();
+    }
+
+}
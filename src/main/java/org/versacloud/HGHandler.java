@@ -6,16 +6,30 @@ package org.versacloud;
 import java.lang.reflect.Method;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.SortedSet;
+import java.util.TreeSet;
 import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutionException;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
 import org.hypergraphdb.HGQuery.hg;
 import org.hypergraphdb.HyperGraph;
 import org.hypergraphdb.algorithms.HGDepthFirstTraversal;
@@ -27,9 +41,22 @@ import org.hypergraphdb.indexing.HGKeyIndexer;
 import org.hypergraphdb.util.Pair;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.versacloud.api.IDescendantFilter;
 import org.versacloud.api.IHandlerListener;
+import org.versacloud.api.ILinkListener;
+import org.versacloud.api.IMetricsRegistry;
 import org.versacloud.api.IRightHandler;
+import org.versacloud.api.IRightListener;
+import org.versacloud.cache.DescendantCache;
+import org.versacloud.index.HeadSetIndex;
+import org.versacloud.index.ReachabilityIndex;
+import org.versacloud.index.RightIndex;
+import org.versacloud.model.ChangeEvent;
 import org.versacloud.model.Node;
+import org.versacloud.model.NodeType;
+import org.versacloud.model.RemovalResult;
+import org.versacloud.model.RightOperation;
+import org.versacloud.store.SecretStore;
 
 /**
  * This class handles a Hypergraph containing the access rights for multiple
@@ -42,315 +69,1614 @@ public final class HGHandler implements IRightHandler {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(HGHandler.class);
 
+    /** Number of threads of the default executor. */
+    private static final int PARALLELISM = Runtime.getRuntime().availableProcessors();
+
+    /** Number of chunks per thread each level of a traversal is split in. */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    /** Minimal number of handles expanded by one task of a traversal. */
+    private static final int MIN_CHUNK_SIZE = 16;
+
+    /** Listener for traversals without any interest in the levels. */
+    private static final IHandlerListener NOOP_LISTENER = new IHandlerListener() {
+        @Override
+        public boolean touchedChildren(final Set<HGHandle> children) {
+            return false;
+        }
+    };
+
+    /** Registry dropping all metrics. */
+    private static final IMetricsRegistry NOOP_METRICS = new IMetricsRegistry() {
+        @Override
+        public void recordLatency(final String operation, final long nanos) {
+        }
+
+        @Override
+        public void recordError(final String operation) {
+        }
+
+        @Override
+        public void incrementCounter(final String counter, final long delta) {
+        }
+    };
+
+    /** Executor for traversals. */
+    private final ExecutorService mExecutor;
+
     /** Instance of DB. */
     private final HyperGraph mDB;
 
+    /** Flag denoting a running bulk load. */
+    private final AtomicBoolean mBulkLoading = new AtomicBoolean();
+
+    /** Index mapping key and version to the handle of a node. */
+    private final RightIndex mIndex;
+
+    /** Index mapping the head set of a link to the handle of the link. */
+    private final HeadSetIndex mHeadIndex;
+
+    /** Cache for descendants of single roots, null if not used. */
+    private volatile DescendantCache mDescendantCache;
+
+    /** Reachability labels answering negative access checks, might be null. */
+    private volatile ReachabilityIndex mReachability;
+
+    /** Feed publishing all modifications, might be null. */
+    private volatile ChangeFeed mFeed;
+
+    /** Listeners informed about modified nodes. */
+    private final List<IRightListener> mListeners = new CopyOnWriteArrayList<IRightListener>();
+
+    /** Listeners informed about modified links. */
+    private final List<ILinkListener> mLinkListeners = new CopyOnWriteArrayList<ILinkListener>();
+
+    /** Registry receiving the metrics of all operations. */
+    private volatile IMetricsRegistry mMetrics = NOOP_METRICS;
+
+    /** Store for the secret material, null if stored within the nodes. */
+    private final SecretStore mStore;
+
+    /**
+     * Getting a handler instance, using a shared executor for traversals.
+     * 
+     * @param paramDB
+     *            the db to be set
+     */
+    public HGHandler(final HyperGraph paramDB) {
+        this(paramDB, DefaultExecutor.INSTANCE, null);
+    }
+
+    /**
+     * Getting a handler instance keeping the secret material in a separate
+     * store, using a shared executor for traversals.
+     * 
+     * @param paramDB
+     *            the db to be set
+     * @param paramStore
+     *            store for the material of inserted nodes, not closed by the
+     *            handler
+     */
+    public HGHandler(final HyperGraph paramDB, final SecretStore paramStore) {
+        this(paramDB, DefaultExecutor.INSTANCE, paramStore);
+    }
+
+    /**
+     * Getting a handler instance
+     * 
+     * @param paramDB
+     *            the db to be set
+     * @param paramExecutor
+     *            executor for parallel traversals, not shut down by the
+     *            handler
+     */
+    public HGHandler(final HyperGraph paramDB, final ExecutorService paramExecutor) {
+        this(paramDB, paramExecutor, null);
+    }
+
+    /**
+     * Getting a handler instance. If a store is given, the material of
+     * inserted nodes is kept in the store and the nodes within the db only
+     * refer to it. Nodes inserted without a store keep their material.
+     * 
+     * @param paramDB
+     *            the db to be set
+     * @param paramExecutor
+     *            executor for parallel traversals, not shut down by the
+     *            handler
+     * @param paramStore
+     *            store for the material, null for storing the material within
+     *            the nodes
+     */
+    public HGHandler(final HyperGraph paramDB, final ExecutorService paramExecutor,
+        final SecretStore paramStore) {
+        mDB = paramDB;
+        mExecutor = paramExecutor;
+        mStore = paramStore;
+        // the binary type must be known before any node is touched
+        NodeType.register(mDB);
+        // the index over key and version formerly maintained within the db
+        // is replaced by the ordered in-memory index, dropping it if present
+        HGHandle handle = mDB.getTypeSystem().getTypeHandle(Node.class);
+        final HGKeyIndexer[] indices = new HGKeyIndexer[2];
+        indices[0] = new ByPartIndexer(handle, "key");
+        indices[1] = new ByPartIndexer(handle, "version");
+        mDB.getIndexManager().unregister(new CompositeIndexer(handle, indices));
+        mIndex = new RightIndex();
+        mIndex.rebuild(mDB);
+        // the head sets are resolved lazily, no link is loaded on startup
+        mHeadIndex = new HeadSetIndex(mDB);
+        LOGGER.debug("Initializing with db " + paramDB + " containing " + mIndex.size() + " nodes");
+    }
+
+    /**
+     * Adding a new node to the db, this includes NOT the adding of any rights
+     * related to the new node.
+     * 
+     * @param paramNodes
+     *            to be added
+     * @return the related handle to that node
+     * @throws IllegalStateException
+     *             if a node with the same key and version is already stored
+     */
+    public HGHandle[] addRight(final Node... paramNodes) {
+        final long start = System.nanoTime();
+        try {
+            return insertNodes(paramNodes, true);
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.ADD_RIGHT);
+            throw exc;
+        } finally {
+            mMetrics.recordLatency(IMetricsRegistry.ADD_RIGHT, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Starting a bulk load. Until the session is committed, no maintenance of
+     * the db is performed. Only one bulk load can be active at a time.
+     * 
+     * @param paramBatchSize
+     *            number of nodes inserted within one transaction
+     * @return the session for adding nodes
+     * @throws IllegalStateException
+     *             if another bulk load is active
+     */
+    public BulkLoadSession beginBulkLoad(final int paramBatchSize) {
+        startBulkLoad();
+        return new BulkLoadSession(this, paramBatchSize);
+    }
+
+    /**
+     * Finishing a bulk load by running the maintenance of the db once.
+     */
+    void finishBulkLoad() {
+        mDB.runMaintenance();
+        mBulkLoading.set(false);
+    }
+
+    /**
+     * Starting a bulk load without a session, e.g. for restoring a
+     * {@link Snapshot}. The load is finished by {@link #finishBulkLoad()}.
+     * 
+     * @throws IllegalStateException
+     *             if another bulk load is active
+     */
+    void startBulkLoad() {
+        if (!mBulkLoading.compareAndSet(false, true)) {
+            throw new IllegalStateException("Another bulk load is active");
+        }
+        LOGGER.info("Starting bulk load into db " + mDB);
+    }
+
+    /**
+     * Rebuilding all in-memory indices from the db, e.g. after the db was
+     * filled without updating them. Cached descendants are dropped, the link
+     * listeners are informed that all links might have changed. The other
+     * listeners and the change feed are not informed.
+     */
+    public void reindex() {
+        mIndex.rebuild(mDB);
+        mHeadIndex.clear();
+        final ReachabilityIndex reachability = mReachability;
+        if (reachability != null) {
+            reachability.rebuild(mDB);
+        }
+        final DescendantCache cache = mDescendantCache;
+        if (cache != null) {
+            cache.clear();
+        }
+        for (final ILinkListener listener : mLinkListeners) {
+            listener.linksReloaded();
+        }
+        LOGGER.debug("Reindexed db " + mDB + " containing " + mIndex.size() + " nodes");
+    }
+
+    /**
+     * Getting the number of nodes stored in the db.
+     * 
+     * @return the number of nodes
+     */
+    int size() {
+        return mIndex.size();
+    }
+
+    /**
+     * Inserting nodes into the db within one transaction. If a store is set,
+     * the material is appended before the transaction, a repeated transaction
+     * therefore appends nothing. The material is removed again if the
+     * transaction fails.
+     * 
+     * @param paramNodes
+     *            to be inserted
+     * @param paramIndex
+     *            true for updating the indices of the handler and informing
+     *            the listeners afterwards, false if the indices are rebuilt
+     *            later on
+     * @return the handles of the nodes
+     * @throws IllegalStateException
+     *             if a node with the same key and version is already stored
+     */
+    HGHandle[] insertNodes(final Node[] paramNodes, final boolean paramIndex) {
+        // reserving the keys and versions atomically, rejecting duplicates
+        // within the nodes and concurrent insertions of the same nodes
+        final long[] keys = new long[paramNodes.length];
+        final long[] versions = new long[paramNodes.length];
+        for (int i = 0; i < paramNodes.length; i++) {
+            keys[i] = paramNodes[i].getKey();
+            versions[i] = paramNodes[i].getVersion();
+        }
+        mIndex.reserve(keys, versions);
+        boolean indexed = false;
+        // nodes not indexed are not published
+        final ChangeFeed feed = paramIndex ? lockFeed() : null;
+        try {
+            final Node[] stored = externalize(paramNodes);
+            final HGHandle[] handles;
+            try {
+                handles = mDB.getTransactionManager().transact(new Callable<HGHandle[]>() {
+                    @Override
+                    public HGHandle[] call() throws Exception {
+                        final HGHandle[] returnval = new HGHandle[stored.length];
+                        for (int i = 0; i < stored.length; i++) {
+                            returnval[i] = getHGDB().add(stored[i]);
+                        }
+                        return returnval;
+                    }
+                });
+            } catch (final RuntimeException exc) {
+                dropMaterial(stored);
+                throw exc;
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Added " + paramNodes.length + " nodes " + Arrays.toString(paramNodes));
+            }
+            if (paramIndex) {
+                // storing the nodes within the index ends the reservations
+                indexed = true;
+                indexNodes(paramNodes, stored, handles, feed);
+            }
+            return handles;
+        } finally {
+            if (!indexed) {
+                mIndex.release(keys, versions);
+            }
+            unlockFeed(feed);
+        }
+    }
+
+    /**
+     * Updating the indices of the handler and informing the listeners about
+     * inserted nodes.
+     * 
+     * @param paramNodes
+     *            being inserted
+     * @param stored
+     *            the nodes as stored within the db
+     * @param handles
+     *            of the nodes
+     * @param feed
+     *            locked by {@link #lockFeed()}, might be null
+     */
+    private void indexNodes(final Node[] paramNodes, final Node[] stored, final HGHandle[] handles,
+        final ChangeFeed feed) {
+        for (int i = 0; i < handles.length; i++) {
+            mIndex.put(paramNodes[i].getKey(), paramNodes[i].getVersion(), getHGDB().getPersistentHandle(
+                handles[i]), stored[i].getSecretOffset());
+        }
+        for (int j = 0; j < handles.length; j++) {
+            for (final IRightListener listener : mListeners) {
+                listener.rightAdded(handles[j], paramNodes[j]);
+            }
+        }
+        if (feed != null) {
+            for (int j = 0; j < handles.length; j++) {
+                feed.nodeChanged(ChangeEvent.Type.NODE_ADDED, getHGDB().getPersistentHandle(handles[j]),
+                    paramNodes[j].getKey(), paramNodes[j].getVersion(), paramNodes[j].getKey(), paramNodes[j]
+                        .getVersion());
+            }
+        }
+    }
+
+    /**
+     * Replacing the node denoted by the handle, e.g. for changing the secret
+     * material of a node. No rights related to the node are modified.
+     * 
+     * @param handle
+     *            of the node to be replaced
+     * @param paramNode
+     *            the new node
+     * @throws IllegalStateException
+     *             if the new key and version belong to another node
+     */
+    public void replaceRight(final HGHandle handle, final Node paramNode) {
+        final long start = System.nanoTime();
+        final ChangeFeed feed = lockFeed();
+        try {
+            final Node oldStored = (Node)mDB.get(handle);
+            final long oldOffset = oldStored.getSecretOffset();
+            final Node oldNode = internalize(oldStored);
+            final boolean moved =
+                oldNode.getKey() != paramNode.getKey() || oldNode.getVersion() != paramNode.getVersion();
+            final long[] keys = new long[] {
+                paramNode.getKey()
+            };
+            final long[] versions = new long[] {
+                paramNode.getVersion()
+            };
+            if (moved) {
+                // reserving the new key and version against concurrent
+                // insertions, the reservation ends with the put below
+                mIndex.reserve(keys, versions);
+            }
+            Node stored = null;
+            try {
+                stored = externalize(paramNode);
+                getHGDB().replace(handle, stored);
+            } catch (final RuntimeException exc) {
+                if (stored != null) {
+                    dropMaterial(stored);
+                }
+                if (moved) {
+                    mIndex.release(keys, versions);
+                }
+                throw exc;
+            }
+            mIndex.remove(oldNode.getKey(), oldNode.getVersion());
+            mIndex.put(paramNode.getKey(), paramNode.getVersion(), getHGDB().getPersistentHandle(handle),
+                stored.getSecretOffset());
+            // the old material is dropped once the index refers to the new one
+            if (mStore != null && oldOffset >= 0) {
+                mStore.remove(oldOffset);
+            }
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Replacing node " + oldNode + " with node " + paramNode);
+            }
+            for (final IRightListener listener : mListeners) {
+                listener.rightReplaced(handle, oldNode, paramNode);
+            }
+            if (feed != null) {
+                feed.nodeChanged(ChangeEvent.Type.NODE_REPLACED, getHGDB().getPersistentHandle(handle),
+                    oldNode.getKey(), oldNode.getVersion(), paramNode.getKey(), paramNode.getVersion());
+            }
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.REPLACE_RIGHT);
+            throw exc;
+        } finally {
+            unlockFeed(feed);
+            mMetrics.recordLatency(IMetricsRegistry.REPLACE_RIGHT, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Registering a listener getting informed about added, removed and
+     * replaced nodes.
+     * 
+     * @param listener
+     *            to be registered
+     */
+    public void addRightListener(final IRightListener listener) {
+        mListeners.add(listener);
+    }
+
+    /**
+     * Deregistering a listener.
+     * 
+     * @param listener
+     *            to be removed
+     */
+    public void removeRightListener(final IRightListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Registering a listener getting informed about inserted, modified and
+     * removed links by all operations of this handler.
+     * 
+     * @param listener
+     *            to be registered
+     */
+    public void addLinkListener(final ILinkListener listener) {
+        mLinkListeners.add(listener);
+    }
+
+    /**
+     * Deregistering a link listener.
+     * 
+     * @param listener
+     *            to be removed
+     */
+    public void removeLinkListener(final ILinkListener listener) {
+        mLinkListeners.remove(listener);
+    }
+
+    /**
+     * Setting the registry receiving the latencies and errors of all
+     * operations as well as the counters of the traversals.
+     * 
+     * @param registry
+     *            to be set, null for not recording any metrics
+     */
+    public void setMetricsRegistry(final IMetricsRegistry registry) {
+        mMetrics = registry == null ? NOOP_METRICS : registry;
+    }
+
+    // ///////////////////////////////////////////////
+    // START: Getting nodes
+    // ///////////////////////////////////////////////
+    /**
+     * Getting a node for a given key and version
+     * 
+     * @param key
+     *            to be searched for
+     * @param version
+     *            to be searched for
+     * @return a related Node
+     */
+    public HGHandle getRightHandle(final long key, final long version) {
+        final long start = System.nanoTime();
+        try {
+            final HGPersistentHandle handle = mIndex.get(key, version);
+            if (handle != null && LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Getting handle " + handle + " for key " + key + " and version " + version);
+            }
+            return handle;
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.LOOKUP);
+            throw exc;
+        } finally {
+            mMetrics.recordLatency(IMetricsRegistry.LOOKUP, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Getting the handle of the latest version of a key.
+     * 
+     * @param key
+     *            to be searched for
+     * @return the handle of the node with the highest version, null if no
+     *         version of the key is present
+     */
+    public HGHandle getLatestRightHandle(final long key) {
+        final long start = System.nanoTime();
+        try {
+            return mIndex.getLatest(key);
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.LOOKUP);
+            throw exc;
+        } finally {
+            mMetrics.recordLatency(IMetricsRegistry.LOOKUP, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Getting all versions of a key within a range.
+     * 
+     * @param key
+     *            to be searched for
+     * @param fromVersion
+     *            lowest version, inclusive
+     * @param toVersion
+     *            highest version, inclusive
+     * @return the versions present in descending order
+     */
+    public long[] getVersions(final long key, final long fromVersion, final long toVersion) {
+        final long start = System.nanoTime();
+        try {
+            return mIndex.getVersions(key, fromVersion, toVersion);
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.LOOKUP);
+            throw exc;
+        } finally {
+            mMetrics.recordLatency(IMetricsRegistry.LOOKUP, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Getting concrete node
+     * 
+     * @param handle
+     *            pointing to the node, most probably
+     * @return the node
+     */
+    public Node getRight(final HGHandle handle) {
+        final long start = System.nanoTime();
+        try {
+            Node node = internalize((Node)mDB.get(handle));
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Getting node" + node);
+            }
+            return node;
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.LOOKUP);
+            throw exc;
+        } finally {
+            mMetrics.recordLatency(IMetricsRegistry.LOOKUP, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Getting concrete node
+     * 
+     * @param key
+     *            of the node
+     * @param version
+     *            of the node
+     * @return the node, null if not present
+     */
+    public Node getRight(final long key, final long version) {
+        final long start = System.nanoTime();
+        try {
+            final HGHandle handle = mIndex.get(key, version);
+            if (handle == null) {
+                return null;
+            }
+            return internalize((Node)mDB.get(handle));
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.LOOKUP);
+            throw exc;
+        } finally {
+            mMetrics.recordLatency(IMetricsRegistry.LOOKUP, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getRightMaterial(final long key, final long version) {
+        final long start = System.nanoTime();
+        try {
+            return readMaterial(mIndex.getEntry(key, version));
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.GET_RIGHT_MATERIAL);
+            throw exc;
+        } finally {
+            mMetrics.recordLatency(IMetricsRegistry.GET_RIGHT_MATERIAL, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getLatestRightMaterial(final long key) {
+        final long start = System.nanoTime();
+        try {
+            return readMaterial(mIndex.getLatestEntry(key));
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.GET_RIGHT_MATERIAL);
+            throw exc;
+        } finally {
+            mMetrics.recordLatency(IMetricsRegistry.GET_RIGHT_MATERIAL, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * All nodes are resolved in one pass over the index. Material kept in a
+     * separate store is read once per record in the order of the offsets,
+     * without fetching the nodes. All other nodes are fetched only once, in
+     * the order of the handles within the storage.
+     */
+    @Override
+    public byte[][] getRightMaterial(final long[] keys, final long[] versions) {
+        final long start = System.nanoTime();
+        try {
+            if (keys.length != versions.length) {
+                throw new IllegalArgumentException(new StringBuilder("Got ").append(keys.length).append(
+                    " keys but ").append(versions.length).append(" versions").toString());
+            }
+            final RightIndex.Entry[] entries = mIndex.getEntries(keys, versions);
+            final byte[][] returnval = new byte[keys.length][];
+
+            // sorting and deduplicating the offsets and the handles
+            final SortedSet<Long> uniqueOffsets = new TreeSet<Long>();
+            final SortedSet<HGPersistentHandle> uniqueHandles = new TreeSet<HGPersistentHandle>();
+            for (final RightIndex.Entry entry : entries) {
+                if (entry != null) {
+                    if (isExternal(entry)) {
+                        uniqueOffsets.add(entry.getSecretOffset());
+                    } else {
+                        uniqueHandles.add(entry.getHandle());
+                    }
+                }
+            }
+            final Map<Long, byte[]> records = new HashMap<Long, byte[]>(uniqueOffsets.size() * 2);
+            for (final Long offset : uniqueOffsets) {
+                records.put(offset, mStore.read(offset));
+            }
+            final Map<HGPersistentHandle, byte[]> material =
+                new HashMap<HGPersistentHandle, byte[]>(uniqueHandles.size() * 2);
+            for (final HGPersistentHandle handle : uniqueHandles) {
+                final Node node = (Node)mDB.get(handle);
+                if (node != null) {
+                    material.put(handle, node.getSecretKey());
+                }
+            }
+
+            // returning the material in the order of the input
+            for (int i = 0; i < entries.length; i++) {
+                if (entries[i] != null) {
+                    returnval[i] =
+                        isExternal(entries[i]) ? records.get(entries[i].getSecretOffset()) : material
+                            .get(entries[i].getHandle());
+                }
+            }
+            return returnval;
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.GET_RIGHT_MATERIAL);
+            throw exc;
+        } finally {
+            mMetrics.recordLatency(IMetricsRegistry.GET_RIGHT_MATERIAL, System.nanoTime() - start);
+        }
+    }
+
+    // ///////////////////////////////////////////////
+    // END: Getting nodes
+    // ///////////////////////////////////////////////
+
+    /**
+     * Removing a node including all accessing rights denoted by incident edges.
+     * All incident edges are adapted within one pass and one transaction: the
+     * node is removed from the tail or head of each edge, edges with an empty
+     * tail or head are removed. An edge whose remaining head equals the head
+     * of another edge is merged into that edge.
+     * 
+     * @param paramNode
+     *            to be removed
+     * @return statistics of the removal
+     */
+    public RemovalResult removeRight(final Node paramNode) {
+        final long start = System.nanoTime();
+        final ChangeFeed feed = lockFeed();
+        try {
+            // Getting the handle first
+            final RightIndex.Entry entry = mIndex.getEntry(paramNode.getKey(), paramNode.getVersion());
+
+            // if no handle can be found, return
+            if (entry == null) {
+                return new RemovalResult(false, 0, 0, System.nanoTime() - start);
+            }
+            final HGHandle handle = entry.getHandle();
+
+            // all nodes which might reach the node to be removed
+            final Set<HGHandle> touched = new HashSet<HGHandle>();
+            // all modified edges
+            final Map<HGHandle, EdgeEdit> edits = new LinkedHashMap<HGHandle, EdgeEdit>();
+            mDB.getTransactionManager().transact(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    // the transaction might be repeated on conflicts
+                    touched.clear();
+                    edits.clear();
+                    touched.add(handle);
+                    removeIncidentEdges(handle, edits, touched);
+                    getHGDB().remove(handle);
+                    return null;
+                }
+            });
+
+            // updating the indices once the transaction is committed
+            int updated = 0;
+            int removed = 0;
+            for (final EdgeEdit edit : edits.values()) {
+                if (edit.mRemoved) {
+                    mHeadIndex.remove(edit.mOldHead);
+                    removed++;
+                } else {
+                    if (!edit.mHead.equals(edit.mOldHead)) {
+                        mHeadIndex.remove(edit.mOldHead);
+                        mHeadIndex.put(edit.mHead, edit.mHandle);
+                    }
+                    updated++;
+                }
+                linkChanged(edit.mHandle);
+            }
+            mIndex.remove(paramNode.getKey(), paramNode.getVersion());
+            if (isExternal(entry)) {
+                mStore.remove(entry.getSecretOffset());
+            }
+            adaptDescendants(touched);
+            final ReachabilityIndex reachability = mReachability;
+            if (reachability != null) {
+                reachability.removeNode(handle);
+                rebuildIfStale(reachability);
+            }
+            for (final IRightListener listener : mListeners) {
+                listener.rightRemoved(handle, paramNode);
+            }
+            if (feed != null) {
+                feed.nodeChanged(ChangeEvent.Type.NODE_REMOVED, getHGDB().getPersistentHandle(handle),
+                    paramNode.getKey(), paramNode.getVersion(), paramNode.getKey(), paramNode.getVersion());
+            }
+            final RemovalResult result = new RemovalResult(true, updated, removed, System.nanoTime() - start);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Removed node " + paramNode + ": " + result);
+            }
+            return result;
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.REMOVE_RIGHT);
+            throw exc;
+        } finally {
+            unlockFeed(feed);
+            mMetrics.recordLatency(IMetricsRegistry.REMOVE_RIGHT, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Removing a node from all incident edges and writing the modified edges.
+     * 
+     * @param handle
+     *            of the node to be removed
+     * @param edits
+     *            to be filled with the modified edges
+     * @param touched
+     *            to be filled with the tails of the modified edges
+     */
+    private void removeIncidentEdges(final HGHandle handle, final Map<HGHandle, EdgeEdit> edits,
+        final Set<HGHandle> touched) {
+        // Getting all edges pointing to or from the node to be removed and
+        // removing the node in memory
+        final Map<Set<HGHandle>, EdgeEdit> editsByHead = new HashMap<Set<HGHandle>, EdgeEdit>();
+        final List<HGHandle> edges = hg.findAll(getHGDB(), hg.incident(handle));
+        for (final HGHandle edgeHandle : edges) {
+            final EdgeEdit edit = new EdgeEdit(edgeHandle, (HGBergeLink)getHGDB().get(edgeHandle));
+            touched.addAll(edit.mTail);
+            // link either comes from the node or goes to a node, if a link is
+            // neither coming from a node nor going to one, it must be an
+            // error.
+            final boolean fromNode = edit.mTail.remove(handle);
+            final boolean toNode = edit.mHead.remove(handle);
+            if (!fromNode && !toNode) {
+                throw new IllegalStateException("Link must either come from that node or go to that node");
+            }
+            edits.put(edgeHandle, edit);
+            editsByHead.put(edit.mOldHead, edit);
+        }
+
+        // merging edges whose remaining head is the head of another edge
+        for (final EdgeEdit edit : new ArrayList<EdgeEdit>(edits.values())) {
+            if (edit.mHead.equals(edit.mOldHead) || edit.mHead.isEmpty() || edit.mTail.isEmpty()) {
+                continue;
+            }
+            EdgeEdit target = editsByHead.get(edit.mHead);
+            if (target == null) {
+                final HGHandle targetHandle = findEdgeWithinTransaction(edit.mHead);
+                if (targetHandle != null) {
+                    target = new EdgeEdit(targetHandle, (HGBergeLink)getHGDB().get(targetHandle));
+                    edits.put(targetHandle, target);
+                    editsByHead.put(target.mOldHead, target);
+                }
+            }
+            if (target != null) {
+                target.mTail.addAll(edit.mTail);
+                edit.mTail.clear();
+            }
+        }
+
+        // writing the edges once
+        for (final EdgeEdit edit : edits.values()) {
+            if (edit.mHead.isEmpty() || edit.mTail.isEmpty()) {
+                edit.mRemoved = true;
+                getHGDB().remove(edit.mHandle);
+            } else {
+                edit.mLink.setHead(edit.mHead.toArray(new HGHandle[edit.mHead.size()]));
+                edit.mLink.setTail(edit.mTail.toArray(new HGHandle[edit.mTail.size()]));
+                getHGDB().replace(edit.mHandle, edit.mLink);
+            }
+        }
+    }
+
+    /**
+     * The given method activates a right binding the denoted parents with the
+     * denoted children. An existing right covering the fitting children set is
+     * removed to tail down the database.
+     * 
+     * @param parents
+     *            the clients gaining the right
+     * @param children
+     *            the groups, providing the right
+     * @return true if a new edge is inserted, false if nothing or an update
+     *         occurs
+     */
+    public boolean activateRight(final Set<HGHandle> parents, final Set<HGHandle> children) {
+        final long start = System.nanoTime();
+        final ChangeFeed feed = lockFeed();
+        try {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Activate link for parents " + parents + " and children " + children);
+            }
+
+            // Getting the handle of an existing link if present
+            HGHandle handle = findExactEdge(children);
+
+            // an existing granted right was localized -> check the parents and
+            // adapt
+            if (handle != null) {
+                HGBergeLink link = (HGBergeLink)getHGDB().get(handle);
+                Set<HGHandle> parentSet = link.getTail();
+                // right is already activated -> just exit since right is already
+                // granted
+                if (parentSet.containsAll(parents)) {
+                    LOGGER.debug("no update necessary");
+                    return false;
+                } // right is existing, adapt right by inserting the new parents
+                else {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("update necessary: replaced handle " + handle);
+                    }
+                    parentSet.addAll(parents);
+                    link.setTail(parentSet.toArray(new HGHandle[parentSet.size()]));
+                    getHGDB().replace(handle, link);
+                    linkChanged(handle);
+                    adaptDescendants(parents);
+                    grantLabels(parents, children);
+                    publishRight(feed, ChangeEvent.Type.RIGHT_ACTIVATED, parents, children);
+                    return false;
+                }
+            } else {
+                HGBergeLink link =
+                    new HGBergeLink(children.toArray(new HGHandle[children.size()]), parents
+                        .toArray(new HGHandle[parents.size()]));
+                final HGHandle newHandle = getHGDB().add(link);
+                mHeadIndex.put(children, newHandle);
+                linkChanged(newHandle);
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("New Insert: inserted handle " + link);
+                }
+                adaptDescendants(parents);
+                grantLabels(parents, children);
+                publishRight(feed, ChangeEvent.Type.RIGHT_ACTIVATED, parents, children);
+                return true;
+            }
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.ACTIVATE_RIGHT);
+            throw exc;
+        } finally {
+            unlockFeed(feed);
+            mMetrics.recordLatency(IMetricsRegistry.ACTIVATE_RIGHT, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * The given method activates a right binding the denoted parents with the
+     * denoted children. An existing right covering the fitting children set is
+     * removed to tail down the database. Either the link is adapted to contain
+     * not the related children any more for the denoted parents or the link is
+     * entirely removed if the current link only contains the denoted parents.
+     * 
+     * @param parents
+     *            the clients gaining the right
+     * @param children
+     *            the groups, providing the right
+     * @return true if an edge is removed, if an existing edge is adapted or no
+     *         edge is found, false
+     */
+    public boolean deactivateRight(final Set<HGHandle> parents, final Set<HGHandle> children) {
+        final long start = System.nanoTime();
+        final ChangeFeed feed = lockFeed();
+        try {
+
+            HGHandle handle = findExactEdge(children);
+
+            if (handle != null) {
+                HGBergeLink link = (HGBergeLink)getHGDB().get(handle);
+                // right is already activated -> remove all parents, part by part
+                Set<HGHandle> parentSet = link.getTail();
+                if (!parentSet.removeAll(parents)) {
+                    // none of the parents holds the right
+                    return false;
+                }
+                // if tail is empty, remove the entire link, otherwise adapt
+                // existing link
+                if (parentSet.size() > 0) {
+                    link.setTail(parentSet.toArray(new HGHandle[parentSet.size()]));
+                    getHGDB().replace(handle, link);
+                    linkChanged(handle);
+                    adaptDescendants(parents);
+                    revokeLabels(parents, children);
+                    publishRight(feed, ChangeEvent.Type.RIGHT_DEACTIVATED, parents, children);
+                    return false;
+                } else {
+                    getHGDB().remove(handle);
+                    mHeadIndex.remove(children);
+                    linkChanged(handle);
+                    adaptDescendants(parents);
+                    revokeLabels(parents, children);
+                    publishRight(feed, ChangeEvent.Type.RIGHT_DEACTIVATED, parents, children);
+                    return true;
+                }
+            } else {
+                return false;
+            }
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.DEACTIVATE_RIGHT);
+            throw exc;
+        } finally {
+            unlockFeed(feed);
+            mMetrics.recordLatency(IMetricsRegistry.DEACTIVATE_RIGHT, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Applying a batch of grants and revocations within one transaction.
+     * Operations sharing the same set of children are merged in memory, each
+     * affected edge is written at most once. The result of each operation
+     * equals the result of applying the operations one by one with
+     * {@link #activateRight(Set, Set)} and {@link #deactivateRight(Set, Set)}.
+     * 
+     * @param operations
+     *            to be applied in the given order
+     * @return the results of the operations in the order of the input
+     */
+    public boolean[] applyRights(final List<RightOperation> operations) {
+        final long start = System.nanoTime();
+        final ChangeFeed feed = lockFeed();
+        try {
+            // grouping the operations by the children, keeping the order within
+            // each group
+            final Map<Set<HGHandle>, List<Integer>> groups =
+                new LinkedHashMap<Set<HGHandle>, List<Integer>>();
+            for (int i = 0; i < operations.size(); i++) {
+                final Set<HGHandle> children = operations.get(i).getChildren();
+                List<Integer> group = groups.get(children);
+                if (group == null) {
+                    group = new ArrayList<Integer>();
+                    groups.put(children, group);
+                }
+                group.add(i);
+            }
+            // resolving the edges before the transaction, storing them in the
+            // head set index
+            for (final Set<HGHandle> children : groups.keySet()) {
+                findExactEdge(children);
+            }
+
+            final boolean[] returnval = new boolean[operations.size()];
+            // operations modifying an edge, all others are not published
+            final boolean[] changed = new boolean[operations.size()];
+            final List<Pair<Set<HGHandle>, HGHandle>> added = new ArrayList<Pair<Set<HGHandle>, HGHandle>>();
+            final List<Set<HGHandle>> removed = new ArrayList<Set<HGHandle>>();
+            final List<HGHandle> written = new ArrayList<HGHandle>();
+            mDB.getTransactionManager().transact(new Callable<Object>() {
+                @Override
+                public Object call() throws Exception {
+                    // the transaction might be repeated on conflicts
+                    Arrays.fill(returnval, false);
+                    Arrays.fill(changed, false);
+                    added.clear();
+                    removed.clear();
+                    written.clear();
+                    for (final Map.Entry<Set<HGHandle>, List<Integer>> group : groups.entrySet()) {
+                        applyGroup(group.getKey(), group.getValue(), operations, returnval, changed, added,
+                            removed, written);
+                    }
+                    return null;
+                }
+            });
+
+            // updating the indices once the transaction is committed
+            for (final Set<HGHandle> head : removed) {
+                mHeadIndex.remove(head);
+            }
+            for (final Pair<Set<HGHandle>, HGHandle> head : added) {
+                mHeadIndex.put(head.getFirst(), head.getSecond());
+            }
+            for (final HGHandle handle : written) {
+                linkChanged(handle);
+            }
+            // operations without effect neither touch the cache nor the labels
+            final Set<HGHandle> touched = new HashSet<HGHandle>();
+            for (int i = 0; i < operations.size(); i++) {
+                if (changed[i]) {
+                    touched.addAll(operations.get(i).getParents());
+                }
+            }
+            adaptDescendants(touched);
+            final ReachabilityIndex reachability = mReachability;
+            if (reachability != null && !touched.isEmpty()) {
+                for (int i = 0; i < operations.size(); i++) {
+                    if (!changed[i]) {
+                        continue;
+                    }
+                    final RightOperation operation = operations.get(i);
+                    if (operation.isGrant()) {
+                        reachability.addEdges(operation.getParents(), operation.getChildren());
+                    } else {
+                        reachability.removeEdges(operation.getParents(), operation.getChildren());
+                    }
+                }
+                rebuildIfStale(reachability);
+            }
+            for (int i = 0; i < operations.size(); i++) {
+                if (changed[i]) {
+                    final RightOperation operation = operations.get(i);
+                    publishRight(feed, operation.isGrant() ? ChangeEvent.Type.RIGHT_ACTIVATED
+                        : ChangeEvent.Type.RIGHT_DEACTIVATED, operation.getParents(), operation
+                        .getChildren());
+                }
+            }
+            return returnval;
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.APPLY_RIGHTS);
+            throw exc;
+        } finally {
+            unlockFeed(feed);
+            mMetrics.recordLatency(IMetricsRegistry.APPLY_RIGHTS, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Applying all operations sharing one set of children. The tail of the
+     * related edge is modified in memory and written once at the end.
+     * 
+     * @param children
+     *            shared by the operations
+     * @param positions
+     *            of the operations within the batch
+     * @param operations
+     *            of the batch
+     * @param results
+     *            of the batch to be set
+     * @param changed
+     *            to be set for each operation modifying the edge
+     * @param added
+     *            to be filled with the heads and handles of inserted edges
+     * @param removed
+     *            to be filled with the heads of removed edges
+     * @param written
+     *            to be filled with the handles of inserted, modified and
+     *            removed edges
+     */
+    private void applyGroup(final Set<HGHandle> children, final List<Integer> positions,
+        final List<RightOperation> operations, final boolean[] results, final boolean[] changed,
+        final List<Pair<Set<HGHandle>, HGHandle>> added, final List<Set<HGHandle>> removed,
+        final List<HGHandle> written) {
+        final HGHandle handle = findEdgeWithinTransaction(children);
+        final HGBergeLink link = handle == null ? null : (HGBergeLink)getHGDB().get(handle);
+        // current tail, null if no edge is present
+        Set<HGHandle> tail = link == null ? null : new HashSet<HGHandle>(link.getTail());
+        boolean modified = false;
+        for (final int position : positions) {
+            final RightOperation operation = operations.get(position);
+            if (operation.isGrant()) {
+                if (tail == null) {
+                    tail = new HashSet<HGHandle>(operation.getParents());
+                    results[position] = true;
+                    changed[position] = true;
+                } else if (!tail.containsAll(operation.getParents())) {
+                    tail.addAll(operation.getParents());
+                    changed[position] = true;
+                }
+            } else if (tail != null) {
+                changed[position] = tail.removeAll(operation.getParents());
+                if (tail.size() == 0) {
+                    tail = null;
+                    results[position] = true;
+                }
+            }
+            modified |= changed[position];
+        }
+        if (!modified) {
+            return;
+        }
+
+        // writing the edge once
+        if (link == null) {
+            if (tail != null) {
+                final HGHandle newHandle =
+                    getHGDB().add(
+                        new HGBergeLink(children.toArray(new HGHandle[children.size()]), tail
+                            .toArray(new HGHandle[tail.size()])));
+                added.add(new Pair<Set<HGHandle>, HGHandle>(children, newHandle));
+                written.add(newHandle);
+            }
+        } else if (tail == null) {
+            getHGDB().remove(handle);
+            removed.add(children);
+            written.add(handle);
+        } else if (!tail.equals(link.getTail())) {
+            link.setTail(tail.toArray(new HGHandle[tail.size()]));
+            getHGDB().replace(handle, link);
+            written.add(handle);
+        }
+    }
+
+    // private String testNodes(final HGHandle handle) {
+    // HGBergeLink link = (HGBergeLink)getHGDB().get(handle);
+    // final StringBuilder returnval = new StringBuilder();
+    // for (final HGHandle tmpHand : link.getHead()) {
+    // Node node = getHGDB().get(tmpHand);
+    // returnval.append(node);
+    // returnval.append("\n");
+    // }
+    // returnval.append("\n");
+    // for (final HGHandle tmpHand : link.getTail()) {
+    // Node node = getHGDB().get(tmpHand);
+    // returnval.append(node);
+    // returnval.append("\n");
+    // }
+    // return returnval.toString();
+    // }
+
+    /**
+     * Getting all descendants of one root. If a descendant cache is set, the
+     * result is served from and stored in the cache.
+     * 
+     * @param root
+     *            handle to start
+     * @return an unmodifiable set of all handles reachable from the root
+     */
+    public Set<HGHandle> getDescendants(final HGHandle root) {
+        final long start = System.nanoTime();
+        try {
+            final Set<HGHandle> roots = new HashSet<HGHandle>();
+            roots.add(root);
+            final DescendantCache cache = mDescendantCache;
+            if (cache == null) {
+                return Collections.unmodifiableSet(traverse(roots, NOOP_LISTENER));
+            }
+            Set<HGHandle> returnval = cache.get(root);
+            if (returnval == null) {
+                final long generation = cache.getGeneration();
+                returnval = cache.put(root, traverse(roots, NOOP_LISTENER), generation);
+            }
+            return returnval;
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.GET_DESCENDANTS);
+            throw exc;
+        } finally {
+            mMetrics.recordLatency(IMetricsRegistry.GET_DESCENDANTS, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Iterating lazily over all handles reachable from the start handles in
+     * breadth-first order. The children of a handle are fetched only when the
+     * iterator needs them, stopping the iteration early therefore saves the
+     * fetching of the remaining subgraph. No descendant cache is used.
+     * 
+     * @param handles
+     *            handles to start, only returned if reached again
+     * @param filter
+     *            deciding which reached handles are expanded, null for
+     *            expanding all handles
+     * @return an iterator over the reachable handles, each returned once
+     */
+    public Iterator<HGHandle> iterateDescendants(final Set<HGHandle> handles,
+        final IDescendantFilter filter) {
+        return new DescendantIterator(this, handles, filter);
+    }
+
+    /**
+     * Checking if a node is reachable from a user, equalling the membership
+     * of the node within the descendants of the user.
+     * 
+     * @param user
+     *            handle to start
+     * @param key
+     *            of the node to be reached
+     * @param version
+     *            of the node to be reached
+     * @return true if the node exists and is reachable, false otherwise
+     * @see #findAccessPath(HGHandle, long, long)
+     */
+    public boolean canAccess(final HGHandle user, final long key, final long version) {
+        return findAccessPath(user, key, version) != null;
+    }
+
+    /**
+     * Searching a path from a user to a node. The search runs forward over
+     * the children of the user and backward over the parents of the node,
+     * always expanding the smaller frontier by one level, and stops as soon
+     * as both searches meet. Both searches together usually visit far fewer
+     * handles than all descendants of the user. The path serves for auditing
+     * a granted access. If reachability labels are set, most denials are
+     * answered by the labels without any search, otherwise the labels prune
+     * the handles which cannot lie on a path.
+     * 
+     * @param user
+     *            handle to start
+     * @param key
+     *            of the node to be reached
+     * @param version
+     *            of the node to be reached
+     * @return the handles of a path, starting with the user and
+     *         ending with the node, null if the node does not exist or is
+     *         not reachable
+     */
+    public List<HGHandle> findAccessPath(final HGHandle user, final long key, final long version) {
+        final long start = System.nanoTime();
+        try {
+            final HGHandle target = mIndex.get(key, version);
+            if (target == null) {
+                return null;
+            }
+            final ReachabilityIndex reachability = mReachability;
+            if (reachability != null && !reachability.mayReach(user, target)) {
+                return null;
+            }
+            return searchPath(user, target, reachability);
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.CAN_ACCESS);
+            throw exc;
+        } finally {
+            mMetrics.recordLatency(IMetricsRegistry.CAN_ACCESS, System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Performing the bidirectional search of
+     * {@link #findAccessPath(HGHandle, long, long)}.
+     * 
+     * @param user
+     *            handle to start
+     * @param target
+     *            handle to be reached
+     * @param reachability
+     *            labels pruning the search, might be null
+     * @return the handles of a path, null if not reachable
+     */
+    private List<HGHandle> searchPath(final HGHandle user, final HGHandle target,
+        final ReachabilityIndex reachability) {
+        // handles reached forward mapped to their predecessor, backward to
+        // their successor towards the target
+        final Map<HGHandle, HGHandle> forward = new HashMap<HGHandle, HGHandle>();
+        final Map<HGHandle, HGHandle> backward = new HashMap<HGHandle, HGHandle>();
+        forward.put(user, null);
+        backward.put(target, null);
+        List<HGHandle> forwardLevel = new ArrayList<HGHandle>(Arrays.asList(user));
+        List<HGHandle> backwardLevel = new ArrayList<HGHandle>(Arrays.asList(target));
+        int levels = 0;
+        try {
+            while (!forwardLevel.isEmpty() && !backwardLevel.isEmpty()) {
+                levels++;
+                final List<HGHandle> nextLevel = new ArrayList<HGHandle>();
+                if (forwardLevel.size() <= backwardLevel.size()) {
+                    for (final HGHandle handle : forwardLevel) {
+                        for (final HGHandle child : getAllChildren(handle)) {
+                            // checked before the visited test: the user might be the target
+                            if (backward.containsKey(child)) {
+                                return joinPath(forward, handle, backward, child);
+                            }
+                            // skipping children which cannot lead to the target
+                            if (!forward.containsKey(child)
+                                && (reachability == null || reachability.mayReach(child, target))) {
+                                forward.put(child, handle);
+                                nextLevel.add(child);
+                            }
+                        }
+                    }
+                    forwardLevel = nextLevel;
+                } else {
+                    for (final HGHandle handle : backwardLevel) {
+                        for (final HGHandle parent : getAllParents(handle)) {
+                            if (forward.containsKey(parent)) {
+                                return joinPath(forward, parent, backward, handle);
+                            }
+                            if (!backward.containsKey(parent)
+                                && (reachability == null || reachability.mayReach(user, parent))) {
+                                backward.put(parent, handle);
+                                nextLevel.add(parent);
+                            }
+                        }
+                    }
+                    backwardLevel = nextLevel;
+                }
+            }
+            return null;
+        } finally {
+            mMetrics.incrementCounter(IMetricsRegistry.TRAVERSAL_LEVELS, levels);
+            mMetrics.incrementCounter(IMetricsRegistry.TRAVERSAL_NODES, forward.size() + backward.size());
+        }
+    }
+
     /**
-     * Getting a handler instance
+     * Joining the halves of a path found by
+     * {@link #searchPath(HGHandle, HGHandle, ReachabilityIndex)}.
      * 
-     * @param paramDB
-     *            the db to be set
+     * @param forward
+     *            handles reached forward mapped to their predecessor
+     * @param last
+     *            handle reached forward, parent of the first backward handle
+     * @param backward
+     *            handles reached backward mapped to their successor
+     * @param first
+     *            handle reached backward, child of the last forward handle
+     * @return the path from the user to the target
      */
-    public HGHandler(final HyperGraph paramDB) {
-        mDB = paramDB;
-        HGHandle handle = mDB.getTypeSystem().getTypeHandle(Node.class);
-        final HGKeyIndexer[] indices = new HGKeyIndexer[2];
-        indices[0] = new ByPartIndexer(handle, "key");
-        indices[1] = new ByPartIndexer(handle, "version");
-        mDB.getIndexManager().register(new CompositeIndexer(handle, indices));
-        LOGGER.debug("Initializing with db " + paramDB);
+    private static List<HGHandle> joinPath(final Map<HGHandle, HGHandle> forward, final HGHandle last,
+        final Map<HGHandle, HGHandle> backward, final HGHandle first) {
+        final List<HGHandle> returnval = new ArrayList<HGHandle>();
+        for (HGHandle handle = last; handle != null; handle = forward.get(handle)) {
+            returnval.add(handle);
+        }
+        Collections.reverse(returnval);
+        for (HGHandle handle = first; handle != null; handle = backward.get(handle)) {
+            returnval.add(handle);
+        }
+        return returnval;
     }
 
     /**
-     * Adding a new node to the db, this includes NOT the adding of any rights
-     * related to the new node.
+     * Setting the cache for the descendants of single roots.
      * 
-     * @param paramNodes
-     *            to be added
-     * @return the related handle to that node
+     * @param paramCache
+     *            the cache, null if no cache should be used
      */
-    public HGHandle[] addRight(final Node... paramNodes) {
-        // Inserting node
-        HGHandle[] handles = new HGHandle[paramNodes.length];
-        int i = 0;
-        for (Node node : paramNodes) {
-            handles[i] = getHGDB().add(node);
-            i++;
-            LOGGER.debug("Adding at index " + i + " from " + paramNodes.length + " node " + node);
-        }
-        mDB.runMaintenance();
-        return handles;
+    public void setDescendantCache(final DescendantCache paramCache) {
+        mDescendantCache = paramCache;
     }
 
-    // ///////////////////////////////////////////////
-    // START: Getting nodes
-    // ///////////////////////////////////////////////
     /**
-     * Getting a node for a given key and version
+     * Setting the feed publishing all modifications of this handler. While a
+     * feed is set, the modifications are serialized by the lock of the feed.
+     * The feed should therefore be set before the handler is modified.
      * 
-     * @param key
-     *            to be searched for
-     * @param version
-     *            to be searched for
-     * @return a related Node
+     * @param paramFeed
+     *            the feed, null if no modifications should be published
      */
-    public HGHandle getRightHandle(final long key, final long version) {
-        final List<HGHandle> resultset =
-            hg.findAll(mDB, hg.and(hg.type(Node.class), hg.eq("version", version), hg.eq("key", key)));
+    public void setChangeFeed(final ChangeFeed paramFeed) {
+        mFeed = paramFeed;
+    }
 
-        switch (resultset.size()) {
-        case 0:
-            return null;
-        case 1:
-            LOGGER
-                .debug("Getting handle " + resultset.get(0) + " for key " + key + " and version " + version);
-            return resultset.get(0);
-        default:
-            throw new IllegalStateException(new StringBuilder("Resultset should only be one but is ").append(
-                resultset.size()).append(" and contains the following elements: ").append(
-                resultset.toString()).toString());
+    /**
+     * Setting the reachability labels answering negative access checks
+     * without a search. The labels are built from the db and maintained by
+     * all modifications of this handler afterwards.
+     * 
+     * @param paramIndex
+     *            the labels, null if no labels should be used
+     */
+    public void setReachabilityIndex(final ReachabilityIndex paramIndex) {
+        if (paramIndex != null) {
+            paramIndex.rebuild(mDB);
         }
+        mReachability = paramIndex;
     }
 
     /**
-     * Getting concrete node
+     * Iterating over all handles breadth-first. Each level is expanded in
+     * parallel by splitting the handles of the level in chunks, processed by
+     * the executor of this handler. After each level, the listener is
+     * informed about the children reached first on this level and might stop
+     * the traversal.
      * 
-     * @param handle
-     *            pointing to the node, most probably
-     * @return the node
+     * @param handles
+     *            a set of handles to start
+     * @param listener
+     *            to register for updates
+     * @return all handles reachable from the start handles, only the handles
+     *         reached until the listener stopped the traversal otherwise
      */
-    public Node getRight(final HGHandle handle) {
-        Node node = mDB.get(handle);
-        LOGGER.debug("Getting node" + node);
-        return node;
+    public Set<HGHandle> getDescendants(final Set<HGHandle> handles, final IHandlerListener listener) {
+        final long start = System.nanoTime();
+        try {
+            return traverse(handles, listener);
+        } catch (final RuntimeException exc) {
+            mMetrics.recordError(IMetricsRegistry.GET_DESCENDANTS);
+            throw exc;
+        } finally {
+            mMetrics.recordLatency(IMetricsRegistry.GET_DESCENDANTS, System.nanoTime() - start);
+        }
     }
 
     /**
-     * Getting concrete node
+     * Performing the traversal of {@link #getDescendants(Set, IHandlerListener)}.
      * 
-     * @param handle
-     *            pointing to the node, most probably
-     * @return the node
+     * @param handles
+     *            a set of handles to start
+     * @param listener
+     *            to register for updates
+     * @return all handles reachable from the start handles
      */
-    public Node getRight(final long key, final long version) {
-        final HGHandle handle = getRightHandle(key, version);
-        return mDB.get(handle);
+    private Set<HGHandle> traverse(final Set<HGHandle> handles, final IHandlerListener listener) {
+        // concurrent set, serving as visited set for all tasks
+        final Set<HGHandle> resultSet = Collections.newSetFromMap(new ConcurrentHashMap<HGHandle, Boolean>());
+
+        // init of handles per level
+        List<HGHandle> returnValsOfOneLevel = new ArrayList<HGHandle>(handles);
+        int levels = 0;
+        // while new nodes are reached,...
+        while (returnValsOfOneLevel.size() > 0) {
+            // ...the level is split in chunks, each chunk expanded by one task
+            final int chunkSize =
+                Math.max(MIN_CHUNK_SIZE, returnValsOfOneLevel.size() / (PARALLELISM * CHUNKS_PER_THREAD) + 1);
+            final List<Future<List<HGHandle>>> returnVals = new ArrayList<Future<List<HGHandle>>>();
+            for (int i = chunkSize; i < returnValsOfOneLevel.size(); i += chunkSize) {
+                final List<HGHandle> chunk =
+                    returnValsOfOneLevel.subList(i, Math.min(i + chunkSize, returnValsOfOneLevel.size()));
+                returnVals.add(mExecutor.submit(new Callable<List<HGHandle>>() {
+                    @Override
+                    public List<HGHandle> call() throws Exception {
+                        return expand(chunk, resultSet);
+                    }
+                }));
+            }
+            // the first chunk is expanded by the calling thread itself
+            final List<HGHandle> nextLevel =
+                expand(returnValsOfOneLevel.subList(0, Math.min(chunkSize, returnValsOfOneLevel.size())),
+                    resultSet);
+            // receiving the futures
+            for (final Future<List<HGHandle>> future : returnVals) {
+                try {
+                    nextLevel.addAll(future.get());
+                } catch (final InterruptedException exc) {
+                    LOGGER.error(exc.toString());
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException(exc);
+                } catch (final ExecutionException exc) {
+                    LOGGER.error(exc.toString());
+                    throw new IllegalStateException(exc.getCause());
+                }
+            }
+            returnValsOfOneLevel = nextLevel;
+            levels++;
+            if (listener.touchedChildren(new HashSet<HGHandle>(returnValsOfOneLevel))) {
+                break;
+            }
+        }
+        mMetrics.incrementCounter(IMetricsRegistry.TRAVERSAL_LEVELS, levels);
+        mMetrics.incrementCounter(IMetricsRegistry.TRAVERSAL_NODES, resultSet.size());
+        return resultSet;
     }
 
     /**
-     * {@inheritDoc}
+     * Expanding the handles of one chunk.
+     * 
+     * @param chunk
+     *            handles to be expanded
+     * @param visited
+     *            concurrent set of all handles reached so far
+     * @return the children of the chunk which are reached the first time
      */
-    @Override
-    public byte[] getRightMaterial(final long key, final long version) {
-        final Node node = getRight(key, version);
-        return node.getSecretKey();
+    private List<HGHandle> expand(final List<HGHandle> chunk, final Set<HGHandle> visited) {
+        final List<HGHandle> returnval = new ArrayList<HGHandle>();
+        for (final HGHandle handle : chunk) {
+            for (final HGHandle child : getAllChildren(handle)) {
+                // only the first task reaching a child adds it to the next level
+                if (visited.add(child)) {
+                    returnval.add(child);
+                }
+            }
+        }
+        return returnval;
     }
 
-    // ///////////////////////////////////////////////
-    // END: Getting nodes
-    // ///////////////////////////////////////////////
-
     /**
-     * Removing a node including all accessing rights denoted by incident edges.
+     * Informing derived structures about modified links.
      * 
-     * @param paramNode
+     * @param touched
+     *            handles which are part of the tails of modified links
      */
-    public void removeRight(final Node paramNode) {
-        // Getting the handle first
-        final HGHandle handle = getHGDB().getHandle(paramNode);
-
-        // if no handle can be found, return
-        if (handle == null) {
-            return;
+    private void adaptDescendants(final Collection<HGHandle> touched) {
+        final DescendantCache cache = mDescendantCache;
+        if (cache != null) {
+            cache.invalidate(touched);
         }
+    }
 
-        // Getting all nodes pointing to or from the node to be removed
-        List<Object> edges = hg.getAll(getHGDB(), hg.incident(handle));
-        for (int i = 0; i < edges.size(); i++) {
-            HGBergeLink link = (HGBergeLink)edges.get(i);
-            // link either comes from the node...
-            if (link.getTail().contains(handle)) {
-                final Set<HGHandle> parents = link.getTail();
-                parents.remove(handle);
-                deactivateRight(parents, link.getHead());
-            } // or goes to a node
-            else if (link.getHead().contains(handle)) {
-                final Set<HGHandle> children = link.getHead();
-                children.remove(handle);
-                deactivateRight(link.getTail(), children);
-            } // if a link is neither coming from a node nor going to one, it
-              // must be an error.
-            else {
-                throw new IllegalStateException("Link must either come from that node or go to that node");
-            }
+    /**
+     * Informing the link listeners about a committed modification of a link.
+     * 
+     * @param handle
+     *            of the inserted, modified or removed link
+     */
+    private void linkChanged(final HGHandle handle) {
+        for (final ILinkListener listener : mLinkListeners) {
+            listener.linkChanged(handle);
         }
-        getHGDB().remove(handle);
     }
 
     /**
-     * The given method activates a right binding the denoted parents with the
-     * denoted children. An existing right covering the fitting children set is
-     * removed to tail down the database.
+     * Informing the reachability labels about a granted right.
      * 
      * @param parents
-     *            the clients gaining the right
+     *            gaining the right
      * @param children
-     *            the groups, providing the right
-     * @return true if a new edge is inserted, false if nothing or an update
-     *         occurs
+     *            providing the right
      */
-    public boolean activateRight(final Set<HGHandle> parents, final Set<HGHandle> children) {
-        LOGGER.debug("Activate link for parents " + parents + " and children " + children);
-
-        // Getting the handle of an existing link if present
-        HGHandle handle = findExactEdge(children);
-
-        // an existing granted right was localized -> check the parents and
-        // adapt
-        if (handle != null) {
-            HGBergeLink link = (HGBergeLink)getHGDB().get(handle);
-            Set<HGHandle> parentSet = link.getTail();
-            // right is already activated -> just exit since right is already
-            // granted
-            if (parentSet.containsAll(parents)) {
-                LOGGER.debug("no update necessary");
-                return false;
-            } // right is existing, adapt right by inserting the new parents
-            else {
-                LOGGER.debug("update necessary: replaced handle " + handle);
-                parentSet.addAll(parents);
-                link.setTail(parentSet.toArray(new HGHandle[parentSet.size()]));
-                getHGDB().replace(handle, link);
-                return false;
-            }
-        } else {
-            HGBergeLink link =
-                new HGBergeLink(children.toArray(new HGHandle[children.size()]), parents
-                    .toArray(new HGHandle[parents.size()]));
-            getHGDB().add(link);
-            LOGGER.debug("New Insert: inserted handle " + link);
-            return true;
+    private void grantLabels(final Set<HGHandle> parents, final Set<HGHandle> children) {
+        final ReachabilityIndex reachability = mReachability;
+        if (reachability != null) {
+            reachability.addEdges(parents, children);
         }
-
-        // adaptDescendants(children);
     }
 
     /**
-     * The given method activates a right binding the denoted parents with the
-     * denoted children. An existing right covering the fitting children set is
-     * removed to tail down the database. Either the link is adapted to contain
-     * not the related children any more for the denoted parents or the link is
-     * entirely removed if the current link only contains the denoted parents.
+     * Informing the reachability labels about a revoked right.
      * 
      * @param parents
-     *            the clients gaining the right
+     *            losing the right
      * @param children
-     *            the groups, providing the right
-     * @return true if an edge is removed, if an existing edge is adapted or no
-     *         edge is found, false
+     *            providing the right
      */
-    public boolean deactivateRight(final Set<HGHandle> parents, final Set<HGHandle> children) {
-
-        HGHandle handle = findExactEdge(children);
-
-        if (handle != null) {
-            HGBergeLink link = (HGBergeLink)getHGDB().get(handle);
-            // right is already activated -> remove all parents, part by part
-            Set<HGHandle> parentSet = link.getTail();
-            parentSet.removeAll(parents);
-            // if tail is empty, remove the entire link, otherwise adapt
-            // existing link
-            if (parentSet.size() > 0) {
-                link.setTail(parentSet.toArray(new HGHandle[parentSet.size()]));
-                getHGDB().replace(handle, link);
-                return false;
-            } else {
-                getHGDB().remove(handle);
-                return true;
-            }
-            // adaptDescendants(children);
-        } else {
-            return false;
+    private void revokeLabels(final Set<HGHandle> parents, final Set<HGHandle> children) {
+        final ReachabilityIndex reachability = mReachability;
+        if (reachability != null) {
+            reachability.removeEdges(parents, children);
+            rebuildIfStale(reachability);
         }
     }
 
-    // private String testNodes(final HGHandle handle) {
-    // HGBergeLink link = (HGBergeLink)getHGDB().get(handle);
-    // final StringBuilder returnval = new StringBuilder();
-    // for (final HGHandle tmpHand : link.getHead()) {
-    // Node node = getHGDB().get(tmpHand);
-    // returnval.append(node);
-    // returnval.append("\n");
-    // }
-    // returnval.append("\n");
-    // for (final HGHandle tmpHand : link.getTail()) {
-    // Node node = getHGDB().get(tmpHand);
-    // returnval.append(node);
-    // returnval.append("\n");
-    // }
-    // return returnval.toString();
-    // }
+    /**
+     * Publishing a modified right if a feed is set.
+     * 
+     * @param feed
+     *            locked by {@link #lockFeed()}, might be null
+     * @param type
+     *            of the modification
+     * @param parents
+     *            of the right
+     * @param children
+     *            of the right
+     */
+    private static void publishRight(final ChangeFeed feed, final ChangeEvent.Type type,
+        final Set<HGHandle> parents, final Set<HGHandle> children) {
+        if (feed != null) {
+            feed.rightChanged(type, parents, children);
+        }
+    }
 
     /**
-     * Iterating over all handles breadth-first. After each iteration, the
+     * Locking the feed if set. Modifications are performed from the commit
+     * until their events are published while holding the lock, the sequences
+     * of the events therefore follow the order of the commits.
      * 
-     * @param handles
-     *            a set of handles to start
-     * @param listener
-     *            to register for updates
-     * @param Method
-     *            to invoke within each iteration
+     * @return the feed, null if no feed is set
      */
-    public Set<HGHandle> getDescendants(final Set<HGHandle> handles, final IHandlerListener listener) {
-        // Threadpool for executing the iteration
-        final ExecutorService exec = Executors.newSingleThreadScheduledExecutor();
-        final Set<HGHandle> resultSet = new HashSet<HGHandle>();
-
-        // finishing variable...ensuring iteration until all levels are iterated
-        boolean finished = handles.size() == 0;
-        // init of handles per level;
-        Set<HGHandle> returnValsOfOneLevel = handles;
-        // while the finishing runs,...
-        while (!finished) {
-            final Set<Future<List<HGHandle>>> returnVals = new HashSet<Future<List<HGHandle>>>();
-            // ...all nodes are iterated based on the children only
-            for (final HGHandle handle : returnValsOfOneLevel) {
-                Callable<List<HGHandle>> call = new Callable<List<HGHandle>>() {
-                    @Override
-                    public List<HGHandle> call() throws Exception {
-                        return getAllChildren(handle);
-                    }
-                };
-                returnVals.add(exec.submit(call));
-            }
-            // init for the next iteration, dropping the old handles and storing the next children
-            returnValsOfOneLevel = new HashSet<HGHandle>();
-            // receiving the futures
-            for (final Future<List<HGHandle>> futures : returnVals) {
-                List<HGHandle> returnValsFromFuture = new ArrayList<HGHandle>();
-                try {
-                    returnValsFromFuture = futures.get();
-                } catch (InterruptedException e) {
-                    LOGGER.error(e.toString());
-                } catch (ExecutionException e) {
-                    LOGGER.error(e.toString());
-                }
+    private ChangeFeed lockFeed() {
+        final ChangeFeed feed = mFeed;
+        if (feed != null) {
+            feed.lock();
+        }
+        return feed;
+    }
 
-                // storing the children in a set, eliminating the duplicates
-                returnValsOfOneLevel.addAll(returnValsFromFuture);
-                // eliminating duplicates from already visited nodes. This can happen if the children are
-                // distributed over different levels
-                returnValsOfOneLevel.removeAll(resultSet);
-                // storing the children in the overall set
-                resultSet.addAll(returnValsFromFuture);
-            }
-            // see if there are new nodes to be evaluated
-            finished = returnValsOfOneLevel.size() == 0;
+    /**
+     * Unlocking a feed locked by {@link #lockFeed()}.
+     * 
+     * @param feed
+     *            the feed, might be null
+     */
+    private static void unlockFeed(final ChangeFeed feed) {
+        if (feed != null) {
+            feed.unlock();
+        }
+    }
 
-            listener.touchedChildren(returnValsOfOneLevel);
+    /**
+     * Rebuilding the reachability labels from the db once too many edges are
+     * revoked.
+     * 
+     * @param reachability
+     *            the labels
+     */
+    private void rebuildIfStale(final ReachabilityIndex reachability) {
+        if (reachability.isStale()) {
+            reachability.rebuild(mDB);
         }
-        exec.shutdown();
-        return resultSet;
     }
 
     /**
@@ -369,7 +1695,7 @@ public final class HGHandler implements IRightHandler {
      *            for a starting node
      * @return a list of handles representing the children
      */
-    private List<HGHandle> getAllChildren(final HGHandle handle) {
+    List<HGHandle> getAllChildren(final HGHandle handle) {
         List<HGHandle> returnval = new ArrayList<HGHandle>();
         // Getting all links containing the handle...
         List<HGHandle> handles = findSubsetEdges(new HashSet<HGHandle>(Arrays.asList(new HGHandle[] {
@@ -378,7 +1704,28 @@ public final class HGHandler implements IRightHandler {
         // ...and filtering against the children relationship
         for (HGHandle tmpHandle : handles) {
             HGBergeLink link = (HGBergeLink)getHGDB().get(tmpHandle);
-            returnval.addAll(link.getHead());
+            if (link.getTail().contains(handle)) {
+                returnval.addAll(link.getHead());
+            }
+        }
+        return returnval;
+    }
+
+    /**
+     * Getting all handles being parents of a handle, the counterpart of
+     * {@link #getAllChildren(HGHandle)}.
+     * 
+     * @param handle
+     *            for a starting node
+     * @return a list of handles representing the parents
+     */
+    List<HGHandle> getAllParents(final HGHandle handle) {
+        final List<HGHandle> returnval = new ArrayList<HGHandle>();
+        for (final HGHandle tmpHandle : findSubsetEdges(new HashSet<HGHandle>(Arrays.asList(handle)))) {
+            final HGBergeLink link = (HGBergeLink)getHGDB().get(tmpHandle);
+            if (link.getHead().contains(handle)) {
+                returnval.addAll(link.getTail());
+            }
         }
         return returnval;
     }
@@ -401,7 +1748,9 @@ public final class HGHandler implements IRightHandler {
             // subsets.
             handles = hg.findAll(getHGDB(), hg.link(children));
 
-            LOGGER.debug("Found handles " + handles);
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Found handles " + handles);
+            }
         } catch (final RuntimeException exc) {
             handles = new ArrayList<HGHandle>();
             LOGGER.debug("Found no handles");
@@ -412,33 +1761,199 @@ public final class HGHandler implements IRightHandler {
     /**
      * Get a possible hyperedge containing all children, the size must be one
      * since there should be only one edge representing one granted right for
-     * one fixed set of children.
+     * one fixed set of children. The edge is resolved over the head set index
+     * without loading any edge once the head set is contained in the index.
+     * 
+     * @param children
+     *            to the possible edge
+     * @return the handle of the edge if present, null otherwise
+     */
+    HGHandle findExactEdge(final Set<HGHandle> children) {
+        return mHeadIndex.get(children, true);
+    }
+
+    /**
+     * Getting the edge with exactly the denoted children within a
+     * transaction, see {@link #findExactEdge(Set)}. An edge resolved from the
+     * db is not stored in the head set index since the transaction might not
+     * see the latest modifications.
      * 
      * @param children
      *            to the possible edge
-     * @param headNotTail
-     *            taking the head if true, the tail otherwise
      * @return the handle of the edge if present, null otherwise
      */
-    private HGHandle findExactEdge(final Set<HGHandle> children) {
+    private HGHandle findEdgeWithinTransaction(final Set<HGHandle> children) {
+        return mHeadIndex.get(children, false);
+    }
 
-        List<HGHandle> handles = findSubsetEdges(children);
+    /**
+     * Converting a node to the form stored within the db: if a store is set,
+     * the material is appended to the store and the node only refers to it.
+     * Must not be called within a transaction since repeating the transaction
+     * would append the material again.
+     * 
+     * @param node
+     *            to be stored
+     * @return the node to be stored within the db
+     */
+    private Node externalize(final Node node) {
+        if (mStore == null) {
+            return node;
+        }
+        // an offset of the given node must not be taken over
+        final Node returnval = new Node(node.getName(), node.getKey(), node.getVersion(), null);
+        if (node.getSecretKey() != null) {
+            returnval.setSecretOffset(mStore.append(node.getKey(), node.getVersion(), node.getSecretKey()));
+        }
+        return returnval;
+    }
 
-        // This statement is the more fine granular statement to find exact the
-        // one and only set containing the elements either as parents or
-        // children
-        HGHandle handle = null;
-        for (HGHandle tmpHandle : handles) {
-            HGBergeLink link = (HGBergeLink)getHGDB().get(tmpHandle);
-            if (link.getHead().equals(children)) {
-                if (handle == null) {
-                    handle = tmpHandle;
-                } else {
-                    throw new IllegalStateException("the set should only be contained once");
-                }
+    /**
+     * Converting multiple nodes to the form stored within the db, removing
+     * all appended material if one node fails.
+     * 
+     * @param nodes
+     *            to be stored
+     * @return the nodes to be stored within the db
+     */
+    private Node[] externalize(final Node[] nodes) {
+        final Node[] returnval = new Node[nodes.length];
+        try {
+            for (int i = 0; i < nodes.length; i++) {
+                returnval[i] = externalize(nodes[i]);
             }
+        } catch (final RuntimeException exc) {
+            dropMaterial(returnval);
+            throw exc;
+        }
+        return returnval;
+    }
+
+    /**
+     * Removing the material appended for nodes which are not stored.
+     * 
+     * @param nodes
+     *            returned by {@link #externalize(Node)}, might contain null
+     */
+    private void dropMaterial(final Node... nodes) {
+        if (mStore == null) {
+            return;
+        }
+        for (final Node node : nodes) {
+            if (node != null && node.getSecretOffset() >= 0) {
+                mStore.remove(node.getSecretOffset());
+            }
+        }
+    }
+
+    /**
+     * Checking if the material of an indexed node is kept within the store.
+     * 
+     * @param entry
+     *            of the node
+     * @return true if the material is read from the store
+     */
+    private boolean isExternal(final RightIndex.Entry entry) {
+        return mStore != null && entry.getSecretOffset() >= 0;
+    }
+
+    /**
+     * Reading the material of an indexed node. Material kept within the store
+     * is read without fetching the node.
+     * 
+     * @param entry
+     *            of the node, might be null
+     * @return the material, null if the node is not present or has no
+     *         material
+     */
+    private byte[] readMaterial(final RightIndex.Entry entry) {
+        if (entry == null) {
+            return null;
+        }
+        if (isExternal(entry)) {
+            return mStore.read(entry.getSecretOffset());
+        }
+        final Node node = (Node)mDB.get(entry.getHandle());
+        return node == null ? null : node.getSecretKey();
+    }
+
+    /**
+     * Converting a node stored within the db to the node containing its
+     * material. The node of the db is not modified since it might be cached
+     * by the db.
+     * 
+     * @param node
+     *            stored within the db, might be null
+     * @return the node containing its material
+     */
+    private Node internalize(final Node node) {
+        if (mStore == null || node == null || node.getSecretOffset() < 0) {
+            return node;
+        }
+        final Node returnval =
+            new Node(node.getName(), node.getKey(), node.getVersion(), mStore.read(node.getSecretOffset()));
+        returnval.setSecretOffset(node.getSecretOffset());
+        return returnval;
+    }
+
+    /**
+     * Modification of one edge in memory.
+     */
+    private static final class EdgeEdit {
+        /** Handle of the edge. */
+        final HGHandle mHandle;
+
+        /** The edge itself. */
+        final HGBergeLink mLink;
+
+        /** Head of the edge before the modification. */
+        final Set<HGHandle> mOldHead;
+
+        /** Modified head. */
+        final Set<HGHandle> mHead;
+
+        /** Modified tail. */
+        final Set<HGHandle> mTail;
+
+        /** Flag denoting that the edge is removed. */
+        boolean mRemoved;
+
+        /**
+         * Constructor.
+         * 
+         * @param paramHandle
+         *            of the edge
+         * @param paramLink
+         *            the edge itself
+         */
+        EdgeEdit(final HGHandle paramHandle, final HGBergeLink paramLink) {
+            mHandle = paramHandle;
+            mLink = paramLink;
+            mOldHead = new HashSet<HGHandle>(paramLink.getHead());
+            mHead = new HashSet<HGHandle>(mOldHead);
+            mTail = new HashSet<HGHandle>(paramLink.getTail());
         }
-        return handle;
+    }
+
+    /**
+     * Holder of the executor shared by all handlers not getting an executor
+     * on creation. The threads are daemons, therefore no shutdown is needed.
+     */
+    private static final class DefaultExecutor {
+        /** The shared executor. */
+        static final ExecutorService INSTANCE = Executors.newFixedThreadPool(PARALLELISM,
+            new ThreadFactory() {
+                /** Counter for naming the threads. */
+                private final AtomicInteger mCounter = new AtomicInteger();
+
+                @Override
+                public Thread newThread(final Runnable runnable) {
+                    final Thread thread =
+                        new Thread(runnable, "versacloud-traversal-" + mCounter.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
     }
 
 }
@@ -0,0 +1,628 @@
+/**
+ * 
+ */
+package org.versacloud;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HyperGraph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.versacloud.api.IHandlerListener;
+import org.versacloud.api.IRightHandler;
+import org.versacloud.model.Node;
+import org.versacloud.model.NodeType;
+import org.versacloud.model.RemovalResult;
+import org.versacloud.model.RightKey;
+
+/**
+ * Handler partitioning the nodes over multiple {@link HGHandler}s, each with
+ * its own db. A node is stored within the shard denoted by the hash of its
+ * key, all versions of a key therefore share one shard. The number of shards
+ * must not change for a set of dbs.
+ * 
+ * Rights are stored within the shards of their parents. A child stored
+ * within another shard is represented by a ghost: a node with the key and
+ * version of the child but without name and material, stored within the
+ * shard of the parents. Ghosts are never served by lookups, they are
+ * removed together with the node they represent. Descendants are gathered
+ * in rounds, each round traversing the shards in parallel and continuing
+ * with the reached ghosts within the shards storing their nodes.
+ * 
+ * Nodes and rights are identified by {@link RightKey}s since handles are
+ * only valid within one shard.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class ShardedHGHandler implements IRightHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ShardedHGHandler.class);
+
+    /** Listener for traversals without any interest in the levels. */
+    private static final IHandlerListener NOOP_LISTENER = new IHandlerListener() {
+        @Override
+        public boolean touchedChildren(final Set<HGHandle> children) {
+            return false;
+        }
+    };
+
+    /** Handlers of the shards. */
+    private final HGHandler[] mShards;
+
+    /** Executor for the operations spanning multiple shards. */
+    private final ExecutorService mExecutor;
+
+    /** Flag denoting that the executor is owned and shut down by this handler. */
+    private final boolean mOwnsExecutor;
+
+    /** Flag denoting that the dbs are owned and closed by this handler. */
+    private final boolean mOwnsShards;
+
+    /**
+     * Opening one db per directory and partitioning the nodes over them. The
+     * dbs are closed by {@link #close()}.
+     * 
+     * @param paramDirectories
+     *            of the dbs, always to be denoted in the same order
+     * @return the handler over all dbs
+     */
+    public static ShardedHGHandler open(final File... paramDirectories) {
+        final HGHandler[] shards = new HGHandler[paramDirectories.length];
+        for (int i = 0; i < shards.length; i++) {
+            shards[i] = new HGHandler(new HyperGraph(paramDirectories[i].getAbsolutePath()));
+        }
+        return new ShardedHGHandler(shards, createExecutor(shards.length), true, true);
+    }
+
+    /**
+     * Constructor, creating a dedicated executor with one thread per shard.
+     * 
+     * @param paramShards
+     *            handlers of the shards, always to be denoted in the same
+     *            order, not closed by this handler
+     */
+    public ShardedHGHandler(final HGHandler... paramShards) {
+        this(paramShards, createExecutor(paramShards.length), true, false);
+    }
+
+    /**
+     * Constructor, using the denoted executor. Since the shards wait for
+     * their own traversals, the executor must not be the executor of any
+     * shard.
+     * 
+     * @param paramShards
+     *            handlers of the shards, always to be denoted in the same
+     *            order, not closed by this handler
+     * @param paramExecutor
+     *            for the operations spanning multiple shards, not shut down
+     *            by this handler
+     */
+    public ShardedHGHandler(final HGHandler[] paramShards, final ExecutorService paramExecutor) {
+        this(paramShards, paramExecutor, false, false);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param paramShards
+     *            handlers of the shards
+     * @param paramExecutor
+     *            for the operations spanning multiple shards
+     * @param paramOwnsExecutor
+     *            true if the executor is shut down by this handler
+     * @param paramOwnsShards
+     *            true if the dbs are closed by this handler
+     */
+    private ShardedHGHandler(final HGHandler[] paramShards, final ExecutorService paramExecutor,
+        final boolean paramOwnsExecutor, final boolean paramOwnsShards) {
+        if (paramShards.length == 0) {
+            throw new IllegalArgumentException("At least one shard is needed");
+        }
+        mShards = paramShards.clone();
+        mExecutor = paramExecutor;
+        mOwnsExecutor = paramOwnsExecutor;
+        mOwnsShards = paramOwnsShards;
+    }
+
+    /**
+     * Getting the shard storing the nodes of a key.
+     * 
+     * @param key
+     *            of the nodes
+     * @return the index of the shard
+     */
+    public int shardOf(final long key) {
+        // mixing the bits, consecutive keys are spread over all shards
+        long hash = key * 0x9E3779B97F4A7C15L;
+        hash ^= hash >>> 32;
+        return (int)((hash & Long.MAX_VALUE) % mShards.length);
+    }
+
+    /**
+     * Getting the number of shards.
+     * 
+     * @return the number of shards
+     */
+    public int getShardCount() {
+        return mShards.length;
+    }
+
+    /**
+     * Getting the handler of one shard.
+     * 
+     * @param shard
+     *            index of the shard
+     * @return the handler of the shard
+     */
+    public HGHandler getShard(final int shard) {
+        return mShards[shard];
+    }
+
+    /**
+     * Adding new nodes, each within its shard. The shards are written in
+     * parallel, this includes NOT the adding of any rights related to the
+     * nodes.
+     * 
+     * @param paramNodes
+     *            to be added
+     * @throws IllegalStateException
+     *             if a node with the same key and version is already stored
+     */
+    public void addRight(final Node... paramNodes) {
+        final Map<Integer, List<Node>> groups = new TreeMap<Integer, List<Node>>();
+        for (final Node node : paramNodes) {
+            final int shard = shardOf(node.getKey());
+            List<Node> group = groups.get(shard);
+            if (group == null) {
+                group = new ArrayList<Node>();
+                groups.put(shard, group);
+            }
+            group.add(node);
+        }
+        final List<Callable<HGHandle[]>> tasks = new ArrayList<Callable<HGHandle[]>>();
+        for (final Map.Entry<Integer, List<Node>> group : groups.entrySet()) {
+            final HGHandler shard = mShards[group.getKey()];
+            final Node[] nodes = group.getValue().toArray(new Node[group.getValue().size()]);
+            tasks.add(new Callable<HGHandle[]>() {
+                @Override
+                public HGHandle[] call() throws Exception {
+                    return shard.addRight(nodes);
+                }
+            });
+        }
+        scatter(tasks);
+    }
+
+    /**
+     * Getting a node from its shard.
+     * 
+     * @param key
+     *            of the node
+     * @param version
+     *            of the node
+     * @return the node, null if not present
+     */
+    public Node getRight(final long key, final long version) {
+        return mShards[shardOf(key)].getRight(key, version);
+    }
+
+    /**
+     * Removing a node from its shard as well as its ghosts from all other
+     * shards, see {@link HGHandler#removeRight(Node)}.
+     * 
+     * @param paramNode
+     *            to be removed
+     * @return statistics of the removal within the shard of the node
+     */
+    public RemovalResult removeRight(final Node paramNode) {
+        final int owner = shardOf(paramNode.getKey());
+        final RemovalResult returnval = mShards[owner].removeRight(paramNode);
+        if (returnval.isRemoved()) {
+            final List<Callable<RemovalResult>> tasks = new ArrayList<Callable<RemovalResult>>();
+            for (int i = 0; i < mShards.length; i++) {
+                if (i != owner) {
+                    final HGHandler shard = mShards[i];
+                    tasks.add(new Callable<RemovalResult>() {
+                        @Override
+                        public RemovalResult call() throws Exception {
+                            synchronized (shard) {
+                                return shard.removeRight(paramNode);
+                            }
+                        }
+                    });
+                }
+            }
+            scatter(tasks);
+        }
+        return returnval;
+    }
+
+    /**
+     * Activating a right, see {@link HGHandler#activateRight(Set, Set)}. The
+     * right is stored within each shard containing some of the parents,
+     * children of other shards are represented by ghosts.
+     * 
+     * @param parents
+     *            the clients gaining the right
+     * @param children
+     *            the groups, providing the right
+     * @return true if a new edge is inserted within any shard
+     * @throws IllegalStateException
+     *             if any parent or child is not stored
+     */
+    public boolean activateRight(final Set<RightKey> parents, final Set<RightKey> children) {
+        for (final RightKey child : children) {
+            getHandle(shardOf(child.getKey()), child);
+        }
+        final List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for (final Map.Entry<Integer, Set<RightKey>> group : groupByShard(parents).entrySet()) {
+            final int shard = group.getKey();
+            final Set<HGHandle> parentHandles = new HashSet<HGHandle>();
+            for (final RightKey parent : group.getValue()) {
+                parentHandles.add(getHandle(shard, parent));
+            }
+            tasks.add(new Callable<Boolean>() {
+                @Override
+                public Boolean call() throws Exception {
+                    final Set<HGHandle> childHandles = new HashSet<HGHandle>();
+                    for (final RightKey child : children) {
+                        if (shardOf(child.getKey()) == shard) {
+                            childHandles.add(getHandle(shard, child));
+                        } else {
+                            childHandles.add(getGhost(shard, child));
+                        }
+                    }
+                    return mShards[shard].activateRight(parentHandles, childHandles);
+                }
+            });
+        }
+        boolean returnval = false;
+        for (final Boolean inserted : scatter(tasks)) {
+            returnval |= inserted;
+        }
+        return returnval;
+    }
+
+    /**
+     * Deactivating a right, see {@link HGHandler#deactivateRight(Set, Set)}.
+     * Ghosts are kept even if no right refers to them any more.
+     * 
+     * @param parents
+     *            the clients losing the right
+     * @param children
+     *            the groups, providing the right
+     * @return true if an edge is removed within any shard
+     */
+    public boolean deactivateRight(final Set<RightKey> parents, final Set<RightKey> children) {
+        final List<Callable<Boolean>> tasks = new ArrayList<Callable<Boolean>>();
+        for (final Map.Entry<Integer, Set<RightKey>> group : groupByShard(parents).entrySet()) {
+            final HGHandler shard = mShards[group.getKey()];
+            final Set<HGHandle> parentHandles = new HashSet<HGHandle>();
+            for (final RightKey parent : group.getValue()) {
+                final HGHandle handle = shard.getRightHandle(parent.getKey(), parent.getVersion());
+                if (handle != null) {
+                    parentHandles.add(handle);
+                }
+            }
+            // real nodes or ghosts, without any of them the shard stores no such right
+            final Set<HGHandle> childHandles = new HashSet<HGHandle>();
+            for (final RightKey child : children) {
+                final HGHandle handle = shard.getRightHandle(child.getKey(), child.getVersion());
+                if (handle != null) {
+                    childHandles.add(handle);
+                }
+            }
+            if (!parentHandles.isEmpty() && childHandles.size() == children.size()) {
+                tasks.add(new Callable<Boolean>() {
+                    @Override
+                    public Boolean call() throws Exception {
+                        return shard.deactivateRight(parentHandles, childHandles);
+                    }
+                });
+            }
+        }
+        boolean returnval = false;
+        for (final Boolean removed : scatter(tasks)) {
+            returnval |= removed;
+        }
+        return returnval;
+    }
+
+    /**
+     * Getting all nodes reachable from the roots. Each round traverses all
+     * shards with pending roots in parallel, reached ghosts become the roots
+     * of the next round within the shards storing their nodes.
+     * 
+     * @param roots
+     *            nodes to start, only returned if reached again
+     * @return all nodes reachable from the roots
+     */
+    public Set<RightKey> getDescendants(final Set<RightKey> roots) {
+        final Set<RightKey> returnval = new HashSet<RightKey>();
+        // nodes already traversed within their own shards
+        final Set<RightKey> expanded = new HashSet<RightKey>(roots);
+        Map<Integer, Set<RightKey>> pending = groupByShard(roots);
+        int rounds = 0;
+        while (!pending.isEmpty()) {
+            final List<Integer> shards = new ArrayList<Integer>(pending.keySet());
+            final List<Callable<Set<RightKey>>> tasks = new ArrayList<Callable<Set<RightKey>>>();
+            for (final Map.Entry<Integer, Set<RightKey>> group : pending.entrySet()) {
+                final HGHandler shard = mShards[group.getKey()];
+                final Set<RightKey> keys = group.getValue();
+                tasks.add(new Callable<Set<RightKey>>() {
+                    @Override
+                    public Set<RightKey> call() throws Exception {
+                        return traverse(shard, keys);
+                    }
+                });
+            }
+            final List<Set<RightKey>> reached = scatter(tasks);
+            // nodes reached within their own shards are expanded already
+            for (int i = 0; i < shards.size(); i++) {
+                for (final RightKey key : reached.get(i)) {
+                    returnval.add(key);
+                    if (shardOf(key.getKey()) == shards.get(i)) {
+                        expanded.add(key);
+                    }
+                }
+            }
+            final List<RightKey> ghosts = new ArrayList<RightKey>();
+            for (int i = 0; i < shards.size(); i++) {
+                for (final RightKey key : reached.get(i)) {
+                    if (shardOf(key.getKey()) != shards.get(i) && expanded.add(key)) {
+                        ghosts.add(key);
+                    }
+                }
+            }
+            pending = groupByShard(ghosts);
+            rounds++;
+        }
+        if (LOGGER.isDebugEnabled()) {
+            LOGGER.debug("Gathered " + returnval.size() + " descendants in " + rounds + " rounds");
+        }
+        return returnval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getRightMaterial(final long key, final long version) {
+        return mShards[shardOf(key)].getRightMaterial(key, version);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getLatestRightMaterial(final long key) {
+        return mShards[shardOf(key)].getLatestRightMaterial(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The rights are grouped by their shards, all shards are requested in
+     * parallel with one call each.
+     */
+    @Override
+    public byte[][] getRightMaterial(final long[] keys, final long[] versions) {
+        if (keys.length != versions.length) {
+            throw new IllegalArgumentException(new StringBuilder("Got ").append(keys.length).append(
+                " keys but ").append(versions.length).append(" versions").toString());
+        }
+        final Map<Integer, List<Integer>> groups = new TreeMap<Integer, List<Integer>>();
+        for (int i = 0; i < keys.length; i++) {
+            final int shard = shardOf(keys[i]);
+            List<Integer> group = groups.get(shard);
+            if (group == null) {
+                group = new ArrayList<Integer>();
+                groups.put(shard, group);
+            }
+            group.add(i);
+        }
+        final List<Callable<byte[][]>> tasks = new ArrayList<Callable<byte[][]>>();
+        for (final Map.Entry<Integer, List<Integer>> group : groups.entrySet()) {
+            final HGHandler shard = mShards[group.getKey()];
+            final long[] shardKeys = new long[group.getValue().size()];
+            final long[] shardVersions = new long[shardKeys.length];
+            for (int i = 0; i < shardKeys.length; i++) {
+                shardKeys[i] = keys[group.getValue().get(i)];
+                shardVersions[i] = versions[group.getValue().get(i)];
+            }
+            tasks.add(new Callable<byte[][]>() {
+                @Override
+                public byte[][] call() throws Exception {
+                    return shard.getRightMaterial(shardKeys, shardVersions);
+                }
+            });
+        }
+        final byte[][] returnval = new byte[keys.length][];
+        final List<byte[][]> material = scatter(tasks);
+        int i = 0;
+        for (final List<Integer> positions : groups.values()) {
+            final byte[][] shardMaterial = material.get(i++);
+            for (int j = 0; j < shardMaterial.length; j++) {
+                returnval[positions.get(j)] = shardMaterial[j];
+            }
+        }
+        return returnval;
+    }
+
+    /**
+     * Shutting down the executor and closing the dbs if owned by this
+     * handler.
+     */
+    public void close() {
+        if (mOwnsExecutor) {
+            mExecutor.shutdown();
+        }
+        if (mOwnsShards) {
+            for (final HGHandler shard : mShards) {
+                shard.getHGDB().close();
+            }
+        }
+    }
+
+    /**
+     * Traversing one shard.
+     * 
+     * @param shard
+     *            to be traversed
+     * @param roots
+     *            nodes to start, stored within the shard
+     * @return key and version of all nodes and ghosts reached within the
+     *         shard
+     */
+    private static Set<RightKey> traverse(final HGHandler shard, final Set<RightKey> roots) {
+        final Set<HGHandle> handles = new HashSet<HGHandle>();
+        for (final RightKey root : roots) {
+            final HGHandle handle = shard.getRightHandle(root.getKey(), root.getVersion());
+            if (handle != null) {
+                handles.add(handle);
+            }
+        }
+        final Set<RightKey> returnval = new HashSet<RightKey>();
+        for (final HGHandle handle : shard.getDescendants(handles, NOOP_LISTENER)) {
+            returnval.add(NodeType.getRightKey(shard.getHGDB(), handle));
+        }
+        return returnval;
+    }
+
+    /**
+     * Getting the handle of a node stored within a shard.
+     * 
+     * @param shard
+     *            index of the shard storing the node
+     * @param key
+     *            of the node
+     * @return the handle of the node
+     * @throws IllegalStateException
+     *             if the node is not stored
+     */
+    private HGHandle getHandle(final int shard, final RightKey key) {
+        final HGHandle returnval = mShards[shard].getRightHandle(key.getKey(), key.getVersion());
+        if (returnval == null) {
+            throw new IllegalStateException(new StringBuilder("Node with key ").append(key.getKey()).append(
+                " and version ").append(key.getVersion()).append(" is not stored").toString());
+        }
+        return returnval;
+    }
+
+    /**
+     * Getting the ghost of a node within another shard, inserting it if not
+     * present yet.
+     * 
+     * @param shard
+     *            index of the shard containing the ghost
+     * @param key
+     *            of the represented node
+     * @return the handle of the ghost
+     */
+    private HGHandle getGhost(final int shard, final RightKey key) {
+        final HGHandler handler = mShards[shard];
+        synchronized (handler) {
+            final HGHandle returnval = handler.getRightHandle(key.getKey(), key.getVersion());
+            if (returnval != null) {
+                return returnval;
+            }
+            return handler.addRight(new Node(null, key.getKey(), key.getVersion(), null))[0];
+        }
+    }
+
+    /**
+     * Grouping nodes by their shards.
+     * 
+     * @param keys
+     *            of the nodes
+     * @return the nodes by the index of their shards
+     */
+    private Map<Integer, Set<RightKey>> groupByShard(final Iterable<RightKey> keys) {
+        final Map<Integer, Set<RightKey>> returnval = new TreeMap<Integer, Set<RightKey>>();
+        for (final RightKey key : keys) {
+            final int shard = shardOf(key.getKey());
+            Set<RightKey> group = returnval.get(shard);
+            if (group == null) {
+                group = new HashSet<RightKey>();
+                returnval.put(shard, group);
+            }
+            group.add(key);
+        }
+        return returnval;
+    }
+
+    /**
+     * Performing tasks for multiple shards in parallel. A single task is
+     * performed by the calling thread.
+     * 
+     * @param tasks
+     *            to be performed
+     * @return the results in the order of the tasks
+     */
+    private <T> List<T> scatter(final List<Callable<T>> tasks) {
+        final List<T> returnval = new ArrayList<T>(tasks.size());
+        try {
+            if (tasks.size() == 1) {
+                returnval.add(tasks.get(0).call());
+                return returnval;
+            }
+            final List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+            for (final Callable<T> task : tasks) {
+                futures.add(mExecutor.submit(task));
+            }
+            for (final Future<T> future : futures) {
+                returnval.add(future.get());
+            }
+            return returnval;
+        } catch (final InterruptedException exc) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(exc);
+        } catch (final ExecutionException exc) {
+            if (exc.getCause() instanceof RuntimeException) {
+                throw (RuntimeException)exc.getCause();
+            }
+            throw new IllegalStateException(exc.getCause());
+        } catch (final RuntimeException exc) {
+            throw exc;
+        } catch (final Exception exc) {
+            throw new IllegalStateException(exc);
+        }
+    }
+
+    /**
+     * Creating an executor with one daemon thread per shard.
+     * 
+     * @param threads
+     *            number of threads
+     * @return the executor
+     */
+    private static ExecutorService createExecutor(final int threads) {
+        return Executors.newFixedThreadPool(Math.max(1, threads), new ThreadFactory() {
+            /** Counter for naming the threads. */
+            private final AtomicInteger mCounter = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                final Thread thread = new Thread(runnable, "versacloud-shard-" + mCounter.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+}
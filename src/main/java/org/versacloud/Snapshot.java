@@ -0,0 +1,695 @@
+/**
+ * 
+ */
+package org.versacloud;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGQuery.hg;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.atom.HGBergeLink;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.versacloud.model.Node;
+
+/**
+ * Binary snapshot of all nodes and rights of a {@link HGHandler}, e.g. for
+ * backups or for cloning an environment without copying the db directory.
+ * 
+ * A snapshot starts with a header containing a magic number, the format, the
+ * number of nodes and the number of links, secured by a checksum. The nodes
+ * follow in blocks, each node consisting of key, version, name and secret
+ * material. The links follow in blocks as well, each link consisting of its
+ * tail and its head. The nodes within the links are referenced by dense ids,
+ * i.e. by the position of the node within the snapshot, sorted and encoded
+ * as differences of variable length. Each block is prefixed by the number of
+ * records, its length and its CRC32, a corrupted block is therefore detected
+ * before its content is restored.
+ * 
+ * Restoring inserts the blocks in parallel, each block within one
+ * transaction. All nodes are inserted before the links referencing them.
+ * The indices of the handler are built once at the end, neither the
+ * listeners nor the change feed of the handler are informed.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class Snapshot {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(Snapshot.class);
+
+    /** Magic number at the start of each snapshot. */
+    static final int MAGIC = 0x56435350;
+
+    /** Format of the snapshots written. */
+    static final int FORMAT = 1;
+
+    /** Default number of records within one block. */
+    public static final int DEFAULT_BLOCK_SIZE = 4096;
+
+    /** Number of blocks being restored concurrently at most. */
+    private static final int MAX_PENDING = 16;
+
+    /** Encoding of the names. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /**
+     * Utility class, no instances.
+     */
+    private Snapshot() {
+    }
+
+    /**
+     * Exporting all nodes and rights with the default block size.
+     * 
+     * @param paramHandler
+     *            to be exported
+     * @param paramOut
+     *            to write the snapshot to, not closed
+     * @throws IOException
+     *             if the snapshot cannot be written
+     */
+    public static void export(final HGHandler paramHandler, final OutputStream paramOut) throws IOException {
+        export(paramHandler, paramOut, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * Exporting all nodes and rights. Only one block is held in memory, the
+     * snapshot is streamed block by block. Modifications running concurrently
+     * are not isolated, the db should therefore not be modified meanwhile.
+     * 
+     * @param paramHandler
+     *            to be exported
+     * @param paramOut
+     *            to write the snapshot to, not closed
+     * @param paramBlockSize
+     *            number of records within one block
+     * @throws IOException
+     *             if the snapshot cannot be written
+     * @throws IllegalStateException
+     *             if a link references a node not contained in the db
+     */
+    public static void export(final HGHandler paramHandler, final OutputStream paramOut,
+        final int paramBlockSize) throws IOException {
+        if (paramBlockSize <= 0) {
+            throw new IllegalArgumentException("Block size must be positive but is " + paramBlockSize);
+        }
+        final long start = System.nanoTime();
+        final HyperGraph db = paramHandler.getHGDB();
+        final List<HGHandle> nodes = hg.findAll(db, hg.type(Node.class));
+        final List<HGHandle> links = hg.findAll(db, hg.type(HGBergeLink.class));
+        final DataOutputStream out = new DataOutputStream(paramOut);
+        writeHeader(out, nodes.size(), links.size());
+
+        final Map<HGPersistentHandle, Integer> ids =
+            new HashMap<HGPersistentHandle, Integer>(nodes.size() * 2);
+        final BlockWriter block = new BlockWriter();
+        for (int i = 0; i < nodes.size(); i++) {
+            final HGHandle handle = nodes.get(i);
+            ids.put(db.getPersistentHandle(handle), i);
+            // the material is read through the handler to include a separate store
+            final Node node = paramHandler.getRight(handle);
+            block.mData.writeLong(node.getKey());
+            block.mData.writeLong(node.getVersion());
+            writeBytes(block.mData, node.getName() == null ? null : node.getName().getBytes(UTF8));
+            writeBytes(block.mData, node.getSecretKey());
+            block.mRecords++;
+            if (block.mRecords == paramBlockSize) {
+                block.flush(out);
+            }
+        }
+        block.flush(out);
+
+        for (final HGHandle handle : links) {
+            final HGBergeLink link = db.get(handle);
+            writeIds(block.mData, link.getTail(), ids, db);
+            writeIds(block.mData, link.getHead(), ids, db);
+            block.mRecords++;
+            if (block.mRecords == paramBlockSize) {
+                block.flush(out);
+            }
+        }
+        block.flush(out);
+        out.flush();
+        LOGGER.info(new StringBuilder("Exported ").append(nodes.size()).append(" nodes and ").append(
+            links.size()).append(" links in ").append((System.nanoTime() - start) / 1000000).append(" ms")
+            .toString());
+    }
+
+    /**
+     * Restoring a snapshot, using one thread per processor.
+     * 
+     * @param paramHandler
+     *            to restore the snapshot in, the db must not contain any node
+     * @param paramIn
+     *            to read the snapshot from, not closed
+     * @return the statistics of the restore
+     * @throws IOException
+     *             if the snapshot cannot be read or is corrupted
+     */
+    public static BulkLoadSession.Result restore(final HGHandler paramHandler, final InputStream paramIn)
+        throws IOException {
+        final ExecutorService executor =
+            Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors());
+        try {
+            return restore(paramHandler, paramIn, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Restoring a snapshot. The blocks are decoded sequentially and inserted
+     * on the executor. If the snapshot turns out to be corrupted, the db
+     * contains the blocks inserted so far and should be discarded.
+     * 
+     * @param paramHandler
+     *            to restore the snapshot in, the db must not contain any node
+     * @param paramIn
+     *            to read the snapshot from, not closed
+     * @param paramExecutor
+     *            inserting the blocks
+     * @return the statistics of the restore
+     * @throws IOException
+     *             if the snapshot cannot be read or is corrupted
+     * @throws IllegalStateException
+     *             if the db already contains nodes or another bulk load is
+     *             active
+     */
+    public static BulkLoadSession.Result restore(final HGHandler paramHandler, final InputStream paramIn,
+        final ExecutorService paramExecutor) throws IOException {
+        if (paramHandler.size() != 0) {
+            throw new IllegalStateException("Snapshot can only be restored into an empty db");
+        }
+        final long start = System.nanoTime();
+        final DataInputStream in = new DataInputStream(paramIn);
+        final List<Future<Void>> pending = new ArrayList<Future<Void>>();
+        final AtomicBoolean failed = new AtomicBoolean();
+        final int nodeCount;
+        final long maintenanceStart;
+        paramHandler.startBulkLoad();
+        try {
+            final int[] counts = readHeader(in);
+            nodeCount = counts[0];
+            final HGHandle[] handles = new HGHandle[nodeCount];
+            int read = 0;
+            while (read < nodeCount) {
+                final int records = in.readInt();
+                final DataInputStream block = readBlock(in, records, nodeCount - read);
+                final Node[] nodes = new Node[records];
+                for (int i = 0; i < nodes.length; i++) {
+                    final long key = block.readLong();
+                    final long version = block.readLong();
+                    final byte[] name = readBytes(block);
+                    final byte[] secret = readBytes(block);
+                    nodes[i] = new Node(name == null ? null : new String(name, UTF8), key, version, secret);
+                }
+                pending.add(paramExecutor.submit(new NodeInsert(paramHandler, nodes, handles, read, failed)));
+                read += nodes.length;
+                await(pending, MAX_PENDING);
+            }
+            // links must not reference nodes not inserted yet
+            await(pending, 0);
+
+            read = 0;
+            while (read < counts[1]) {
+                final int records = in.readInt();
+                final DataInputStream block = readBlock(in, records, counts[1] - read);
+                final HGBergeLink[] links = new HGBergeLink[records];
+                for (int i = 0; i < links.length; i++) {
+                    final HGHandle[] tail = readIds(block, handles);
+                    links[i] = new HGBergeLink(readIds(block, handles), tail);
+                }
+                pending.add(paramExecutor.submit(new LinkInsert(paramHandler.getHGDB(), links, failed)));
+                read += links.length;
+                await(pending, MAX_PENDING);
+            }
+            await(pending, 0);
+            paramHandler.reindex();
+        } catch (final IOException exc) {
+            abort(pending, failed);
+            throw exc;
+        } catch (final RuntimeException exc) {
+            abort(pending, failed);
+            throw exc;
+        } finally {
+            maintenanceStart = System.nanoTime();
+            paramHandler.finishBulkLoad();
+        }
+        final long end = System.nanoTime();
+        final BulkLoadSession.Result result =
+            new BulkLoadSession.Result(nodeCount, end - start, end - maintenanceStart);
+        LOGGER.info("Restored snapshot: " + result);
+        return result;
+    }
+
+    /**
+     * Writing the header.
+     * 
+     * @param out
+     *            to write to
+     * @param nodes
+     *            number of nodes
+     * @param links
+     *            number of links
+     * @throws IOException
+     *             if the header cannot be written
+     */
+    private static void writeHeader(final DataOutput out, final int nodes, final int links)
+        throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream(16);
+        final DataOutputStream header = new DataOutputStream(bytes);
+        header.writeInt(MAGIC);
+        header.writeInt(FORMAT);
+        header.writeInt(nodes);
+        header.writeInt(links);
+        final CRC32 checksum = new CRC32();
+        checksum.update(bytes.toByteArray());
+        out.write(bytes.toByteArray());
+        out.writeInt((int)checksum.getValue());
+    }
+
+    /**
+     * Reading and checking the header.
+     * 
+     * @param in
+     *            to read from
+     * @return the number of nodes and the number of links
+     * @throws IOException
+     *             if the header cannot be read or is corrupted
+     */
+    private static int[] readHeader(final DataInput in) throws IOException {
+        final byte[] bytes = new byte[16];
+        in.readFully(bytes);
+        final CRC32 checksum = new CRC32();
+        checksum.update(bytes);
+        if (in.readInt() != (int)checksum.getValue()) {
+            throw new IOException("Snapshot header is corrupted");
+        }
+        final DataInputStream header = new DataInputStream(new ByteArrayInputStream(bytes));
+        if (header.readInt() != MAGIC) {
+            throw new IOException("Stream is no snapshot");
+        }
+        final int format = header.readInt();
+        if (format != FORMAT) {
+            throw new IOException("Snapshot of format " + format + " cannot be read, expected " + FORMAT);
+        }
+        return new int[] {
+            header.readInt(), header.readInt()
+        };
+    }
+
+    /**
+     * Reading one block and checking its checksum.
+     * 
+     * @param in
+     *            to read from, positioned after the number of records
+     * @param records
+     *            number of records within the block
+     * @param remaining
+     *            number of records remaining in the section
+     * @return the content of the block
+     * @throws IOException
+     *             if the block cannot be read or is corrupted
+     */
+    private static DataInputStream readBlock(final DataInput in, final int records, final int remaining)
+        throws IOException {
+        final int length = in.readInt();
+        final int crc = in.readInt();
+        if (records <= 0 || records > remaining || length < 0) {
+            throw new IOException(new StringBuilder("Block header is corrupted: ").append(records).append(
+                " records of ").append(remaining).append(" remaining, length ").append(length).toString());
+        }
+        final byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        final CRC32 checksum = new CRC32();
+        checksum.update(bytes);
+        if (crc != (int)checksum.getValue()) {
+            throw new IOException("Checksum mismatch in block of " + records + " records");
+        }
+        return new DataInputStream(new ByteArrayInputStream(bytes));
+    }
+
+    /**
+     * Writing the dense ids of a set of nodes, sorted and as differences.
+     * 
+     * @param out
+     *            to write to
+     * @param handles
+     *            of the nodes
+     * @param ids
+     *            mapping the nodes to their ids
+     * @param db
+     *            containing the nodes
+     * @throws IOException
+     *             if the ids cannot be written
+     */
+    private static void writeIds(final DataOutput out, final Set<HGHandle> handles,
+        final Map<HGPersistentHandle, Integer> ids, final HyperGraph db) throws IOException {
+        final int[] dense = new int[handles.size()];
+        int i = 0;
+        for (final HGHandle handle : handles) {
+            final Integer id = ids.get(db.getPersistentHandle(handle));
+            if (id == null) {
+                throw new IllegalStateException("Link references node " + handle
+                    + " not contained in the db");
+            }
+            dense[i++] = id;
+        }
+        Arrays.sort(dense);
+        writeVarInt(out, dense.length);
+        int last = 0;
+        for (final int id : dense) {
+            writeVarInt(out, id - last);
+            last = id;
+        }
+    }
+
+    /**
+     * Reading the dense ids of a set of nodes.
+     * 
+     * @param in
+     *            to read from
+     * @param handles
+     *            of the restored nodes by their ids
+     * @return the handles of the nodes
+     * @throws IOException
+     *             if the ids cannot be read or are out of range
+     */
+    private static HGHandle[] readIds(final DataInput in, final HGHandle[] handles) throws IOException {
+        final HGHandle[] returnval = new HGHandle[readVarInt(in)];
+        int id = 0;
+        for (int i = 0; i < returnval.length; i++) {
+            id += readVarInt(in);
+            if (id < 0 || id >= handles.length) {
+                throw new IOException("Link references unknown node " + id);
+            }
+            returnval[i] = handles[id];
+        }
+        return returnval;
+    }
+
+    /**
+     * Writing a length-prefixed array, the length is incremented by one to
+     * encode null as zero.
+     * 
+     * @param out
+     *            to write to
+     * @param bytes
+     *            to be written, might be null
+     * @throws IOException
+     *             if the array cannot be written
+     */
+    private static void writeBytes(final DataOutput out, final byte[] bytes) throws IOException {
+        if (bytes == null) {
+            writeVarInt(out, 0);
+        } else {
+            writeVarInt(out, bytes.length + 1);
+            out.write(bytes);
+        }
+    }
+
+    /**
+     * Reading a length-prefixed array.
+     * 
+     * @param in
+     *            to read from
+     * @return the array, might be null
+     * @throws IOException
+     *             if the array cannot be read
+     */
+    private static byte[] readBytes(final DataInput in) throws IOException {
+        final int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        final byte[] returnval = new byte[length];
+        in.readFully(returnval);
+        return returnval;
+    }
+
+    /**
+     * Writing a non-negative int with seven bits per byte.
+     * 
+     * @param out
+     *            to write to
+     * @param value
+     *            to be written
+     * @throws IOException
+     *             if the value cannot be written
+     */
+    private static void writeVarInt(final DataOutput out, final int value) throws IOException {
+        int remaining = value;
+        while ((remaining & ~0x7F) != 0) {
+            out.writeByte((remaining & 0x7F) | 0x80);
+            remaining >>>= 7;
+        }
+        out.writeByte(remaining);
+    }
+
+    /**
+     * Reading a non-negative int written with seven bits per byte.
+     * 
+     * @param in
+     *            to read from
+     * @return the value
+     * @throws IOException
+     *             if the value cannot be read or is too long
+     */
+    private static int readVarInt(final DataInput in) throws IOException {
+        int returnval = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            final byte current = in.readByte();
+            returnval |= (current & 0x7F) << shift;
+            if ((current & 0x80) == 0) {
+                return returnval;
+            }
+        }
+        throw new IOException("Variable length int is corrupted");
+    }
+
+    /**
+     * Waiting until only the denoted number of blocks is pending.
+     * 
+     * @param pending
+     *            blocks being inserted, in order of submission
+     * @param limit
+     *            number of blocks remaining pending
+     * @throws IOException
+     *             if interrupted while waiting
+     */
+    private static void await(final List<Future<Void>> pending, final int limit) throws IOException {
+        while (pending.size() > limit) {
+            try {
+                pending.get(0).get();
+                pending.remove(0);
+            } catch (final InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted while restoring snapshot");
+            } catch (final ExecutionException exc) {
+                pending.remove(0);
+                if (exc.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException)exc.getCause();
+                }
+                throw new IllegalStateException(exc.getCause());
+            }
+        }
+    }
+
+    /**
+     * Skipping all blocks not started yet and waiting for the running ones.
+     * 
+     * @param pending
+     *            blocks being inserted
+     * @param failed
+     *            flag checked by the blocks before starting
+     */
+    private static void abort(final List<Future<Void>> pending, final AtomicBoolean failed) {
+        failed.set(true);
+        for (final Future<Void> future : pending) {
+            try {
+                future.get();
+            } catch (final InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (final ExecutionException exc) {
+                LOGGER.debug("Block failed after abort", exc.getCause());
+            }
+        }
+        pending.clear();
+    }
+
+    /**
+     * Buffer for one block being written.
+     */
+    private static final class BlockWriter {
+
+        /** Content of the block. */
+        private final ByteArrayOutputStream mBytes = new ByteArrayOutputStream();
+
+        /** Output for the records. */
+        private final DataOutputStream mData = new DataOutputStream(mBytes);
+
+        /** Number of records within the block. */
+        private int mRecords;
+
+        /**
+         * Writing the block if not empty and resetting the buffer.
+         * 
+         * @param out
+         *            to write the block to
+         * @throws IOException
+         *             if the block cannot be written
+         */
+        private void flush(final DataOutput out) throws IOException {
+            if (mRecords == 0) {
+                return;
+            }
+            final byte[] bytes = mBytes.toByteArray();
+            final CRC32 checksum = new CRC32();
+            checksum.update(bytes);
+            out.writeInt(mRecords);
+            out.writeInt(bytes.length);
+            out.writeInt((int)checksum.getValue());
+            out.write(bytes);
+            mBytes.reset();
+            mRecords = 0;
+        }
+    }
+
+    /**
+     * Inserting one block of nodes within one transaction.
+     */
+    private static final class NodeInsert implements Callable<Void> {
+
+        /** Handler to insert the nodes with. */
+        private final HGHandler mHandler;
+
+        /** Nodes to be inserted. */
+        private final Node[] mNodes;
+
+        /** Handles of all nodes by their ids. */
+        private final HGHandle[] mHandles;
+
+        /** Id of the first node. */
+        private final int mOffset;
+
+        /** Flag denoting an aborted restore. */
+        private final AtomicBoolean mFailed;
+
+        /**
+         * Constructor.
+         * 
+         * @param paramHandler
+         *            to insert the nodes with
+         * @param paramNodes
+         *            to be inserted
+         * @param paramHandles
+         *            of all nodes by their ids
+         * @param paramOffset
+         *            id of the first node
+         * @param paramFailed
+         *            flag denoting an aborted restore
+         */
+        NodeInsert(final HGHandler paramHandler, final Node[] paramNodes, final HGHandle[] paramHandles,
+            final int paramOffset, final AtomicBoolean paramFailed) {
+            mHandler = paramHandler;
+            mNodes = paramNodes;
+            mHandles = paramHandles;
+            mOffset = paramOffset;
+            mFailed = paramFailed;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Void call() {
+            if (mFailed.get()) {
+                return null;
+            }
+            final HGHandle[] handles = mHandler.insertNodes(mNodes, false);
+            // distinct ranges of the array, published by the future
+            System.arraycopy(handles, 0, mHandles, mOffset, handles.length);
+            return null;
+        }
+    }
+
+    /**
+     * Inserting one block of links within one transaction.
+     */
+    private static final class LinkInsert implements Callable<Void> {
+
+        /** Db to insert the links in. */
+        private final HyperGraph mDB;
+
+        /** Links to be inserted. */
+        private final HGBergeLink[] mLinks;
+
+        /** Flag denoting an aborted restore. */
+        private final AtomicBoolean mFailed;
+
+        /**
+         * Constructor.
+         * 
+         * @param paramDB
+         *            to insert the links in
+         * @param paramLinks
+         *            to be inserted
+         * @param paramFailed
+         *            flag denoting an aborted restore
+         */
+        LinkInsert(final HyperGraph paramDB, final HGBergeLink[] paramLinks,
+            final AtomicBoolean paramFailed) {
+            mDB = paramDB;
+            mLinks = paramLinks;
+            mFailed = paramFailed;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public Void call() {
+            if (mFailed.get()) {
+                return null;
+            }
+            mDB.getTransactionManager().transact(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    for (final HGBergeLink link : mLinks) {
+                        mDB.add(link);
+                    }
+                    return null;
+                }
+            });
+            return null;
+        }
+    }
+
+}
@@ -0,0 +1,59 @@
+/**
+ * 
+ */
+package org.versacloud.api;
+
+import java.util.concurrent.Future;
+
+/**
+ * Asynchronous variant of {@link IRightHandler}. Each method returns
+ * immediately, the result is received over the returned future or the
+ * optional callback.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public interface IAsyncRightHandler {
+
+    /**
+     * Getting the material for a right denoted by its identifier.
+     * 
+     * @param key
+     *            for the node
+     * @param version
+     *            for the node
+     * @param callback
+     *            informed about the result, might be null
+     * @return the future of the secret material, null if not present
+     */
+    Future<byte[]> getRightMaterial(final long key, final long version,
+        final IResultCallback<byte[]> callback);
+
+    /**
+     * Getting the material for the latest version of a right.
+     * 
+     * @param key
+     *            for the node
+     * @param callback
+     *            informed about the result, might be null
+     * @return the future of the secret material of the node with the highest
+     *         version, null if no version of the key is present
+     */
+    Future<byte[]> getLatestRightMaterial(final long key, final IResultCallback<byte[]> callback);
+
+    /**
+     * Getting the material for multiple rights at once, see
+     * {@link IRightHandler#getRightMaterial(long[], long[])}.
+     * 
+     * @param keys
+     *            for the nodes
+     * @param versions
+     *            for the nodes, must have the same length as the keys
+     * @param callback
+     *            informed about the result, might be null
+     * @return the future of the secret material in the order of the input
+     */
+    Future<byte[][]> getRightMaterial(final long[] keys, final long[] versions,
+        final IResultCallback<byte[][]> callback);
+
+}
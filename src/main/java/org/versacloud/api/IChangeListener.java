@@ -0,0 +1,27 @@
+/**
+ * 
+ */
+package org.versacloud.api;
+
+import org.versacloud.model.ChangeEvent;
+
+/**
+ * Listener receiving the modifications of a handler as ordered events, e.g.
+ * for invalidating caches or feeding replicas. Events are delivered in the
+ * order of their sequence on the thread performing the modification, the
+ * listener must therefore be cheap.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public interface IChangeListener {
+
+    /**
+     * Called once per modification after it is committed.
+     * 
+     * @param event
+     *            describing the modification
+     */
+    void changed(final ChangeEvent event);
+
+}
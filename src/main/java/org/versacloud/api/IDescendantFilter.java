@@ -0,0 +1,28 @@
+/**
+ * 
+ */
+package org.versacloud.api;
+
+import org.hypergraphdb.HGHandle;
+
+/**
+ * Filter pruning a lazy traversal over the rights. The filter is asked once
+ * for each handle reached, only handles accepted are expanded further. The
+ * handle itself is returned by the traversal in either case.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public interface IDescendantFilter {
+
+    /**
+     * Deciding if the children of a handle should be traversed.
+     * 
+     * @param handle
+     *            reached by the traversal
+     * @return true if the children of the handle should be traversed, false
+     *         to prune the branch
+     */
+    boolean expand(final HGHandle handle);
+
+}
@@ -0,0 +1,29 @@
+/**
+ * 
+ */
+package org.versacloud.api;
+
+import java.util.Set;
+
+import org.hypergraphdb.HGHandle;
+
+/**
+ * Listener getting informed about the handles reached on each level of a
+ * traversal over the rights.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public interface IHandlerListener {
+
+    /**
+     * Called once per level with the children reached the first time on this
+     * level. The last call of a complete traversal contains an empty set.
+     * 
+     * @param children
+     *            reached on the current level
+     * @return true to stop the traversal after this level, false to continue
+     */
+    boolean touchedChildren(final Set<HGHandle> children);
+
+}
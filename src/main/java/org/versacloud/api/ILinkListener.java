@@ -0,0 +1,33 @@
+/**
+ * 
+ */
+package org.versacloud.api;
+
+import org.hypergraphdb.HGHandle;
+
+/**
+ * Listener getting informed about changes of the links stored within a
+ * handler, i.e. about granted and revoked rights. Used for keeping derived
+ * structures over the links in sync. Only the handle of a modified link is
+ * passed, the current state of the link is read from the db.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public interface ILinkListener {
+
+    /**
+     * Called after a link was inserted, modified or removed.
+     * 
+     * @param handle
+     *            of the link, not present within the db any more if removed
+     */
+    void linkChanged(final HGHandle handle);
+
+    /**
+     * Called after any link might have been modified without informing about
+     * single links, e.g. after the handler was reindexed.
+     */
+    void linksReloaded();
+
+}
@@ -0,0 +1,82 @@
+/**
+ * 
+ */
+package org.versacloud.api;
+
+/**
+ * Registry receiving the metrics of a handler. Each public operation of the
+ * handler reports its latency, failing operations additionally report an
+ * error. Traversals report the number of levels and visited nodes as
+ * counters. Implementations are called on the thread performing the
+ * operation and must therefore be thread-safe and cheap.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public interface IMetricsRegistry {
+
+    /** Operation inserting nodes. */
+    String ADD_RIGHT = "addRight";
+
+    /** Operation replacing a node. */
+    String REPLACE_RIGHT = "replaceRight";
+
+    /** Operation removing a node. */
+    String REMOVE_RIGHT = "removeRight";
+
+    /** Operation looking up handles or nodes. */
+    String LOOKUP = "lookup";
+
+    /** Operation looking up the material of one or multiple nodes. */
+    String GET_RIGHT_MATERIAL = "getRightMaterial";
+
+    /** Operation granting a right. */
+    String ACTIVATE_RIGHT = "activateRight";
+
+    /** Operation revoking a right. */
+    String DEACTIVATE_RIGHT = "deactivateRight";
+
+    /** Operation applying a batch of grants and revocations. */
+    String APPLY_RIGHTS = "applyRights";
+
+    /** Operation getting all descendants. */
+    String GET_DESCENDANTS = "getDescendants";
+
+    /** Operation checking the access of a node to another node. */
+    String CAN_ACCESS = "canAccess";
+
+    /** Counter of the levels expanded by traversals. */
+    String TRAVERSAL_LEVELS = "traversalLevels";
+
+    /** Counter of the nodes visited by traversals. */
+    String TRAVERSAL_NODES = "traversalNodes";
+
+    /**
+     * Recording the latency of one operation, successful or not.
+     * 
+     * @param operation
+     *            name of the operation
+     * @param nanos
+     *            latency in nanoseconds
+     */
+    void recordLatency(final String operation, final long nanos);
+
+    /**
+     * Recording a failed operation.
+     * 
+     * @param operation
+     *            name of the operation
+     */
+    void recordError(final String operation);
+
+    /**
+     * Incrementing a counter.
+     * 
+     * @param counter
+     *            name of the counter
+     * @param delta
+     *            to be added
+     */
+    void incrementCounter(final String counter, final long delta);
+
+}
@@ -0,0 +1,34 @@
+/**
+ * 
+ */
+package org.versacloud.api;
+
+/**
+ * Callback informed about the outcome of an asynchronous operation. The
+ * callback is invoked on the thread completing the operation and must
+ * therefore not block.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ * @param <T>
+ *            type of the result
+ */
+public interface IResultCallback<T> {
+
+    /**
+     * Called after the operation succeeded.
+     * 
+     * @param result
+     *            of the operation
+     */
+    void completed(final T result);
+
+    /**
+     * Called after the operation failed.
+     * 
+     * @param cause
+     *            of the failure
+     */
+    void failed(final Throwable cause);
+
+}
@@ -22,4 +22,28 @@ public interface IRightHandler {
      */
     byte[] getRightMaterial(final long key, final long version);
 
+    /**
+     * Getting the material for the latest version of a right.
+     * 
+     * @param key
+     *            for the node
+     * @return the secret material of the node with the highest version, null
+     *         if no version of the key is present
+     */
+    byte[] getLatestRightMaterial(final long key);
+
+    /**
+     * Getting the material for multiple rights at once. The arrays denote the
+     * rights pairwise: the material for keys[i] and versions[i] is returned
+     * at position i.
+     * 
+     * @param keys
+     *            for the nodes
+     * @param versions
+     *            for the nodes, must have the same length as the keys
+     * @return the secret material in the order of the input, null for each
+     *         right not present
+     */
+    byte[][] getRightMaterial(final long[] keys, final long[] versions);
+
 }
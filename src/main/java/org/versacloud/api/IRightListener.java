@@ -0,0 +1,50 @@
+/**
+ * 
+ */
+package org.versacloud.api;
+
+import org.hypergraphdb.HGHandle;
+import org.versacloud.model.Node;
+
+/**
+ * Listener getting informed about changes of the nodes stored within a
+ * handler. Used for keeping caches and other derived structures in sync.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public interface IRightListener {
+
+    /**
+     * Called after a node was inserted.
+     * 
+     * @param handle
+     *            of the inserted node
+     * @param node
+     *            the inserted node
+     */
+    void rightAdded(final HGHandle handle, final Node node);
+
+    /**
+     * Called after a node was removed.
+     * 
+     * @param handle
+     *            of the removed node
+     * @param node
+     *            the removed node
+     */
+    void rightRemoved(final HGHandle handle, final Node node);
+
+    /**
+     * Called after a node was replaced by another one under the same handle.
+     * 
+     * @param handle
+     *            of the replaced node
+     * @param oldNode
+     *            the node stored before
+     * @param newNode
+     *            the node stored now
+     */
+    void rightReplaced(final HGHandle handle, final Node oldNode, final Node newNode);
+
+}
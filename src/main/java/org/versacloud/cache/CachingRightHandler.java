@@ -0,0 +1,319 @@
+/**
+ * 
+ */
+package org.versacloud.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hypergraphdb.HGHandle;
+import org.versacloud.api.IRightHandler;
+import org.versacloud.api.IRightListener;
+import org.versacloud.model.Node;
+import org.versacloud.model.RightKey;
+
+/**
+ * Read-through cache in front of any {@link IRightHandler}. The material is
+ * cached per key and version in a bounded LRU-map with an optional time to
+ * live. To be informed about modifications, the cache must be registered as
+ * {@link IRightListener} at the handler providing the data, e.g. with
+ * {@link org.versacloud.HGHandler#addRightListener(IRightListener)}.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class CachingRightHandler implements IRightHandler, IRightListener {
+
+    /** Handler to get the material from on misses. */
+    private final IRightHandler mDelegate;
+
+    /** Maximal number of entries in the cache. */
+    private final int mMaxEntries;
+
+    /** Time to live of one entry in nanoseconds, 0 if entries never expire. */
+    private final long mTTL;
+
+    /** Cache itself, ordered by access. */
+    private final Map<RightKey, CacheEntry> mCache;
+
+    /**
+     * Generation of the cache, incremented on each invalidation. Material
+     * loaded during an invalidation is not put in the cache.
+     */
+    private long mGeneration;
+
+    /** Counter for hits. */
+    private final AtomicLong mHits = new AtomicLong();
+
+    /** Counter for misses. */
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /** Counter for evictions, both because of size and time. */
+    private final AtomicLong mEvictions = new AtomicLong();
+
+    /**
+     * Constructor for a cache without expiration.
+     * 
+     * @param paramDelegate
+     *            handler to get the material from
+     * @param paramMaxEntries
+     *            maximal number of cached entries
+     */
+    public CachingRightHandler(final IRightHandler paramDelegate, final int paramMaxEntries) {
+        this(paramDelegate, paramMaxEntries, 0);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param paramDelegate
+     *            handler to get the material from
+     * @param paramMaxEntries
+     *            maximal number of cached entries
+     * @param paramTTLMillis
+     *            time to live of one entry in milliseconds, 0 if entries
+     *            should never expire
+     */
+    public CachingRightHandler(final IRightHandler paramDelegate, final int paramMaxEntries,
+        final long paramTTLMillis) {
+        if (paramMaxEntries <= 0) {
+            throw new IllegalArgumentException("Number of entries must be positive but is " + paramMaxEntries);
+        }
+        if (paramTTLMillis < 0) {
+            throw new IllegalArgumentException("TTL must not be negative but is " + paramTTLMillis);
+        }
+        mDelegate = paramDelegate;
+        mMaxEntries = paramMaxEntries;
+        mTTL = paramTTLMillis * 1000000;
+        mCache = new LinkedHashMap<RightKey, CacheEntry>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<RightKey, CacheEntry> eldest) {
+                if (size() > mMaxEntries) {
+                    mEvictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getRightMaterial(final long key, final long version) {
+        final RightKey cacheKey = new RightKey(key, version);
+        final long generation;
+        synchronized (mCache) {
+            final CacheEntry entry = mCache.get(cacheKey);
+            if (entry != null) {
+                if (mTTL == 0 || System.nanoTime() - entry.mCreated < mTTL) {
+                    mHits.incrementAndGet();
+                    return entry.mMaterial;
+                }
+                mCache.remove(cacheKey);
+                mEvictions.incrementAndGet();
+            }
+            generation = mGeneration;
+        }
+        mMisses.incrementAndGet();
+        final byte[] material = mDelegate.getRightMaterial(key, version);
+        if (material != null) {
+            synchronized (mCache) {
+                // only cache the material if no invalidation happened in the
+                // meantime
+                if (generation == mGeneration) {
+                    mCache.put(cacheKey, new CacheEntry(material));
+                }
+            }
+        }
+        return material;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * All misses are requested from the underlying handler with one call.
+     */
+    @Override
+    public byte[][] getRightMaterial(final long[] keys, final long[] versions) {
+        if (keys.length != versions.length) {
+            throw new IllegalArgumentException(new StringBuilder("Got ").append(keys.length).append(
+                " keys but ").append(versions.length).append(" versions").toString());
+        }
+        final byte[][] returnval = new byte[keys.length][];
+        final int[] missPositions = new int[keys.length];
+        int misses = 0;
+        final long generation;
+        synchronized (mCache) {
+            final long now = System.nanoTime();
+            for (int i = 0; i < keys.length; i++) {
+                final RightKey cacheKey = new RightKey(keys[i], versions[i]);
+                final CacheEntry entry = mCache.get(cacheKey);
+                if (entry != null) {
+                    if (mTTL == 0 || now - entry.mCreated < mTTL) {
+                        returnval[i] = entry.mMaterial;
+                        continue;
+                    }
+                    mCache.remove(cacheKey);
+                    mEvictions.incrementAndGet();
+                }
+                missPositions[misses++] = i;
+            }
+            generation = mGeneration;
+        }
+        mHits.addAndGet(keys.length - misses);
+        mMisses.addAndGet(misses);
+        if (misses == 0) {
+            return returnval;
+        }
+
+        final long[] missKeys = new long[misses];
+        final long[] missVersions = new long[misses];
+        for (int i = 0; i < misses; i++) {
+            missKeys[i] = keys[missPositions[i]];
+            missVersions[i] = versions[missPositions[i]];
+        }
+        final byte[][] material = mDelegate.getRightMaterial(missKeys, missVersions);
+        synchronized (mCache) {
+            final boolean cacheable = generation == mGeneration;
+            for (int i = 0; i < misses; i++) {
+                returnval[missPositions[i]] = material[i];
+                if (cacheable && material[i] != null) {
+                    mCache.put(new RightKey(missKeys[i], missVersions[i]), new CacheEntry(material[i]));
+                }
+            }
+        }
+        return returnval;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The latest version of a key changes with each added node and is
+     * therefore always requested from the underlying handler.
+     */
+    @Override
+    public byte[] getLatestRightMaterial(final long key) {
+        return mDelegate.getLatestRightMaterial(key);
+    }
+
+    /**
+     * Removing one entry from the cache.
+     * 
+     * @param key
+     *            of the entry
+     * @param version
+     *            of the entry
+     */
+    public void invalidate(final long key, final long version) {
+        synchronized (mCache) {
+            mGeneration++;
+            mCache.remove(new RightKey(key, version));
+        }
+    }
+
+    /**
+     * Removing all entries from the cache.
+     */
+    public void clear() {
+        synchronized (mCache) {
+            mGeneration++;
+            mCache.clear();
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rightAdded(final HGHandle handle, final Node node) {
+        invalidate(node.getKey(), node.getVersion());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rightRemoved(final HGHandle handle, final Node node) {
+        invalidate(node.getKey(), node.getVersion());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rightReplaced(final HGHandle handle, final Node oldNode, final Node newNode) {
+        synchronized (mCache) {
+            mGeneration++;
+            if (oldNode != null) {
+                mCache.remove(new RightKey(oldNode.getKey(), oldNode.getVersion()));
+            }
+            mCache.remove(new RightKey(newNode.getKey(), newNode.getVersion()));
+        }
+    }
+
+    /**
+     * Getting the number of cached entries.
+     * 
+     * @return the number of entries
+     */
+    public int size() {
+        synchronized (mCache) {
+            return mCache.size();
+        }
+    }
+
+    /**
+     * Getting the number of hits.
+     * 
+     * @return the hits
+     */
+    public long getHits() {
+        return mHits.get();
+    }
+
+    /**
+     * Getting the number of misses.
+     * 
+     * @return the misses
+     */
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+    /**
+     * Getting the number of evicted entries.
+     * 
+     * @return the evictions
+     */
+    public long getEvictions() {
+        return mEvictions.get();
+    }
+
+    /**
+     * Cached material including its time of creation.
+     */
+    private static final class CacheEntry {
+        /** The cached material. */
+        final byte[] mMaterial;
+
+        /** Time of creation in nanoseconds. */
+        final long mCreated;
+
+        /**
+         * Constructor.
+         * 
+         * @param paramMaterial
+         *            to be cached
+         */
+        CacheEntry(final byte[] paramMaterial) {
+            mMaterial = paramMaterial;
+            mCreated = System.nanoTime();
+        }
+    }
+
+}
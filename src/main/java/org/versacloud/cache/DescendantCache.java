@@ -0,0 +1,196 @@
+/**
+ * 
+ */
+package org.versacloud.cache;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hypergraphdb.HGHandle;
+
+/**
+ * Cache for the descendants of single root handles. The memory is bounded by
+ * a budget denoting the number of handles stored over all entries, the least
+ * recently used entries are evicted first. An entry is invalidated as soon as
+ * a modified link could change the descendants, that is if the root or one
+ * of its descendants is part of the tail of the modified link.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class DescendantCache {
+
+    /** Maximal number of handles stored over all entries. */
+    private final long mBudget;
+
+    /** Cached descendants, ordered by access. */
+    private final LinkedHashMap<HGHandle, Set<HGHandle>> mCache;
+
+    /** Number of handles stored over all entries. */
+    private long mUsed;
+
+    /**
+     * Generation of the cache, incremented on each invalidation. Results
+     * computed during an invalidation are not put in the cache.
+     */
+    private long mGeneration;
+
+    /** Counter for hits. */
+    private final AtomicLong mHits = new AtomicLong();
+
+    /** Counter for misses. */
+    private final AtomicLong mMisses = new AtomicLong();
+
+    /**
+     * Constructor.
+     * 
+     * @param paramBudget
+     *            maximal number of handles stored over all entries
+     */
+    public DescendantCache(final long paramBudget) {
+        if (paramBudget <= 0) {
+            throw new IllegalArgumentException("Budget must be positive but is " + paramBudget);
+        }
+        mBudget = paramBudget;
+        mCache = new LinkedHashMap<HGHandle, Set<HGHandle>>(16, 0.75f, true);
+    }
+
+    /**
+     * Getting the cached descendants of a root.
+     * 
+     * @param root
+     *            of the traversal
+     * @return an unmodifiable set of the descendants or null if not cached
+     */
+    public synchronized Set<HGHandle> get(final HGHandle root) {
+        final Set<HGHandle> returnval = mCache.get(root);
+        if (returnval == null) {
+            mMisses.incrementAndGet();
+        } else {
+            mHits.incrementAndGet();
+        }
+        return returnval;
+    }
+
+    /**
+     * Getting the current generation, must be retrieved before computing the
+     * descendants to be put in the cache.
+     * 
+     * @return the generation
+     */
+    public synchronized long getGeneration() {
+        return mGeneration;
+    }
+
+    /**
+     * Storing the descendants of a root. Nothing is stored if the cache was
+     * invalidated since the denoted generation or if the descendants exceed
+     * the budget.
+     * 
+     * @param root
+     *            of the traversal
+     * @param descendants
+     *            of the root
+     * @param generation
+     *            of the cache retrieved before computing the descendants
+     * @return the unmodifiable descendants
+     */
+    public synchronized Set<HGHandle> put(final HGHandle root, final Set<HGHandle> descendants,
+        final long generation) {
+        final Set<HGHandle> returnval = Collections.unmodifiableSet(descendants);
+        if (generation != mGeneration || descendants.size() > mBudget) {
+            return returnval;
+        }
+        final Set<HGHandle> old = mCache.put(root, returnval);
+        if (old != null) {
+            mUsed -= old.size();
+        }
+        mUsed += returnval.size();
+        // evicting the least recently used entries
+        final Iterator<Set<HGHandle>> iter = mCache.values().iterator();
+        while (mUsed > mBudget && iter.hasNext()) {
+            mUsed -= iter.next().size();
+            iter.remove();
+        }
+        return returnval;
+    }
+
+    /**
+     * Invalidating all entries whose root or descendants contain one of the
+     * denoted handles.
+     * 
+     * @param touched
+     *            handles being part of the tail of modified links
+     */
+    public synchronized void invalidate(final Collection<HGHandle> touched) {
+        mGeneration++;
+        final Iterator<Map.Entry<HGHandle, Set<HGHandle>>> iter = mCache.entrySet().iterator();
+        while (iter.hasNext()) {
+            final Map.Entry<HGHandle, Set<HGHandle>> entry = iter.next();
+            boolean affected = touched.contains(entry.getKey());
+            if (!affected) {
+                for (final HGHandle handle : touched) {
+                    if (entry.getValue().contains(handle)) {
+                        affected = true;
+                        break;
+                    }
+                }
+            }
+            if (affected) {
+                mUsed -= entry.getValue().size();
+                iter.remove();
+            }
+        }
+    }
+
+    /**
+     * Removing all entries.
+     */
+    public synchronized void clear() {
+        mGeneration++;
+        mCache.clear();
+        mUsed = 0;
+    }
+
+    /**
+     * Getting the number of cached roots.
+     * 
+     * @return the size
+     */
+    public synchronized int size() {
+        return mCache.size();
+    }
+
+    /**
+     * Getting the number of handles stored over all entries.
+     * 
+     * @return the used budget
+     */
+    public synchronized long getUsed() {
+        return mUsed;
+    }
+
+    /**
+     * Getting the number of hits.
+     * 
+     * @return the hits
+     */
+    public long getHits() {
+        return mHits.get();
+    }
+
+    /**
+     * Getting the number of misses.
+     * 
+     * @return the misses
+     */
+    public long getMisses() {
+        return mMisses.get();
+    }
+
+}
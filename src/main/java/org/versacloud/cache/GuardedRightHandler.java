@@ -0,0 +1,178 @@
+/**
+ * 
+ */
+package org.versacloud.cache;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hypergraphdb.HGHandle;
+import org.versacloud.api.IRightHandler;
+import org.versacloud.api.IRightListener;
+import org.versacloud.index.CuckooFilter;
+import org.versacloud.model.Node;
+
+/**
+ * Guard in front of any {@link IRightHandler}, answering requests for absent
+ * rights with null without calling the underlying handler. The presence of
+ * the rights is tracked by a {@link CuckooFilter}, requests for rights
+ * possibly present are passed on. Misbehaving clients probing for absent
+ * rights therefore never reach a remote handler or a cache not caching
+ * misses. To be informed about modifications, the guard must be registered
+ * as {@link IRightListener} at the handler providing the data, e.g. with
+ * {@link org.versacloud.HGHandler#addRightListener(IRightListener)}. A right
+ * requested between its insertion and the notification might be denied.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class GuardedRightHandler implements IRightHandler, IRightListener {
+
+    /** Handler to get the material from for rights possibly present. */
+    private final IRightHandler mDelegate;
+
+    /** Filter over the present rights. */
+    private final CuckooFilter mFilter;
+
+    /** Counter for requests denied by the filter. */
+    private final AtomicLong mDenied = new AtomicLong();
+
+    /** Counter for requests passed to the underlying handler. */
+    private final AtomicLong mPassed = new AtomicLong();
+
+    /**
+     * Constructor.
+     * 
+     * @param paramDelegate
+     *            handler to get the material from
+     * @param paramFilter
+     *            filter containing all rights present, e.g. filled by
+     *            {@link CuckooFilter#rebuild(org.hypergraphdb.HyperGraph)}
+     */
+    public GuardedRightHandler(final IRightHandler paramDelegate, final CuckooFilter paramFilter) {
+        mDelegate = paramDelegate;
+        mFilter = paramFilter;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getRightMaterial(final long key, final long version) {
+        if (!mFilter.mightContain(key, version)) {
+            mDenied.incrementAndGet();
+            return null;
+        }
+        mPassed.incrementAndGet();
+        return mDelegate.getRightMaterial(key, version);
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * Only the rights possibly present are requested from the underlying
+     * handler with one call.
+     */
+    @Override
+    public byte[][] getRightMaterial(final long[] keys, final long[] versions) {
+        if (keys.length != versions.length) {
+            throw new IllegalArgumentException(new StringBuilder("Got ").append(keys.length).append(
+                " keys but ").append(versions.length).append(" versions").toString());
+        }
+        final byte[][] returnval = new byte[keys.length][];
+        final int[] passedPositions = new int[keys.length];
+        int passed = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (mFilter.mightContain(keys[i], versions[i])) {
+                passedPositions[passed++] = i;
+            }
+        }
+        mDenied.addAndGet(keys.length - passed);
+        mPassed.addAndGet(passed);
+        if (passed == 0) {
+            return returnval;
+        }
+
+        final long[] passedKeys = new long[passed];
+        final long[] passedVersions = new long[passed];
+        for (int i = 0; i < passed; i++) {
+            passedKeys[i] = keys[passedPositions[i]];
+            passedVersions[i] = versions[passedPositions[i]];
+        }
+        final byte[][] material = mDelegate.getRightMaterial(passedKeys, passedVersions);
+        for (int i = 0; i < passed; i++) {
+            returnval[passedPositions[i]] = material[i];
+        }
+        return returnval;
+    }
+
+    /**
+     * {@inheritDoc}
+     * 
+     * The filter is built over pairs of key and version, the latest version
+     * of a key is therefore always requested from the underlying handler.
+     */
+    @Override
+    public byte[] getLatestRightMaterial(final long key) {
+        return mDelegate.getLatestRightMaterial(key);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rightAdded(final HGHandle handle, final Node node) {
+        mFilter.add(node.getKey(), node.getVersion());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rightRemoved(final HGHandle handle, final Node node) {
+        mFilter.remove(node.getKey(), node.getVersion());
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void rightReplaced(final HGHandle handle, final Node oldNode, final Node newNode) {
+        if (oldNode == null) {
+            // without the old node, the filter can only be widened
+            if (!mFilter.mightContain(newNode.getKey(), newNode.getVersion())) {
+                mFilter.add(newNode.getKey(), newNode.getVersion());
+            }
+        } else if (oldNode.getKey() != newNode.getKey() || oldNode.getVersion() != newNode.getVersion()) {
+            mFilter.add(newNode.getKey(), newNode.getVersion());
+            mFilter.remove(oldNode.getKey(), oldNode.getVersion());
+        }
+    }
+
+    /**
+     * Getting the filter, e.g. for saving it.
+     * 
+     * @return the filter
+     */
+    public CuckooFilter getFilter() {
+        return mFilter;
+    }
+
+    /**
+     * Getting the number of requests denied by the filter.
+     * 
+     * @return the denied requests
+     */
+    public long getDenied() {
+        return mDenied.get();
+    }
+
+    /**
+     * Getting the number of requests passed to the underlying handler.
+     * 
+     * @return the passed requests
+     */
+    public long getPassed() {
+        return mPassed.get();
+    }
+
+}
@@ -0,0 +1,290 @@
+/**
+ * 
+ */
+package org.versacloud.generator;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.hypergraphdb.HGHandle;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.versacloud.BulkLoadSession;
+import org.versacloud.HGHandler;
+import org.versacloud.model.Node;
+import org.versacloud.model.RightOperation;
+
+/**
+ * Generator for synthetic access graphs shaped like user/group hierarchies.
+ * Level 0 contains the users, each further level contains groups being
+ * smaller by a constant reduction. Each node of a level becomes member of
+ * groups of the next level: the number of memberships per node as well as
+ * the popularity of the groups follow Zipf distributions, resulting in few
+ * large and many small groups. The generation is deterministic for a given
+ * seed and configuration.
+ * 
+ * The graph is streamed into the handler: the nodes are inserted by one
+ * {@link BulkLoadSession}, the memberships by batches of
+ * {@link HGHandler#applyRights(List)}. Besides one batch, nothing is kept in
+ * memory, allowing graphs with millions of nodes.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class AccessGraphGenerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(AccessGraphGenerator.class);
+
+    /** Version of all generated nodes. */
+    private static final long VERSION = 0;
+
+    /** Seed of the generation. */
+    private final long mSeed;
+
+    /** Number of nodes per level. */
+    private final int[] mSizes;
+
+    /** Key of the first node of each level relative to the first key. */
+    private final long[] mOffsets;
+
+    /** Key of the first generated node. */
+    private long mFirstKey;
+
+    /** Maximal number of groups a node is member of. */
+    private int mMaxMemberships = 4;
+
+    /** Exponent of the popularity of the groups. */
+    private double mGroupSkew = 1.0;
+
+    /** Exponent of the number of memberships per node. */
+    private double mMembershipSkew = 1.5;
+
+    /** Size of the secret material of each node. */
+    private int mSecretSize = 32;
+
+    /** Number of nodes or memberships written at once. */
+    private int mBatchSize = 10000;
+
+    /**
+     * Constructor.
+     * 
+     * @param paramSeed
+     *            seed of the generation
+     * @param paramUsers
+     *            number of users on level 0
+     * @param paramDepth
+     *            number of levels including the users, at least 2
+     * @param paramReduction
+     *            factor the number of nodes shrinks from one level to the
+     *            next, at least 1
+     */
+    public AccessGraphGenerator(final long paramSeed, final int paramUsers, final int paramDepth,
+        final int paramReduction) {
+        if (paramUsers <= 0 || paramDepth < 2 || paramReduction < 1) {
+            throw new IllegalArgumentException(new StringBuilder("Invalid shape with ").append(paramUsers)
+                .append(" users, depth ").append(paramDepth).append(" and reduction ").append(paramReduction)
+                .toString());
+        }
+        mSeed = paramSeed;
+        mSizes = new int[paramDepth];
+        mOffsets = new long[paramDepth];
+        mSizes[0] = paramUsers;
+        for (int level = 1; level < paramDepth; level++) {
+            mSizes[level] = Math.max(1, mSizes[level - 1] / paramReduction);
+            mOffsets[level] = mOffsets[level - 1] + mSizes[level - 1];
+        }
+    }
+
+    /**
+     * Setting the key of the first generated node, e.g. to generate into a
+     * graph already containing nodes. All generated nodes have consecutive
+     * keys.
+     * 
+     * @param paramFirstKey
+     *            the first key, 0 by default
+     */
+    public void setFirstKey(final long paramFirstKey) {
+        mFirstKey = paramFirstKey;
+    }
+
+    /**
+     * Setting the maximal number of groups a node is member of.
+     * 
+     * @param paramMaxMemberships
+     *            the maximum, 4 by default
+     */
+    public void setMaxMemberships(final int paramMaxMemberships) {
+        if (paramMaxMemberships <= 0) {
+            throw new IllegalArgumentException("Memberships must be positive but are " + paramMaxMemberships);
+        }
+        mMaxMemberships = paramMaxMemberships;
+    }
+
+    /**
+     * Setting the exponent of the Zipf distribution of the popularity of the
+     * groups. 0 denotes groups of uniform size.
+     * 
+     * @param paramGroupSkew
+     *            the exponent, 1.0 by default
+     */
+    public void setGroupSkew(final double paramGroupSkew) {
+        mGroupSkew = paramGroupSkew;
+    }
+
+    /**
+     * Setting the exponent of the Zipf distribution of the number of
+     * memberships per node. 0 denotes a uniform number of memberships.
+     * 
+     * @param paramMembershipSkew
+     *            the exponent, 1.5 by default
+     */
+    public void setMembershipSkew(final double paramMembershipSkew) {
+        mMembershipSkew = paramMembershipSkew;
+    }
+
+    /**
+     * Setting the size of the secret material of each node.
+     * 
+     * @param paramSecretSize
+     *            the size in bytes, 32 by default
+     */
+    public void setSecretSize(final int paramSecretSize) {
+        mSecretSize = paramSecretSize;
+    }
+
+    /**
+     * Setting the number of nodes or memberships written at once.
+     * 
+     * @param paramBatchSize
+     *            the size, 10000 by default
+     */
+    public void setBatchSize(final int paramBatchSize) {
+        if (paramBatchSize <= 0) {
+            throw new IllegalArgumentException("Batch size must be positive but is " + paramBatchSize);
+        }
+        mBatchSize = paramBatchSize;
+    }
+
+    /**
+     * Getting the number of levels.
+     * 
+     * @return the depth
+     */
+    public int getDepth() {
+        return mSizes.length;
+    }
+
+    /**
+     * Getting the number of nodes of a level.
+     * 
+     * @param level
+     *            0 for the users
+     * @return the number of nodes
+     */
+    public int getSize(final int level) {
+        return mSizes[level];
+    }
+
+    /**
+     * Getting the key of a generated node. All nodes are generated with
+     * version 0.
+     * 
+     * @param level
+     *            of the node
+     * @param index
+     *            of the node within the level
+     * @return the key
+     */
+    public long getKey(final int level, final int index) {
+        return mFirstKey + mOffsets[level] + index;
+    }
+
+    /**
+     * Generating the graph into the handler.
+     * 
+     * @param handler
+     *            to generate the graph in
+     * @return the number of generated memberships
+     */
+    public long generate(final HGHandler handler) {
+        final long start = System.currentTimeMillis();
+        final Random random = new Random(mSeed);
+        insertNodes(handler, random);
+        long memberships = 0;
+        for (int level = 0; level < mSizes.length - 1; level++) {
+            memberships += linkLevel(handler, level, random);
+        }
+        final long nodes = mOffsets[mSizes.length - 1] + mSizes[mSizes.length - 1];
+        LOGGER.info(new StringBuilder("Generated ").append(nodes).append(" nodes and ").append(memberships)
+            .append(" memberships in ").append(System.currentTimeMillis() - start).append(" ms").toString());
+        return memberships;
+    }
+
+    /**
+     * Inserting the nodes of all levels.
+     * 
+     * @param handler
+     *            to insert the nodes in
+     * @param random
+     *            for generating the secrets
+     */
+    private void insertNodes(final HGHandler handler, final Random random) {
+        final BulkLoadSession session = handler.beginBulkLoad(mBatchSize);
+        for (int level = 0; level < mSizes.length; level++) {
+            final String prefix = level == 0 ? "user" : "group";
+            for (int i = 0; i < mSizes[level]; i++) {
+                final byte[] secret = new byte[mSecretSize];
+                random.nextBytes(secret);
+                final long key = getKey(level, i);
+                session.add(new Node(prefix + key, key, VERSION, secret));
+            }
+        }
+        session.commit();
+    }
+
+    /**
+     * Making each node of a level member of groups of the next level.
+     * 
+     * @param handler
+     *            to insert the memberships in
+     * @param level
+     *            of the members
+     * @param random
+     *            for choosing the groups
+     * @return the number of memberships
+     */
+    private long linkLevel(final HGHandler handler, final int level, final Random random) {
+        final int groups = mSizes[level + 1];
+        final ZipfDistribution popularity = new ZipfDistribution(groups, mGroupSkew);
+        final ZipfDistribution memberships =
+            new ZipfDistribution(Math.min(mMaxMemberships, groups), mMembershipSkew);
+        final List<RightOperation> batch = new ArrayList<RightOperation>(mBatchSize);
+        long returnval = 0;
+        for (int i = 0; i < mSizes[level]; i++) {
+            final int count = memberships.sample(random);
+            final Set<HGHandle> children = new HashSet<HGHandle>();
+            // popular groups are drawn repeatedly, the number of attempts is
+            // bounded to keep the generation linear
+            for (int attempt = 0; children.size() < count && attempt < 4 * count; attempt++) {
+                final long key = getKey(level + 1, popularity.sample(random) - 1);
+                children.add(handler.getRightHandle(key, VERSION));
+            }
+            final Set<HGHandle> parents = new HashSet<HGHandle>();
+            parents.add(handler.getRightHandle(getKey(level, i), VERSION));
+            batch.add(RightOperation.grant(parents, children));
+            returnval += children.size();
+            if (batch.size() == mBatchSize) {
+                handler.applyRights(batch);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty()) {
+            handler.applyRights(batch);
+        }
+        return returnval;
+    }
+
+}
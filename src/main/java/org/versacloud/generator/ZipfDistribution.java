@@ -0,0 +1,148 @@
+/**
+ * 
+ */
+package org.versacloud.generator;
+
+import java.util.Random;
+
+/**
+ * Zipf distribution over the ranks 1 to n. Samples are drawn in constant
+ * expected time by rejection-inversion (Hoermann and Derflinger), without any
+ * table over the ranks. An exponent of 0 denotes the uniform distribution.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+final class ZipfDistribution {
+
+    /** Number of ranks. */
+    private final int mRanks;
+
+    /** Exponent of the distribution. */
+    private final double mExponent;
+
+    /** Integral of the hat function at 1.5 minus 1. */
+    private final double mIntegralFirst;
+
+    /** Integral of the hat function at n + 0.5. */
+    private final double mIntegralLast;
+
+    /** Bound for accepting a sample without evaluating the integral. */
+    private final double mBound;
+
+    /**
+     * Constructor.
+     * 
+     * @param paramRanks
+     *            number of ranks, must be positive
+     * @param paramExponent
+     *            exponent, must not be negative
+     */
+    ZipfDistribution(final int paramRanks, final double paramExponent) {
+        if (paramRanks <= 0) {
+            throw new IllegalArgumentException("Number of ranks must be positive but is " + paramRanks);
+        }
+        if (paramExponent < 0) {
+            throw new IllegalArgumentException("Exponent must not be negative but is " + paramExponent);
+        }
+        mRanks = paramRanks;
+        mExponent = paramExponent;
+        mIntegralFirst = integral(1.5) - 1;
+        mIntegralLast = integral(paramRanks + 0.5);
+        mBound = 2 - integralInverse(integral(2.5) - hat(2));
+    }
+
+    /**
+     * Drawing one rank.
+     * 
+     * @param random
+     *            source of randomness
+     * @return the rank between 1 and n
+     */
+    int sample(final Random random) {
+        if (mExponent == 0) {
+            return random.nextInt(mRanks) + 1;
+        }
+        while (true) {
+            final double u = mIntegralLast + random.nextDouble() * (mIntegralFirst - mIntegralLast);
+            final double x = integralInverse(u);
+            int k = (int)(x + 0.5);
+            if (k < 1) {
+                k = 1;
+            } else if (k > mRanks) {
+                k = mRanks;
+            }
+            if (k - x <= mBound || u >= integral(k + 0.5) - hat(k)) {
+                return k;
+            }
+        }
+    }
+
+    /**
+     * Hat function, x^-s.
+     * 
+     * @param x
+     *            argument
+     * @return the value
+     */
+    private double hat(final double x) {
+        return Math.exp(-mExponent * Math.log(x));
+    }
+
+    /**
+     * Integral of the hat function.
+     * 
+     * @param x
+     *            argument
+     * @return the value
+     */
+    private double integral(final double x) {
+        final double logX = Math.log(x);
+        return expm1ByX((1 - mExponent) * logX) * logX;
+    }
+
+    /**
+     * Inverse of the integral of the hat function.
+     * 
+     * @param x
+     *            argument
+     * @return the value
+     */
+    private double integralInverse(final double x) {
+        double t = x * (1 - mExponent);
+        if (t < -1) {
+            // limited by numerical errors only
+            t = -1;
+        }
+        return Math.exp(log1pByX(t) * x);
+    }
+
+    /**
+     * Computing log(1 + x) / x, stable for x near 0.
+     * 
+     * @param x
+     *            argument
+     * @return the value
+     */
+    private static double log1pByX(final double x) {
+        if (Math.abs(x) > 1e-8) {
+            return Math.log1p(x) / x;
+        }
+        return 1 - x * (0.5 - x * (1 / 3d - 0.25 * x));
+    }
+
+    /**
+     * Computing (exp(x) - 1) / x, stable for x near 0.
+     * 
+     * @param x
+     *            argument
+     * @return the value
+     */
+    private static double expm1ByX(final double x) {
+        if (Math.abs(x) > 1e-8) {
+            return Math.expm1(x) / x;
+        }
+        return 1 + x * 0.5 * (1 + x / 3 * (1 + 0.25 * x));
+    }
+
+}
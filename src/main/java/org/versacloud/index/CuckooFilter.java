@@ -0,0 +1,447 @@
+/**
+ * 
+ */
+package org.versacloud.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGQuery.hg;
+import org.hypergraphdb.HyperGraph;
+import org.versacloud.model.Node;
+import org.versacloud.model.NodeType;
+import org.versacloud.model.RightKey;
+
+/**
+ * Cuckoo filter over pairs of key and version, answering if a pair is
+ * definitely absent or might be present. Each pair is represented by a
+ * fingerprint of 16 bits stored in one of two buckets of four slots,
+ * resulting in a false positive rate of about 0.01% at two bytes per pair.
+ * Contrary to a Bloom filter, pairs can be removed again. Each pair must be
+ * removed at most as often as it was added.
+ * 
+ * If a pair cannot be placed since the filter is full, the filter turns
+ * saturated and answers all checks with a possible presence until it is
+ * rebuilt, a saturated filter therefore never denies a present pair.
+ * 
+ * The filter can be saved to and loaded from a file, avoiding the scan of
+ * all nodes on startup. It must be saved while no modifications happen,
+ * e.g. periodically by the owner of the handler.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class CuckooFilter {
+
+    /** Magic number at the start of a saved filter. */
+    private static final int MAGIC = 0x56434346;
+
+    /** Number of slots per bucket. */
+    private static final int SLOTS = 4;
+
+    /** Maximal number of relocations when adding a pair. */
+    private static final int MAX_KICKS = 500;
+
+    /** Maximal load aimed at when sizing the filter. */
+    private static final double LOAD = 0.9;
+
+    /** Fingerprints, {@link #SLOTS} per bucket, 0 for an empty slot. */
+    private final short[] mSlots;
+
+    /** Mask for computing the bucket of a hash, equals buckets - 1. */
+    private final int mMask;
+
+    /** Source for choosing the fingerprint to relocate. */
+    private final Random mRandom = new Random();
+
+    /** Lock guarding the filter. */
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    /** Number of stored fingerprints. */
+    private int mSize;
+
+    /** Flag denoting that a pair could not be placed. */
+    private boolean mSaturated;
+
+    /**
+     * Constructor.
+     * 
+     * @param paramCapacity
+     *            number of pairs expected to be stored at most
+     */
+    public CuckooFilter(final int paramCapacity) {
+        if (paramCapacity <= 0) {
+            throw new IllegalArgumentException("Capacity must be positive but is " + paramCapacity);
+        }
+        int buckets = 1;
+        while (buckets * SLOTS * LOAD < paramCapacity) {
+            buckets <<= 1;
+        }
+        mSlots = new short[buckets * SLOTS];
+        mMask = buckets - 1;
+    }
+
+    /**
+     * Constructor for a loaded filter.
+     * 
+     * @param paramSlots
+     *            the fingerprints
+     * @param paramSize
+     *            number of stored fingerprints
+     * @param paramSaturated
+     *            flag denoting that a pair could not be placed
+     */
+    private CuckooFilter(final short[] paramSlots, final int paramSize, final boolean paramSaturated) {
+        mSlots = paramSlots;
+        mMask = paramSlots.length / SLOTS - 1;
+        mSize = paramSize;
+        mSaturated = paramSaturated;
+    }
+
+    /**
+     * Rebuilding the filter from all nodes stored in the graph. Only key and
+     * version of each node are decoded, the {@link NodeType} must therefore be
+     * registered within the graph.
+     * 
+     * @param paramDB
+     *            to be scanned
+     */
+    public void rebuild(final HyperGraph paramDB) {
+        final List<HGHandle> handles = hg.findAll(paramDB, hg.type(Node.class));
+        mLock.writeLock().lock();
+        try {
+            for (int i = 0; i < mSlots.length; i++) {
+                mSlots[i] = 0;
+            }
+            mSize = 0;
+            mSaturated = false;
+            for (final HGHandle handle : handles) {
+                final RightKey rightKey = NodeType.getRightKey(paramDB, handle);
+                insert(rightKey.getKey(), rightKey.getVersion());
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Adding a pair.
+     * 
+     * @param key
+     *            of the pair
+     * @param version
+     *            of the pair
+     * @return true if the pair was placed, false if the filter is saturated
+     */
+    public boolean add(final long key, final long version) {
+        mLock.writeLock().lock();
+        try {
+            return insert(key, version);
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removing a pair added before.
+     * 
+     * @param key
+     *            of the pair
+     * @param version
+     *            of the pair
+     * @return true if a fingerprint of the pair was removed
+     */
+    public boolean remove(final long key, final long version) {
+        final long hash = hash(key, version);
+        final short fingerprint = fingerprint(hash);
+        final int first = (int)hash & mMask;
+        mLock.writeLock().lock();
+        try {
+            if (removeFrom(first, fingerprint) || removeFrom(alternate(first, fingerprint), fingerprint)) {
+                mSize--;
+                return true;
+            }
+            return false;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Checking if a pair might be present.
+     * 
+     * @param key
+     *            of the pair
+     * @param version
+     *            of the pair
+     * @return false if the pair is absent for sure, true if it might be
+     *         present
+     */
+    public boolean mightContain(final long key, final long version) {
+        final long hash = hash(key, version);
+        final short fingerprint = fingerprint(hash);
+        final int first = (int)hash & mMask;
+        mLock.readLock().lock();
+        try {
+            return mSaturated || contains(first, fingerprint)
+                || contains(alternate(first, fingerprint), fingerprint);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Getting the number of stored fingerprints.
+     * 
+     * @return the number of fingerprints
+     */
+    public int size() {
+        mLock.readLock().lock();
+        try {
+            return mSize;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Checking if a pair could not be placed, disabling the filter until it
+     * is rebuilt.
+     * 
+     * @return true if the filter is saturated
+     */
+    public boolean isSaturated() {
+        mLock.readLock().lock();
+        try {
+            return mSaturated;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Saving the filter. The file is written under a temporary name and
+     * renamed afterwards, a crash never leaves a partial filter.
+     * 
+     * @param paramFile
+     *            to be written
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    public void save(final File paramFile) throws IOException {
+        final File tmp = new File(paramFile.getPath() + ".tmp");
+        final DataOutputStream out =
+            new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+        mLock.readLock().lock();
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(mSlots.length);
+            out.writeInt(mSize);
+            out.writeBoolean(mSaturated);
+            for (final short fingerprint : mSlots) {
+                out.writeShort(fingerprint);
+            }
+        } finally {
+            mLock.readLock().unlock();
+            out.close();
+        }
+        if (!tmp.renameTo(paramFile) && !(paramFile.delete() && tmp.renameTo(paramFile))) {
+            throw new IOException("Cannot rename " + tmp + " to " + paramFile);
+        }
+    }
+
+    /**
+     * Loading a saved filter.
+     * 
+     * @param paramFile
+     *            written by {@link #save(File)}
+     * @return the filter
+     * @throws IOException
+     *             if the file cannot be read or is no filter
+     */
+    public static CuckooFilter load(final File paramFile) throws IOException {
+        final DataInputStream in =
+            new DataInputStream(new BufferedInputStream(new FileInputStream(paramFile)));
+        try {
+            if (in.readInt() != MAGIC) {
+                throw new IOException(paramFile + " is no filter");
+            }
+            final int length = in.readInt();
+            if (length < SLOTS || Integer.bitCount(length / SLOTS) != 1 || length % SLOTS != 0) {
+                throw new IOException(paramFile + " contains a filter of invalid size " + length);
+            }
+            final int size = in.readInt();
+            final boolean saturated = in.readBoolean();
+            final short[] slots = new short[length];
+            for (int i = 0; i < length; i++) {
+                slots[i] = in.readShort();
+            }
+            return new CuckooFilter(slots, size, saturated);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Placing the fingerprint of a pair, relocating other fingerprints if
+     * both buckets are full. Must be called while holding the write lock.
+     * 
+     * @param key
+     *            of the pair
+     * @param version
+     *            of the pair
+     * @return true if the pair was placed
+     */
+    private boolean insert(final long key, final long version) {
+        if (mSaturated) {
+            return false;
+        }
+        final long hash = hash(key, version);
+        short fingerprint = fingerprint(hash);
+        int bucket = (int)hash & mMask;
+        if (insertInto(bucket, fingerprint) || insertInto(alternate(bucket, fingerprint), fingerprint)) {
+            mSize++;
+            return true;
+        }
+        // relocating fingerprints to their alternate bucket
+        bucket = mRandom.nextBoolean() ? bucket : alternate(bucket, fingerprint);
+        for (int kick = 0; kick < MAX_KICKS; kick++) {
+            final int slot = bucket * SLOTS + mRandom.nextInt(SLOTS);
+            final short victim = mSlots[slot];
+            mSlots[slot] = fingerprint;
+            fingerprint = victim;
+            bucket = alternate(bucket, fingerprint);
+            if (insertInto(bucket, fingerprint)) {
+                mSize++;
+                return true;
+            }
+        }
+        // the homeless fingerprint is lost, only a saturated filter stays correct
+        mSaturated = true;
+        return false;
+    }
+
+    /**
+     * Placing a fingerprint in a free slot of a bucket.
+     * 
+     * @param bucket
+     *            to place the fingerprint in
+     * @param fingerprint
+     *            to be placed
+     * @return true if a free slot was found
+     */
+    private boolean insertInto(final int bucket, final short fingerprint) {
+        for (int i = bucket * SLOTS; i < (bucket + 1) * SLOTS; i++) {
+            if (mSlots[i] == 0) {
+                mSlots[i] = fingerprint;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Removing one occurrence of a fingerprint from a bucket.
+     * 
+     * @param bucket
+     *            to remove the fingerprint from
+     * @param fingerprint
+     *            to be removed
+     * @return true if the fingerprint was found
+     */
+    private boolean removeFrom(final int bucket, final short fingerprint) {
+        for (int i = bucket * SLOTS; i < (bucket + 1) * SLOTS; i++) {
+            if (mSlots[i] == fingerprint) {
+                mSlots[i] = 0;
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Checking if a bucket contains a fingerprint.
+     * 
+     * @param bucket
+     *            to be checked
+     * @param fingerprint
+     *            to be searched for
+     * @return true if the fingerprint is found
+     */
+    private boolean contains(final int bucket, final short fingerprint) {
+        for (int i = bucket * SLOTS; i < (bucket + 1) * SLOTS; i++) {
+            if (mSlots[i] == fingerprint) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Getting the alternate bucket of a fingerprint, depending only on the
+     * current bucket and the fingerprint itself.
+     * 
+     * @param bucket
+     *            the current bucket
+     * @param fingerprint
+     *            stored in the bucket
+     * @return the other bucket
+     */
+    private int alternate(final int bucket, final short fingerprint) {
+        return (bucket ^ (int)mix(fingerprint)) & mMask;
+    }
+
+    /**
+     * Deriving the fingerprint from the hash of a pair, never 0.
+     * 
+     * @param hash
+     *            of the pair
+     * @return the fingerprint
+     */
+    private static short fingerprint(final long hash) {
+        final short returnval = (short)(hash >>> 48);
+        return returnval == 0 ? 1 : returnval;
+    }
+
+    /**
+     * Hashing a pair.
+     * 
+     * @param key
+     *            of the pair
+     * @param version
+     *            of the pair
+     * @return the hash
+     */
+    private static long hash(final long key, final long version) {
+        return mix(key * 0x9E3779B97F4A7C15L + version);
+    }
+
+    /**
+     * Mixing the bits of a value.
+     * 
+     * @param value
+     *            to be mixed
+     * @return the mixed value
+     */
+    private static long mix(final long value) {
+        long returnval = value;
+        returnval ^= returnval >>> 33;
+        returnval *= 0xff51afd7ed558ccdL;
+        returnval ^= returnval >>> 33;
+        returnval *= 0xc4ceb9fe1a85ec53L;
+        returnval ^= returnval >>> 33;
+        return returnval;
+    }
+
+}
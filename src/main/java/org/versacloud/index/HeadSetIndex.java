@@ -0,0 +1,239 @@
+/**
+ * 
+ */
+package org.versacloud.index;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGQuery.hg;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.atom.HGBergeLink;
+
+/**
+ * In-memory index mapping the head set of a link to the handle of the link.
+ * Since one fixed set of children is represented by exactly one link, exact
+ * head sets are resolved without loading any link sharing only a part of the
+ * head. The index must be kept in sync by the handler modifying the links.
+ * 
+ * The index is filled lazily: a head set not contained is resolved over the
+ * links containing all its handles and stored afterwards, opening a graph
+ * therefore does not load any link. A resolved link is only stored if no
+ * modification happened meanwhile, a concurrently modified link is never
+ * stored in an outdated state.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class HeadSetIndex {
+
+    /** Graph to get the persistent handles from. */
+    private final HyperGraph mDB;
+
+    /** The mapping itself, containing the resolved head sets. */
+    private final ConcurrentMap<HeadSet, HGPersistentHandle> mMap;
+
+    /** Number of modifications, guarding the storage of resolved links. */
+    private final AtomicLong mModifications;
+
+    /**
+     * Constructor.
+     * 
+     * @param paramDB
+     *            graph the index is related to
+     */
+    public HeadSetIndex(final HyperGraph paramDB) {
+        mDB = paramDB;
+        mMap = new ConcurrentHashMap<HeadSet, HGPersistentHandle>();
+        mModifications = new AtomicLong();
+    }
+
+    /**
+     * Dropping all resolved head sets, e.g. after the links were modified
+     * without updating the index.
+     */
+    public synchronized void clear() {
+        mModifications.incrementAndGet();
+        mMap.clear();
+    }
+
+    /**
+     * Getting the link with exactly the denoted head, resolving it from the
+     * graph if not contained.
+     * 
+     * @param head
+     *            of the link
+     * @param store
+     *            true if a resolved link should be stored, must be false
+     *            within a transaction since it might not see the latest
+     *            modifications
+     * @return the handle of the link or null if not present
+     * @throws IllegalStateException
+     *             if multiple links with the head are stored
+     */
+    public HGPersistentHandle get(final Set<HGHandle> head, final boolean store) {
+        final HeadSet set = canonicalize(head);
+        final HGPersistentHandle returnval = mMap.get(set);
+        if (returnval != null) {
+            return returnval;
+        }
+        final long modifications = mModifications.get();
+        final HGPersistentHandle resolved = resolve(head, set);
+        if (resolved != null && store) {
+            synchronized (this) {
+                if (mModifications.get() == modifications) {
+                    mMap.putIfAbsent(set, resolved);
+                }
+            }
+        }
+        return resolved;
+    }
+
+    /**
+     * Storing the link for a head.
+     * 
+     * @param head
+     *            of the link
+     * @param link
+     *            handle of the link
+     * @throws IllegalStateException
+     *             if another link is already stored for the head
+     */
+    public synchronized void put(final Set<HGHandle> head, final HGHandle link) {
+        final HGPersistentHandle handle = mDB.getPersistentHandle(link);
+        mModifications.incrementAndGet();
+        final HGPersistentHandle old = mMap.putIfAbsent(canonicalize(head), handle);
+        if (old != null && !old.equals(handle)) {
+            throw new IllegalStateException("the set should only be contained once");
+        }
+    }
+
+    /**
+     * Removing the link for a head.
+     * 
+     * @param head
+     *            of the link
+     * @return the handle of the removed link or null if not present
+     */
+    public synchronized HGPersistentHandle remove(final Set<HGHandle> head) {
+        mModifications.incrementAndGet();
+        return mMap.remove(canonicalize(head));
+    }
+
+    /**
+     * Getting the number of resolved links.
+     * 
+     * @return the size
+     */
+    public int size() {
+        return mMap.size();
+    }
+
+    /**
+     * Resolving the link with exactly the denoted head from the graph. Only
+     * the links containing all handles of the head are loaded.
+     * 
+     * @param head
+     *            of the link
+     * @param set
+     *            canonical form of the head
+     * @return the handle of the link or null if not present
+     * @throws IllegalStateException
+     *             if multiple links with the head are stored
+     */
+    private HGPersistentHandle resolve(final Set<HGHandle> head, final HeadSet set) {
+        if (head.isEmpty()) {
+            return null;
+        }
+        final List<HGHandle> handles =
+            hg.findAll(mDB, hg.and(hg.type(HGBergeLink.class), hg.link(head)));
+        HGPersistentHandle returnval = null;
+        for (final HGHandle handle : handles) {
+            final HGBergeLink link = mDB.get(handle);
+            if (link != null && set.equals(canonicalize(link.getHead()))) {
+                if (returnval != null) {
+                    throw new IllegalStateException("the set should only be contained once");
+                }
+                returnval = mDB.getPersistentHandle(handle);
+            }
+        }
+        return returnval;
+    }
+
+    /**
+     * Converting a set of handles to its canonical form.
+     * 
+     * @param head
+     *            to be converted
+     * @return the canonical head set
+     */
+    private HeadSet canonicalize(final Set<HGHandle> head) {
+        final HGPersistentHandle[] handles = new HGPersistentHandle[head.size()];
+        int i = 0;
+        for (final HGHandle handle : head) {
+            handles[i++] = mDB.getPersistentHandle(handle);
+        }
+        return new HeadSet(handles);
+    }
+
+    /**
+     * Canonical representation of a head set: the sorted persistent handles
+     * together with a fingerprint over them.
+     */
+    private static final class HeadSet {
+
+        /** Sorted handles. */
+        private final HGPersistentHandle[] mHandles;
+
+        /** Fingerprint over the sorted handles. */
+        private final long mFingerprint;
+
+        /**
+         * Constructor.
+         * 
+         * @param paramHandles
+         *            handles of the set, sorted in place
+         */
+        HeadSet(final HGPersistentHandle[] paramHandles) {
+            Arrays.sort(paramHandles);
+            mHandles = paramHandles;
+            // FNV-1a over the bytes of all handles
+            long fingerprint = 0xcbf29ce484222325L;
+            for (final HGPersistentHandle handle : mHandles) {
+                for (final byte part : handle.toByteArray()) {
+                    fingerprint ^= part & 0xff;
+                    fingerprint *= 0x100000001b3L;
+                }
+            }
+            mFingerprint = fingerprint;
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public int hashCode() {
+            return (int)(mFingerprint ^ (mFingerprint >>> 32));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public boolean equals(final Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof HeadSet))
+                return false;
+            final HeadSet other = (HeadSet)obj;
+            return mFingerprint == other.mFingerprint && Arrays.equals(mHandles, other.mHandles);
+        }
+    }
+
+}
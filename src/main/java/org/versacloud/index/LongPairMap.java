@@ -0,0 +1,265 @@
+/**
+ * 
+ */
+package org.versacloud.index;
+
+import java.util.Arrays;
+
+/**
+ * Open-addressing hash map with linear probing, mapping a pair of primitive
+ * longs to an object. Keys are stored in two parallel long arrays, therefore
+ * no boxing occurs on any access. Deletions are performed with backward
+ * shifting, no tombstones are left in the table.
+ * 
+ * The map is not thread-safe.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ * @param <V>
+ *            type of the values
+ */
+public final class LongPairMap<V> {
+
+    /** Minimal capacity of the table. */
+    private static final int MIN_CAPACITY = 16;
+
+    /** First part of the keys. */
+    private long[] mFirst;
+
+    /** Second part of the keys. */
+    private long[] mSecond;
+
+    /** Values, null denotes a free slot. */
+    private Object[] mValues;
+
+    /** Number of stored elements. */
+    private int mSize;
+
+    /** Mask for computing the slot of a hash, equals capacity - 1. */
+    private int mMask;
+
+    /**
+     * Constructor.
+     */
+    public LongPairMap() {
+        this(MIN_CAPACITY);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param paramExpected
+     *            number of expected elements
+     */
+    public LongPairMap(final int paramExpected) {
+        allocate(capacityFor(paramExpected));
+    }
+
+    /**
+     * Getting the value stored for a pair.
+     * 
+     * @param first
+     *            first part of the key
+     * @param second
+     *            second part of the key
+     * @return the value or null if not present
+     */
+    @SuppressWarnings("unchecked")
+    public V get(final long first, final long second) {
+        int slot = hash(first, second) & mMask;
+        while (mValues[slot] != null) {
+            if (mFirst[slot] == first && mSecond[slot] == second) {
+                return (V)mValues[slot];
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return null;
+    }
+
+    /**
+     * Checking if a pair is contained.
+     * 
+     * @param first
+     *            first part of the key
+     * @param second
+     *            second part of the key
+     * @return true if contained, false otherwise
+     */
+    public boolean containsKey(final long first, final long second) {
+        return get(first, second) != null;
+    }
+
+    /**
+     * Storing a value for a pair.
+     * 
+     * @param first
+     *            first part of the key
+     * @param second
+     *            second part of the key
+     * @param value
+     *            to be stored, must not be null
+     * @return the value stored before or null if not present
+     */
+    @SuppressWarnings("unchecked")
+    public V put(final long first, final long second, final V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not supported");
+        }
+        int slot = hash(first, second) & mMask;
+        while (mValues[slot] != null) {
+            if (mFirst[slot] == first && mSecond[slot] == second) {
+                final V old = (V)mValues[slot];
+                mValues[slot] = value;
+                return old;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        mFirst[slot] = first;
+        mSecond[slot] = second;
+        mValues[slot] = value;
+        mSize++;
+        // keeping the load factor below 0.5
+        if (mSize * 2 > mValues.length) {
+            resize(mValues.length * 2);
+        }
+        return null;
+    }
+
+    /**
+     * Removing a pair.
+     * 
+     * @param first
+     *            first part of the key
+     * @param second
+     *            second part of the key
+     * @return the value stored before or null if not present
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(final long first, final long second) {
+        int slot = hash(first, second) & mMask;
+        while (mValues[slot] != null) {
+            if (mFirst[slot] == first && mSecond[slot] == second) {
+                final V old = (V)mValues[slot];
+                shiftBack(slot);
+                mSize--;
+                return old;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        return null;
+    }
+
+    /**
+     * Getting the number of stored pairs.
+     * 
+     * @return the size
+     */
+    public int size() {
+        return mSize;
+    }
+
+    /**
+     * Removing all pairs.
+     */
+    public void clear() {
+        Arrays.fill(mValues, null);
+        mSize = 0;
+    }
+
+    /**
+     * Closing the gap at the denoted slot by moving subsequent elements of
+     * the probing sequence backwards.
+     * 
+     * @param paramSlot
+     *            to be freed
+     */
+    private void shiftBack(final int paramSlot) {
+        int gap = paramSlot;
+        int slot = (gap + 1) & mMask;
+        while (mValues[slot] != null) {
+            final int home = hash(mFirst[slot], mSecond[slot]) & mMask;
+            // move the element if its home is not located cyclically within
+            // (gap, slot]
+            if (((slot - home) & mMask) >= ((slot - gap) & mMask)) {
+                mFirst[gap] = mFirst[slot];
+                mSecond[gap] = mSecond[slot];
+                mValues[gap] = mValues[slot];
+                gap = slot;
+            }
+            slot = (slot + 1) & mMask;
+        }
+        mValues[gap] = null;
+    }
+
+    /**
+     * Rehashing all elements into a new table.
+     * 
+     * @param paramCapacity
+     *            of the new table
+     */
+    private void resize(final int paramCapacity) {
+        final long[] oldFirst = mFirst;
+        final long[] oldSecond = mSecond;
+        final Object[] oldValues = mValues;
+        allocate(paramCapacity);
+        for (int i = 0; i < oldValues.length; i++) {
+            if (oldValues[i] != null) {
+                int slot = hash(oldFirst[i], oldSecond[i]) & mMask;
+                while (mValues[slot] != null) {
+                    slot = (slot + 1) & mMask;
+                }
+                mFirst[slot] = oldFirst[i];
+                mSecond[slot] = oldSecond[i];
+                mValues[slot] = oldValues[i];
+            }
+        }
+    }
+
+    /**
+     * Allocating the arrays.
+     * 
+     * @param paramCapacity
+     *            must be a power of two
+     */
+    private void allocate(final int paramCapacity) {
+        mFirst = new long[paramCapacity];
+        mSecond = new long[paramCapacity];
+        mValues = new Object[paramCapacity];
+        mMask = paramCapacity - 1;
+    }
+
+    /**
+     * Computing the capacity for a number of elements.
+     * 
+     * @param paramExpected
+     *            number of elements
+     * @return a power of two capacity with a load factor below 0.5
+     */
+    private static int capacityFor(final int paramExpected) {
+        int capacity = MIN_CAPACITY;
+        while (capacity < paramExpected * 2) {
+            capacity <<= 1;
+        }
+        return capacity;
+    }
+
+    /**
+     * Hashing of a pair with the finalizer of MurmurHash3.
+     * 
+     * @param first
+     *            first part of the key
+     * @param second
+     *            second part of the key
+     * @return the hash
+     */
+    static int hash(final long first, final long second) {
+        long hash = first * 0x9E3779B97F4A7C15L + second;
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return (int)hash;
+    }
+
+}
@@ -0,0 +1,464 @@
+/**
+ * 
+ */
+package org.versacloud.index;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGQuery.hg;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.atom.HGBergeLink;
+
+/**
+ * In-memory reachability labels over the rights in the style of GRAIL. Each
+ * node carries a fixed number of intervals, each computed from the ranks of
+ * one randomized depth-first traversal. The intervals of a node contain the
+ * intervals of all nodes it reaches, a node whose intervals do not contain
+ * the ones of another node therefore never reaches it. Such negative answers
+ * are given without touching the graph, positive answers only denote a
+ * possible path which must be confirmed by a search.
+ * 
+ * Granted rights widen the intervals of the parents and all their ancestors.
+ * Revoked rights and removed nodes leave the intervals untouched since they
+ * stay valid, only the precision decreases. Once the revoked edges exceed a
+ * quarter of all edges, the index reports to be stale and should be rebuilt
+ * from the graph. Cycles are supported, the nodes of a cycle share their
+ * intervals.
+ * 
+ * All methods are synchronized.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class ReachabilityIndex {
+
+    /** Default number of intervals per node. */
+    public static final int DEFAULT_LABELS = 3;
+
+    /** Minimal number of revoked edges before the index is stale. */
+    private static final int MIN_STALE = 64;
+
+    /** Number of intervals per node. */
+    private final int mLabels;
+
+    /** Source of the randomized traversal orders. */
+    private final Random mRandom;
+
+    /** Dense ids of the nodes taking part in any edge. */
+    private final Map<HGPersistentHandle, Integer> mIds = new HashMap<HGPersistentHandle, Integer>();
+
+    /** Children of each node by id. */
+    private final List<Set<Integer>> mChildren = new ArrayList<Set<Integer>>();
+
+    /** Parents of each node by id. */
+    private final List<Set<Integer>> mParents = new ArrayList<Set<Integer>>();
+
+    /** Lower bounds of the intervals, {@link #mLabels} entries per node. */
+    private int[] mLow = new int[0];
+
+    /** Upper bounds of the intervals, {@link #mLabels} entries per node. */
+    private int[] mHigh = new int[0];
+
+    /** Next rank assigned to a node, equal for all traversals. */
+    private int mNextRank;
+
+    /** Number of edges. */
+    private long mEdges;
+
+    /** Number of edges revoked since the last rebuild. */
+    private long mRevoked;
+
+    /**
+     * Constructor with the default number of intervals.
+     * 
+     * @param paramSeed
+     *            seed of the randomized traversals
+     */
+    public ReachabilityIndex(final long paramSeed) {
+        this(DEFAULT_LABELS, paramSeed);
+    }
+
+    /**
+     * Constructor.
+     * 
+     * @param paramLabels
+     *            number of intervals per node, more intervals answer more
+     *            negative checks at the cost of memory
+     * @param paramSeed
+     *            seed of the randomized traversals
+     */
+    public ReachabilityIndex(final int paramLabels, final long paramSeed) {
+        if (paramLabels <= 0) {
+            throw new IllegalArgumentException("Number of labels must be positive but is " + paramLabels);
+        }
+        mLabels = paramLabels;
+        mRandom = new Random(paramSeed);
+    }
+
+    /**
+     * Rebuilding the index from all links stored in the graph.
+     * 
+     * @param paramDB
+     *            to be scanned
+     */
+    public synchronized void rebuild(final HyperGraph paramDB) {
+        mIds.clear();
+        mChildren.clear();
+        mParents.clear();
+        mEdges = 0;
+        mRevoked = 0;
+        mNextRank = 0;
+        final List<HGHandle> links = hg.findAll(paramDB, hg.type(HGBergeLink.class));
+        for (final HGHandle handle : links) {
+            final HGBergeLink link = paramDB.get(handle);
+            for (final HGHandle parent : link.getTail()) {
+                final int from = id(parent);
+                for (final HGHandle child : link.getHead()) {
+                    if (mChildren.get(from).add(id(child))) {
+                        mParents.get(id(child)).add(from);
+                        mEdges++;
+                    }
+                }
+            }
+        }
+        final int size = mChildren.size();
+        mLow = new int[size * mLabels];
+        mHigh = new int[size * mLabels];
+        mNextRank = size;
+        for (int label = 0; label < mLabels; label++) {
+            label(label);
+        }
+    }
+
+    /**
+     * Adding the edges of a granted right, widening the intervals of the
+     * parents and their ancestors.
+     * 
+     * @param parents
+     *            gaining the right
+     * @param children
+     *            providing the right
+     */
+    public synchronized void addEdges(final Collection<HGHandle> parents,
+        final Collection<HGHandle> children) {
+        for (final HGHandle parent : parents) {
+            final int from = id(parent);
+            for (final HGHandle child : children) {
+                final int to = id(child);
+                if (mChildren.get(from).add(to)) {
+                    mParents.get(to).add(from);
+                    mEdges++;
+                    widen(from, to);
+                }
+            }
+        }
+    }
+
+    /**
+     * Noting the edges of a revoked right. The intervals stay valid, the
+     * edges are only counted for deciding about a rebuild since other rights
+     * might still provide the same edges.
+     * 
+     * @param parents
+     *            losing the right
+     * @param children
+     *            providing the right
+     */
+    public synchronized void removeEdges(final Collection<HGHandle> parents,
+        final Collection<HGHandle> children) {
+        mRevoked += (long)parents.size() * children.size();
+    }
+
+    /**
+     * Noting a removed node, counting all its edges as revoked.
+     * 
+     * @param handle
+     *            of the removed node
+     */
+    public synchronized void removeNode(final HGHandle handle) {
+        final Integer id = mIds.get(handle.getPersistent());
+        if (id != null) {
+            mRevoked += mChildren.get(id).size() + mParents.get(id).size();
+        }
+    }
+
+    /**
+     * Checking if a node might be reached from another node over at least
+     * one edge.
+     * 
+     * @param from
+     *            handle to start
+     * @param to
+     *            handle to be reached
+     * @return false if the node is not reachable for sure, true if it might
+     *         be reachable
+     */
+    public synchronized boolean mayReach(final HGHandle from, final HGHandle to) {
+        final Integer fromId = mIds.get(from.getPersistent());
+        final Integer toId = mIds.get(to.getPersistent());
+        // nodes without any edge neither reach nor are reached
+        if (fromId == null || toId == null || mChildren.get(fromId).isEmpty()
+            || mParents.get(toId).isEmpty()) {
+            return false;
+        }
+        return contains(fromId, toId);
+    }
+
+    /**
+     * Checking if a node might be reached from another node or equals it.
+     * 
+     * @param from
+     *            handle to start
+     * @param to
+     *            handle to be reached
+     * @return false if the node is neither equal nor reachable for sure, true
+     *         otherwise
+     */
+    public synchronized boolean mayReachOrEqual(final HGHandle from, final HGHandle to) {
+        return from.equals(to) || mayReach(from, to);
+    }
+
+    /**
+     * Checking if the index should be rebuilt since too many edges were
+     * revoked.
+     * 
+     * @return true if a rebuild is recommended
+     */
+    public synchronized boolean isStale() {
+        return mRevoked > Math.max(MIN_STALE, mEdges / 4);
+    }
+
+    /**
+     * Getting the number of nodes taking part in any edge.
+     * 
+     * @return the number of nodes
+     */
+    public synchronized int size() {
+        return mIds.size();
+    }
+
+    /**
+     * Getting the dense id of a node, assigning a new id and a fresh rank if
+     * the node is unknown.
+     * 
+     * @param handle
+     *            of the node
+     * @return the id
+     */
+    private int id(final HGHandle handle) {
+        final HGPersistentHandle persistent = handle.getPersistent();
+        Integer returnval = mIds.get(persistent);
+        if (returnval == null) {
+            returnval = mChildren.size();
+            mIds.put(persistent, returnval);
+            mChildren.add(new HashSet<Integer>());
+            mParents.add(new HashSet<Integer>());
+            if (mLow.length < mChildren.size() * mLabels) {
+                final int length = Math.max(mChildren.size() * mLabels, mLow.length * 2);
+                mLow = Arrays.copyOf(mLow, length);
+                mHigh = Arrays.copyOf(mHigh, length);
+            }
+            final int rank = mNextRank++;
+            for (int label = 0; label < mLabels; label++) {
+                mLow[returnval * mLabels + label] = rank;
+                mHigh[returnval * mLabels + label] = rank;
+            }
+        }
+        return returnval;
+    }
+
+    /**
+     * Checking if all intervals of one node contain the ones of another node.
+     * 
+     * @param outer
+     *            id of the containing node
+     * @param inner
+     *            id of the contained node
+     * @return true if all intervals are contained
+     */
+    private boolean contains(final int outer, final int inner) {
+        for (int label = 0; label < mLabels; label++) {
+            if (mLow[outer * mLabels + label] > mLow[inner * mLabels + label]
+                || mHigh[outer * mLabels + label] < mHigh[inner * mLabels + label]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Widening the intervals of a node to contain the ones of its new child
+     * and propagating the change to all ancestors.
+     * 
+     * @param parent
+     *            id of the node to be widened
+     * @param child
+     *            id of the new child
+     */
+    private void widen(final int parent, final int child) {
+        final Deque<int[]> work = new ArrayDeque<int[]>();
+        work.push(new int[] {
+            parent, child
+        });
+        while (!work.isEmpty()) {
+            final int[] edge = work.pop();
+            if (!contains(edge[0], edge[1])) {
+                for (int label = 0; label < mLabels; label++) {
+                    final int outer = edge[0] * mLabels + label;
+                    final int inner = edge[1] * mLabels + label;
+                    mLow[outer] = Math.min(mLow[outer], mLow[inner]);
+                    mHigh[outer] = Math.max(mHigh[outer], mHigh[inner]);
+                }
+                for (final int ancestor : mParents.get(edge[0])) {
+                    work.push(new int[] {
+                        ancestor, edge[0]
+                    });
+                }
+            }
+        }
+    }
+
+    /**
+     * Computing one interval of all nodes: the nodes are ranked in the
+     * post-order of a randomized depth-first traversal, each interval spans
+     * the ranks of all nodes reached. Ranks of back edges are merged by
+     * repeating the propagation until nothing changes.
+     * 
+     * @param label
+     *            index of the interval
+     */
+    private void label(final int label) {
+        final int size = mChildren.size();
+        final int[] order = postOrder();
+        for (int rank = 0; rank < size; rank++) {
+            mLow[order[rank] * mLabels + label] = rank;
+            mHigh[order[rank] * mLabels + label] = rank;
+        }
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            // children are ranked before their parents unless reached over a back edge
+            for (final int node : order) {
+                final int outer = node * mLabels + label;
+                for (final int child : mChildren.get(node)) {
+                    final int inner = child * mLabels + label;
+                    if (mLow[inner] < mLow[outer]) {
+                        mLow[outer] = mLow[inner];
+                        changed = true;
+                    }
+                    if (mHigh[inner] > mHigh[outer]) {
+                        mHigh[outer] = mHigh[inner];
+                        changed = true;
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Traversing all nodes depth-first with randomized order of the roots and
+     * the children.
+     * 
+     * @return the ids of all nodes in post-order
+     */
+    private int[] postOrder() {
+        final int size = mChildren.size();
+        final int[] returnval = new int[size];
+        int next = 0;
+        final boolean[] visited = new boolean[size];
+        // the node and the position within its children, next to the
+        // shuffled children themselves
+        final Deque<int[]> stack = new ArrayDeque<int[]>();
+        final Deque<int[]> children = new ArrayDeque<int[]>();
+        for (final int root : shuffled(range(size))) {
+            if (visited[root]) {
+                continue;
+            }
+            visited[root] = true;
+            stack.push(new int[] {
+                root, 0
+            });
+            children.push(shuffled(toArray(mChildren.get(root))));
+            while (!stack.isEmpty()) {
+                final int[] top = stack.peek();
+                final int[] candidates = children.peek();
+                if (top[1] < candidates.length) {
+                    final int child = candidates[top[1]++];
+                    if (!visited[child]) {
+                        visited[child] = true;
+                        stack.push(new int[] {
+                            child, 0
+                        });
+                        children.push(shuffled(toArray(mChildren.get(child))));
+                    }
+                } else {
+                    returnval[next++] = top[0];
+                    stack.pop();
+                    children.pop();
+                }
+            }
+        }
+        return returnval;
+    }
+
+    /**
+     * Shuffling an array in place.
+     * 
+     * @param array
+     *            to be shuffled
+     * @return the array
+     */
+    private int[] shuffled(final int[] array) {
+        for (int i = array.length - 1; i > 0; i--) {
+            final int other = mRandom.nextInt(i + 1);
+            final int tmp = array[i];
+            array[i] = array[other];
+            array[other] = tmp;
+        }
+        return array;
+    }
+
+    /**
+     * Creating the array of all ids.
+     * 
+     * @param size
+     *            number of ids
+     * @return the array 0 to size - 1
+     */
+    private static int[] range(final int size) {
+        final int[] returnval = new int[size];
+        for (int i = 0; i < size; i++) {
+            returnval[i] = i;
+        }
+        return returnval;
+    }
+
+    /**
+     * Converting a set of ids to an array.
+     * 
+     * @param ids
+     *            to be converted
+     * @return the array
+     */
+    private static int[] toArray(final Set<Integer> ids) {
+        final int[] returnval = new int[ids.size()];
+        int i = 0;
+        for (final int id : ids) {
+            returnval[i++] = id;
+        }
+        return returnval;
+    }
+
+}
@@ -0,0 +1,403 @@
+/**
+ * 
+ */
+package org.versacloud.index;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGQuery.hg;
+import org.hypergraphdb.HyperGraph;
+import org.versacloud.model.Node;
+import org.versacloud.model.NodeType;
+import org.versacloud.model.RightKey;
+
+/**
+ * In-memory index mapping the key and version of a node to the persistent
+ * handle of the node and the offset of its material within a separate store.
+ * Point lookups are served without the HyperGraph query engine, material is
+ * read without deserializing the node. Additionally, the nodes are kept ordered by key ascending and
+ * version descending, serving the latest version of a key and version ranges
+ * by one seek. The index must be kept in sync by the handler modifying the
+ * nodes and is rebuilt from the graph on startup. Keys and versions of nodes
+ * being inserted are reserved beforehand, concurrent insertions of the same
+ * key and version are therefore rejected before reaching the graph.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class RightIndex {
+
+    /** Order by key ascending and version descending. */
+    private static final Comparator<RightKey> ORDER = new Comparator<RightKey>() {
+        @Override
+        public int compare(final RightKey first, final RightKey second) {
+            if (first.getKey() != second.getKey()) {
+                return first.getKey() < second.getKey() ? -1 : 1;
+            }
+            if (first.getVersion() != second.getVersion()) {
+                return first.getVersion() > second.getVersion() ? -1 : 1;
+            }
+            return 0;
+        }
+    };
+
+    /** The mapping itself. */
+    private final LongPairMap<Entry> mMap;
+
+    /**
+     * Ordered view of the mapping, sorted by key ascending and version
+     * descending.
+     */
+    private final NavigableMap<RightKey, Entry> mOrdered;
+
+    /** Keys and versions reserved for nodes not yet stored. */
+    private final LongPairMap<Boolean> mReserved;
+
+    /** Lock guarding the mapping. */
+    private final ReadWriteLock mLock = new ReentrantReadWriteLock();
+
+    /**
+     * Constructor.
+     */
+    public RightIndex() {
+        mMap = new LongPairMap<Entry>();
+        mOrdered = new TreeMap<RightKey, Entry>(ORDER);
+        mReserved = new LongPairMap<Boolean>();
+    }
+
+    /**
+     * Rebuilding the index from all nodes stored in the graph. Only the header
+     * of each node is decoded, the {@link NodeType} must therefore be
+     * registered within the graph.
+     * 
+     * @param paramDB
+     *            to be scanned
+     */
+    public void rebuild(final HyperGraph paramDB) {
+        final List<HGHandle> handles = hg.findAll(paramDB, hg.type(Node.class));
+        mLock.writeLock().lock();
+        try {
+            mMap.clear();
+            mOrdered.clear();
+            for (final HGHandle handle : handles) {
+                final Node header = NodeType.getHeader(paramDB, handle);
+                final Entry entry = new Entry(paramDB.getPersistentHandle(handle), header.getSecretOffset());
+                mOrdered.put(new RightKey(header.getKey(), header.getVersion()), entry);
+                if (mMap.put(header.getKey(), header.getVersion(), entry) != null) {
+                    throw new IllegalStateException(new StringBuilder("Node with key ").append(
+                        header.getKey()).append(" and version ").append(header.getVersion()).append(
+                        " is stored twice").toString());
+                }
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Getting the handle of a node.
+     * 
+     * @param key
+     *            of the node
+     * @param version
+     *            of the node
+     * @return the handle or null if not present
+     */
+    public HGPersistentHandle get(final long key, final long version) {
+        final Entry entry = getEntry(key, version);
+        return entry == null ? null : entry.mHandle;
+    }
+
+    /**
+     * Getting the handle and the offset of the material of a node.
+     * 
+     * @param key
+     *            of the node
+     * @param version
+     *            of the node
+     * @return the entry or null if not present
+     */
+    public Entry getEntry(final long key, final long version) {
+        mLock.readLock().lock();
+        try {
+            return mMap.get(key, version);
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Getting the entries of multiple nodes within one pass.
+     * 
+     * @param keys
+     *            of the nodes
+     * @param versions
+     *            of the nodes, must have the same length as the keys
+     * @return the entries in the order of the input, null for each node not
+     *         present
+     */
+    public Entry[] getEntries(final long[] keys, final long[] versions) {
+        final Entry[] returnval = new Entry[keys.length];
+        mLock.readLock().lock();
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                returnval[i] = mMap.get(keys[i], versions[i]);
+            }
+        } finally {
+            mLock.readLock().unlock();
+        }
+        return returnval;
+    }
+
+    /**
+     * Getting the handle of the latest version of a key.
+     * 
+     * @param key
+     *            of the node
+     * @return the handle of the node with the highest version or null if no
+     *         version of the key is present
+     */
+    public HGPersistentHandle getLatest(final long key) {
+        final Entry entry = getLatestEntry(key);
+        return entry == null ? null : entry.mHandle;
+    }
+
+    /**
+     * Getting the entry of the latest version of a key.
+     * 
+     * @param key
+     *            of the node
+     * @return the entry of the node with the highest version or null if no
+     *         version of the key is present
+     */
+    public Entry getLatestEntry(final long key) {
+        mLock.readLock().lock();
+        try {
+            final Map.Entry<RightKey, Entry> entry = mOrdered.ceilingEntry(new RightKey(key, Long.MAX_VALUE));
+            if (entry == null || entry.getKey().getKey() != key) {
+                return null;
+            }
+            return entry.getValue();
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Getting the key and version of the latest version of a key.
+     * 
+     * @param key
+     *            of the node
+     * @return the key and the highest version or null if no version of the
+     *         key is present
+     */
+    public RightKey getLatestKey(final long key) {
+        mLock.readLock().lock();
+        try {
+            final RightKey returnval = mOrdered.ceilingKey(new RightKey(key, Long.MAX_VALUE));
+            if (returnval == null || returnval.getKey() != key) {
+                return null;
+            }
+            return returnval;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Getting all versions of a key within a range.
+     * 
+     * @param key
+     *            of the nodes
+     * @param fromVersion
+     *            lowest version, inclusive
+     * @param toVersion
+     *            highest version, inclusive
+     * @return the versions present in descending order
+     */
+    public long[] getVersions(final long key, final long fromVersion, final long toVersion) {
+        if (fromVersion > toVersion) {
+            return new long[0];
+        }
+        mLock.readLock().lock();
+        try {
+            final NavigableMap<RightKey, Entry> range =
+                mOrdered.subMap(new RightKey(key, toVersion), true, new RightKey(key, fromVersion), true);
+            final long[] returnval = new long[range.size()];
+            int i = 0;
+            for (final RightKey rightKey : range.keySet()) {
+                returnval[i++] = rightKey.getVersion();
+            }
+            return returnval;
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Reserving the keys and versions of nodes about to be inserted. Either
+     * all pairs are reserved or none. A reservation ends by storing the node
+     * with {@link #put(long, long, HGPersistentHandle, long)} or by
+     * {@link #release(long[], long[])}.
+     * 
+     * @param keys
+     *            of the nodes
+     * @param versions
+     *            of the nodes, must have the same length as the keys
+     * @throws IllegalStateException
+     *             if a pair is already present, reserved or contained twice
+     */
+    public void reserve(final long[] keys, final long[] versions) {
+        mLock.writeLock().lock();
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                if (mMap.containsKey(keys[i], versions[i])
+                    || mReserved.put(keys[i], versions[i], Boolean.TRUE) != null) {
+                    // rolling back the pairs reserved so far
+                    for (int j = 0; j < i; j++) {
+                        mReserved.remove(keys[j], versions[j]);
+                    }
+                    throw new IllegalStateException(new StringBuilder("Node with key ").append(keys[i])
+                        .append(" and version ").append(versions[i]).append(" is already stored").toString());
+                }
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Releasing reservations made by {@link #reserve(long[], long[])} for
+     * nodes not stored within the index.
+     * 
+     * @param keys
+     *            of the nodes
+     * @param versions
+     *            of the nodes, must have the same length as the keys
+     */
+    public void release(final long[] keys, final long[] versions) {
+        mLock.writeLock().lock();
+        try {
+            for (int i = 0; i < keys.length; i++) {
+                mReserved.remove(keys[i], versions[i]);
+            }
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Storing the handle of a node and the offset of its material, ending a
+     * reservation of the key and version.
+     * 
+     * @param key
+     *            of the node
+     * @param version
+     *            of the node
+     * @param handle
+     *            of the node
+     * @param secretOffset
+     *            of the material within a separate store, -1 if the material
+     *            is kept within the node
+     * @return the handle stored before or null if not present
+     */
+    public HGPersistentHandle put(final long key, final long version, final HGPersistentHandle handle,
+        final long secretOffset) {
+        final Entry entry = new Entry(handle, secretOffset);
+        mLock.writeLock().lock();
+        try {
+            mReserved.remove(key, version);
+            mOrdered.put(new RightKey(key, version), entry);
+            final Entry returnval = mMap.put(key, version, entry);
+            return returnval == null ? null : returnval.mHandle;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removing the handle of a node.
+     * 
+     * @param key
+     *            of the node
+     * @param version
+     *            of the node
+     * @return the removed handle or null if not present
+     */
+    public HGPersistentHandle remove(final long key, final long version) {
+        mLock.writeLock().lock();
+        try {
+            mOrdered.remove(new RightKey(key, version));
+            final Entry returnval = mMap.remove(key, version);
+            return returnval == null ? null : returnval.mHandle;
+        } finally {
+            mLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Getting the number of indexed nodes.
+     * 
+     * @return the size
+     */
+    public int size() {
+        mLock.readLock().lock();
+        try {
+            return mMap.size();
+        } finally {
+            mLock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Handle of a node and offset of its material.
+     */
+    public static final class Entry {
+
+        /** Handle of the node. */
+        private final HGPersistentHandle mHandle;
+
+        /** Offset of the material, -1 if kept within the node. */
+        private final long mSecretOffset;
+
+        /**
+         * Constructor.
+         * 
+         * @param paramHandle
+         *            of the node
+         * @param paramSecretOffset
+         *            of the material
+         */
+        Entry(final HGPersistentHandle paramHandle, final long paramSecretOffset) {
+            mHandle = paramHandle;
+            mSecretOffset = paramSecretOffset;
+        }
+
+        /**
+         * Getting the handle of the node.
+         * 
+         * @return the handle
+         */
+        public HGPersistentHandle getHandle() {
+            return mHandle;
+        }
+
+        /**
+         * Getting the offset of the material within a separate store.
+         * 
+         * @return the offset, -1 if the material is kept within the node
+         */
+        public long getSecretOffset() {
+            return mSecretOffset;
+        }
+    }
+
+}
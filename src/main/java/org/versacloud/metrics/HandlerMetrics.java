@@ -0,0 +1,253 @@
+/**
+ * 
+ */
+package org.versacloud.metrics;
+
+import java.lang.management.ManagementFactory;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import org.versacloud.api.IMetricsRegistry;
+
+/**
+ * Default registry keeping a latency histogram and an error count per
+ * operation as well as all counters in memory. The metrics are exposed over
+ * JMX once the registry is registered at the platform MBean server.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class HandlerMetrics implements IMetricsRegistry, HandlerMetricsMXBean {
+
+    /** Latencies per operation. */
+    private final ConcurrentMap<String, LatencyHistogram> mLatencies =
+        new ConcurrentHashMap<String, LatencyHistogram>();
+
+    /** Errors per operation. */
+    private final ConcurrentMap<String, AtomicLong> mErrors = new ConcurrentHashMap<String, AtomicLong>();
+
+    /** Counters. */
+    private final ConcurrentMap<String, AtomicLong> mCounters = new ConcurrentHashMap<String, AtomicLong>();
+
+    /** Name under which the registry is registered, null if not registered. */
+    private ObjectName mName;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordLatency(final String operation, final long nanos) {
+        LatencyHistogram histogram = mLatencies.get(operation);
+        if (histogram == null) {
+            final LatencyHistogram newHistogram = new LatencyHistogram();
+            histogram = mLatencies.putIfAbsent(operation, newHistogram);
+            if (histogram == null) {
+                histogram = newHistogram;
+            }
+        }
+        histogram.record(nanos);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void recordError(final String operation) {
+        getCounter(mErrors, operation).incrementAndGet();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void incrementCounter(final String counter, final long delta) {
+        getCounter(mCounters, counter).addAndGet(delta);
+    }
+
+    /**
+     * Getting the histogram of an operation.
+     * 
+     * @param operation
+     *            name of the operation
+     * @return the histogram, null if the operation was never called
+     */
+    public LatencyHistogram getLatency(final String operation) {
+        return mLatencies.get(operation);
+    }
+
+    /**
+     * Registering the registry at the platform MBean server under
+     * <code>org.versacloud:type=HGHandler,name=&lt;name&gt;</code>.
+     * 
+     * @param name
+     *            distinguishing multiple handlers within one JVM
+     * @throws JMException
+     *             if the registration fails
+     */
+    public synchronized void registerMBean(final String name) throws JMException {
+        unregisterMBean();
+        final ObjectName objectName =
+            new ObjectName("org.versacloud:type=HGHandler,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        mName = objectName;
+    }
+
+    /**
+     * Removing the registry from the platform MBean server if registered.
+     * 
+     * @throws JMException
+     *             if the removal fails
+     */
+    public synchronized void unregisterMBean() throws JMException {
+        if (mName != null) {
+            final MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+            if (server.isRegistered(mName)) {
+                server.unregisterMBean(mName);
+            }
+            mName = null;
+        }
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getCalls() {
+        final Map<String, Long> returnval = new TreeMap<String, Long>();
+        for (final Map.Entry<String, LatencyHistogram> entry : mLatencies.entrySet()) {
+            returnval.put(entry.getKey(), entry.getValue().getCount());
+        }
+        return returnval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getErrors() {
+        return snapshot(mErrors);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getMeanLatencyMicros() {
+        final Map<String, Double> returnval = new TreeMap<String, Double>();
+        for (final Map.Entry<String, LatencyHistogram> entry : mLatencies.entrySet()) {
+            returnval.put(entry.getKey(), entry.getValue().getMean() / 1000);
+        }
+        return returnval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getP50LatencyMicros() {
+        return getPercentileMicros(50);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getP99LatencyMicros() {
+        return getPercentileMicros(99);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Double> getMaxLatencyMicros() {
+        final Map<String, Double> returnval = new TreeMap<String, Double>();
+        for (final Map.Entry<String, LatencyHistogram> entry : mLatencies.entrySet()) {
+            returnval.put(entry.getKey(), entry.getValue().getMax() / 1000d);
+        }
+        return returnval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Map<String, Long> getCounters() {
+        return snapshot(mCounters);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void reset() {
+        for (final LatencyHistogram histogram : mLatencies.values()) {
+            histogram.reset();
+        }
+        for (final AtomicLong error : mErrors.values()) {
+            error.set(0);
+        }
+        for (final AtomicLong counter : mCounters.values()) {
+            counter.set(0);
+        }
+    }
+
+    /**
+     * Getting a percentile of the latency per operation.
+     * 
+     * @param percentile
+     *            between 0 and 100
+     * @return the latencies in microseconds
+     */
+    private Map<String, Double> getPercentileMicros(final double percentile) {
+        final Map<String, Double> returnval = new TreeMap<String, Double>();
+        for (final Map.Entry<String, LatencyHistogram> entry : mLatencies.entrySet()) {
+            returnval.put(entry.getKey(), entry.getValue().getPercentile(percentile) / 1000d);
+        }
+        return returnval;
+    }
+
+    /**
+     * Getting a counter, creating it if not present.
+     * 
+     * @param counters
+     *            containing the counter
+     * @param name
+     *            of the counter
+     * @return the counter
+     */
+    private static AtomicLong getCounter(final ConcurrentMap<String, AtomicLong> counters, final String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            final AtomicLong newCounter = new AtomicLong();
+            counter = counters.putIfAbsent(name, newCounter);
+            if (counter == null) {
+                counter = newCounter;
+            }
+        }
+        return counter;
+    }
+
+    /**
+     * Copying counters to a sorted map.
+     * 
+     * @param counters
+     *            to be copied
+     * @return the copy
+     */
+    private static Map<String, Long> snapshot(final ConcurrentMap<String, AtomicLong> counters) {
+        final Map<String, Long> returnval = new TreeMap<String, Long>();
+        for (final Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            returnval.put(entry.getKey(), entry.getValue().get());
+        }
+        return returnval;
+    }
+
+}
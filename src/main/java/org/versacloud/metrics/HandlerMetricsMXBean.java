@@ -0,0 +1,72 @@
+/**
+ * 
+ */
+package org.versacloud.metrics;
+
+import java.util.Map;
+
+/**
+ * Management interface of the metrics of a handler, exposed over JMX. All
+ * maps are keyed by the names of the operations or counters as denoted in
+ * {@link org.versacloud.api.IMetricsRegistry}.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public interface HandlerMetricsMXBean {
+
+    /**
+     * Getting the number of calls per operation.
+     * 
+     * @return the calls
+     */
+    Map<String, Long> getCalls();
+
+    /**
+     * Getting the number of failed calls per operation.
+     * 
+     * @return the errors
+     */
+    Map<String, Long> getErrors();
+
+    /**
+     * Getting the mean latency per operation.
+     * 
+     * @return the latencies in microseconds
+     */
+    Map<String, Double> getMeanLatencyMicros();
+
+    /**
+     * Getting the median latency per operation.
+     * 
+     * @return the latencies in microseconds
+     */
+    Map<String, Double> getP50LatencyMicros();
+
+    /**
+     * Getting the 99th percentile of the latency per operation.
+     * 
+     * @return the latencies in microseconds
+     */
+    Map<String, Double> getP99LatencyMicros();
+
+    /**
+     * Getting the maximal latency per operation.
+     * 
+     * @return the latencies in microseconds
+     */
+    Map<String, Double> getMaxLatencyMicros();
+
+    /**
+     * Getting the values of all counters.
+     * 
+     * @return the counters
+     */
+    Map<String, Long> getCounters();
+
+    /**
+     * Resetting all metrics.
+     */
+    void reset();
+
+}
@@ -0,0 +1,157 @@
+/**
+ * 
+ */
+package org.versacloud.metrics;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Lock-free histogram of latencies in nanoseconds. Each power of two is split
+ * in four buckets, bounding the relative error of the percentiles by 25%.
+ * Recording a value costs two atomic increments and one atomic update of the
+ * maximum, the memory is fixed to a few kilobytes.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class LatencyHistogram {
+
+    /** Number of buckets covering all positive longs. */
+    private static final int BUCKETS = 248;
+
+    /** Counts per bucket. */
+    private final AtomicLongArray mBuckets = new AtomicLongArray(BUCKETS);
+
+    /** Number of recorded values. */
+    private final AtomicLong mCount = new AtomicLong();
+
+    /** Sum of recorded values. */
+    private final AtomicLong mSum = new AtomicLong();
+
+    /** Maximal recorded value. */
+    private final AtomicLong mMax = new AtomicLong();
+
+    /**
+     * Recording one value.
+     * 
+     * @param nanos
+     *            to be recorded, negative values are treated as 0
+     */
+    public void record(final long nanos) {
+        final long value = Math.max(0, nanos);
+        mBuckets.incrementAndGet(bucket(value));
+        mCount.incrementAndGet();
+        mSum.addAndGet(value);
+        long max = mMax.get();
+        while (value > max && !mMax.compareAndSet(max, value)) {
+            max = mMax.get();
+        }
+    }
+
+    /**
+     * Getting the number of recorded values.
+     * 
+     * @return the count
+     */
+    public long getCount() {
+        return mCount.get();
+    }
+
+    /**
+     * Getting the mean of the recorded values.
+     * 
+     * @return the mean in nanoseconds, 0 if nothing is recorded
+     */
+    public double getMean() {
+        final long count = mCount.get();
+        return count == 0 ? 0 : (double)mSum.get() / count;
+    }
+
+    /**
+     * Getting the maximal recorded value.
+     * 
+     * @return the maximum in nanoseconds
+     */
+    public long getMax() {
+        return mMax.get();
+    }
+
+    /**
+     * Getting a percentile of the recorded values. Values recorded
+     * concurrently might be missed.
+     * 
+     * @param percentile
+     *            between 0 and 100
+     * @return the upper bound of the bucket containing the percentile in
+     *         nanoseconds, 0 if nothing is recorded
+     */
+    public long getPercentile(final double percentile) {
+        long total = 0;
+        final long[] counts = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            counts[i] = mBuckets.get(i);
+            total += counts[i];
+        }
+        if (total == 0) {
+            return 0;
+        }
+        final long rank = Math.max(1, (long)Math.ceil(total * percentile / 100));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(upperBound(i), mMax.get());
+            }
+        }
+        return mMax.get();
+    }
+
+    /**
+     * Removing all recorded values.
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            mBuckets.set(i, 0);
+        }
+        mCount.set(0);
+        mSum.set(0);
+        mMax.set(0);
+    }
+
+    /**
+     * Getting the bucket of a value.
+     * 
+     * @param value
+     *            not negative
+     * @return the index of the bucket
+     */
+    static int bucket(final long value) {
+        if (value < 4) {
+            return (int)value;
+        }
+        final int log = 63 - Long.numberOfLeadingZeros(value);
+        final int sub = (int)(value >>> (log - 2)) & 3;
+        return (log - 1) * 4 + sub;
+    }
+
+    /**
+     * Getting the largest value of a bucket.
+     * 
+     * @param bucket
+     *            index of the bucket
+     * @return the upper bound
+     */
+    static long upperBound(final int bucket) {
+        if (bucket < 4) {
+            return bucket;
+        }
+        final int log = bucket / 4 + 1;
+        final long sub = bucket % 4;
+        if (log == 62 && sub == 3) {
+            return Long.MAX_VALUE;
+        }
+        return ((5 + sub) << (log - 2)) - 1;
+    }
+
+}
@@ -0,0 +1,270 @@
+package org.versacloud.model;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+
+/**
+ * One modification performed by a handler, numbered by a sequence strictly
+ * increasing in the order of the modifications. Modifications of nodes
+ * denote the node by its handle, key and version, the material itself is
+ * never part of an event. Modifications of rights denote the parents and
+ * children as passed to the handler.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class ChangeEvent {
+
+    /**
+     * Kind of modification.
+     */
+    public enum Type {
+        /** A node was inserted. */
+        NODE_ADDED,
+        /** A node was removed including its rights. */
+        NODE_REMOVED,
+        /** A node was replaced under the same handle. */
+        NODE_REPLACED,
+        /** A right was granted. */
+        RIGHT_ACTIVATED,
+        /** A right was revoked. */
+        RIGHT_DEACTIVATED
+    }
+
+    /**
+     * Position of the event within all events.
+     */
+    private final long sequence;
+
+    /**
+     * Kind of modification.
+     */
+    private final Type type;
+
+    /**
+     * Handle of the modified node, null for modified rights.
+     */
+    private final HGPersistentHandle handle;
+
+    /**
+     * Key of the node before the modification.
+     */
+    private final long oldKey;
+
+    /**
+     * Version of the node before the modification.
+     */
+    private final long oldVersion;
+
+    /**
+     * Key of the node after the modification.
+     */
+    private final long key;
+
+    /**
+     * Version of the node after the modification.
+     */
+    private final long version;
+
+    /**
+     * Parents of the modified right, empty for modified nodes.
+     */
+    private final Set<HGHandle> parents;
+
+    /**
+     * Children of the modified right, empty for modified nodes.
+     */
+    private final Set<HGHandle> children;
+
+    /**
+     * Constructor.
+     * 
+     * @param paramSequence
+     *            position of the event
+     * @param paramType
+     *            kind of modification
+     * @param paramHandle
+     *            handle of the modified node
+     * @param paramOldKey
+     *            key before the modification
+     * @param paramOldVersion
+     *            version before the modification
+     * @param paramKey
+     *            key after the modification
+     * @param paramVersion
+     *            version after the modification
+     * @param paramParents
+     *            parents of the modified right
+     * @param paramChildren
+     *            children of the modified right
+     */
+    private ChangeEvent(final long paramSequence, final Type paramType, final HGPersistentHandle paramHandle,
+        final long paramOldKey, final long paramOldVersion, final long paramKey, final long paramVersion,
+        final Set<HGHandle> paramParents, final Set<HGHandle> paramChildren) {
+        this.sequence = paramSequence;
+        this.type = paramType;
+        this.handle = paramHandle;
+        this.oldKey = paramOldKey;
+        this.oldVersion = paramOldVersion;
+        this.key = paramKey;
+        this.version = paramVersion;
+        this.parents = Collections.unmodifiableSet(new HashSet<HGHandle>(paramParents));
+        this.children = Collections.unmodifiableSet(new HashSet<HGHandle>(paramChildren));
+    }
+
+    /**
+     * Getting an event for a modified node.
+     * 
+     * @param paramSequence
+     *            position of the event
+     * @param paramType
+     *            one of {@link Type#NODE_ADDED}, {@link Type#NODE_REMOVED}
+     *            and {@link Type#NODE_REPLACED}
+     * @param paramHandle
+     *            handle of the modified node
+     * @param paramOldKey
+     *            key before the modification, equal to the key if unchanged
+     * @param paramOldVersion
+     *            version before the modification, equal to the version if
+     *            unchanged
+     * @param paramKey
+     *            key after the modification
+     * @param paramVersion
+     *            version after the modification
+     * @return the event
+     */
+    public static ChangeEvent nodeChange(final long paramSequence, final Type paramType,
+        final HGPersistentHandle paramHandle, final long paramOldKey, final long paramOldVersion,
+        final long paramKey, final long paramVersion) {
+        if (paramType == Type.RIGHT_ACTIVATED || paramType == Type.RIGHT_DEACTIVATED) {
+            throw new IllegalArgumentException(paramType + " denotes no modification of a node");
+        }
+        final Set<HGHandle> empty = Collections.emptySet();
+        return new ChangeEvent(paramSequence, paramType, paramHandle, paramOldKey, paramOldVersion, paramKey,
+            paramVersion, empty, empty);
+    }
+
+    /**
+     * Getting an event for a modified right.
+     * 
+     * @param paramSequence
+     *            position of the event
+     * @param paramType
+     *            one of {@link Type#RIGHT_ACTIVATED} and
+     *            {@link Type#RIGHT_DEACTIVATED}
+     * @param paramParents
+     *            parents of the modified right
+     * @param paramChildren
+     *            children of the modified right
+     * @return the event
+     */
+    public static ChangeEvent rightChange(final long paramSequence, final Type paramType,
+        final Set<HGHandle> paramParents, final Set<HGHandle> paramChildren) {
+        if (paramType != Type.RIGHT_ACTIVATED && paramType != Type.RIGHT_DEACTIVATED) {
+            throw new IllegalArgumentException(paramType + " denotes no modification of a right");
+        }
+        return new ChangeEvent(paramSequence, paramType, null, -1, -1, -1, -1, paramParents, paramChildren);
+    }
+
+    /**
+     * Getting the position of the event.
+     * 
+     * @return the sequence
+     */
+    public long getSequence() {
+        return sequence;
+    }
+
+    /**
+     * Getting the kind of modification.
+     * 
+     * @return the type
+     */
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * Getting the handle of the modified node.
+     * 
+     * @return the handle, null for modified rights
+     */
+    public HGPersistentHandle getHandle() {
+        return handle;
+    }
+
+    /**
+     * Getting the key of the node before the modification.
+     * 
+     * @return the old key
+     */
+    public long getOldKey() {
+        return oldKey;
+    }
+
+    /**
+     * Getting the version of the node before the modification.
+     * 
+     * @return the old version
+     */
+    public long getOldVersion() {
+        return oldVersion;
+    }
+
+    /**
+     * Getting the key of the node after the modification.
+     * 
+     * @return the key
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * Getting the version of the node after the modification.
+     * 
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * Getting the parents of the modified right.
+     * 
+     * @return the unmodifiable parents, empty for modified nodes
+     */
+    public Set<HGHandle> getParents() {
+        return parents;
+    }
+
+    /**
+     * Getting the children of the modified right.
+     * 
+     * @return the unmodifiable children, empty for modified nodes
+     */
+    public Set<HGHandle> getChildren() {
+        return children;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        final StringBuilder builder = new StringBuilder("ChangeEvent [sequence=").append(sequence).append(
+            ", type=").append(type);
+        if (handle != null) {
+            builder.append(", handle=").append(handle).append(", key=").append(key).append(", version=")
+                .append(version);
+        } else {
+            builder.append(", parents=").append(parents).append(", children=").append(children);
+        }
+        return builder.append("]").toString();
+    }
+
+}
@@ -24,6 +24,12 @@ public class Node {
      */
     private long version;
 
+    /**
+     * Offset of the secret within a separate store, -1 if the secret is
+     * stored within the node itself.
+     */
+    private long secretOffset = -1;
+
     /**
      * Standard constructor.
      */
@@ -117,6 +123,25 @@ public class Node {
         version = pVersion;
     }
 
+    /**
+     * Returns the offset of the secret within a separate store.
+     * 
+     * @return the offset, -1 if the secret is stored within the node
+     */
+    public long getSecretOffset() {
+        return secretOffset;
+    }
+
+    /**
+     * Sets the offset of the secret within a separate store.
+     * 
+     * @param pSecretOffset
+     *            to be set, -1 if the secret is stored within the node
+     */
+    public void setSecretOffset(final long pSecretOffset) {
+        secretOffset = pSecretOffset;
+    }
+
     /**
      * {@inheritDoc}
      */
@@ -0,0 +1,269 @@
+/**
+ * 
+ */
+package org.versacloud.model;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGPersistentHandle;
+import org.hypergraphdb.HGQuery.hg;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.IncidenceSetRef;
+import org.hypergraphdb.type.HGAtomType;
+import org.hypergraphdb.util.LazyRef;
+
+/**
+ * Atom type storing a {@link Node} as one binary record instead of the
+ * reflective bean mapping with one sub-atom per property. The record starts
+ * with a fixed header of {@value #HEADER} bytes: the format, the key, the
+ * version and the offset of the secret within a separate store. The secret
+ * and the name follow, each prefixed by its length or -1 for null. Key and
+ * version are therefore decoded without touching the variable part.
+ * 
+ * The type must be registered with {@link #register(HyperGraph)} each time
+ * the db is opened, before any node is stored or read. Dbs written with the
+ * bean mapping are detected on registration and not converted.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class NodeType implements HGAtomType {
+
+    /** Persistent handle of the type, fixed for all dbs. */
+    private static final String TYPE_HANDLE = "5e0c3d2a-8f41-4b6e-9a27-c1d4f09b7e53";
+
+    /** Format of the records written by this type. */
+    private static final byte FORMAT = 1;
+
+    /** Size of the fixed header: format, key, version and secret offset. */
+    static final int HEADER = 25;
+
+    /** Encoding of the names. */
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    /** The db the type belongs to. */
+    private HyperGraph mDB;
+
+    /**
+     * Registering the type for {@link Node} within a db. Dbs containing
+     * nodes stored with the previous bean mapping are rejected since these
+     * nodes cannot be read by this type.
+     * 
+     * @param paramDB
+     *            the type is registered in
+     * @throws IllegalStateException
+     *             if the db contains nodes stored with the bean mapping
+     */
+    public static void register(final HyperGraph paramDB) {
+        final HGPersistentHandle typeHandle = paramDB.getHandleFactory().makeHandle(TYPE_HANDLE);
+        final HGHandle previous = paramDB.getTypeSystem().getTypeHandleIfDefined(Node.class);
+        if (previous != null && !typeHandle.equals(paramDB.getPersistentHandle(previous))
+            && hg.findOne(paramDB, hg.type(previous)) != null) {
+            throw new IllegalStateException("Db " + paramDB.getLocation()
+                + " contains nodes stored with the bean mapping, copy them into a new db first");
+        }
+        final NodeType type = new NodeType();
+        type.setHyperGraph(paramDB);
+        paramDB.getTypeSystem().addPredefinedType(typeHandle, type, Node.class);
+    }
+
+    /**
+     * Getting key and version of a stored node without decoding the whole
+     * node.
+     * 
+     * @param paramDB
+     *            containing the node
+     * @param handle
+     *            of the node
+     * @return key and version of the node
+     */
+    public static RightKey getRightKey(final HyperGraph paramDB, final HGHandle handle) {
+        // the layout of an atom consists of the type and the value
+        final HGPersistentHandle[] layout = paramDB.getStore().getLink(paramDB.getPersistentHandle(handle));
+        return decodeKey(paramDB.getStore().getData(layout[1]));
+    }
+
+    /**
+     * Getting key, version and offset of the material of a stored node
+     * without decoding its name and material.
+     * 
+     * @param paramDB
+     *            containing the node
+     * @param handle
+     *            of the node
+     * @return the node without name and material
+     */
+    public static Node getHeader(final HyperGraph paramDB, final HGHandle handle) {
+        final HGPersistentHandle[] layout = paramDB.getStore().getLink(paramDB.getPersistentHandle(handle));
+        return decodeHeader(paramDB.getStore().getData(layout[1]));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void setHyperGraph(final HyperGraph paramDB) {
+        mDB = paramDB;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public Object make(final HGPersistentHandle handle, final LazyRef<HGHandle[]> targetSet,
+        final IncidenceSetRef incidenceSet) {
+        return decode(mDB.getStore().getData(handle));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public HGPersistentHandle store(final Object instance) {
+        return mDB.getStore().store(encode((Node)instance));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public void release(final HGPersistentHandle handle) {
+        mDB.getStore().removeData(handle);
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean subsumes(final Object general, final Object specific) {
+        return general == null ? specific == null : general.equals(specific);
+    }
+
+    /**
+     * Encoding a node.
+     * 
+     * @param node
+     *            to be encoded
+     * @return the record
+     */
+    static byte[] encode(final Node node) {
+        final byte[] secret = node.getSecretKey();
+        final byte[] name = node.getName() == null ? null : node.getName().getBytes(UTF8);
+        final ByteBuffer buffer =
+            ByteBuffer.allocate(HEADER + 8 + (secret == null ? 0 : secret.length)
+                + (name == null ? 0 : name.length));
+        buffer.put(FORMAT);
+        buffer.putLong(node.getKey());
+        buffer.putLong(node.getVersion());
+        buffer.putLong(node.getSecretOffset());
+        putBytes(buffer, secret);
+        putBytes(buffer, name);
+        return buffer.array();
+    }
+
+    /**
+     * Decoding a node.
+     * 
+     * @param data
+     *            the record
+     * @return the node
+     * @throws IllegalStateException
+     *             if the record is of an unknown format
+     */
+    static Node decode(final byte[] data) {
+        final ByteBuffer buffer = header(data);
+        final long key = buffer.getLong();
+        final long version = buffer.getLong();
+        final long secretOffset = buffer.getLong();
+        final byte[] secret = getBytes(buffer);
+        final byte[] name = getBytes(buffer);
+        final Node returnval = new Node(name == null ? null : new String(name, UTF8), key, version, secret);
+        returnval.setSecretOffset(secretOffset);
+        return returnval;
+    }
+
+    /**
+     * Decoding key and version only.
+     * 
+     * @param data
+     *            the record
+     * @return key and version
+     * @throws IllegalStateException
+     *             if the record is of an unknown format
+     */
+    static RightKey decodeKey(final byte[] data) {
+        final ByteBuffer buffer = header(data);
+        return new RightKey(buffer.getLong(), buffer.getLong());
+    }
+
+    /**
+     * Decoding key, version and offset of the material only.
+     * 
+     * @param data
+     *            the record
+     * @return the node without name and material
+     * @throws IllegalStateException
+     *             if the record is of an unknown format
+     */
+    static Node decodeHeader(final byte[] data) {
+        final ByteBuffer buffer = header(data);
+        final Node returnval = new Node(null, buffer.getLong(), buffer.getLong(), null);
+        returnval.setSecretOffset(buffer.getLong());
+        return returnval;
+    }
+
+    /**
+     * Checking the format of a record.
+     * 
+     * @param data
+     *            the record
+     * @return a buffer positioned after the format
+     * @throws IllegalStateException
+     *             if the record is of an unknown format
+     */
+    private static ByteBuffer header(final byte[] data) {
+        if (data == null || data.length < HEADER || data[0] != FORMAT) {
+            throw new IllegalStateException("Record is no node of format " + FORMAT);
+        }
+        final ByteBuffer buffer = ByteBuffer.wrap(data);
+        buffer.get();
+        return buffer;
+    }
+
+    /**
+     * Writing a length-prefixed array.
+     * 
+     * @param buffer
+     *            to write to
+     * @param bytes
+     *            to be written, might be null
+     */
+    private static void putBytes(final ByteBuffer buffer, final byte[] bytes) {
+        if (bytes == null) {
+            buffer.putInt(-1);
+        } else {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Reading a length-prefixed array.
+     * 
+     * @param buffer
+     *            to read from
+     * @return the array, might be null
+     */
+    private static byte[] getBytes(final ByteBuffer buffer) {
+        final int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        final byte[] returnval = new byte[length];
+        buffer.get(returnval);
+        return returnval;
+    }
+
+}
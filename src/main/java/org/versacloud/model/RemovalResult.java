@@ -0,0 +1,95 @@
+package org.versacloud.model;
+
+/**
+ * Statistics of the removal of one node including its rights.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class RemovalResult {
+
+    /**
+     * True if the node was found and removed.
+     */
+    private final boolean removed;
+
+    /**
+     * Number of edges adapted to not contain the node any more.
+     */
+    private final int updatedEdges;
+
+    /**
+     * Number of edges removed entirely.
+     */
+    private final int removedEdges;
+
+    /**
+     * Duration of the removal in nanoseconds.
+     */
+    private final long duration;
+
+    /**
+     * Constructor.
+     * 
+     * @param paramRemoved
+     *            true if the node was found and removed
+     * @param paramUpdatedEdges
+     *            number of adapted edges
+     * @param paramRemovedEdges
+     *            number of removed edges
+     * @param paramDuration
+     *            duration in nanoseconds
+     */
+    public RemovalResult(final boolean paramRemoved, final int paramUpdatedEdges,
+        final int paramRemovedEdges, final long paramDuration) {
+        this.removed = paramRemoved;
+        this.updatedEdges = paramUpdatedEdges;
+        this.removedEdges = paramRemovedEdges;
+        this.duration = paramDuration;
+    }
+
+    /**
+     * Returns if the node was removed.
+     * 
+     * @return true if the node was found and removed
+     */
+    public boolean isRemoved() {
+        return removed;
+    }
+
+    /**
+     * Returns the number of edges adapted to not contain the node any more.
+     * 
+     * @return the number of adapted edges
+     */
+    public int getUpdatedEdges() {
+        return updatedEdges;
+    }
+
+    /**
+     * Returns the number of edges removed entirely.
+     * 
+     * @return the number of removed edges
+     */
+    public int getRemovedEdges() {
+        return removedEdges;
+    }
+
+    /**
+     * Returns the duration of the removal.
+     * 
+     * @return the duration in nanoseconds
+     */
+    public long getDuration() {
+        return duration;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "RemovalResult [removed=" + removed + ", updatedEdges=" + updatedEdges + ", removedEdges="
+            + removedEdges + ", duration=" + duration + "]";
+    }
+}
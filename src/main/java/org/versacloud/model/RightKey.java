@@ -0,0 +1,90 @@
+package org.versacloud.model;
+
+/**
+ * Immutable identifier of a right denoted by its key and version.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class RightKey {
+
+    /**
+     * Identifier of key.
+     */
+    private final long key;
+
+    /**
+     * Version of the key.
+     */
+    private final long version;
+
+    /**
+     * Constructor.
+     * 
+     * @param paramKey
+     *            identifier of the key
+     * @param paramVersion
+     *            version of the key
+     */
+    public RightKey(final long paramKey, final long paramVersion) {
+        this.key = paramKey;
+        this.version = paramVersion;
+    }
+
+    /**
+     * Return the key
+     * 
+     * @return the key
+     */
+    public long getKey() {
+        return key;
+    }
+
+    /**
+     * Returns the version
+     * 
+     * @return the version
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public int hashCode() {
+        final int prime = 31;
+        int result = 1;
+        result = prime * result + (int)(key ^ (key >>> 32));
+        result = prime * result + (int)(version ^ (version >>> 32));
+        return result;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj)
+            return true;
+        if (obj == null)
+            return false;
+        if (getClass() != obj.getClass())
+            return false;
+        RightKey other = (RightKey)obj;
+        if (key != other.key)
+            return false;
+        if (version != other.version)
+            return false;
+        return true;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "RightKey [key=" + key + ", version=" + version + "]";
+    }
+}
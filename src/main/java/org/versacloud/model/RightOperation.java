@@ -0,0 +1,113 @@
+package org.versacloud.model;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.hypergraphdb.HGHandle;
+
+/**
+ * One operation of a batch of right modifications, either granting or
+ * revoking a right binding a set of parents with a set of children.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class RightOperation {
+
+    /**
+     * True if the right is granted, false if revoked.
+     */
+    private final boolean grant;
+
+    /**
+     * The clients gaining or losing the right.
+     */
+    private final Set<HGHandle> parents;
+
+    /**
+     * The groups providing the right.
+     */
+    private final Set<HGHandle> children;
+
+    /**
+     * Constructor.
+     * 
+     * @param paramGrant
+     *            true if the right is granted, false if revoked
+     * @param paramParents
+     *            the clients gaining or losing the right
+     * @param paramChildren
+     *            the groups providing the right
+     */
+    private RightOperation(final boolean paramGrant, final Set<HGHandle> paramParents,
+        final Set<HGHandle> paramChildren) {
+        this.grant = paramGrant;
+        this.parents = Collections.unmodifiableSet(new HashSet<HGHandle>(paramParents));
+        this.children = Collections.unmodifiableSet(new HashSet<HGHandle>(paramChildren));
+    }
+
+    /**
+     * Getting an operation granting a right, equal to
+     * {@link org.versacloud.HGHandler#activateRight(Set, Set)}.
+     * 
+     * @param paramParents
+     *            the clients gaining the right
+     * @param paramChildren
+     *            the groups providing the right
+     * @return the operation
+     */
+    public static RightOperation grant(final Set<HGHandle> paramParents, final Set<HGHandle> paramChildren) {
+        return new RightOperation(true, paramParents, paramChildren);
+    }
+
+    /**
+     * Getting an operation revoking a right, equal to
+     * {@link org.versacloud.HGHandler#deactivateRight(Set, Set)}.
+     * 
+     * @param paramParents
+     *            the clients losing the right
+     * @param paramChildren
+     *            the groups providing the right
+     * @return the operation
+     */
+    public static RightOperation revoke(final Set<HGHandle> paramParents, final Set<HGHandle> paramChildren) {
+        return new RightOperation(false, paramParents, paramChildren);
+    }
+
+    /**
+     * Returns if the right is granted.
+     * 
+     * @return true if granted, false if revoked
+     */
+    public boolean isGrant() {
+        return grant;
+    }
+
+    /**
+     * Returns the parents.
+     * 
+     * @return an unmodifiable set of the parents
+     */
+    public Set<HGHandle> getParents() {
+        return parents;
+    }
+
+    /**
+     * Returns the children.
+     * 
+     * @return an unmodifiable set of the children
+     */
+    public Set<HGHandle> getChildren() {
+        return children;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public String toString() {
+        return "RightOperation [" + (grant ? "grant" : "revoke") + ", parents=" + parents + ", children="
+            + children + "]";
+    }
+}
@@ -0,0 +1,384 @@
+/**
+ * 
+ */
+package org.versacloud.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.versacloud.api.IRightHandler;
+import org.versacloud.model.RightKey;
+
+/**
+ * Client of a {@link KeyServer}. The client is thread-safe: requests of
+ * multiple threads are pipelined over one connection and the responses are
+ * assigned to the waiting threads by their ids. Failures of the server as
+ * well as a lost connection are thrown as {@link IllegalStateException}.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class KeyClient implements IRightHandler, Closeable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeyClient.class);
+
+    /** The socket itself. */
+    private final Socket mSocket;
+
+    /** Stream for the requests, guarded by itself. */
+    private final DataOutputStream mOut;
+
+    /** Stream for the responses, only read by the reader thread. */
+    private final DataInputStream mIn;
+
+    /** Requests waiting for their responses. */
+    private final Map<Integer, Response> mPending = new ConcurrentHashMap<Integer, Response>();
+
+    /** Counter for the ids of the requests. */
+    private final AtomicInteger mIds = new AtomicInteger();
+
+    /** Failure of the connection, null while connected. */
+    private volatile String mFailure;
+
+    /**
+     * Constructor, connecting to the server.
+     * 
+     * @param paramHost
+     *            of the server
+     * @param paramPort
+     *            of the server
+     * @throws IOException
+     *             if the connection cannot be established
+     */
+    public KeyClient(final String paramHost, final int paramPort) throws IOException {
+        mSocket = new Socket(paramHost, paramPort);
+        mSocket.setTcpNoDelay(true);
+        mOut = new DataOutputStream(new BufferedOutputStream(mSocket.getOutputStream()));
+        mIn = new DataInputStream(new BufferedInputStream(mSocket.getInputStream()));
+        final Thread reader = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                read();
+            }
+        }, "versacloud-client-" + mSocket.getLocalPort());
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getRightMaterial(final long key, final long version) {
+        final Response response = new Response(KeyProtocol.GET);
+        synchronized (mOut) {
+            try {
+                final int id = begin(response, KeyProtocol.GET);
+                mOut.writeLong(key);
+                mOut.writeLong(version);
+                end(id);
+            } catch (final IOException exc) {
+                throw failed(exc);
+            }
+        }
+        return (byte[])response.await();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getLatestRightMaterial(final long key) {
+        final Response response = new Response(KeyProtocol.GET_LATEST);
+        synchronized (mOut) {
+            try {
+                final int id = begin(response, KeyProtocol.GET_LATEST);
+                mOut.writeLong(key);
+                end(id);
+            } catch (final IOException exc) {
+                throw failed(exc);
+            }
+        }
+        return (byte[])response.await();
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[][] getRightMaterial(final long[] keys, final long[] versions) {
+        if (keys.length != versions.length) {
+            throw new IllegalArgumentException("Keys and versions must have the same length");
+        }
+        final Response response = new Response(KeyProtocol.GET_BATCH);
+        synchronized (mOut) {
+            try {
+                final int id = begin(response, KeyProtocol.GET_BATCH);
+                mOut.writeInt(keys.length);
+                for (int i = 0; i < keys.length; i++) {
+                    mOut.writeLong(keys[i]);
+                    mOut.writeLong(versions[i]);
+                }
+                end(id);
+            } catch (final IOException exc) {
+                throw failed(exc);
+            }
+        }
+        return (byte[][])response.await();
+    }
+
+    /**
+     * Granting a right on the server, see
+     * {@link org.versacloud.HGHandler#activateRight(Set, Set)}.
+     * 
+     * @param parents
+     *            the clients gaining the right
+     * @param children
+     *            the groups, providing the right
+     * @return true if a new edge is inserted, false otherwise
+     */
+    public boolean activateRight(final Set<RightKey> parents, final Set<RightKey> children) {
+        return modifyRight(KeyProtocol.GRANT, parents, children);
+    }
+
+    /**
+     * Revoking a right on the server, see
+     * {@link org.versacloud.HGHandler#deactivateRight(Set, Set)}.
+     * 
+     * @param parents
+     *            the clients losing the right
+     * @param children
+     *            the groups, providing the right
+     * @return true if an edge is removed, false otherwise
+     */
+    public boolean deactivateRight(final Set<RightKey> parents, final Set<RightKey> children) {
+        return modifyRight(KeyProtocol.REVOKE, parents, children);
+    }
+
+    /**
+     * Closing the connection. Requests still waiting fail.
+     */
+    @Override
+    public void close() {
+        try {
+            mSocket.close();
+        } catch (final IOException exc) {
+            LOGGER.error(exc.toString());
+        }
+    }
+
+    /**
+     * Sending a grant or revocation.
+     * 
+     * @param operation
+     *            {@link KeyProtocol#GRANT} or {@link KeyProtocol#REVOKE}
+     * @param parents
+     *            of the right
+     * @param children
+     *            of the right
+     * @return true if the graph is modified
+     */
+    private boolean modifyRight(final byte operation, final Set<RightKey> parents,
+        final Set<RightKey> children) {
+        final Response response = new Response(operation);
+        synchronized (mOut) {
+            try {
+                final int id = begin(response, operation);
+                KeyProtocol.writeRights(mOut, parents);
+                KeyProtocol.writeRights(mOut, children);
+                end(id);
+            } catch (final IOException exc) {
+                throw failed(exc);
+            }
+        }
+        return (Boolean)response.await();
+    }
+
+    /**
+     * Registering a response and writing the header of its request. Must be
+     * called while holding the lock of the output stream.
+     * 
+     * @param response
+     *            to be registered
+     * @param operation
+     *            of the request
+     * @return the id of the request
+     * @throws IOException
+     *             if the header cannot be written
+     */
+    private int begin(final Response response, final byte operation) throws IOException {
+        if (mFailure != null) {
+            throw new IllegalStateException(mFailure);
+        }
+        final int id = mIds.incrementAndGet();
+        mPending.put(id, response);
+        mOut.writeInt(id);
+        mOut.writeByte(operation);
+        return id;
+    }
+
+    /**
+     * Finishing a request. Must be called while holding the lock of the
+     * output stream.
+     * 
+     * @param id
+     *            of the request
+     * @throws IOException
+     *             if the request cannot be sent
+     */
+    private void end(final int id) throws IOException {
+        mOut.flush();
+        // the connection might have failed meanwhile, the reader would miss the response then
+        if (mFailure != null) {
+            final Response response = mPending.remove(id);
+            if (response != null) {
+                response.fail(mFailure);
+            }
+        }
+    }
+
+    /**
+     * Closing the connection after a failed write.
+     * 
+     * @param exc
+     *            the failure
+     * @return the exception to be thrown
+     */
+    private IllegalStateException failed(final IOException exc) {
+        close();
+        return new IllegalStateException("Connection failed: " + exc, exc);
+    }
+
+    /**
+     * Reading responses until the connection is closed.
+     */
+    private void read() {
+        try {
+            while (true) {
+                final int id = mIn.readInt();
+                final byte status = mIn.readByte();
+                final Response response = mPending.remove(id);
+                if (response == null) {
+                    throw new IOException("Response to unknown request " + id);
+                }
+                if (status == KeyProtocol.ERROR) {
+                    response.fail(mIn.readUTF());
+                    continue;
+                }
+                switch (response.mOperation) {
+                case KeyProtocol.GET:
+                case KeyProtocol.GET_LATEST:
+                    response.complete(KeyProtocol.readMaterial(mIn));
+                    break;
+                case KeyProtocol.GET_BATCH:
+                    final byte[][] material = new byte[KeyProtocol.checkSize(mIn.readInt())][];
+                    for (int i = 0; i < material.length; i++) {
+                        material[i] = KeyProtocol.readMaterial(mIn);
+                    }
+                    response.complete(material);
+                    break;
+                default:
+                    response.complete(mIn.readBoolean());
+                    break;
+                }
+            }
+        } catch (final IOException exc) {
+            mFailure = "Connection closed: " + exc;
+            LOGGER.debug(mFailure);
+        } finally {
+            if (mFailure == null) {
+                mFailure = "Connection closed";
+            }
+            close();
+            for (final Integer id : mPending.keySet()) {
+                final Response response = mPending.remove(id);
+                if (response != null) {
+                    response.fail(mFailure);
+                }
+            }
+        }
+    }
+
+    /**
+     * Response of one request, awaited by the requesting thread.
+     */
+    private static final class Response {
+
+        /** Operation of the request. */
+        final byte mOperation;
+
+        /** Signal for the arrival. */
+        private final CountDownLatch mLatch = new CountDownLatch(1);
+
+        /** Result of the request. */
+        private Object mResult;
+
+        /** Error of the request, null if successful. */
+        private String mError;
+
+        /**
+         * Constructor.
+         * 
+         * @param paramOperation
+         *            of the request
+         */
+        Response(final byte paramOperation) {
+            mOperation = paramOperation;
+        }
+
+        /**
+         * Completing the request successfully.
+         * 
+         * @param result
+         *            of the request
+         */
+        void complete(final Object result) {
+            mResult = result;
+            mLatch.countDown();
+        }
+
+        /**
+         * Completing the request with an error.
+         * 
+         * @param error
+         *            describing the failure
+         */
+        void fail(final String error) {
+            mError = error;
+            mLatch.countDown();
+        }
+
+        /**
+         * Waiting for the response.
+         * 
+         * @return the result
+         * @throws IllegalStateException
+         *             if the request failed
+         */
+        Object await() {
+            try {
+                mLatch.await();
+            } catch (final InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the server", exc);
+            }
+            if (mError != null) {
+                throw new IllegalStateException(mError);
+            }
+            return mResult;
+        }
+    }
+
+}
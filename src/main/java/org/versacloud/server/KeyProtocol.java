@@ -0,0 +1,159 @@
+/**
+ * 
+ */
+package org.versacloud.server;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.versacloud.model.RightKey;
+
+/**
+ * Binary protocol between {@link KeyServer} and {@link KeyClient}. All
+ * numbers are big-endian. Each request starts with an int id chosen by the
+ * client followed by a byte denoting the operation; each response starts
+ * with the id of its request followed by a status byte. Responses might be
+ * sent in another order than the requests, allowing the client to pipeline
+ * requests over one connection.
+ * 
+ * <pre>
+ * GET         key:long version:long         -&gt; material
+ * GET_LATEST  key:long                      -&gt; material
+ * GET_BATCH   n:int (key:long version:long)* -&gt; n:int material*
+ * GRANT       rights rights                 -&gt; modified:boolean
+ * REVOKE      rights rights                 -&gt; modified:boolean
+ * 
+ * material := length:int (-1 if not present) byte*
+ * rights   := n:int (key:long version:long)*
+ * error    := message:UTF
+ * </pre>
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+final class KeyProtocol {
+
+    /** Looking up the material of one right. */
+    static final byte GET = 1;
+
+    /** Looking up the material of the latest version of a right. */
+    static final byte GET_LATEST = 2;
+
+    /** Looking up the material of multiple rights. */
+    static final byte GET_BATCH = 3;
+
+    /** Granting a right. */
+    static final byte GRANT = 4;
+
+    /** Revoking a right. */
+    static final byte REVOKE = 5;
+
+    /** Status of a successful request. */
+    static final byte OK = 0;
+
+    /** Status of a failed request, followed by a message. */
+    static final byte ERROR = 1;
+
+    /** Maximal number of elements within one request or response. */
+    static final int MAX_ELEMENTS = 1 << 20;
+
+    /**
+     * Hidden constructor.
+     */
+    private KeyProtocol() {
+    }
+
+    /**
+     * Writing material.
+     * 
+     * @param out
+     *            to write to
+     * @param material
+     *            to be written, might be null
+     * @throws IOException
+     *             if the stream fails
+     */
+    static void writeMaterial(final DataOutputStream out, final byte[] material) throws IOException {
+        if (material == null) {
+            out.writeInt(-1);
+        } else {
+            out.writeInt(material.length);
+            out.write(material);
+        }
+    }
+
+    /**
+     * Reading material.
+     * 
+     * @param in
+     *            to read from
+     * @return the material, null if not present
+     * @throws IOException
+     *             if the stream fails or is malformed
+     */
+    static byte[] readMaterial(final DataInputStream in) throws IOException {
+        final int length = in.readInt();
+        if (length == -1) {
+            return null;
+        }
+        final byte[] returnval = new byte[checkSize(length)];
+        in.readFully(returnval);
+        return returnval;
+    }
+
+    /**
+     * Writing a set of rights.
+     * 
+     * @param out
+     *            to write to
+     * @param rights
+     *            to be written
+     * @throws IOException
+     *             if the stream fails
+     */
+    static void writeRights(final DataOutputStream out, final Set<RightKey> rights) throws IOException {
+        out.writeInt(rights.size());
+        for (final RightKey right : rights) {
+            out.writeLong(right.getKey());
+            out.writeLong(right.getVersion());
+        }
+    }
+
+    /**
+     * Reading a set of rights.
+     * 
+     * @param in
+     *            to read from
+     * @return the rights
+     * @throws IOException
+     *             if the stream fails or is malformed
+     */
+    static Set<RightKey> readRights(final DataInputStream in) throws IOException {
+        final int size = checkSize(in.readInt());
+        final Set<RightKey> returnval = new HashSet<RightKey>();
+        for (int i = 0; i < size; i++) {
+            returnval.add(new RightKey(in.readLong(), in.readLong()));
+        }
+        return returnval;
+    }
+
+    /**
+     * Checking a size received over the wire.
+     * 
+     * @param size
+     *            to be checked
+     * @return the size
+     * @throws IOException
+     *             if the size is negative or exceeds the maximum
+     */
+    static int checkSize(final int size) throws IOException {
+        if (size < 0 || size > MAX_ELEMENTS) {
+            throw new IOException("Invalid size " + size);
+        }
+        return size;
+    }
+
+}
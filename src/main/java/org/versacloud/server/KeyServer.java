@@ -0,0 +1,617 @@
+/**
+ * 
+ */
+package org.versacloud.server;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CopyOnWriteArraySet;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HyperGraph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.versacloud.HGHandler;
+import org.versacloud.model.RightKey;
+
+/**
+ * Standalone server exposing the material and the rights of one
+ * {@link HGHandler} over the {@link KeyProtocol}. Each connection is served by
+ * its own thread. Single lookups of all connections are coalesced: a
+ * dispatcher drains all pending lookups and resolves them by one batch
+ * lookup of the handler, answering each lookup on its connection afterwards.
+ * All other requests are performed by the thread of the connection. The
+ * responses of each connection are written by a writer thread of its own.
+ * 
+ * The protocol is not authenticated: lookups are served to any client able
+ * to connect, rights are only modified on requests from the loopback
+ * interface. Binding to another interface therefore exposes all material
+ * to the network.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class KeyServer {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(KeyServer.class);
+
+    /** Maximal number of lookups resolved by one batch. */
+    private static final int MAX_BATCH = 1024;
+
+    /** Maximal number of requests of one connection not answered yet. */
+    private static final int MAX_PENDING = 256;
+
+    /** Maximal number of single lookups waiting for the dispatcher. */
+    private static final int MAX_LOOKUPS = 64 * 1024;
+
+    /** Marker stopping the writer thread of a connection. */
+    private static final byte[] CLOSED = new byte[0];
+
+    /** Handler serving the requests. */
+    private final HGHandler mHandler;
+
+    /** Address to bind to. */
+    private final InetSocketAddress mAddress;
+
+    /** Pending single lookups of all connections. */
+    private final BlockingQueue<Lookup> mLookups = new ArrayBlockingQueue<Lookup>(MAX_LOOKUPS);
+
+    /** Open connections. */
+    private final Set<Connection> mConnections = new CopyOnWriteArraySet<Connection>();
+
+    /** Socket accepting connections, null if not started. */
+    private ServerSocket mServerSocket;
+
+    /** Flag denoting a closed server. */
+    private volatile boolean mClosed;
+
+    /**
+     * Constructor, binding to the loopback interface.
+     * 
+     * @param paramHandler
+     *            serving the requests
+     * @param paramPort
+     *            port to listen on, 0 for any free port
+     */
+    public KeyServer(final HGHandler paramHandler, final int paramPort) {
+        this(paramHandler, new InetSocketAddress("localhost", paramPort));
+    }
+
+    /**
+     * Constructor. Since requests are not authenticated, addresses other
+     * than the loopback interface expose the material to all clients able
+     * to connect.
+     * 
+     * @param paramHandler
+     *            serving the requests
+     * @param paramAddress
+     *            address to listen on
+     */
+    public KeyServer(final HGHandler paramHandler, final InetSocketAddress paramAddress) {
+        mHandler = paramHandler;
+        mAddress = paramAddress;
+    }
+
+    /**
+     * Starting the server: binding the socket, accepting connections and
+     * dispatching lookups in daemon threads.
+     * 
+     * @throws IOException
+     *             if the socket cannot be bound
+     */
+    public synchronized void start() throws IOException {
+        if (mServerSocket != null) {
+            throw new IllegalStateException("Server is already started");
+        }
+        mServerSocket = new ServerSocket();
+        mServerSocket.bind(mAddress);
+        startThread(new Runnable() {
+            @Override
+            public void run() {
+                accept();
+            }
+        }, "versacloud-server-accept");
+        startThread(new Runnable() {
+            @Override
+            public void run() {
+                dispatch();
+            }
+        }, "versacloud-server-dispatch");
+        LOGGER.info("Key server listening on " + mServerSocket.getLocalSocketAddress());
+    }
+
+    /**
+     * Getting the port the server listens on.
+     * 
+     * @return the port
+     */
+    public synchronized int getPort() {
+        if (mServerSocket == null) {
+            throw new IllegalStateException("Server is not started");
+        }
+        return mServerSocket.getLocalPort();
+    }
+
+    /**
+     * Closing the server including all connections. The handler is not
+     * closed.
+     */
+    public synchronized void close() {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+        if (mServerSocket != null) {
+            try {
+                mServerSocket.close();
+            } catch (final IOException exc) {
+                LOGGER.error(exc.toString());
+            }
+        }
+        for (final Connection connection : mConnections) {
+            connection.close();
+        }
+        // waking up connections waiting for space and the dispatcher
+        mLookups.clear();
+        mLookups.offer(new Lookup(null, 0, 0, 0));
+    }
+
+    /**
+     * Accepting connections until the server is closed.
+     */
+    private void accept() {
+        while (!mClosed) {
+            try {
+                final Socket socket = mServerSocket.accept();
+                socket.setTcpNoDelay(true);
+                final Connection connection = new Connection(socket);
+                mConnections.add(connection);
+                startThread(connection, "versacloud-server-" + socket.getRemoteSocketAddress());
+                startThread(new Runnable() {
+                    @Override
+                    public void run() {
+                        connection.write();
+                    }
+                }, "versacloud-server-writer-" + socket.getRemoteSocketAddress());
+            } catch (final IOException exc) {
+                if (!mClosed) {
+                    LOGGER.error("Accepting failed: " + exc);
+                }
+            }
+        }
+    }
+
+    /**
+     * Resolving pending lookups in batches until the server is closed.
+     */
+    private void dispatch() {
+        final List<Lookup> batch = new ArrayList<Lookup>(MAX_BATCH);
+        while (!mClosed) {
+            try {
+                batch.add(mLookups.take());
+            } catch (final InterruptedException exc) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            mLookups.drainTo(batch, MAX_BATCH - 1);
+            if (mClosed) {
+                return;
+            }
+            final long[] keys = new long[batch.size()];
+            final long[] versions = new long[batch.size()];
+            for (int i = 0; i < keys.length; i++) {
+                keys[i] = batch.get(i).mKey;
+                versions[i] = batch.get(i).mVersion;
+            }
+            byte[][] material = null;
+            String error = null;
+            try {
+                material = mHandler.getRightMaterial(keys, versions);
+            } catch (final RuntimeException exc) {
+                LOGGER.error("Batch lookup failed: " + exc);
+                error = exc.toString();
+            }
+            for (int i = 0; i < keys.length; i++) {
+                final Lookup lookup = batch.get(i);
+                if (error == null) {
+                    lookup.mConnection.sendMaterial(lookup.mId, material[i]);
+                } else {
+                    lookup.mConnection.sendError(lookup.mId, error);
+                }
+            }
+            batch.clear();
+        }
+    }
+
+    /**
+     * Resolving rights to the handles of the nodes.
+     * 
+     * @param rights
+     *            to be resolved
+     * @return the handles
+     * @throws IllegalArgumentException
+     *             if a right is not present
+     */
+    private Set<HGHandle> resolve(final Set<RightKey> rights) {
+        final Set<HGHandle> returnval = new HashSet<HGHandle>();
+        for (final RightKey right : rights) {
+            final HGHandle handle = mHandler.getRightHandle(right.getKey(), right.getVersion());
+            if (handle == null) {
+                throw new IllegalArgumentException(new StringBuilder("Node with key ").append(right.getKey())
+                    .append(" and version ").append(right.getVersion()).append(" is not present").toString());
+            }
+            returnval.add(handle);
+        }
+        return returnval;
+    }
+
+    /**
+     * Starting a daemon thread.
+     * 
+     * @param runnable
+     *            to be run
+     * @param name
+     *            of the thread
+     */
+    private static void startThread(final Runnable runnable, final String name) {
+        final Thread thread = new Thread(runnable, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Single lookup waiting for the dispatcher.
+     */
+    private static final class Lookup {
+        /** Connection the lookup was received on. */
+        final Connection mConnection;
+
+        /** Id of the request. */
+        final int mId;
+
+        /** Key of the right. */
+        final long mKey;
+
+        /** Version of the right. */
+        final long mVersion;
+
+        /**
+         * Constructor.
+         * 
+         * @param paramConnection
+         *            the lookup was received on
+         * @param paramId
+         *            of the request
+         * @param paramKey
+         *            of the right
+         * @param paramVersion
+         *            of the right
+         */
+        Lookup(final Connection paramConnection, final int paramId, final long paramKey,
+            final long paramVersion) {
+            mConnection = paramConnection;
+            mId = paramId;
+            mKey = paramKey;
+            mVersion = paramVersion;
+        }
+    }
+
+    /**
+     * One client connection, reading requests until the client disconnects.
+     * Responses are queued and written by a separate writer thread, a client
+     * not reading its responses therefore never blocks the dispatcher. The
+     * number of requests not answered yet is bounded, the connection stops
+     * reading requests once the bound is reached.
+     */
+    private final class Connection implements Runnable {
+
+        /** The socket itself. */
+        private final Socket mSocket;
+
+        /** Stream for the requests. */
+        private final DataInputStream mIn;
+
+        /** Stream for the responses, only used by the writer thread. */
+        private final DataOutputStream mOut;
+
+        /** Encoded responses waiting for the writer thread. */
+        private final BlockingQueue<byte[]> mResponses = new LinkedBlockingQueue<byte[]>();
+
+        /** Permits for requests not answered yet. */
+        private final Semaphore mPermits = new Semaphore(MAX_PENDING);
+
+        /** Flag denoting a closed connection. */
+        private volatile boolean mClosed;
+
+        /**
+         * Constructor.
+         * 
+         * @param paramSocket
+         *            of the connection
+         * @throws IOException
+         *             if the streams cannot be opened
+         */
+        Connection(final Socket paramSocket) throws IOException {
+            mSocket = paramSocket;
+            mIn = new DataInputStream(new BufferedInputStream(paramSocket.getInputStream()));
+            mOut = new DataOutputStream(new BufferedOutputStream(paramSocket.getOutputStream()));
+        }
+
+        /**
+         * {@inheritDoc}
+         */
+        @Override
+        public void run() {
+            try {
+                while (true) {
+                    final int id = mIn.readInt();
+                    // each request is answered by exactly one response
+                    mPermits.acquire();
+                    if (mClosed) {
+                        return;
+                    }
+                    final byte operation = mIn.readByte();
+                    switch (operation) {
+                    case KeyProtocol.GET:
+                        mLookups.put(new Lookup(this, id, mIn.readLong(), mIn.readLong()));
+                        break;
+                    case KeyProtocol.GET_LATEST:
+                        handleLatest(id, mIn.readLong());
+                        break;
+                    case KeyProtocol.GET_BATCH:
+                        handleBatch(id);
+                        break;
+                    case KeyProtocol.GRANT:
+                    case KeyProtocol.REVOKE:
+                        handleRight(id, operation == KeyProtocol.GRANT, KeyProtocol.readRights(mIn),
+                            KeyProtocol.readRights(mIn));
+                        break;
+                    default:
+                        // the stream cannot be interpreted any more
+                        throw new IOException("Unknown operation " + operation);
+                    }
+                }
+            } catch (final EOFException exc) {
+                LOGGER.debug("Client disconnected");
+            } catch (final SocketException exc) {
+                LOGGER.debug("Connection closed: " + exc);
+            } catch (final IOException exc) {
+                LOGGER.error("Connection failed: " + exc);
+            } catch (final InterruptedException exc) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Writing the queued responses until the connection is closed. The
+         * stream is flushed once no further response is queued.
+         */
+        void write() {
+            try {
+                while (true) {
+                    final byte[] response = mResponses.take();
+                    if (response == CLOSED) {
+                        return;
+                    }
+                    mOut.write(response);
+                    mPermits.release();
+                    if (mResponses.isEmpty()) {
+                        mOut.flush();
+                    }
+                }
+            } catch (final IOException exc) {
+                LOGGER.debug("Sending failed: " + exc);
+            } catch (final InterruptedException exc) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+
+        /**
+         * Handling a lookup of the latest version.
+         * 
+         * @param id
+         *            of the request
+         * @param key
+         *            of the right
+         */
+        private void handleLatest(final int id, final long key) {
+            final byte[] material;
+            try {
+                material = mHandler.getLatestRightMaterial(key);
+            } catch (final RuntimeException exc) {
+                sendError(id, exc.toString());
+                return;
+            }
+            sendMaterial(id, material);
+        }
+
+        /**
+         * Handling a batch lookup.
+         * 
+         * @param id
+         *            of the request
+         * @throws IOException
+         *             if the request cannot be read
+         */
+        private void handleBatch(final int id) throws IOException {
+            final int size = KeyProtocol.checkSize(mIn.readInt());
+            final long[] keys = new long[size];
+            final long[] versions = new long[size];
+            for (int i = 0; i < size; i++) {
+                keys[i] = mIn.readLong();
+                versions[i] = mIn.readLong();
+            }
+            final byte[][] material;
+            try {
+                material = mHandler.getRightMaterial(keys, versions);
+            } catch (final RuntimeException exc) {
+                sendError(id, exc.toString());
+                return;
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(id);
+            out.writeByte(KeyProtocol.OK);
+            out.writeInt(material.length);
+            for (final byte[] element : material) {
+                KeyProtocol.writeMaterial(out, element);
+            }
+            mResponses.add(bytes.toByteArray());
+        }
+
+        /**
+         * Handling a grant or revocation. Modifications are only accepted
+         * from the loopback interface since the protocol is not
+         * authenticated.
+         * 
+         * @param id
+         *            of the request
+         * @param grant
+         *            true for a grant, false for a revocation
+         * @param parents
+         *            of the right
+         * @param children
+         *            of the right
+         * @throws IOException
+         *             if the response cannot be encoded
+         */
+        private void handleRight(final int id, final boolean grant, final Set<RightKey> parents,
+            final Set<RightKey> children) throws IOException {
+            if (!mSocket.getInetAddress().isLoopbackAddress()) {
+                sendError(id, "Rights can only be modified from the loopback interface");
+                return;
+            }
+            final boolean modified;
+            try {
+                if (grant) {
+                    modified = mHandler.activateRight(resolve(parents), resolve(children));
+                } else {
+                    modified = mHandler.deactivateRight(resolve(parents), resolve(children));
+                }
+            } catch (final RuntimeException exc) {
+                sendError(id, exc.toString());
+                return;
+            }
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream(6);
+            final DataOutputStream out = new DataOutputStream(bytes);
+            out.writeInt(id);
+            out.writeByte(KeyProtocol.OK);
+            out.writeBoolean(modified);
+            mResponses.add(bytes.toByteArray());
+        }
+
+        /**
+         * Queuing the material of one right.
+         * 
+         * @param id
+         *            of the request
+         * @param material
+         *            to be sent, might be null
+         */
+        void sendMaterial(final int id, final byte[] material) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeInt(id);
+                out.writeByte(KeyProtocol.OK);
+                KeyProtocol.writeMaterial(out, material);
+            } catch (final IOException exc) {
+                // writing to memory does not fail
+                throw new IllegalStateException(exc);
+            }
+            mResponses.add(bytes.toByteArray());
+        }
+
+        /**
+         * Queuing an error.
+         * 
+         * @param id
+         *            of the request
+         * @param message
+         *            describing the error
+         */
+        void sendError(final int id, final String message) {
+            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            final DataOutputStream out = new DataOutputStream(bytes);
+            try {
+                out.writeInt(id);
+                out.writeByte(KeyProtocol.ERROR);
+                out.writeUTF(message);
+            } catch (final IOException exc) {
+                // writing to memory does not fail
+                throw new IllegalStateException(exc);
+            }
+            mResponses.add(bytes.toByteArray());
+        }
+
+        /**
+         * Closing the connection, stopping both the reading and the writing
+         * thread.
+         */
+        void close() {
+            if (mClosed) {
+                return;
+            }
+            mClosed = true;
+            mConnections.remove(this);
+            mResponses.add(CLOSED);
+            // waking up the reading thread waiting for permits
+            mPermits.release(MAX_PENDING);
+            try {
+                mSocket.close();
+            } catch (final IOException exc) {
+                LOGGER.error(exc.toString());
+            }
+        }
+    }
+
+    /**
+     * Starting a server for a db until the process is terminated.
+     * 
+     * @param args
+     *            location of the db and the port to listen on
+     * @throws IOException
+     *             if the socket cannot be bound
+     * @throws InterruptedException
+     *             if the main thread is interrupted
+     */
+    public static void main(final String[] args) throws IOException, InterruptedException {
+        if (args.length != 2) {
+            System.err.println("Usage: KeyServer <db location> <port>");
+            System.exit(1);
+        }
+        final HyperGraph graph = new HyperGraph(args[0]);
+        final KeyServer server = new KeyServer(new HGHandler(graph), Integer.parseInt(args[1]));
+        Runtime.getRuntime().addShutdownHook(new Thread() {
+            @Override
+            public void run() {
+                server.close();
+                graph.close();
+            }
+        });
+        server.start();
+        Thread.currentThread().join();
+    }
+
+}
@@ -0,0 +1,395 @@
+/**
+ * 
+ */
+package org.versacloud.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.zip.CRC32;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGHandleFactory;
+import org.hypergraphdb.HGPersistentHandle;
+import org.versacloud.api.IChangeListener;
+import org.versacloud.model.ChangeEvent;
+
+/**
+ * Append-only log of change events within one file segment. Followers
+ * replay the log starting with the sequence they processed last instead of
+ * reloading all data.
+ * 
+ * The file starts with a header of {@value #HEADER} bytes: a magic number
+ * and the sequence of the first event. Each record consists of the length
+ * and the CRC32 checksum of its body, followed by the body itself. A record
+ * only partially written, e.g. because of a crash, is detected by its
+ * checksum and cut off when opening the log.
+ * 
+ * Appending is synchronized, replaying is safe from any thread.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class ChangeLog implements Closeable {
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x5643434c;
+
+    /** Size of the header. */
+    static final int HEADER = 12;
+
+    /** Size of the length and the checksum preceding each body. */
+    private static final int RECORD_HEADER = 8;
+
+    /** The file itself. */
+    private final RandomAccessFile mFile;
+
+    /** Channel of the file. */
+    private final FileChannel mChannel;
+
+    /** Factory for the handles of replayed events. */
+    private final HGHandleFactory mFactory;
+
+    /** Sequence of the first event within the log. */
+    private final long mFirstSequence;
+
+    /** Sequence of the last event, first sequence - 1 if empty. */
+    private volatile long mLastSequence;
+
+    /** End of the last record. */
+    private volatile long mEnd;
+
+    /**
+     * Opening or creating a log.
+     * 
+     * @param paramFile
+     *            of the log
+     * @param paramFactory
+     *            creating the handles of replayed events
+     * @param paramFirstSequence
+     *            sequence of the first event for a new log, an existing log
+     *            keeps its first sequence
+     * @throws IOException
+     *             if the file cannot be opened or is no log
+     */
+    public ChangeLog(final File paramFile, final HGHandleFactory paramFactory, final long paramFirstSequence)
+        throws IOException {
+        final boolean exists = paramFile.exists() && paramFile.length() > 0;
+        mFile = new RandomAccessFile(paramFile, "rw");
+        mChannel = mFile.getChannel();
+        mFactory = paramFactory;
+        try {
+            final ByteBuffer header = ByteBuffer.allocate(HEADER);
+            if (exists) {
+                readFully(header, 0);
+                if (header.getInt() != MAGIC) {
+                    throw new IOException(paramFile + " is no change log");
+                }
+                mFirstSequence = header.getLong();
+                recover();
+            } else {
+                mFirstSequence = paramFirstSequence;
+                header.putInt(MAGIC);
+                header.putLong(mFirstSequence);
+                header.flip();
+                mChannel.write(header, 0);
+                mLastSequence = mFirstSequence - 1;
+                mEnd = HEADER;
+            }
+        } catch (final IOException exc) {
+            mFile.close();
+            throw exc;
+        }
+    }
+
+    /**
+     * Appending an event.
+     * 
+     * @param event
+     *            to be appended
+     * @throws IllegalArgumentException
+     *             if the sequence of the event does not follow the last one
+     * @throws IllegalStateException
+     *             if the event cannot be written
+     */
+    public synchronized void append(final ChangeEvent event) {
+        if (event.getSequence() <= mLastSequence) {
+            throw new IllegalArgumentException(new StringBuilder("Sequence ").append(event.getSequence())
+                .append(" does not follow the last sequence ").append(mLastSequence).toString());
+        }
+        final byte[] body = encode(event);
+        final CRC32 crc = new CRC32();
+        crc.update(body);
+        final ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + body.length);
+        record.putInt(body.length);
+        record.putInt((int)crc.getValue());
+        record.put(body);
+        record.flip();
+        try {
+            long position = mEnd;
+            while (record.hasRemaining()) {
+                position += mChannel.write(record, position);
+            }
+            mEnd = position;
+        } catch (final IOException exc) {
+            throw new IllegalStateException("Cannot append " + event, exc);
+        }
+        mLastSequence = event.getSequence();
+    }
+
+    /**
+     * Replaying all events appended so far, starting with a sequence.
+     * 
+     * @param paramFromSequence
+     *            sequence of the first event to be replayed
+     * @param listener
+     *            receiving the events in order
+     * @return the sequence of the last event replayed, the denoted sequence
+     *         - 1 if none
+     * @throws IllegalArgumentException
+     *             if the sequence precedes the first event of the log
+     * @throws IOException
+     *             if the log cannot be read
+     */
+    public long replay(final long paramFromSequence, final IChangeListener listener) throws IOException {
+        if (paramFromSequence < mFirstSequence) {
+            throw new IllegalArgumentException(new StringBuilder("Sequence ").append(paramFromSequence)
+                .append(" precedes the log starting with ").append(mFirstSequence).toString());
+        }
+        final long end = mEnd;
+        long returnval = paramFromSequence - 1;
+        long position = HEADER;
+        final ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER);
+        while (position < end) {
+            recordHeader.clear();
+            readFully(recordHeader, position);
+            final ByteBuffer body = ByteBuffer.allocate(recordHeader.getInt());
+            readFully(body, position + RECORD_HEADER);
+            position += RECORD_HEADER + body.capacity();
+            // the sequence leads the body, only requested events are decoded
+            if (body.getLong(0) >= paramFromSequence) {
+                final ChangeEvent event = decode(body);
+                listener.changed(event);
+                returnval = event.getSequence();
+            }
+        }
+        return returnval;
+    }
+
+    /**
+     * Getting the sequence of the first event within the log.
+     * 
+     * @return the first sequence
+     */
+    public long getFirstSequence() {
+        return mFirstSequence;
+    }
+
+    /**
+     * Getting the sequence of the last event within the log.
+     * 
+     * @return the last sequence, first sequence - 1 if empty
+     */
+    public long getLastSequence() {
+        return mLastSequence;
+    }
+
+    /**
+     * Writing all appended events to the disk.
+     * 
+     * @throws IOException
+     *             if the file cannot be synced
+     */
+    public synchronized void force() throws IOException {
+        mChannel.force(false);
+    }
+
+    /**
+     * Closing the log.
+     * 
+     * @throws IOException
+     *             if the file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        mFile.close();
+    }
+
+    /**
+     * Scanning all records for the end and the last sequence, cutting off a
+     * partially written record.
+     * 
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    private void recover() throws IOException {
+        final long length = mChannel.size();
+        long position = HEADER;
+        long last = mFirstSequence - 1;
+        final ByteBuffer recordHeader = ByteBuffer.allocate(RECORD_HEADER);
+        while (position + RECORD_HEADER <= length) {
+            recordHeader.clear();
+            readFully(recordHeader, position);
+            final int bodyLength = recordHeader.getInt();
+            if (bodyLength <= 8 || position + RECORD_HEADER + bodyLength > length) {
+                break;
+            }
+            final ByteBuffer body = ByteBuffer.allocate(bodyLength);
+            readFully(body, position + RECORD_HEADER);
+            final CRC32 crc = new CRC32();
+            crc.update(body.array());
+            if ((int)crc.getValue() != recordHeader.getInt()) {
+                break;
+            }
+            last = body.getLong(0);
+            position += RECORD_HEADER + bodyLength;
+        }
+        if (position < length) {
+            mChannel.truncate(position);
+        }
+        mEnd = position;
+        mLastSequence = last;
+    }
+
+    /**
+     * Reading a buffer entirely.
+     * 
+     * @param buffer
+     *            to be filled, flipped afterwards
+     * @param position
+     *            within the file
+     * @throws IOException
+     *             if the file ends before the buffer is filled
+     */
+    private void readFully(final ByteBuffer buffer, final long position) throws IOException {
+        long current = position;
+        while (buffer.hasRemaining()) {
+            final int read = mChannel.read(buffer, current);
+            if (read < 0) {
+                throw new IOException("Unexpected end of the log at " + current);
+            }
+            current += read;
+        }
+        buffer.flip();
+    }
+
+    /**
+     * Encoding the body of an event.
+     * 
+     * @param event
+     *            to be encoded
+     * @return the body
+     */
+    private static byte[] encode(final ChangeEvent event) {
+        final byte[] handle = event.getHandle() == null ? new byte[0] : event.getHandle().toByteArray();
+        final byte[][] parents = toByteArrays(event.getParents());
+        final byte[][] children = toByteArrays(event.getChildren());
+        int length = 8 + 1 + 4 + handle.length + 32 + 8;
+        for (final byte[] bytes : parents) {
+            length += 4 + bytes.length;
+        }
+        for (final byte[] bytes : children) {
+            length += 4 + bytes.length;
+        }
+        final ByteBuffer buffer = ByteBuffer.allocate(length);
+        buffer.putLong(event.getSequence());
+        buffer.put((byte)event.getType().ordinal());
+        buffer.putInt(handle.length);
+        buffer.put(handle);
+        buffer.putLong(event.getOldKey());
+        buffer.putLong(event.getOldVersion());
+        buffer.putLong(event.getKey());
+        buffer.putLong(event.getVersion());
+        putHandles(buffer, parents);
+        putHandles(buffer, children);
+        return buffer.array();
+    }
+
+    /**
+     * Decoding the body of an event.
+     * 
+     * @param body
+     *            to be decoded
+     * @return the event
+     * @throws IOException
+     *             if the body denotes an unknown type
+     */
+    private ChangeEvent decode(final ByteBuffer body) throws IOException {
+        final long sequence = body.getLong();
+        final int ordinal = body.get();
+        if (ordinal < 0 || ordinal >= ChangeEvent.Type.values().length) {
+            throw new IOException("Unknown type " + ordinal + " of event " + sequence);
+        }
+        final ChangeEvent.Type type = ChangeEvent.Type.values()[ordinal];
+        final byte[] handle = new byte[body.getInt()];
+        body.get(handle);
+        final long oldKey = body.getLong();
+        final long oldVersion = body.getLong();
+        final long key = body.getLong();
+        final long version = body.getLong();
+        final Set<HGHandle> parents = getHandles(body);
+        final Set<HGHandle> children = getHandles(body);
+        if (type == ChangeEvent.Type.RIGHT_ACTIVATED || type == ChangeEvent.Type.RIGHT_DEACTIVATED) {
+            return ChangeEvent.rightChange(sequence, type, parents, children);
+        }
+        return ChangeEvent.nodeChange(sequence, type, mFactory.makeHandle(handle), oldKey, oldVersion, key,
+            version);
+    }
+
+    /**
+     * Converting handles to their persistent form.
+     * 
+     * @param handles
+     *            to be converted
+     * @return the byte representations of the handles
+     */
+    private static byte[][] toByteArrays(final Set<HGHandle> handles) {
+        final byte[][] returnval = new byte[handles.size()][];
+        int i = 0;
+        for (final HGHandle handle : handles) {
+            returnval[i++] = handle.getPersistent().toByteArray();
+        }
+        return returnval;
+    }
+
+    /**
+     * Writing a count-prefixed list of handles.
+     * 
+     * @param buffer
+     *            to write to
+     * @param handles
+     *            the byte representations of the handles
+     */
+    private static void putHandles(final ByteBuffer buffer, final byte[][] handles) {
+        buffer.putInt(handles.length);
+        for (final byte[] bytes : handles) {
+            buffer.putInt(bytes.length);
+            buffer.put(bytes);
+        }
+    }
+
+    /**
+     * Reading a count-prefixed list of handles.
+     * 
+     * @param buffer
+     *            to read from
+     * @return the handles
+     */
+    private Set<HGHandle> getHandles(final ByteBuffer buffer) {
+        final int count = buffer.getInt();
+        final Set<HGHandle> returnval = new HashSet<HGHandle>();
+        for (int i = 0; i < count; i++) {
+            final byte[] bytes = new byte[buffer.getInt()];
+            buffer.get(bytes);
+            returnval.add(mFactory.makeHandle(bytes));
+        }
+        return returnval;
+    }
+
+}
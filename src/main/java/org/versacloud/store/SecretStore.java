@@ -0,0 +1,351 @@
+/**
+ * 
+ */
+package org.versacloud.store;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Arrays;
+
+/**
+ * Append-only store for the secret material of the nodes, kept outside of
+ * the graph. The file is memory-mapped in segments of fixed size, reading
+ * the material at the offset of its record costs one copy out of the mapping
+ * without any deserialization. The offsets are kept by the caller, the store
+ * itself holds no mapping from the nodes to their records.
+ * 
+ * The file starts with a header of {@value #HEADER} bytes: a magic number,
+ * the size of the segments, the end of the last record and the number of
+ * records not removed. Each record consists of its length, the key and the
+ * version of the node and the material itself. A record never spans two
+ * segments, the rest of a segment not fitting the next record is skipped.
+ * Removing a record overwrites its material with zeros and stores the
+ * complement of its length, the space is not reclaimed. Opening a store
+ * therefore only reads the header.
+ * 
+ * Appending and removing is synchronized, reading is safe from any thread.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class SecretStore implements Closeable {
+
+    /** Magic number at the start of the file. */
+    private static final int MAGIC = 0x56435353;
+
+    /** Size of the header. */
+    static final int HEADER = 24;
+
+    /** Position of the end of the last record within the header. */
+    private static final int END_POSITION = 8;
+
+    /** Position of the number of records not removed within the header. */
+    private static final int SIZE_POSITION = 16;
+
+    /** Size of the length, the key and the version preceding the material. */
+    static final int RECORD_HEADER = 20;
+
+    /** Length denoting a skipped rest of a segment. */
+    private static final int PADDING = Integer.MIN_VALUE;
+
+    /** Default size of one segment. */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 26;
+
+    /** The file itself. */
+    private final RandomAccessFile mFile;
+
+    /** Channel of the file. */
+    private final FileChannel mChannel;
+
+    /** Size of one segment. */
+    private final int mSegmentSize;
+
+    /** Mapped segments, replaced by a larger array when growing. */
+    private volatile MappedByteBuffer[] mSegments;
+
+    /** End of the last record, guarded by this. */
+    private long mEnd;
+
+    /** Number of records not removed, guarded by this. */
+    private long mSize;
+
+    /**
+     * Opening or creating a store with segments of the default size.
+     * 
+     * @param paramFile
+     *            of the store
+     * @throws IOException
+     *             if the file cannot be opened or is no store
+     */
+    public SecretStore(final File paramFile) throws IOException {
+        this(paramFile, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Opening or creating a store.
+     * 
+     * @param paramFile
+     *            of the store
+     * @param paramSegmentSize
+     *            size of one segment for a new store, an existing store keeps
+     *            its size
+     * @throws IOException
+     *             if the file cannot be opened or is no store
+     */
+    public SecretStore(final File paramFile, final int paramSegmentSize) throws IOException {
+        final boolean exists = paramFile.exists() && paramFile.length() > 0;
+        mFile = new RandomAccessFile(paramFile, "rw");
+        mChannel = mFile.getChannel();
+        try {
+            if (exists) {
+                final ByteBuffer header = ByteBuffer.allocate(HEADER);
+                mChannel.read(header, 0);
+                header.flip();
+                if (header.remaining() < HEADER || header.getInt() != MAGIC) {
+                    throw new IOException(paramFile + " is no secret store");
+                }
+                mSegmentSize = header.getInt();
+                mEnd = header.getLong();
+                mSize = header.getLong();
+            } else {
+                if (paramSegmentSize < HEADER + RECORD_HEADER) {
+                    throw new IllegalArgumentException("Segment size " + paramSegmentSize + " is too small");
+                }
+                mSegmentSize = paramSegmentSize;
+                mEnd = HEADER;
+            }
+            mSegments = new MappedByteBuffer[0];
+            final MappedByteBuffer first = segment(0);
+            if (!exists) {
+                first.putInt(0, MAGIC);
+                first.putInt(4, mSegmentSize);
+                first.putLong(END_POSITION, mEnd);
+                first.putLong(SIZE_POSITION, mSize);
+            }
+        } catch (final IOException exc) {
+            mFile.close();
+            throw exc;
+        }
+    }
+
+    /**
+     * Appending the material of a node as a new record. Records appended
+     * before for the same node are not modified.
+     * 
+     * @param key
+     *            of the node
+     * @param version
+     *            of the node
+     * @param material
+     *            to be stored
+     * @return the offset of the record
+     * @throws IllegalArgumentException
+     *             if the material is null or exceeds a segment
+     */
+    public synchronized long append(final long key, final long version, final byte[] material) {
+        if (material == null) {
+            throw new IllegalArgumentException("Material must not be null");
+        }
+        final long offset = write(key, version, material);
+        mSize++;
+        mSegments[0].putLong(SIZE_POSITION, mSize);
+        return offset;
+    }
+
+    /**
+     * Removing a record, overwriting its material with zeros.
+     * 
+     * @param offset
+     *            of the record as returned by
+     *            {@link #append(long, long, byte[])}
+     * @return true if the record was not removed before
+     * @throws IllegalArgumentException
+     *             if the offset denotes no record
+     */
+    public synchronized boolean remove(final long offset) {
+        final ByteBuffer buffer = record(offset);
+        final int position = buffer.position();
+        final int length = buffer.getInt(position);
+        if (length < 0) {
+            return false;
+        }
+        buffer.position(position + RECORD_HEADER);
+        buffer.put(new byte[length]);
+        buffer.putInt(position, ~length);
+        mSize--;
+        mSegments[0].putLong(SIZE_POSITION, mSize);
+        return true;
+    }
+
+    /**
+     * Reading the material of a record.
+     * 
+     * @param offset
+     *            of the record as returned by
+     *            {@link #append(long, long, byte[])}
+     * @return the material, null if the record is removed
+     * @throws IllegalArgumentException
+     *             if the offset denotes no record
+     */
+    public byte[] read(final long offset) {
+        final ByteBuffer buffer = record(offset);
+        final int length = buffer.getInt(buffer.position());
+        if (length < 0) {
+            return null;
+        }
+        final byte[] returnval = new byte[length];
+        buffer.position(buffer.position() + RECORD_HEADER);
+        buffer.get(returnval);
+        return returnval;
+    }
+
+    /**
+     * Getting the number of records not removed.
+     * 
+     * @return the number of records
+     */
+    public synchronized long size() {
+        return mSize;
+    }
+
+    /**
+     * Getting the end of the last record, equalling the space used.
+     * 
+     * @return the end in bytes
+     */
+    public synchronized long getEnd() {
+        return mEnd;
+    }
+
+    /**
+     * Writing all appended records to the disk.
+     */
+    public synchronized void force() {
+        for (final MappedByteBuffer segment : mSegments) {
+            segment.force();
+        }
+    }
+
+    /**
+     * Closing the store. The mapping is released once the store is garbage
+     * collected.
+     * 
+     * @throws IOException
+     *             if the file cannot be closed
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        force();
+        mFile.close();
+    }
+
+    /**
+     * Writing one record at the end.
+     * 
+     * @param key
+     *            of the node
+     * @param version
+     *            of the node
+     * @param material
+     *            to be written
+     * @return the offset of the record
+     */
+    private long write(final long key, final long version, final byte[] material) {
+        final int length = material.length;
+        if (length > mSegmentSize - HEADER - RECORD_HEADER) {
+            throw new IllegalArgumentException(new StringBuilder("Material of ").append(length).append(
+                " bytes exceeds the segment size of ").append(mSegmentSize).toString());
+        }
+        long offset = mEnd;
+        int position = (int)(offset % mSegmentSize);
+        if (position + RECORD_HEADER + length > mSegmentSize) {
+            // skipping the rest of the segment
+            if (mSegmentSize - position >= 4) {
+                segmentUnchecked(offset).putInt(position, PADDING);
+            }
+            offset += mSegmentSize - position;
+            position = 0;
+        }
+        final ByteBuffer buffer = segmentUnchecked(offset).duplicate();
+        buffer.position(position);
+        buffer.putInt(length);
+        buffer.putLong(key);
+        buffer.putLong(version);
+        buffer.put(material);
+        mEnd = offset + RECORD_HEADER + length;
+        mSegments[0].putLong(END_POSITION, mEnd);
+        return offset;
+    }
+
+    /**
+     * Getting the segment containing a record, positioned at the record.
+     * 
+     * @param offset
+     *            of the record
+     * @return a duplicate of the segment
+     * @throws IllegalArgumentException
+     *             if the offset denotes no record
+     */
+    private ByteBuffer record(final long offset) {
+        final MappedByteBuffer[] segments = mSegments;
+        final int index = (int)(offset / mSegmentSize);
+        final int position = (int)(offset % mSegmentSize);
+        if (offset < HEADER || index >= segments.length || position > mSegmentSize - RECORD_HEADER) {
+            throw new IllegalArgumentException("Offset " + offset + " denotes no record");
+        }
+        final ByteBuffer buffer = segments[index].duplicate();
+        final int length = buffer.getInt(position);
+        // removed records store the complement of their length
+        final int stored = length < 0 ? ~length : length;
+        if (length == PADDING || stored > mSegmentSize - position - RECORD_HEADER) {
+            throw new IllegalArgumentException("Offset " + offset + " denotes no record");
+        }
+        buffer.position(position);
+        return buffer;
+    }
+
+    /**
+     * Getting the segment containing an offset, mapping it if necessary.
+     * Must be called while holding the lock of this store.
+     * 
+     * @param offset
+     *            within the segment
+     * @return the segment
+     */
+    private MappedByteBuffer segmentUnchecked(final long offset) {
+        try {
+            return segment((int)(offset / mSegmentSize));
+        } catch (final IOException exc) {
+            throw new IllegalStateException("Cannot map segment at offset " + offset, exc);
+        }
+    }
+
+    /**
+     * Getting a segment, mapping it and all segments before if necessary.
+     * 
+     * @param index
+     *            of the segment
+     * @return the segment
+     * @throws IOException
+     *             if the segment cannot be mapped
+     */
+    private MappedByteBuffer segment(final int index) throws IOException {
+        MappedByteBuffer[] segments = mSegments;
+        if (index < segments.length) {
+            return segments[index];
+        }
+        segments = Arrays.copyOf(segments, index + 1);
+        for (int i = mSegments.length; i <= index; i++) {
+            segments[i] = mChannel.map(FileChannel.MapMode.READ_WRITE, (long)i * mSegmentSize, mSegmentSize);
+        }
+        // publishing the new segments to the readers
+        mSegments = segments;
+        return segments[index];
+    }
+
+}
@@ -0,0 +1,139 @@
+/**
+ * 
+ */
+package org.versacloud;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.versacloud.HGTestUtil.generateNodes;
+import static org.versacloud.HGTestUtil.recursiveDelete;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HyperGraph;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.versacloud.api.IResultCallback;
+import org.versacloud.model.Node;
+
+/**
+ * Test case for AsyncHGHandler
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public class AsyncHGHandlerTest {
+
+    private AsyncHGHandler handler;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        String databaseLocation = "/tmp/bla";
+        recursiveDelete(new File(databaseLocation));
+        handler = new AsyncHGHandler(new HGHandler(new HyperGraph(databaseLocation)), 4, 1000);
+        HGTestUtil.identifier = 0;
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        handler.shutdown();
+        handler.getHandler().getHGDB().close();
+    }
+
+    /**
+     * Test method for {@link org.versacloud.AsyncHGHandler#getRightMaterial(long, long, IResultCallback)}.
+     * 
+     * @throws Exception
+     *             if a future fails
+     */
+    @Test
+    public void testMaterial() throws Exception {
+        final Node[] nodes = generateNodes(50).toArray(new Node[50]);
+        handler.getHandler().addRight(nodes);
+        final List<Future<byte[]>> futures = new ArrayList<Future<byte[]>>();
+        for (final Node node : nodes) {
+            futures.add(handler.getRightMaterial(node.getKey(), node.getVersion(), null));
+        }
+        for (int i = 0; i < nodes.length; i++) {
+            assertArrayEquals(nodes[i].getSecretKey(), futures.get(i).get());
+        }
+        assertNull(handler.getRightMaterial(Integer.MAX_VALUE, 0, null).get());
+
+        final long[] keys = new long[] {
+            nodes[0].getKey(), nodes[1].getKey()
+        };
+        final long[] versions = new long[] {
+            nodes[0].getVersion(), nodes[1].getVersion()
+        };
+        final byte[][] material = handler.getRightMaterial(keys, versions, null).get();
+        assertArrayEquals(nodes[1].getSecretKey(), material[1]);
+    }
+
+    /**
+     * Test method for {@link org.versacloud.AsyncHGHandler#activateRight(Set, Set, IResultCallback)}.
+     * 
+     * @throws Exception
+     *             if a future fails
+     */
+    @Test
+    public void testCallbacks() throws Exception {
+        final HGHandle[] handles = handler.getHandler().addRight(generateNodes(3).toArray(new Node[3]));
+        final Set<HGHandle> parents = new HashSet<HGHandle>(Arrays.asList(handles[0]));
+        final Set<HGHandle> children = new HashSet<HGHandle>(Arrays.asList(handles[1], handles[2]));
+
+        final CountDownLatch latch = new CountDownLatch(1);
+        final AtomicReference<Boolean> result = new AtomicReference<Boolean>();
+        handler.activateRight(parents, children, new IResultCallback<Boolean>() {
+            @Override
+            public void completed(final Boolean paramResult) {
+                result.set(paramResult);
+                latch.countDown();
+            }
+
+            @Override
+            public void failed(final Throwable cause) {
+                latch.countDown();
+            }
+        });
+        assertTrue(latch.await(10, TimeUnit.SECONDS));
+        assertEquals(Boolean.TRUE, result.get());
+        assertEquals(children, handler.getDescendants(handles[0], null).get());
+
+        // failures are reported to the callback
+        final CountDownLatch failure = new CountDownLatch(1);
+        handler.getRightMaterial(new long[1], new long[2], new IResultCallback<byte[][]>() {
+            @Override
+            public void completed(final byte[][] paramResult) {
+            }
+
+            @Override
+            public void failed(final Throwable cause) {
+                if (cause instanceof IllegalArgumentException) {
+                    failure.countDown();
+                }
+            }
+        });
+        assertTrue(failure.await(10, TimeUnit.SECONDS));
+        assertTrue(handler.deactivateRight(parents, children, null).get());
+    }
+
+}
@@ -0,0 +1,246 @@
+/**
+ * 
+ */
+package org.versacloud;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.versacloud.HGTestUtil.generateNodes;
+import static org.versacloud.HGTestUtil.recursiveDelete;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HyperGraph;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.versacloud.model.Node;
+import org.versacloud.model.RightOperation;
+
+/**
+ * Test case for CSRHandler
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public class CSRHandlerTest {
+
+    private HGHandler handler;
+
+    private CSRHandler engine;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        String databaseLocation = "/tmp/bla";
+        recursiveDelete(new File(databaseLocation));
+        handler = new HGHandler(new HyperGraph(databaseLocation));
+        HGTestUtil.identifier = 0;
+        engine = new CSRHandler(handler);
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        engine.close();
+        handler.getHGDB().close();
+    }
+
+    /**
+     * Test method for {@link org.versacloud.CSRHandler#getRightMaterial(long, long)}.
+     */
+    @Test
+    public void testMaterial() {
+        final Node[] nodes = generateNodes(20).toArray(new Node[20]);
+        final HGHandle[] handles = engine.addRight(nodes);
+        assertEquals(nodes.length, engine.size());
+        for (final Node node : nodes) {
+            assertArrayEquals(node.getSecretKey(), engine.getRightMaterial(node.getKey(), node.getVersion()));
+            assertArrayEquals(node.getSecretKey(), engine.getLatestRightMaterial(node.getKey()));
+        }
+        assertNull(engine.getRightMaterial(Integer.MAX_VALUE, 0));
+
+        // replacing directly at the handler is tracked as well
+        final Node replaced =
+            new Node(nodes[0].getName(), nodes[0].getKey(), nodes[0].getVersion(), new byte[] {
+                1, 2, 3
+            });
+        handler.replaceRight(handles[0], replaced);
+        assertArrayEquals(replaced.getSecretKey(), engine.getRightMaterial(nodes[0].getKey(), nodes[0]
+            .getVersion()));
+    }
+
+    /**
+     * Test method for {@link org.versacloud.CSRHandler#getDescendants(HGHandle)} compared with the
+     * traversal of the handler while modifying the links.
+     */
+    @Test
+    public void testDescendants() {
+        final Node[] nodes = generateNodes(60).toArray(new Node[60]);
+        final HGHandle[] handles = engine.addRight(nodes);
+        final Random random = new Random(42);
+        final List<Set<HGHandle>[]> rights = new ArrayList<Set<HGHandle>[]>();
+        for (int i = 0; i < 80; i++) {
+            final Set<HGHandle>[] right = randomRight(handles, random);
+            engine.activateRight(right[0], right[1]);
+            rights.add(right);
+        }
+        checkDescendants(handles);
+
+        // revoking a part of the rights
+        for (int i = 0; i < rights.size(); i += 3) {
+            engine.deactivateRight(rights.get(i)[0], rights.get(i)[1]);
+        }
+        checkDescendants(handles);
+
+        // applying a batch
+        final List<RightOperation> operations = new ArrayList<RightOperation>();
+        for (int i = 0; i < 30; i++) {
+            final Set<HGHandle>[] right = randomRight(handles, random);
+            operations.add(random.nextBoolean() ? RightOperation.grant(right[0], right[1]) : RightOperation
+                .revoke(right[0], right[1]));
+        }
+        engine.applyRights(operations);
+        checkDescendants(handles);
+
+        // removing nodes adapts and merges links
+        for (int i = 0; i < 10; i++) {
+            assertTrue(engine.removeRight(nodes[i * 5]).isRemoved());
+            handles[i * 5] = null;
+        }
+        assertEquals(50, engine.size());
+        checkDescendants(handles);
+
+        // the state survives a reload
+        engine.close();
+        engine = new CSRHandler(handler);
+        checkDescendants(handles);
+    }
+
+    /**
+     * Test method for {@link org.versacloud.CSRHandler#linkChanged(HGHandle)} with the links being
+     * modified directly at the handler.
+     */
+    @Test
+    public void testHandlerModifications() {
+        final Node[] nodes = generateNodes(60).toArray(new Node[60]);
+        final HGHandle[] handles = handler.addRight(nodes);
+        final Random random = new Random(7);
+        final List<Set<HGHandle>[]> rights = new ArrayList<Set<HGHandle>[]>();
+        for (int i = 0; i < 200; i++) {
+            final Set<HGHandle>[] right = randomRight(handles, random);
+            handler.activateRight(right[0], right[1]);
+            rights.add(right);
+            if (i % 50 == 0) {
+                checkDescendants(handles);
+            }
+        }
+        checkDescendants(handles);
+
+        for (int i = 0; i < rights.size(); i += 4) {
+            handler.deactivateRight(rights.get(i)[0], rights.get(i)[1]);
+        }
+        checkDescendants(handles);
+
+        final List<RightOperation> operations = new ArrayList<RightOperation>();
+        for (int i = 0; i < 30; i++) {
+            final Set<HGHandle>[] right = randomRight(handles, random);
+            operations.add(random.nextBoolean() ? RightOperation.grant(right[0], right[1]) : RightOperation
+                .revoke(right[0], right[1]));
+        }
+        handler.applyRights(operations);
+        checkDescendants(handles);
+
+        for (int i = 0; i < 5; i++) {
+            assertTrue(handler.removeRight(nodes[i * 7]).isRemoved());
+            handles[i * 7] = null;
+        }
+        assertEquals(55, engine.size());
+        checkDescendants(handles);
+
+        // reindexing reloads all links
+        handler.reindex();
+        checkDescendants(handles);
+    }
+
+    /**
+     * Test method for {@link org.versacloud.CSRHandler#getDescendants(java.util.Collection)} with a
+     * cycle.
+     */
+    @Test
+    public void testCycle() {
+        final Node[] nodes = generateNodes(3).toArray(new Node[3]);
+        final HGHandle[] handles = engine.addRight(nodes);
+        engine.activateRight(set(handles[0]), set(handles[1]));
+        engine.activateRight(set(handles[1]), set(handles[2]));
+        assertEquals(handler.getDescendants(handles[0]), engine.getDescendants(handles[0]));
+        assertEquals(2, engine.getDescendants(handles[0]).size());
+        engine.activateRight(set(handles[2]), set(handles[0]));
+        assertEquals(handler.getDescendants(handles[0]), engine.getDescendants(handles[0]));
+        assertEquals(3, engine.getDescendants(handles[0]).size());
+    }
+
+    /**
+     * Comparing the descendants of all nodes with the ones of the handler.
+     * 
+     * @param handles
+     *            of the nodes, null for removed nodes
+     */
+    private void checkDescendants(final HGHandle[] handles) {
+        for (final HGHandle handle : handles) {
+            if (handle != null) {
+                assertEquals(handler.getDescendants(handle), engine.getDescendants(handle));
+            }
+        }
+    }
+
+    /**
+     * Generating a random right.
+     * 
+     * @param handles
+     *            to choose from, null for removed nodes
+     * @param random
+     *            source of randomness
+     * @return the parents and the children
+     */
+    @SuppressWarnings("unchecked")
+    private static Set<HGHandle>[] randomRight(final HGHandle[] handles, final Random random) {
+        final Set<HGHandle>[] returnval = new Set[2];
+        for (int i = 0; i < 2; i++) {
+            returnval[i] = new HashSet<HGHandle>();
+            final int size = 1 + random.nextInt(3);
+            while (returnval[i].size() < size) {
+                final HGHandle handle = handles[random.nextInt(handles.length)];
+                if (handle != null) {
+                    returnval[i].add(handle);
+                }
+            }
+        }
+        return returnval;
+    }
+
+    /**
+     * Creating a set of handles.
+     * 
+     * @param handles
+     *            to be contained
+     * @return the set
+     */
+    private static Set<HGHandle> set(final HGHandle... handles) {
+        return new HashSet<HGHandle>(Arrays.asList(handles));
+    }
+
+}
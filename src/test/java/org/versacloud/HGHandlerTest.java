@@ -5,6 +5,7 @@ package org.versacloud;
 
 import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.fail;
@@ -12,10 +13,21 @@ import static org.versacloud.HGTestUtil.generateNodes;
 import static org.versacloud.HGTestUtil.recursiveDelete;
 
 import java.io.File;
+import java.lang.management.ManagementFactory;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Random;
 import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.management.ObjectName;
+import javax.management.openmbean.TabularData;
 
 import org.hypergraphdb.HGHandle;
 import org.hypergraphdb.HGQuery.hg;
@@ -28,8 +40,19 @@ import org.junit.Ignore;
 import org.junit.Test;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
+import org.versacloud.api.IChangeListener;
+import org.versacloud.api.IDescendantFilter;
 import org.versacloud.api.IHandlerListener;
+import org.versacloud.api.IMetricsRegistry;
+import org.versacloud.cache.DescendantCache;
+import org.versacloud.index.ReachabilityIndex;
+import org.versacloud.metrics.HandlerMetrics;
+import org.versacloud.model.ChangeEvent;
 import org.versacloud.model.Node;
+import org.versacloud.model.RemovalResult;
+import org.versacloud.model.RightOperation;
+import org.versacloud.store.ChangeLog;
+import org.versacloud.store.SecretStore;
 import static org.junit.Assert.assertTrue;
 
 /**
@@ -89,6 +112,34 @@ public class HGHandlerTest {
         }
     }
 
+    /**
+     * Test method for {@link org.versacloud.HGHandler#beginBulkLoad(int)}.
+     */
+    @Test
+    public void testBulkLoad() {
+        final Set<Node> nodes = generateNodes(100);
+        final BulkLoadSession session = handler.beginBulkLoad(7);
+        try {
+            handler.beginBulkLoad(7);
+            fail("Only one bulk load must be active");
+        } catch (final IllegalStateException exc) {
+            // expected
+        }
+        for (Node node : nodes) {
+            session.add(node);
+        }
+        final BulkLoadSession.Result result = session.commit();
+        assertEquals(100, result.getNodes());
+        for (Node node : nodes) {
+            assertEquals(node, handler.getRight(node.getKey(), node.getVersion()));
+        }
+        List<HGHandle> nodeset = hg.findAll(handler.getHGDB(), hg.type(Node.class));
+        assertEquals(100, nodeset.size());
+
+        // a new session can be started afterwards
+        handler.beginBulkLoad(1).commit();
+    }
+
     /**
      * Test method for {@link org.versacloud.HGHandler#addRight(org.versacloud.model.Node)}.
      */
@@ -98,6 +149,125 @@ public class HGHandlerTest {
         assertNull(checkNode);
     }
 
+    /**
+     * Test method for {@link org.versacloud.HGHandler#addRight(org.versacloud.model.Node)}.
+     */
+    @Test(expected = IllegalStateException.class)
+    public void testDuplicateNode() {
+        final Node node = generateNodes(1).toArray(new Node[1])[0];
+        handler.addRight(node);
+        handler.addRight(new Node(node.getName(), node.getKey(), node.getVersion(), node.getSecretKey()));
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#replaceRight(HGHandle, Node)} moving a node
+     * onto the key and version of another node.
+     */
+    @Test
+    public void testReplaceDuplicateNode() {
+        final Node[] nodes = generateNodes(2).toArray(new Node[2]);
+        final HGHandle[] handles = handler.addRight(nodes);
+        try {
+            handler.replaceRight(handles[0], new Node(nodes[0].getName(), nodes[1].getKey(), nodes[1]
+                .getVersion(), nodes[0].getSecretKey()));
+            fail("Node must not be moved onto another node");
+        } catch (final IllegalStateException exc) {
+            // expected
+        }
+        // both nodes are untouched
+        assertEquals(nodes[0], handler.getRight(nodes[0].getKey(), nodes[0].getVersion()));
+        assertEquals(nodes[1], handler.getRight(nodes[1].getKey(), nodes[1].getVersion()));
+        assertArrayEquals(nodes[1].getSecretKey(), handler.getRightMaterial(nodes[1].getKey(), nodes[1]
+            .getVersion()));
+
+        // replacing with the own key and version is allowed
+        final Node replaced =
+            new Node(nodes[0].getName(), nodes[0].getKey(), nodes[0].getVersion(), new byte[] {
+                1
+            });
+        handler.replaceRight(handles[0], replaced);
+        assertArrayEquals(replaced.getSecretKey(), handler.getRightMaterial(nodes[0].getKey(), nodes[0]
+            .getVersion()));
+
+        // the db can be opened again
+        final String location = graph.getLocation();
+        graph.close();
+        graph = new HyperGraph(location);
+        handler = new HGHandler(graph);
+        assertEquals(nodes[1], handler.getRight(nodes[1].getKey(), nodes[1].getVersion()));
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#getRightHandle(long, long)} after reopening the
+     * db.
+     */
+    @Test
+    public void testIndexRebuild() {
+        final Set<Node> nodes = generateNodes(10);
+        handler.addRight(nodes.toArray(new Node[nodes.size()]));
+        final String location = graph.getLocation();
+        graph.close();
+        graph = new HyperGraph(location);
+        handler = new HGHandler(graph);
+        for (Node node : nodes) {
+            assertEquals(node, handler.getRight(node.getKey(), node.getVersion()));
+        }
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#activateRight(Set, Set)} and
+     * {@link org.versacloud.HGHandler#deactivateRight(Set, Set)} after reopening the db, resolving the
+     * edges lazily.
+     */
+    @Test
+    public void testHeadSetRebuild() {
+        final HGHandle[] handles = handler.addRight(generateNodes(4).toArray(new Node[4]));
+        final Set<HGHandle> children = new HashSet<HGHandle>(Arrays.asList(handles[2], handles[3]));
+        assertTrue(handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[0])), children));
+        final String location = graph.getLocation();
+        graph.close();
+        graph = new HyperGraph(location);
+        handler = new HGHandler(graph);
+
+        // the existing edge is found instead of inserting a second one
+        assertFalse(handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[1])), children));
+        assertEquals(1, hg.findAll(graph, hg.type(HGBergeLink.class)).size());
+        assertFalse(handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[1])), children));
+        assertTrue(handler.getDescendants(handles[1]).containsAll(children));
+
+        // edges with a subset of the head are not mistaken for the edge
+        assertNull(handler.findExactEdge(new HashSet<HGHandle>(Arrays.asList(handles[2]))));
+        assertFalse(handler.deactivateRight(new HashSet<HGHandle>(Arrays.asList(handles[0])), children));
+        assertTrue(handler.deactivateRight(new HashSet<HGHandle>(Arrays.asList(handles[1])), children));
+        assertNull(handler.findExactEdge(children));
+        assertEquals(0, hg.findAll(graph, hg.type(HGBergeLink.class)).size());
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#HGHandler(HyperGraph)} with a db containing
+     * nodes stored with the bean mapping.
+     */
+    @Test
+    public void testBeanMappedNodes() {
+        final String location = "/tmp/bla-beans";
+        recursiveDelete(new File(location));
+        // without the binary type, nodes are stored with the bean mapping
+        final HyperGraph beans = new HyperGraph(location);
+        beans.add(new Node("node", 1, 0, new byte[] {
+            1
+        }));
+        beans.close();
+        final HyperGraph reopened = new HyperGraph(location);
+        try {
+            new HGHandler(reopened);
+            fail("Nodes stored with the bean mapping must be detected");
+        } catch (final IllegalStateException exc) {
+            // expected
+        } finally {
+            reopened.close();
+        }
+    }
+
     /**
      * Test method for {@link org.versacloud.HGHandler#addRight(org.versacloud.model.Node)}.
      */
@@ -115,6 +285,193 @@ public class HGHandlerTest {
         assertEquals(node, plainNode);
     }
 
+    /**
+     * Test method for {@link org.versacloud.HGHandler#getRightMaterial(long[], long[])}.
+     */
+    @Test
+    public void testBatchMaterial() {
+        final Node[] nodes = generateNodes(20).toArray(new Node[20]);
+        handler.addRight(nodes);
+        final long[] keys = new long[nodes.length * 2 + 1];
+        final long[] versions = new long[keys.length];
+        for (int i = 0; i < nodes.length; i++) {
+            keys[i] = nodes[i].getKey();
+            versions[i] = nodes[i].getVersion();
+            keys[keys.length - 2 - i] = nodes[i].getKey();
+            versions[keys.length - 2 - i] = nodes[i].getVersion();
+        }
+        keys[keys.length - 1] = Integer.MAX_VALUE;
+        versions[keys.length - 1] = Integer.MAX_VALUE;
+        final byte[][] material = handler.getRightMaterial(keys, versions);
+        assertEquals(keys.length, material.length);
+        for (int i = 0; i < nodes.length; i++) {
+            assertArrayEquals(nodes[i].getSecretKey(), material[i]);
+            assertArrayEquals(nodes[i].getSecretKey(), material[keys.length - 2 - i]);
+        }
+        assertNull(material[keys.length - 1]);
+        assertNull(handler.getRightMaterial(Integer.MAX_VALUE, Integer.MAX_VALUE));
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#HGHandler(HyperGraph, SecretStore)}.
+     * 
+     * @throws Exception
+     *             if the store cannot be opened
+     */
+    @Test
+    public void testSecretStore() throws Exception {
+        final File file = new File(graph.getLocation(), "secrets");
+        SecretStore store = new SecretStore(file);
+        handler = new HGHandler(graph, store);
+        final Node[] nodes = generateNodes(10).toArray(new Node[10]);
+        final HGHandle[] handles = handler.addRight(nodes);
+        assertEquals(nodes.length, store.size());
+        for (int i = 0; i < nodes.length; i++) {
+            // the db only refers to the material
+            final Node stored = graph.get(handles[i]);
+            assertNull(stored.getSecretKey());
+            assertTrue(stored.getSecretOffset() >= 0);
+            assertEquals(nodes[i], handler.getRight(handles[i]));
+            assertArrayEquals(nodes[i].getSecretKey(), handler.getRightMaterial(nodes[i].getKey(), nodes[i]
+                .getVersion()));
+        }
+        final long[] keys = new long[] {
+            nodes[0].getKey(), nodes[1].getKey(), Integer.MAX_VALUE
+        };
+        final byte[][] material = handler.getRightMaterial(keys, new long[] {
+            nodes[0].getVersion(), nodes[1].getVersion(), 0
+        });
+        assertArrayEquals(nodes[0].getSecretKey(), material[0]);
+        assertArrayEquals(nodes[1].getSecretKey(), material[1]);
+        assertNull(material[2]);
+
+        // rejected nodes append no material
+        try {
+            handler.addRight(nodes[3]);
+            fail();
+        } catch (final IllegalStateException exc) {
+            // expected
+        }
+        assertEquals(nodes.length, store.size());
+
+        // replacing appends the new material, removing drops it
+        final Node replaced =
+            new Node(nodes[0].getName(), nodes[0].getKey(), nodes[0].getVersion(), new byte[] {
+                7
+            });
+        final long oldOffset = ((Node)graph.get(handles[0])).getSecretOffset();
+        handler.replaceRight(handles[0], replaced);
+        assertArrayEquals(replaced.getSecretKey(), handler.getLatestRightMaterial(nodes[0].getKey()));
+        assertNull(store.read(oldOffset));
+        assertTrue(handler.removeRight(nodes[1]).isRemoved());
+        assertNull(handler.getRightMaterial(nodes[1].getKey(), nodes[1].getVersion()));
+        assertEquals(nodes.length - 1, store.size());
+
+        // replacing without material drops the stored material
+        handler.replaceRight(handles[2], new Node(nodes[2].getName(), nodes[2].getKey(), nodes[2]
+            .getVersion(), null));
+        assertNull(handler.getRight(handles[2]).getSecretKey());
+        assertNull(handler.getRightMaterial(nodes[2].getKey(), nodes[2].getVersion()));
+        assertNull(handler.getLatestRightMaterial(nodes[2].getKey()));
+        assertNull(handler.getRightMaterial(new long[] {
+            nodes[2].getKey()
+        }, new long[] {
+            nodes[2].getVersion()
+        })[0]);
+        assertEquals(nodes.length - 2, store.size());
+
+        // reopening both the db and the store
+        final String location = graph.getLocation();
+        graph.close();
+        store.close();
+        graph = new HyperGraph(location);
+        store = new SecretStore(file);
+        handler = new HGHandler(graph, store);
+        assertEquals(replaced, handler.getRight(nodes[0].getKey(), nodes[0].getVersion()));
+        assertNull(handler.getRightMaterial(nodes[2].getKey(), nodes[2].getVersion()));
+        for (int i = 3; i < nodes.length; i++) {
+            assertArrayEquals(nodes[i].getSecretKey(), handler.getRightMaterial(nodes[i].getKey(), nodes[i]
+                .getVersion()));
+        }
+        store.close();
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#setMetricsRegistry(org.versacloud.api.IMetricsRegistry)}.
+     * 
+     * @throws Exception
+     *             if the registration over JMX fails
+     */
+    @Test
+    public void testMetrics() throws Exception {
+        final HandlerMetrics metrics = new HandlerMetrics();
+        handler.setMetricsRegistry(metrics);
+        final Node[] nodes = generateNodes(10).toArray(new Node[10]);
+        final HGHandle[] handles = handler.addRight(nodes);
+        for (final Node node : nodes) {
+            handler.getRightMaterial(node.getKey(), node.getVersion());
+        }
+        final Set<HGHandle> parents = new HashSet<HGHandle>(Arrays.asList(handles[0]));
+        final Set<HGHandle> children = new HashSet<HGHandle>(Arrays.asList(handles[1], handles[2]));
+        handler.activateRight(parents, children);
+        assertEquals(2, handler.getDescendants(handles[0]).size());
+        try {
+            handler.addRight(nodes[0]);
+            fail("Duplicate must be rejected");
+        } catch (final IllegalStateException exc) {
+            // expected
+        }
+
+        assertEquals(Long.valueOf(2), metrics.getCalls().get(IMetricsRegistry.ADD_RIGHT));
+        assertEquals(Long.valueOf(1), metrics.getErrors().get(IMetricsRegistry.ADD_RIGHT));
+        assertEquals(Long.valueOf(10), metrics.getCalls().get(IMetricsRegistry.GET_RIGHT_MATERIAL));
+        assertEquals(Long.valueOf(1), metrics.getCalls().get(IMetricsRegistry.ACTIVATE_RIGHT));
+        assertEquals(Long.valueOf(2), metrics.getCounters().get(IMetricsRegistry.TRAVERSAL_NODES));
+        assertNull(metrics.getCalls().get(IMetricsRegistry.LOOKUP));
+
+        metrics.registerMBean("test");
+        try {
+            final ObjectName name = new ObjectName("org.versacloud:type=HGHandler,name=\"test\"");
+            final TabularData calls =
+                (TabularData)ManagementFactory.getPlatformMBeanServer().getAttribute(name, "Calls");
+            assertEquals(metrics.getCalls().size(), calls.size());
+        } finally {
+            metrics.unregisterMBean();
+        }
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#getLatestRightMaterial(long)} and
+     * {@link org.versacloud.HGHandler#getVersions(long, long, long)}.
+     */
+    @Test
+    public void testVersions() {
+        final Node[] nodes = new Node[5];
+        for (int i = 0; i < nodes.length; i++) {
+            nodes[i] = new Node("versioned", 1, i * 2, new byte[] {
+                (byte)i
+            });
+        }
+        handler.addRight(nodes[3], nodes[0], nodes[4], nodes[1], nodes[2]);
+        handler.addRight(new Node("other", 2, 100, new byte[] {
+            -1
+        }));
+        assertArrayEquals(nodes[4].getSecretKey(), handler.getLatestRightMaterial(1));
+        assertEquals(handler.getRightHandle(1, 8), handler.getLatestRightHandle(1));
+        assertNull(handler.getLatestRightMaterial(0));
+        assertArrayEquals(new long[] {
+            6, 4, 2
+        }, handler.getVersions(1, 1, 7));
+        assertArrayEquals(new long[] {
+            8, 6, 4, 2, 0
+        }, handler.getVersions(1, 0, Long.MAX_VALUE));
+        assertEquals(0, handler.getVersions(1, 9, 20).length);
+        assertEquals(0, handler.getVersions(1, 7, 1).length);
+
+        handler.removeRight(nodes[4]);
+        assertArrayEquals(nodes[3].getSecretKey(), handler.getLatestRightMaterial(1));
+    }
+
     /**
      * Testing layer nodes according {@link org.versacloud.HGHandler#addRight(org.versacloud.model.Node)}
      */
@@ -222,6 +579,81 @@ public class HGHandlerTest {
 
     }
 
+    /**
+     * Test method for {@link org.versacloud.HGHandler#deactivateRight(java.util.Set, java.util.Set)} after
+     * reopening the db.
+     */
+    @Test
+    public void testDeactivateRightAfterReopen() {
+        final List<Set<Pair<Pair<Set<Node>, Set<Node>>, HGBergeLink>>> edges = addEdge(handler);
+        registerEdges(edges);
+
+        final String location = graph.getLocation();
+        graph.close();
+        graph = new HyperGraph(location);
+        handler = new HGHandler(graph);
+
+        for (final Set<Pair<Pair<Set<Node>, Set<Node>>, HGBergeLink>> level : edges) {
+            for (Pair<Pair<Set<Node>, Set<Node>>, HGBergeLink> singleLink : level) {
+                final Set<HGHandle> parents = new HashSet<HGHandle>();
+                for (Node node : singleLink.getFirst().getFirst()) {
+                    parents.add(handler.getRightHandle(node.getKey(), node.getVersion()));
+                }
+                final Set<HGHandle> children = new HashSet<HGHandle>();
+                for (Node node : singleLink.getFirst().getSecond()) {
+                    children.add(handler.getRightHandle(node.getKey(), node.getVersion()));
+                }
+                handler.deactivateRight(parents, children);
+            }
+        }
+        List<HGHandle> edgeset = hg.findAll(handler.getHGDB(), hg.type(HGBergeLink.class));
+        assertEquals(0, edgeset.size());
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#applyRights(List)}.
+     */
+    @Test
+    public void testApplyRights() {
+        final List<Set<Pair<Pair<Set<Node>, Set<Node>>, HGBergeLink>>> edges = addEdge(handler);
+        final List<RightOperation> grants = new ArrayList<RightOperation>();
+        final List<RightOperation> revokes = new ArrayList<RightOperation>();
+        for (final Set<Pair<Pair<Set<Node>, Set<Node>>, HGBergeLink>> level : edges) {
+            for (Pair<Pair<Set<Node>, Set<Node>>, HGBergeLink> singleLink : level) {
+                grants.add(RightOperation.grant(singleLink.getSecond().getTail(), singleLink.getSecond()
+                    .getHead()));
+                revokes.add(RightOperation.revoke(singleLink.getSecond().getTail(), singleLink.getSecond()
+                    .getHead()));
+            }
+        }
+
+        // granting everything twice, the second grants must not have any effect
+        final List<RightOperation> doubleGrants = new ArrayList<RightOperation>(grants);
+        doubleGrants.addAll(grants);
+        final boolean[] granted = handler.applyRights(doubleGrants);
+        int inserted = 0;
+        for (int i = 0; i < granted.length; i++) {
+            if (granted[i]) {
+                assertTrue(i < grants.size());
+                inserted++;
+            }
+        }
+        List<HGHandle> edgeset = hg.findAll(handler.getHGDB(), hg.type(HGBergeLink.class));
+        assertEquals(inserted, edgeset.size());
+
+        // revoking everything, each removed edge is reported once
+        final boolean[] revoked = handler.applyRights(revokes);
+        int deleted = 0;
+        for (final boolean single : revoked) {
+            if (single) {
+                deleted++;
+            }
+        }
+        assertEquals(inserted, deleted);
+        edgeset = hg.findAll(handler.getHGDB(), hg.type(HGBergeLink.class));
+        assertEquals(0, edgeset.size());
+    }
+
     /**
      * Test method for {@link org.versacloud.HGHandler#removeRight(org.versacloud.model.Node)}.
      */
@@ -255,6 +687,48 @@ public class HGHandlerTest {
 
     }
 
+    /**
+     * Test method for {@link org.versacloud.HGHandler#removeRight(org.versacloud.model.Node)} adapting
+     * and merging edges.
+     */
+    @Test
+    public void testRemoveRightMerge() {
+        final Node[] nodes = generateNodes(5).toArray(new Node[5]);
+        final HGHandle[] handles = handler.addRight(nodes);
+        // a, b -> c, d
+        handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[0], handles[1])),
+            new HashSet<HGHandle>(Arrays.asList(handles[2], handles[3])));
+        // e -> d
+        handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[4])), new HashSet<HGHandle>(
+            Arrays.asList(handles[3])));
+
+        // removing c merges the first edge into the second one
+        RemovalResult result = handler.removeRight(nodes[2]);
+        assertTrue(result.isRemoved());
+        assertEquals(1, result.getUpdatedEdges());
+        assertEquals(1, result.getRemovedEdges());
+        List<HGHandle> edgeset = hg.findAll(handler.getHGDB(), hg.type(HGBergeLink.class));
+        assertEquals(1, edgeset.size());
+        HGBergeLink link = handler.getHGDB().get(edgeset.get(0));
+        assertEquals(new HashSet<HGHandle>(Arrays.asList(handles[3])), link.getHead());
+        assertEquals(new HashSet<HGHandle>(Arrays.asList(handles[0], handles[1], handles[4])), link.getTail());
+
+        // removing a only adapts the tail
+        result = handler.removeRight(nodes[0]);
+        assertEquals(1, result.getUpdatedEdges());
+        assertEquals(0, result.getRemovedEdges());
+        link = handler.getHGDB().get(edgeset.get(0));
+        assertEquals(new HashSet<HGHandle>(Arrays.asList(handles[1], handles[4])), link.getTail());
+        assertNull(handler.getRightHandle(nodes[0].getKey(), nodes[0].getVersion()));
+
+        // removing d removes the edge
+        result = handler.removeRight(nodes[3]);
+        assertEquals(0, result.getUpdatedEdges());
+        assertEquals(1, result.getRemovedEdges());
+        edgeset = hg.findAll(handler.getHGDB(), hg.type(HGBergeLink.class));
+        assertEquals(0, edgeset.size());
+    }
+
     /**
      * Test method for {@link org.versacloud.HGHandler#getDescendants(java.util.Set)}.
      */
@@ -292,6 +766,478 @@ public class HGHandlerTest {
         assertEquals(desc.size(), descFromHandler.size());
     }
 
+    /**
+     * Test method for {@link org.versacloud.HGHandler#getDescendants(java.util.Set, IHandlerListener)} with
+     * levels split over multiple tasks.
+     */
+    @Test
+    public void testWideDescendants() {
+        final ExecutorService exec = Executors.newFixedThreadPool(4);
+        handler = new HGHandler(graph, exec);
+        final int width = 200;
+        final HGHandle[] handles =
+            handler.addRight(generateNodes(2 * width + 1).toArray(new Node[2 * width + 1]));
+        final Set<HGHandle> root = new HashSet<HGHandle>();
+        root.add(handles[0]);
+        final Set<HGHandle> children = new HashSet<HGHandle>();
+        for (int i = 1; i <= width; i++) {
+            children.add(handles[i]);
+            final Set<HGHandle> grandChild = new HashSet<HGHandle>();
+            grandChild.add(handles[width + i]);
+            handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[i])), grandChild);
+        }
+        handler.activateRight(root, children);
+
+        final List<Integer> levelSizes = new ArrayList<Integer>();
+        final Set<HGHandle> desc = handler.getDescendants(root, new IHandlerListener() {
+            @Override
+            public boolean touchedChildren(Set<HGHandle> level) {
+                levelSizes.add(level.size());
+                return false;
+            }
+        });
+        exec.shutdown();
+        assertEquals(2 * width, desc.size());
+        assertEquals(Arrays.asList(width, width, 0), levelSizes);
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#getDescendants(java.util.Set, IHandlerListener)} with
+     * a listener stopping the traversal.
+     */
+    @Test
+    public void testStoppedDescendants() {
+        final HGHandle[] handles = handler.addRight(generateNodes(4).toArray(new Node[4]));
+        for (int i = 0; i < 3; i++) {
+            handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[i])), new HashSet<HGHandle>(
+                Arrays.asList(handles[i + 1])));
+        }
+        final Set<HGHandle> root = new HashSet<HGHandle>(Arrays.asList(handles[0]));
+        final List<Integer> levelSizes = new ArrayList<Integer>();
+        final Set<HGHandle> desc = handler.getDescendants(root, new IHandlerListener() {
+            @Override
+            public boolean touchedChildren(Set<HGHandle> level) {
+                levelSizes.add(level.size());
+                return levelSizes.size() == 2;
+            }
+        });
+        assertEquals(new HashSet<HGHandle>(Arrays.asList(handles[1], handles[2])), desc);
+        assertEquals(Arrays.asList(1, 1), levelSizes);
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#findAccessPath(HGHandle, long, long)} and
+     * {@link org.versacloud.HGHandler#canAccess(HGHandle, long, long)}.
+     */
+    @Test
+    public void testAccessPath() {
+        final Node[] nodes = generateNodes(6).toArray(new Node[6]);
+        final HGHandle[] handles = handler.addRight(nodes);
+        // 0 -> {1, 2} -> 3 -> 4, 5 stays isolated
+        handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[0])), new HashSet<HGHandle>(Arrays
+            .asList(handles[1], handles[2])));
+        handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[1], handles[2])),
+            new HashSet<HGHandle>(Arrays.asList(handles[3])));
+        handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[3])), new HashSet<HGHandle>(Arrays
+            .asList(handles[4])));
+        for (int i = 0; i < handles.length; i++) {
+            for (int j = 0; j < handles.length; j++) {
+                final boolean expected = handler.getDescendants(handles[i]).contains(handles[j]);
+                final List<HGHandle> path =
+                    handler.findAccessPath(handles[i], nodes[j].getKey(), nodes[j].getVersion());
+                assertEquals(expected, path != null);
+                assertEquals(expected, handler.canAccess(handles[i], nodes[j].getKey(), nodes[j]
+                    .getVersion()));
+                if (path != null) {
+                    assertEquals(handles[i], path.get(0));
+                    assertEquals(handles[j], path.get(path.size() - 1));
+                    for (int k = 1; k < path.size(); k++) {
+                        assertTrue(handler.getAllChildren(path.get(k - 1)).contains(path.get(k)));
+                    }
+                }
+            }
+        }
+        assertEquals(4, handler.findAccessPath(handles[0], nodes[4].getKey(), nodes[4].getVersion()).size());
+        assertFalse(handler.canAccess(handles[0], Integer.MAX_VALUE, 0));
+
+        // a cycle makes a node reach itself
+        handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[4])), new HashSet<HGHandle>(Arrays
+            .asList(handles[0])));
+        final List<HGHandle> cycle =
+            handler.findAccessPath(handles[0], nodes[0].getKey(), nodes[0].getVersion());
+        assertEquals(5, cycle.size());
+        assertEquals(handles[0], cycle.get(0));
+        assertEquals(handles[0], cycle.get(4));
+        assertFalse(handler.canAccess(handles[5], nodes[5].getKey(), nodes[5].getVersion()));
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#setReachabilityIndex(ReachabilityIndex)} while
+     * granting, revoking and removing.
+     */
+    @Test
+    public void testReachabilityIndex() {
+        final Node[] nodes = generateNodes(30).toArray(new Node[30]);
+        final HGHandle[] handles = handler.addRight(nodes);
+        final Random random = new Random(42);
+        for (int i = 0; i < 10; i++) {
+            handler.activateRight(randomSet(handles, random), randomSet(handles, random));
+        }
+        final ReachabilityIndex reachability = new ReachabilityIndex(42);
+        handler.setReachabilityIndex(reachability);
+        checkReachability(reachability, nodes, handles);
+
+        // granting extends the labels
+        final List<Set<HGHandle>[]> rights = new ArrayList<Set<HGHandle>[]>();
+        for (int i = 0; i < 10; i++) {
+            @SuppressWarnings("unchecked")
+            final Set<HGHandle>[] right = new Set[] {
+                randomSet(handles, random), randomSet(handles, random)
+            };
+            handler.activateRight(right[0], right[1]);
+            rights.add(right);
+        }
+        handler.applyRights(Arrays.asList(RightOperation.grant(randomSet(handles, random), randomSet(handles,
+            random))));
+        checkReachability(reachability, nodes, handles);
+
+        // revoking and removing keeps the labels valid
+        for (int i = 0; i < rights.size(); i += 2) {
+            handler.deactivateRight(rights.get(i)[0], rights.get(i)[1]);
+        }
+        handler.removeRight(nodes[0]);
+        handles[0] = null;
+        checkReachability(reachability, nodes, handles);
+    }
+
+    /**
+     * Comparing the reachability labels and the access checks with the descendants of all nodes.
+     * 
+     * @param reachability
+     *            labels set at the handler
+     * @param nodes
+     *            the nodes
+     * @param handles
+     *            of the nodes, null for removed nodes
+     */
+    private void checkReachability(final ReachabilityIndex reachability, final Node[] nodes,
+        final HGHandle[] handles) {
+        for (int i = 0; i < handles.length; i++) {
+            if (handles[i] == null) {
+                continue;
+            }
+            final Set<HGHandle> descendants = handler.getDescendants(handles[i]);
+            for (int j = 0; j < handles.length; j++) {
+                if (handles[j] == null) {
+                    continue;
+                }
+                final boolean reachable = descendants.contains(handles[j]);
+                // the labels never deny a reachable node
+                assertTrue(!reachable || reachability.mayReach(handles[i], handles[j]));
+                assertEquals(reachable, handler.canAccess(handles[i], nodes[j].getKey(), nodes[j]
+                    .getVersion()));
+            }
+        }
+    }
+
+    /**
+     * Choosing up to three random handles.
+     * 
+     * @param handles
+     *            to choose from, null for removed nodes
+     * @param random
+     *            source of randomness
+     * @return the chosen handles
+     */
+    private static Set<HGHandle> randomSet(final HGHandle[] handles, final Random random) {
+        final Set<HGHandle> returnval = new HashSet<HGHandle>();
+        final int size = 1 + random.nextInt(3);
+        while (returnval.size() < size) {
+            final HGHandle handle = handles[random.nextInt(handles.length)];
+            if (handle != null) {
+                returnval.add(handle);
+            }
+        }
+        return returnval;
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#setChangeFeed(ChangeFeed)}.
+     * 
+     * @throws Exception
+     *             if the log cannot be accessed
+     */
+    @Test
+    public void testChangeFeed() throws Exception {
+        final File file = new File("/tmp/bla-changes");
+        file.delete();
+        final ChangeLog log = new ChangeLog(file, handler.getHGDB().getHandleFactory(), 1);
+        final ChangeFeed feed = new ChangeFeed(log);
+        // a failing listener neither stops the delivery nor the modification
+        feed.addChangeListener(new IChangeListener() {
+            @Override
+            public void changed(final ChangeEvent event) {
+                throw new IllegalStateException("Failing listener");
+            }
+        });
+        final List<ChangeEvent> events = new ArrayList<ChangeEvent>();
+        feed.addChangeListener(new IChangeListener() {
+            @Override
+            public void changed(final ChangeEvent event) {
+                events.add(event);
+            }
+        });
+        handler.setChangeFeed(feed);
+
+        final Node[] nodes = generateNodes(3).toArray(new Node[3]);
+        final HGHandle[] handles = handler.addRight(nodes);
+        final Set<HGHandle> parents = new HashSet<HGHandle>(Arrays.asList(handles[0]));
+        final Set<HGHandle> children = new HashSet<HGHandle>(Arrays.asList(handles[1], handles[2]));
+        handler.activateRight(parents, children);
+        // granting an existing right publishes nothing
+        handler.activateRight(parents, children);
+        handler.deactivateRight(parents, children);
+        handler.replaceRight(handles[1], new Node(nodes[1].getName(), nodes[1].getKey(),
+            nodes[1].getVersion() + 1, nodes[1].getSecretKey()));
+        handler.removeRight(nodes[2]);
+
+        assertEquals(7, events.size());
+        assertEquals(7, feed.getLastSequence());
+        final ChangeEvent.Type[] types = {
+            ChangeEvent.Type.NODE_ADDED, ChangeEvent.Type.NODE_ADDED, ChangeEvent.Type.NODE_ADDED,
+            ChangeEvent.Type.RIGHT_ACTIVATED, ChangeEvent.Type.RIGHT_DEACTIVATED,
+            ChangeEvent.Type.NODE_REPLACED, ChangeEvent.Type.NODE_REMOVED
+        };
+        for (int i = 0; i < types.length; i++) {
+            assertEquals(i + 1, events.get(i).getSequence());
+            assertEquals(types[i], events.get(i).getType());
+        }
+        assertEquals(nodes[1].getVersion(), events.get(5).getOldVersion());
+        assertEquals(nodes[1].getVersion() + 1, events.get(5).getVersion());
+        assertEquals(children, events.get(3).getChildren());
+
+        // a follower catches up from the log and continues with new events
+        final List<ChangeEvent> followed = new ArrayList<ChangeEvent>();
+        feed.addChangeListener(new IChangeListener() {
+            @Override
+            public void changed(final ChangeEvent event) {
+                followed.add(event);
+            }
+        }, 5);
+        handler.activateRight(parents, new HashSet<HGHandle>(Arrays.asList(handles[1])));
+        assertEquals(4, followed.size());
+        assertEquals(5, followed.get(0).getSequence());
+        assertEquals(8, followed.get(3).getSequence());
+        assertEquals(events.get(4).getParents(), followed.get(0).getParents());
+
+        // operations modifying no edge publish nothing
+        final Set<HGHandle> child = new HashSet<HGHandle>(Arrays.asList(handles[1]));
+        handler.applyRights(Arrays.asList(RightOperation.grant(parents, child), RightOperation.revoke(child,
+            child), RightOperation.revoke(parents, children)));
+        handler.deactivateRight(child, child);
+        assertEquals(8, events.size());
+        handler.applyRights(Arrays.asList(RightOperation.revoke(child, child), RightOperation.revoke(parents,
+            child)));
+        assertEquals(9, events.size());
+        assertEquals(ChangeEvent.Type.RIGHT_DEACTIVATED, events.get(8).getType());
+        handler.setChangeFeed(null);
+        log.close();
+
+        // the sequences continue after reopening the log
+        final ChangeLog reopened = new ChangeLog(file, handler.getHGDB().getHandleFactory(), 1);
+        assertEquals(9, new ChangeFeed(reopened).getLastSequence());
+        reopened.close();
+        file.delete();
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#setChangeFeed(ChangeFeed)} with concurrent
+     * modifications of the same right.
+     * 
+     * @throws InterruptedException
+     *             if waiting for the threads fails
+     */
+    @Test
+    public void testConcurrentChangeFeed() throws InterruptedException {
+        final ChangeFeed feed = new ChangeFeed();
+        final List<ChangeEvent> events = Collections.synchronizedList(new ArrayList<ChangeEvent>());
+        feed.addChangeListener(new IChangeListener() {
+            @Override
+            public void changed(final ChangeEvent event) {
+                events.add(event);
+            }
+        });
+        handler.setChangeFeed(feed);
+        final HGHandle[] handles = handler.addRight(generateNodes(2).toArray(new Node[2]));
+        final Set<HGHandle> parents = new HashSet<HGHandle>(Arrays.asList(handles[0]));
+        final Set<HGHandle> children = new HashSet<HGHandle>(Arrays.asList(handles[1]));
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            final int offset = i;
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (int j = 0; j < 200; j++) {
+                        if ((offset + j) % 2 == 0) {
+                            handler.activateRight(parents, children);
+                        } else {
+                            handler.deactivateRight(parents, children);
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        // replaying the events in the order of their sequences results in the
+        // state of the db
+        boolean granted = false;
+        for (int i = 0; i < events.size(); i++) {
+            final ChangeEvent event = events.get(i);
+            assertEquals(i + 1, event.getSequence());
+            if (event.getType() == ChangeEvent.Type.RIGHT_ACTIVATED) {
+                assertFalse(granted);
+                granted = true;
+            } else if (event.getType() == ChangeEvent.Type.RIGHT_DEACTIVATED) {
+                assertTrue(granted);
+                granted = false;
+            }
+        }
+        assertEquals(granted, handler.getDescendants(handles[0]).contains(handles[1]));
+        handler.setChangeFeed(null);
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#addRight(Node...)} with concurrent insertions of
+     * the same nodes.
+     * 
+     * @throws InterruptedException
+     *             if waiting for the threads fails
+     */
+    @Test
+    public void testConcurrentInsert() throws InterruptedException {
+        final Node[] nodes = generateNodes(50).toArray(new Node[50]);
+        final AtomicInteger inserted = new AtomicInteger();
+        final Thread[] threads = new Thread[4];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    for (final Node node : nodes) {
+                        try {
+                            handler.addRight(node);
+                            inserted.incrementAndGet();
+                        } catch (final IllegalStateException exc) {
+                            // inserted by another thread
+                        }
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+
+        // each node is stored exactly once, no node is orphaned
+        assertEquals(nodes.length, inserted.get());
+        assertEquals(nodes.length, handler.size());
+        assertEquals(nodes.length, hg.findAll(handler.getHGDB(), hg.type(Node.class)).size());
+        for (final Node node : nodes) {
+            assertArrayEquals(node.getSecretKey(), handler.getRightMaterial(node.getKey(), node
+                .getVersion()));
+        }
+
+        // a rejected batch releases its reservations
+        final Node fresh = generateNodes(1).iterator().next();
+        try {
+            handler.addRight(fresh, nodes[0]);
+            fail();
+        } catch (final IllegalStateException exc) {
+            assertEquals(nodes.length, handler.size());
+        }
+        handler.addRight(fresh);
+        assertEquals(nodes.length + 1, handler.size());
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#iterateDescendants(java.util.Set, IDescendantFilter)}.
+     */
+    @Test
+    public void testIterateDescendants() {
+        final List<Set<Pair<Pair<Set<Node>, Set<Node>>, HGBergeLink>>> edges = addEdge(handler);
+        registerEdges(edges);
+        final Set<HGHandle> roots = new HashSet<HGHandle>();
+        for (final Pair<Pair<Set<Node>, Set<Node>>, HGBergeLink> pair : edges.get(0)) {
+            roots.addAll(pair.getSecond().getTail());
+        }
+        final Set<HGHandle> expected = handler.getDescendants(roots, new IHandlerListener() {
+            @Override
+            public boolean touchedChildren(Set<HGHandle> children) {
+                return false;
+            }
+        });
+        final Set<HGHandle> iterated = new HashSet<HGHandle>();
+        final Iterator<HGHandle> it = handler.iterateDescendants(roots, null);
+        while (it.hasNext()) {
+            assertTrue(iterated.add(it.next()));
+        }
+        assertEquals(expected, iterated);
+        assertFalse(it.hasNext());
+
+        // pruning a chain a -> b -> c at b
+        final HGHandle[] handles = handler.addRight(generateNodes(3).toArray(new Node[3]));
+        handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[0])), new HashSet<HGHandle>(Arrays
+            .asList(handles[1])));
+        handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[1])), new HashSet<HGHandle>(Arrays
+            .asList(handles[2])));
+        final Set<HGHandle> chain = new HashSet<HGHandle>(Arrays.asList(handles[0]));
+        final Iterator<HGHandle> pruned = handler.iterateDescendants(chain, new IDescendantFilter() {
+            @Override
+            public boolean expand(final HGHandle handle) {
+                return !handle.equals(handles[1]);
+            }
+        });
+        assertEquals(handles[1], pruned.next());
+        assertFalse(pruned.hasNext());
+    }
+
+    /**
+     * Test method for {@link org.versacloud.HGHandler#getDescendants(HGHandle)} with a descendant cache.
+     */
+    @Test
+    public void testCachedDescendants() {
+        final DescendantCache cache = new DescendantCache(100);
+        handler.setDescendantCache(cache);
+        final HGHandle[] handles = handler.addRight(generateNodes(4).toArray(new Node[4]));
+        handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[0])), new HashSet<HGHandle>(Arrays
+            .asList(handles[1])));
+        handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[2])), new HashSet<HGHandle>(Arrays
+            .asList(handles[3])));
+
+        assertEquals(1, handler.getDescendants(handles[0]).size());
+        assertEquals(1, handler.getDescendants(handles[0]).size());
+        assertEquals(1, handler.getDescendants(handles[2]).size());
+        assertEquals(1, cache.getHits());
+        assertEquals(2, cache.size());
+
+        // extending the reach of the first root only
+        handler.activateRight(new HashSet<HGHandle>(Arrays.asList(handles[1])), new HashSet<HGHandle>(Arrays
+            .asList(handles[2])));
+        assertEquals(1, cache.size());
+        assertEquals(3, handler.getDescendants(handles[0]).size());
+
+        // removing the link reachable from both roots
+        handler.deactivateRight(new HashSet<HGHandle>(Arrays.asList(handles[2])), new HashSet<HGHandle>(
+            Arrays.asList(handles[3])));
+        assertEquals(0, cache.size());
+        assertEquals(2, handler.getDescendants(handles[0]).size());
+        assertEquals(0, handler.getDescendants(handles[2]).size());
+    }
+
     /**
      * Register the edges over the handler interface and check the number of
      * insertions
@@ -98,13 +98,11 @@ public class HGTestUtil {
         final Set<Pair<Pair<Set<Node>, Set<Node>>, HGBergeLink>> returnval =
             new HashSet<Pair<Pair<Set<Node>, Set<Node>>, HGBergeLink>>();
 
-        for (int i = 0; i < numberOfEdges; i++) {
+        // Transforming everything to a list once for all edges
+        final List<Node> allParentsList = new ArrayList<Node>(parents);
+        final List<Node> allChildrenList = new ArrayList<Node>(children);
 
-            // Transforming everything to a list
-            List<Node> allParentsList = new ArrayList<Node>();
-            allParentsList.addAll(parents);
-            List<Node> allChildrenList = new ArrayList<Node>();
-            allChildrenList.addAll(children);
+        for (int i = 0; i < numberOfEdges; i++) {
 
             // sets of parents and children
             Set<HGHandle> parentHandles = new HashSet<HGHandle>();
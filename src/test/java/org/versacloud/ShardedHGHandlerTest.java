@@ -0,0 +1,245 @@
+/**
+ * 
+ */
+package org.versacloud;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.versacloud.HGTestUtil.generateNodes;
+import static org.versacloud.HGTestUtil.recursiveDelete;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HyperGraph;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.versacloud.api.IHandlerListener;
+import org.versacloud.model.Node;
+import org.versacloud.model.RightKey;
+
+/**
+ * Test case for ShardedHGHandler, comparing all results with one handler
+ * over a single db.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public class ShardedHGHandlerTest {
+
+    private static final int SHARDS = 3;
+
+    private ShardedHGHandler sharded;
+
+    private HGHandler handler;
+
+    private Node[] nodes;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        final File[] directories = new File[SHARDS];
+        for (int i = 0; i < SHARDS; i++) {
+            directories[i] = new File("/tmp/bla-shard-" + i);
+            recursiveDelete(directories[i]);
+        }
+        recursiveDelete(new File("/tmp/bla"));
+        sharded = ShardedHGHandler.open(directories);
+        handler = new HGHandler(new HyperGraph("/tmp/bla"));
+        HGTestUtil.identifier = 0;
+
+        final Set<Node> generated = generateNodes(60);
+        nodes = generated.toArray(new Node[generated.size()]);
+        sharded.addRight(nodes);
+        handler.addRight(nodes);
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        sharded.close();
+        handler.getHGDB().close();
+    }
+
+    /**
+     * Test method for {@link org.versacloud.ShardedHGHandler#addRight(Node...)} and the lookups.
+     */
+    @Test
+    public void testRouting() {
+        final long[] keys = new long[nodes.length + 1];
+        final long[] versions = new long[keys.length];
+        for (int i = 0; i < nodes.length; i++) {
+            final Node node = nodes[i];
+            final int shard = sharded.shardOf(node.getKey());
+            for (int j = 0; j < SHARDS; j++) {
+                final HGHandle handle = sharded.getShard(j).getRightHandle(node.getKey(), node.getVersion());
+                assertEquals(j == shard, handle != null);
+            }
+            assertEquals(node, sharded.getRight(node.getKey(), node.getVersion()));
+            assertArrayEquals(node.getSecretKey(), sharded
+                .getRightMaterial(node.getKey(), node.getVersion()));
+            assertArrayEquals(node.getSecretKey(), sharded.getLatestRightMaterial(node.getKey()));
+            keys[i] = node.getKey();
+            versions[i] = node.getVersion();
+        }
+        keys[nodes.length] = Integer.MAX_VALUE;
+        final byte[][] material = sharded.getRightMaterial(keys, versions);
+        for (int i = 0; i < nodes.length; i++) {
+            assertArrayEquals(nodes[i].getSecretKey(), material[i]);
+        }
+        assertNull(material[nodes.length]);
+
+        try {
+            sharded.addRight(nodes[0]);
+            fail("Node must not be stored twice");
+        } catch (final IllegalStateException exc) {
+            // expected
+        }
+    }
+
+    /**
+     * Test method for {@link org.versacloud.ShardedHGHandler#getDescendants(Set)} with rights
+     * spanning multiple shards.
+     */
+    @Test
+    public void testDescendants() {
+        final Random random = new Random(42);
+        final List<Set<RightKey>[]> rights = new ArrayList<Set<RightKey>[]>();
+        for (int i = 0; i < 40; i++) {
+            // parents always precede their children, the graph stays acyclic
+            final int split = 1 + random.nextInt(nodes.length - 1);
+            @SuppressWarnings("unchecked")
+            final Set<RightKey>[] right = new Set[] {
+                new HashSet<RightKey>(), new HashSet<RightKey>()
+            };
+            for (int j = 0; j < 3; j++) {
+                right[0].add(getKey(nodes[random.nextInt(split)]));
+                right[1].add(getKey(nodes[split + random.nextInt(nodes.length - split)]));
+            }
+            // the results differ since the rights of parents within different shards are split
+            handler.activateRight(getHandles(right[0]), getHandles(right[1]));
+            sharded.activateRight(right[0], right[1]);
+            rights.add(right);
+        }
+        checkDescendants();
+
+        // children within other shards than their parents are represented by ghosts
+        boolean ghosts = false;
+        for (final Set<RightKey>[] right : rights) {
+            for (final RightKey child : right[1]) {
+                for (int j = 0; j < SHARDS; j++) {
+                    if (j != sharded.shardOf(child.getKey())) {
+                        ghosts |=
+                            sharded.getShard(j).getRightHandle(child.getKey(), child.getVersion()) != null;
+                    }
+                }
+            }
+        }
+        assertTrue(ghosts);
+
+        for (int i = 0; i < rights.size(); i += 3) {
+            final Set<RightKey>[] right = rights.get(i);
+            sharded.deactivateRight(right[0], right[1]);
+            handler.deactivateRight(getHandles(right[0]), getHandles(right[1]));
+        }
+        checkDescendants();
+
+        for (int i = 0; i < nodes.length; i += 7) {
+            assertTrue(sharded.removeRight(nodes[i]).isRemoved());
+            handler.removeRight(nodes[i]);
+            for (int j = 0; j < SHARDS; j++) {
+                assertNull(sharded.getShard(j).getRightHandle(nodes[i].getKey(), nodes[i].getVersion()));
+            }
+        }
+        checkDescendants();
+
+        final Set<RightKey> missing = new HashSet<RightKey>();
+        missing.add(getKey(nodes[0]));
+        try {
+            sharded.activateRight(missing, missing);
+            fail("Removed nodes must not be granted");
+        } catch (final IllegalStateException exc) {
+            // expected
+        }
+    }
+
+    /**
+     * Comparing the descendants of all nodes and of all nodes at once with
+     * the single db.
+     */
+    private void checkDescendants() {
+        final Set<RightKey> all = new HashSet<RightKey>();
+        for (final Node node : nodes) {
+            final HGHandle handle = handler.getRightHandle(node.getKey(), node.getVersion());
+            if (handle != null) {
+                final Set<RightKey> root = new HashSet<RightKey>();
+                root.add(getKey(node));
+                assertEquals(getKeys(handler.getDescendants(handle)), sharded.getDescendants(root));
+                all.add(getKey(node));
+            }
+        }
+        final Set<HGHandle> descendants = handler.getDescendants(getHandles(all), new IHandlerListener() {
+            @Override
+            public boolean touchedChildren(final Set<HGHandle> children) {
+                return false;
+            }
+        });
+        assertEquals(getKeys(descendants), sharded.getDescendants(all));
+    }
+
+    /**
+     * Getting key and version of a node.
+     * 
+     * @param node
+     *            the node
+     * @return key and version
+     */
+    private static RightKey getKey(final Node node) {
+        return new RightKey(node.getKey(), node.getVersion());
+    }
+
+    /**
+     * Getting key and version of nodes within the single db.
+     * 
+     * @param handles
+     *            of the nodes
+     * @return key and version of the nodes
+     */
+    private Set<RightKey> getKeys(final Set<HGHandle> handles) {
+        final Set<RightKey> returnval = new HashSet<RightKey>();
+        for (final HGHandle handle : handles) {
+            final Node node = handler.getRight(handle);
+            returnval.add(getKey(node));
+        }
+        return returnval;
+    }
+
+    /**
+     * Getting the handles of nodes within the single db.
+     * 
+     * @param keys
+     *            of the nodes
+     * @return the handles of the nodes
+     */
+    private Set<HGHandle> getHandles(final Set<RightKey> keys) {
+        final Set<HGHandle> returnval = new HashSet<HGHandle>();
+        for (final RightKey key : keys) {
+            returnval.add(handler.getRightHandle(key.getKey(), key.getVersion()));
+        }
+        return returnval;
+    }
+
+}
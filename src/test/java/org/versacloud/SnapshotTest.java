@@ -0,0 +1,178 @@
+/**
+ * 
+ */
+package org.versacloud;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.versacloud.HGTestUtil.generateNodes;
+import static org.versacloud.HGTestUtil.recursiveDelete;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGQuery.hg;
+import org.hypergraphdb.HyperGraph;
+import org.hypergraphdb.atom.HGBergeLink;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.versacloud.model.Node;
+import org.versacloud.model.RightKey;
+
+/**
+ * Test case for Snapshot
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public class SnapshotTest {
+
+    private HGHandler handler;
+
+    private HGHandler restored;
+
+    private Node[] nodes;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        recursiveDelete(new File("/tmp/bla"));
+        recursiveDelete(new File("/tmp/bla-restored"));
+        handler = new HGHandler(new HyperGraph("/tmp/bla"));
+        restored = new HGHandler(new HyperGraph("/tmp/bla-restored"));
+        HGTestUtil.identifier = 0;
+
+        final Set<Node> generated = generateNodes(60);
+        nodes = generated.toArray(new Node[generated.size()]);
+        final HGHandle[] handles = handler.addRight(nodes);
+        final Random random = new Random(42);
+        for (int i = 0; i < 40; i++) {
+            // parents always precede their children, the graph stays acyclic
+            final int split = 1 + random.nextInt(handles.length - 1);
+            final Set<HGHandle> parents = new HashSet<HGHandle>();
+            final Set<HGHandle> children = new HashSet<HGHandle>();
+            for (int j = 0; j < 3; j++) {
+                parents.add(handles[random.nextInt(split)]);
+                children.add(handles[split + random.nextInt(handles.length - split)]);
+            }
+            handler.activateRight(parents, children);
+        }
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        handler.getHGDB().close();
+        restored.getHGDB().close();
+    }
+
+    /**
+     * Test method for {@link org.versacloud.Snapshot#export(HGHandler, java.io.OutputStream, int)}
+     * and {@link org.versacloud.Snapshot#restore(HGHandler, java.io.InputStream)}.
+     * 
+     * @throws IOException
+     *             if the snapshot cannot be read
+     */
+    @Test
+    public void testRoundTrip() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        // small blocks for restoring several blocks in parallel
+        Snapshot.export(handler, out, 7);
+        final BulkLoadSession.Result result =
+            Snapshot.restore(restored, new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(nodes.length, result.getNodes());
+
+        final List<HGHandle> links = hg.findAll(handler.getHGDB(), hg.type(HGBergeLink.class));
+        assertEquals(links.size(), hg.findAll(restored.getHGDB(), hg.type(HGBergeLink.class)).size());
+        for (final Node node : nodes) {
+            final Node restoredNode = restored.getRight(node.getKey(), node.getVersion());
+            assertEquals(node, restoredNode);
+            assertEquals(node.getName(), restoredNode.getName());
+            assertArrayEquals(node.getSecretKey(), restoredNode.getSecretKey());
+            assertEquals(getKeys(handler, handler.getDescendants(handler.getRightHandle(node.getKey(), node
+                .getVersion()))), getKeys(restored, restored.getDescendants(restored.getRightHandle(node
+                .getKey(), node.getVersion()))));
+        }
+
+        // the restored indices are maintained afterwards
+        final Set<HGHandle> parents = new HashSet<HGHandle>();
+        final Set<HGHandle> children = new HashSet<HGHandle>();
+        parents.add(restored.getRightHandle(nodes[0].getKey(), nodes[0].getVersion()));
+        children.add(restored.getRightHandle(nodes[1].getKey(), nodes[1].getVersion()));
+        restored.activateRight(parents, children);
+        assertTrue(restored.getDescendants(parents.iterator().next()).contains(
+            children.iterator().next()));
+
+        // only empty dbs can be restored in
+        try {
+            Snapshot.restore(restored, new ByteArrayInputStream(out.toByteArray()));
+            fail("Snapshot must not be restored into a filled db");
+        } catch (final IllegalStateException exc) {
+            // expected
+        }
+    }
+
+    /**
+     * Test method for {@link org.versacloud.Snapshot#restore(HGHandler, java.io.InputStream)} with a
+     * corrupted snapshot.
+     * 
+     * @throws IOException
+     *             if the snapshot cannot be written
+     */
+    @Test
+    public void testCorrupted() throws IOException {
+        final byte[] foreign = new byte[64];
+        try {
+            Snapshot.restore(restored, new ByteArrayInputStream(foreign));
+            fail("Stream without a snapshot must be detected");
+        } catch (final IOException exc) {
+            // expected
+        }
+
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        Snapshot.export(handler, out);
+        final byte[] snapshot = out.toByteArray();
+        snapshot[snapshot.length - 3] ^= 1;
+        try {
+            Snapshot.restore(restored, new ByteArrayInputStream(snapshot));
+            fail("Corrupted snapshot must be detected");
+        } catch (final IOException exc) {
+            // expected
+        }
+        // the bulk load is finished even on failures
+        restored.beginBulkLoad(1).commit();
+    }
+
+    /**
+     * Getting key and version of nodes.
+     * 
+     * @param paramHandler
+     *            containing the nodes
+     * @param handles
+     *            of the nodes
+     * @return key and version of the nodes
+     */
+    private static Set<RightKey> getKeys(final HGHandler paramHandler, final Set<HGHandle> handles) {
+        final Set<RightKey> returnval = new HashSet<RightKey>();
+        for (final HGHandle handle : handles) {
+            final Node node = paramHandler.getRight(handle);
+            returnval.add(new RightKey(node.getKey(), node.getVersion()));
+        }
+        return returnval;
+    }
+
+}
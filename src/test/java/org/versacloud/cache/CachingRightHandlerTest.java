@@ -0,0 +1,141 @@
+/**
+ * 
+ */
+package org.versacloud.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.versacloud.model.Node;
+
+/**
+ * Test case for CachingRightHandler
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public class CachingRightHandlerTest {
+
+    /** Backing handler serving the material. */
+    private StubRightHandler backing;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        backing = new StubRightHandler();
+        for (int i = 0; i < 10; i++) {
+            backing.put(i, 0, new byte[] {
+                (byte)i
+            });
+        }
+    }
+
+    /**
+     * Test method for {@link org.versacloud.cache.CachingRightHandler#getRightMaterial(long, long)}.
+     */
+    @Test
+    public void testHitsAndMisses() {
+        final CachingRightHandler cache = new CachingRightHandler(backing, 100);
+        for (int j = 0; j < 3; j++) {
+            for (int i = 0; i < 10; i++) {
+                assertArrayEquals(backing.get(i, 0), cache.getRightMaterial(i, 0));
+            }
+        }
+        assertEquals(10, backing.getCalls());
+        assertEquals(10, cache.getMisses());
+        assertEquals(20, cache.getHits());
+        assertEquals(10, cache.size());
+
+        // misses are never cached
+        assertNull(cache.getRightMaterial(100, 0));
+        assertNull(cache.getRightMaterial(100, 0));
+        assertEquals(12, backing.getCalls());
+    }
+
+    /**
+     * Test method for {@link org.versacloud.cache.CachingRightHandler#getRightMaterial(long, long)}.
+     */
+    @Test
+    public void testEviction() {
+        final CachingRightHandler cache = new CachingRightHandler(backing, 5);
+        for (int i = 0; i < 10; i++) {
+            cache.getRightMaterial(i, 0);
+        }
+        assertEquals(5, cache.size());
+        assertEquals(5, cache.getEvictions());
+        // the least recently used ones are gone
+        cache.getRightMaterial(0, 0);
+        assertEquals(11, backing.getCalls());
+        cache.getRightMaterial(9, 0);
+        assertEquals(11, backing.getCalls());
+    }
+
+    /**
+     * Test method for {@link org.versacloud.cache.CachingRightHandler#getRightMaterial(long, long)}.
+     * 
+     * @throws InterruptedException
+     */
+    @Test
+    public void testTTL() throws InterruptedException {
+        final CachingRightHandler cache = new CachingRightHandler(backing, 100, 1);
+        cache.getRightMaterial(1, 0);
+        Thread.sleep(5);
+        cache.getRightMaterial(1, 0);
+        assertEquals(2, backing.getCalls());
+        assertEquals(1, cache.getEvictions());
+    }
+
+    /**
+     * Test method for {@link org.versacloud.cache.CachingRightHandler#getRightMaterial(long[], long[])}.
+     */
+    @Test
+    public void testBatch() {
+        final CachingRightHandler cache = new CachingRightHandler(backing, 100);
+        cache.getRightMaterial(1, 0);
+        final byte[][] result = cache.getRightMaterial(new long[] {
+            3, 1, 100, 3
+        }, new long[] {
+            0, 0, 0, 0
+        });
+        assertArrayEquals(backing.get(3, 0), result[0]);
+        assertArrayEquals(backing.get(1, 0), result[1]);
+        assertNull(result[2]);
+        assertArrayEquals(backing.get(3, 0), result[3]);
+        assertEquals(1, cache.getHits());
+        assertEquals(4, cache.getMisses());
+        assertEquals(2, cache.size());
+    }
+
+    /**
+     * Test method for {@link org.versacloud.cache.CachingRightHandler#rightReplaced(org.hypergraphdb.HGHandle, Node, Node)}.
+     */
+    @Test
+    public void testInvalidation() {
+        final CachingRightHandler cache = new CachingRightHandler(backing, 100);
+        cache.getRightMaterial(1, 0);
+        cache.getRightMaterial(2, 0);
+        cache.getRightMaterial(3, 0);
+
+        final byte[] newSecret = new byte[] {
+            42
+        };
+        backing.put(1, 0, newSecret);
+        cache.rightReplaced(null, new Node("1", 1, 0, null), new Node("1", 1, 0, newSecret));
+        assertArrayEquals(newSecret, cache.getRightMaterial(1, 0));
+
+        backing.remove(2, 0);
+        cache.rightRemoved(null, new Node("2", 2, 0, null));
+        assertNull(cache.getRightMaterial(2, 0));
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        cache.getRightMaterial(3, 0);
+        assertEquals(6, backing.getCalls());
+    }
+
+}
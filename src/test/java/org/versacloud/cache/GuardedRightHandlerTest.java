@@ -0,0 +1,102 @@
+/**
+ * 
+ */
+package org.versacloud.cache;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.versacloud.index.CuckooFilter;
+import org.versacloud.model.Node;
+
+/**
+ * Test case for GuardedRightHandler
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public class GuardedRightHandlerTest {
+
+    /** Backing handler serving the material. */
+    private StubRightHandler backing;
+
+    private GuardedRightHandler guard;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        backing = new StubRightHandler();
+        guard = new GuardedRightHandler(backing, new CuckooFilter(100));
+        for (int i = 0; i < 10; i++) {
+            final Node node = new Node("node" + i, i, 0, new byte[] {
+                (byte)i
+            });
+            backing.put(i, 0, node.getSecretKey());
+            guard.rightAdded(null, node);
+        }
+    }
+
+    /**
+     * Test method for {@link org.versacloud.cache.GuardedRightHandler#getRightMaterial(long, long)}.
+     */
+    @Test
+    public void testGuard() {
+        for (int i = 0; i < 10; i++) {
+            assertArrayEquals(backing.get(i, 0), guard.getRightMaterial(i, 0));
+        }
+        assertEquals(10, backing.getCalls());
+        // absent rights are denied without a call
+        for (int i = 0; i < 10; i++) {
+            assertNull(guard.getRightMaterial(1000 + i, 0));
+        }
+        assertEquals(10, backing.getCalls());
+        assertEquals(10, guard.getDenied());
+        assertEquals(10, guard.getPassed());
+    }
+
+    /**
+     * Test method for {@link org.versacloud.cache.GuardedRightHandler#getRightMaterial(long[], long[])}.
+     */
+    @Test
+    public void testBatch() {
+        final byte[][] result = guard.getRightMaterial(new long[] {
+            1, 1000, 2, 1001
+        }, new long[] {
+            0, 0, 0, 0
+        });
+        assertArrayEquals(backing.get(1, 0), result[0]);
+        assertNull(result[1]);
+        assertArrayEquals(backing.get(2, 0), result[2]);
+        assertNull(result[3]);
+        assertEquals(2, backing.getCalls());
+    }
+
+    /**
+     * Test method for the listener methods of {@link org.versacloud.cache.GuardedRightHandler}.
+     */
+    @Test
+    public void testListener() {
+        final Node removed = new Node("node1", 1, 0, null);
+        guard.rightRemoved(null, removed);
+        assertNull(guard.getRightMaterial(1, 0));
+        assertEquals(0, backing.getCalls());
+
+        // replacing under another version moves the right
+        final Node replaced = new Node("node2", 2, 5, null);
+        guard.rightReplaced(null, new Node("node2", 2, 0, null), replaced);
+        backing.put(2, 5, new byte[] {
+            5
+        });
+        assertNull(guard.getRightMaterial(2, 0));
+        assertArrayEquals(new byte[] {
+            5
+        }, guard.getRightMaterial(2, 5));
+        assertEquals(1, backing.getCalls());
+    }
+
+}
@@ -0,0 +1,104 @@
+/**
+ * 
+ */
+package org.versacloud.cache;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.versacloud.api.IRightHandler;
+import org.versacloud.model.RightKey;
+
+/**
+ * Backing handler for the tests of the handlers in front of another
+ * handler, serving material from a map and counting the rights requested.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+final class StubRightHandler implements IRightHandler {
+
+    /** Material served by key and version. */
+    private final Map<RightKey, byte[]> mMaterial = new HashMap<RightKey, byte[]>();
+
+    /** Number of rights requested. */
+    private int mCalls;
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getRightMaterial(final long key, final long version) {
+        mCalls++;
+        return mMaterial.get(new RightKey(key, version));
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[][] getRightMaterial(final long[] keys, final long[] versions) {
+        final byte[][] returnval = new byte[keys.length][];
+        for (int i = 0; i < keys.length; i++) {
+            returnval[i] = getRightMaterial(keys[i], versions[i]);
+        }
+        return returnval;
+    }
+
+    /**
+     * {@inheritDoc}
+     */
+    @Override
+    public byte[] getLatestRightMaterial(final long key) {
+        throw new UnsupportedOperationException();
+    }
+
+    /**
+     * Getting the material served without counting the request.
+     * 
+     * @param key
+     *            of the right
+     * @param version
+     *            of the right
+     * @return the material or null if not present
+     */
+    byte[] get(final long key, final long version) {
+        return mMaterial.get(new RightKey(key, version));
+    }
+
+    /**
+     * Storing the material to be served.
+     * 
+     * @param key
+     *            of the right
+     * @param version
+     *            of the right
+     * @param material
+     *            to be served
+     */
+    void put(final long key, final long version, final byte[] material) {
+        mMaterial.put(new RightKey(key, version), material);
+    }
+
+    /**
+     * Removing the material served.
+     * 
+     * @param key
+     *            of the right
+     * @param version
+     *            of the right
+     */
+    void remove(final long key, final long version) {
+        mMaterial.remove(new RightKey(key, version));
+    }
+
+    /**
+     * Getting the number of rights requested so far.
+     * 
+     * @return the number of requests
+     */
+    int getCalls() {
+        return mCalls;
+    }
+
+}
@@ -0,0 +1,80 @@
+/**
+ * 
+ */
+package org.versacloud.generator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.versacloud.HGTestUtil.recursiveDelete;
+
+import java.io.File;
+import java.util.Set;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HyperGraph;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.versacloud.HGHandler;
+
+/**
+ * Test case for AccessGraphGenerator
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public class AccessGraphGeneratorTest {
+
+    private HGHandler handler;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        String databaseLocation = "/tmp/bla";
+        recursiveDelete(new File(databaseLocation));
+        handler = new HGHandler(new HyperGraph(databaseLocation));
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        handler.getHGDB().close();
+    }
+
+    /**
+     * Test method for {@link org.versacloud.generator.AccessGraphGenerator#generate(org.versacloud.HGHandler)}.
+     */
+    @Test
+    public void testGenerate() {
+        final AccessGraphGenerator generator = new AccessGraphGenerator(123l, 1000, 3, 10);
+        generator.setBatchSize(128);
+        assertEquals(100, generator.getSize(1));
+        assertEquals(10, generator.getSize(2));
+        final long memberships = generator.generate(handler);
+        assertTrue(memberships >= 1000);
+
+        for (int level = 0; level < generator.getDepth(); level++) {
+            for (int i = 0; i < generator.getSize(level); i++) {
+                assertNotNull(handler.getRightHandle(generator.getKey(level, i), 0));
+            }
+        }
+        // each user reaches at least one group of each level above
+        for (int i = 0; i < generator.getSize(0); i += 97) {
+            final HGHandle user = handler.getRightHandle(generator.getKey(0, i), 0);
+            final Set<HGHandle> descendants = handler.getDescendants(user);
+            assertTrue(descendants.size() >= generator.getDepth() - 1);
+        }
+
+        // the same seed leads to the same memberships
+        final AccessGraphGenerator same = new AccessGraphGenerator(123l, 1000, 3, 10);
+        same.setFirstKey(generator.getKey(2, generator.getSize(2)));
+        same.setBatchSize(1000);
+        assertEquals(memberships, same.generate(handler));
+    }
+
+}
@@ -0,0 +1,64 @@
+/**
+ * 
+ */
+package org.versacloud.generator;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Test case for ZipfDistribution
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public class ZipfDistributionTest {
+
+    /**
+     * Test method for {@link org.versacloud.generator.ZipfDistribution#sample(java.util.Random)}.
+     */
+    @Test
+    public void testFrequencies() {
+        final int ranks = 100;
+        final int samples = 200000;
+        final ZipfDistribution zipf = new ZipfDistribution(ranks, 1.0);
+        final int[] counts = new int[ranks + 1];
+        final Random random = new Random(123l);
+        for (int i = 0; i < samples; i++) {
+            final int rank = zipf.sample(random);
+            assertTrue(rank >= 1 && rank <= ranks);
+            counts[rank]++;
+        }
+        double norm = 0;
+        for (int rank = 1; rank <= ranks; rank++) {
+            norm += 1d / rank;
+        }
+        // comparing the most frequent ranks with the expected frequencies
+        for (int rank = 1; rank <= 5; rank++) {
+            final double expected = samples / (rank * norm);
+            assertEquals(expected, counts[rank], expected * 0.05);
+        }
+    }
+
+    /**
+     * Test method for {@link org.versacloud.generator.ZipfDistribution#sample(java.util.Random)}.
+     */
+    @Test
+    public void testUniform() {
+        final ZipfDistribution zipf = new ZipfDistribution(4, 0);
+        final int[] counts = new int[5];
+        final Random random = new Random(123l);
+        for (int i = 0; i < 40000; i++) {
+            counts[zipf.sample(random)]++;
+        }
+        assertEquals(0, counts[0]);
+        for (int rank = 1; rank <= 4; rank++) {
+            assertEquals(10000, counts[rank], 500);
+        }
+    }
+
+}
@@ -0,0 +1,120 @@
+/**
+ * 
+ */
+package org.versacloud.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import org.junit.Test;
+
+/**
+ * Test case for CuckooFilter
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public class CuckooFilterTest {
+
+    /**
+     * Test method for {@link org.versacloud.index.CuckooFilter#add(long, long)} and
+     * {@link org.versacloud.index.CuckooFilter#remove(long, long)}.
+     */
+    @Test
+    public void testAddRemove() {
+        final CuckooFilter filter = new CuckooFilter(10000);
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.add(i, i % 3));
+        }
+        assertEquals(10000, filter.size());
+        assertFalse(filter.isSaturated());
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(i, i % 3));
+        }
+        // absent pairs are denied apart from rare false positives
+        int falsePositives = 0;
+        for (int i = 10000; i < 110000; i++) {
+            if (filter.mightContain(i, 0)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < 100);
+
+        for (int i = 0; i < 10000; i += 2) {
+            assertTrue(filter.remove(i, i % 3));
+        }
+        assertEquals(5000, filter.size());
+        for (int i = 1; i < 10000; i += 2) {
+            assertTrue(filter.mightContain(i, i % 3));
+        }
+        int remaining = 0;
+        for (int i = 0; i < 10000; i += 2) {
+            if (filter.mightContain(i, i % 3)) {
+                remaining++;
+            }
+        }
+        assertTrue(remaining < 10);
+    }
+
+    /**
+     * Test method for {@link org.versacloud.index.CuckooFilter#isSaturated()} with a filter exceeding its
+     * capacity.
+     */
+    @Test
+    public void testSaturated() {
+        final CuckooFilter filter = new CuckooFilter(16);
+        boolean placed = true;
+        for (int i = 0; placed; i++) {
+            placed = filter.add(i, 0);
+        }
+        assertTrue(filter.isSaturated());
+        // a saturated filter never denies
+        assertTrue(filter.mightContain(Long.MAX_VALUE, 0));
+        assertFalse(filter.add(-1, 0));
+    }
+
+    /**
+     * Test method for {@link org.versacloud.index.CuckooFilter#save(File)} and
+     * {@link org.versacloud.index.CuckooFilter#load(File)}.
+     * 
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    @Test
+    public void testSaveLoad() throws IOException {
+        final File file = new File("/tmp/bla-filter");
+        file.delete();
+        final CuckooFilter filter = new CuckooFilter(1000);
+        for (int i = 0; i < 1000; i++) {
+            filter.add(i, 7);
+        }
+        filter.save(file);
+        final CuckooFilter loaded = CuckooFilter.load(file);
+        assertEquals(1000, loaded.size());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(loaded.mightContain(i, 7));
+        }
+        assertTrue(loaded.remove(0, 7));
+        // saving again replaces the file
+        loaded.save(file);
+        assertEquals(999, CuckooFilter.load(file).size());
+
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[32]);
+        out.close();
+        try {
+            CuckooFilter.load(file);
+            fail();
+        } catch (final IOException exc) {
+            // expected, the magic number is missing
+        }
+        file.delete();
+    }
+
+}
@@ -0,0 +1,74 @@
+/**
+ * 
+ */
+package org.versacloud.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.Test;
+import org.versacloud.model.RightKey;
+
+/**
+ * Test case for LongPairMap
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public class LongPairMapTest {
+
+    /**
+     * Test method for {@link org.versacloud.index.LongPairMap#put(long, long, Object)}.
+     */
+    @Test
+    public void testPutGetRemove() {
+        final LongPairMap<String> map = new LongPairMap<String>();
+        assertNull(map.put(1, 2, "a"));
+        assertNull(map.put(2, 1, "b"));
+        assertEquals("a", map.put(1, 2, "c"));
+        assertEquals(2, map.size());
+        assertEquals("c", map.get(1, 2));
+        assertEquals("b", map.get(2, 1));
+        assertNull(map.get(1, 1));
+        assertEquals("c", map.remove(1, 2));
+        assertNull(map.remove(1, 2));
+        assertNull(map.get(1, 2));
+        assertEquals(1, map.size());
+    }
+
+    /**
+     * Comparing random operations with a {@link HashMap}, including resizes
+     * and deletions within colliding probe sequences.
+     */
+    @Test
+    public void testRandomized() {
+        final Random ran = new Random(123l);
+        final LongPairMap<Integer> map = new LongPairMap<Integer>();
+        final Map<RightKey, Integer> check = new HashMap<RightKey, Integer>();
+        for (int i = 0; i < 100000; i++) {
+            final long key = ran.nextInt(2000);
+            final long version = ran.nextInt(4);
+            switch (ran.nextInt(3)) {
+            case 0:
+                assertEquals(check.remove(new RightKey(key, version)), map.remove(key, version));
+                break;
+            default:
+                assertEquals(check.put(new RightKey(key, version), i), map.put(key, version, i));
+            }
+            assertEquals(check.size(), map.size());
+        }
+        for (final Map.Entry<RightKey, Integer> entry : check.entrySet()) {
+            assertEquals(entry.getValue(), map.get(entry.getKey().getKey(), entry.getKey().getVersion()));
+        }
+        for (long key = 0; key < 2000; key++) {
+            for (long version = 0; version < 4; version++) {
+                assertEquals(check.get(new RightKey(key, version)), map.get(key, version));
+            }
+        }
+    }
+
+}
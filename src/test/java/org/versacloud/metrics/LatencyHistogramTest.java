@@ -0,0 +1,56 @@
+/**
+ * 
+ */
+package org.versacloud.metrics;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test case for LatencyHistogram
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public class LatencyHistogramTest {
+
+    /**
+     * Test method for {@link org.versacloud.metrics.LatencyHistogram#bucket(long)}.
+     */
+    @Test
+    public void testBuckets() {
+        for (long value = 0; value < 100000; value++) {
+            final int bucket = LatencyHistogram.bucket(value);
+            assertTrue(value <= LatencyHistogram.upperBound(bucket));
+            if (bucket > 0) {
+                assertTrue(value > LatencyHistogram.upperBound(bucket - 1));
+            }
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.upperBound(LatencyHistogram.bucket(Long.MAX_VALUE)));
+    }
+
+    /**
+     * Test method for {@link org.versacloud.metrics.LatencyHistogram#getPercentile(double)}.
+     */
+    @Test
+    public void testPercentiles() {
+        final LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentile(99));
+        for (int i = 1; i <= 1000; i++) {
+            histogram.record(i * 1000);
+        }
+        assertEquals(1000, histogram.getCount());
+        assertEquals(500500, histogram.getMean(), 0.1);
+        assertEquals(1000000, histogram.getMax());
+        final long median = histogram.getPercentile(50);
+        assertTrue(median >= 500000 && median <= 500000 * 1.25);
+        final long p99 = histogram.getPercentile(99);
+        assertTrue(p99 >= 990000 && p99 <= 1000000);
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentile(50));
+    }
+
+}
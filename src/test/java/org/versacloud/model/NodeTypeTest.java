@@ -0,0 +1,88 @@
+/**
+ * 
+ */
+package org.versacloud.model;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+import java.nio.charset.Charset;
+
+import org.junit.Test;
+
+/**
+ * Test case for NodeType
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public class NodeTypeTest {
+
+    /**
+     * Test method for {@link org.versacloud.model.NodeType#encode(Node)} and
+     * {@link org.versacloud.model.NodeType#decode(byte[])}.
+     */
+    @Test
+    public void testRoundTrip() {
+        final Node node = new Node("group \u00e4\u00f6\u00fc", 42, Long.MAX_VALUE, new byte[] {
+            1, 2, 3, 4
+        });
+        final byte[] data = NodeType.encode(node);
+        assertEquals(NodeType.HEADER + 8 + 4 + node.getName().getBytes(Charset.forName("UTF-8")).length, data.length);
+        final Node decoded = NodeType.decode(data);
+        assertEquals(node, decoded);
+        assertEquals(node.getName(), decoded.getName());
+        assertEquals(-1, decoded.getSecretOffset());
+
+        // nodes referring to a separate store have no secret
+        final Node external = new Node(null, -1, 0, null);
+        external.setSecretOffset(1234);
+        final Node decodedExternal = NodeType.decode(NodeType.encode(external));
+        assertNull(decodedExternal.getName());
+        assertNull(decodedExternal.getSecretKey());
+        assertEquals(1234, decodedExternal.getSecretOffset());
+        assertEquals(external, decodedExternal);
+
+        final Node empty = new Node("", 0, 0, new byte[0]);
+        assertArrayEquals(new byte[0], NodeType.decode(NodeType.encode(empty)).getSecretKey());
+        assertEquals("", NodeType.decode(NodeType.encode(empty)).getName());
+    }
+
+    /**
+     * Test method for {@link org.versacloud.model.NodeType#decodeKey(byte[])}.
+     */
+    @Test
+    public void testDecodeKey() {
+        final byte[] data = NodeType.encode(new Node("node", 7, 3, new byte[100]));
+        assertEquals(new RightKey(7, 3), NodeType.decodeKey(data));
+        // the header suffices
+        final byte[] header = new byte[NodeType.HEADER];
+        System.arraycopy(data, 0, header, 0, header.length);
+        assertEquals(new RightKey(7, 3), NodeType.decodeKey(header));
+    }
+
+    /**
+     * Test method for {@link org.versacloud.model.NodeType#decode(byte[])} with a record of another
+     * format.
+     */
+    @Test
+    public void testUnknownFormat() {
+        final byte[] data = NodeType.encode(new Node("node", 7, 3, null));
+        data[0] = 0;
+        try {
+            NodeType.decode(data);
+            fail();
+        } catch (final IllegalStateException exc) {
+            // expected
+        }
+        try {
+            NodeType.decodeKey(new byte[3]);
+            fail();
+        } catch (final IllegalStateException exc) {
+            // expected
+        }
+    }
+
+}
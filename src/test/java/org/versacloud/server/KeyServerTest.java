@@ -0,0 +1,228 @@
+/**
+ * 
+ */
+package org.versacloud.server;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+import static org.versacloud.HGTestUtil.generateNodes;
+import static org.versacloud.HGTestUtil.recursiveDelete;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HyperGraph;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.versacloud.HGHandler;
+import org.versacloud.model.Node;
+import org.versacloud.model.RightKey;
+
+/**
+ * Test case for KeyServer and KeyClient
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public class KeyServerTest {
+
+    private HGHandler handler;
+
+    private KeyServer server;
+
+    private KeyClient client;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        String databaseLocation = "/tmp/bla";
+        recursiveDelete(new File(databaseLocation));
+        handler = new HGHandler(new HyperGraph(databaseLocation));
+        server = new KeyServer(handler, 0);
+        server.start();
+        client = new KeyClient("localhost", server.getPort());
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        client.close();
+        server.close();
+        handler.getHGDB().close();
+    }
+
+    /**
+     * Test method for {@link org.versacloud.server.KeyClient#getRightMaterial(long, long)}.
+     */
+    @Test
+    public void testMaterial() {
+        final Node[] nodes = generateNodes(50).toArray(new Node[50]);
+        handler.addRight(nodes);
+        for (final Node node : nodes) {
+            assertArrayEquals(node.getSecretKey(), client.getRightMaterial(node.getKey(), node.getVersion()));
+            assertArrayEquals(node.getSecretKey(), client.getLatestRightMaterial(node.getKey()));
+        }
+        assertNull(client.getRightMaterial(Integer.MAX_VALUE, 0));
+        assertNull(client.getLatestRightMaterial(Integer.MAX_VALUE));
+
+        final long[] keys = new long[nodes.length + 1];
+        final long[] versions = new long[nodes.length + 1];
+        for (int i = 0; i < nodes.length; i++) {
+            keys[i] = nodes[i].getKey();
+            versions[i] = nodes[i].getVersion();
+        }
+        keys[nodes.length] = Integer.MAX_VALUE;
+        final byte[][] material = client.getRightMaterial(keys, versions);
+        assertEquals(keys.length, material.length);
+        for (int i = 0; i < nodes.length; i++) {
+            assertArrayEquals(nodes[i].getSecretKey(), material[i]);
+        }
+        assertNull(material[nodes.length]);
+    }
+
+    /**
+     * Test method for {@link org.versacloud.server.KeyClient#getRightMaterial(long, long)} with
+     * concurrent clients sharing one connection.
+     * 
+     * @throws Exception
+     *             if a thread is interrupted
+     */
+    @Test
+    public void testConcurrentMaterial() throws Exception {
+        final Node[] nodes = generateNodes(100).toArray(new Node[100]);
+        handler.addRight(nodes);
+        final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+        final List<Thread> threads = new ArrayList<Thread>();
+        for (int i = 0; i < 8; i++) {
+            final int offset = i;
+            final Thread thread = new Thread() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < 500; j++) {
+                            final Node node = nodes[(offset + j * 7) % nodes.length];
+                            assertArrayEquals(node.getSecretKey(), client.getRightMaterial(node.getKey(),
+                                node.getVersion()));
+                        }
+                    } catch (final Throwable exc) {
+                        failure.compareAndSet(null, exc);
+                    }
+                }
+            };
+            threads.add(thread);
+            thread.start();
+        }
+        for (final Thread thread : threads) {
+            thread.join();
+        }
+        assertNull(failure.get());
+    }
+
+    /**
+     * Test method for {@link org.versacloud.server.KeyClient#activateRight(Set, Set)} and
+     * {@link org.versacloud.server.KeyClient#deactivateRight(Set, Set)}.
+     */
+    @Test
+    public void testRights() {
+        final Node[] nodes = generateNodes(2).toArray(new Node[2]);
+        handler.addRight(nodes);
+        final Set<RightKey> parent =
+            Collections.singleton(new RightKey(nodes[0].getKey(), nodes[0].getVersion()));
+        final Set<RightKey> child =
+            Collections.singleton(new RightKey(nodes[1].getKey(), nodes[1].getVersion()));
+        final HGHandle parentHandle = handler.getRightHandle(nodes[0].getKey(), nodes[0].getVersion());
+        final HGHandle childHandle = handler.getRightHandle(nodes[1].getKey(), nodes[1].getVersion());
+
+        assertTrue(client.activateRight(parent, child));
+        assertFalse(client.activateRight(parent, child));
+        assertTrue(handler.getDescendants(parentHandle).contains(childHandle));
+        assertTrue(client.deactivateRight(parent, child));
+        assertFalse(client.deactivateRight(parent, child));
+        assertFalse(handler.getDescendants(parentHandle).contains(childHandle));
+
+        try {
+            client.activateRight(parent, Collections.singleton(new RightKey(Integer.MAX_VALUE, 0)));
+            fail();
+        } catch (final IllegalStateException exc) {
+            assertTrue(exc.getMessage().contains("IllegalArgumentException"));
+        }
+        // the connection survives errors
+        assertArrayEquals(nodes[0].getSecretKey(), client.getRightMaterial(nodes[0].getKey(), nodes[0]
+            .getVersion()));
+    }
+
+    /**
+     * Test method for {@link org.versacloud.server.KeyServer} with a client
+     * sending lookups without reading the responses.
+     * 
+     * @throws IOException
+     *             if the requests cannot be sent
+     */
+    @Test
+    public void testSlowClient() throws IOException {
+        final Node[] nodes = generateNodes(10).toArray(new Node[10]);
+        handler.addRight(nodes);
+        final Socket socket = new Socket("localhost", server.getPort());
+        try {
+            final DataOutputStream out =
+                new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            // the requests exceed the pending responses of one connection by far
+            for (int i = 0; i < 100000; i++) {
+                out.writeInt(i);
+                out.writeByte(KeyProtocol.GET);
+                out.writeLong(nodes[0].getKey());
+                out.writeLong(nodes[0].getVersion());
+            }
+            // the stream is not read by the client, sending might block
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        out.flush();
+                    } catch (final IOException exc) {
+                        // closed at the end of the test
+                    }
+                }
+            }).start();
+            for (final Node node : nodes) {
+                assertArrayEquals(node.getSecretKey(), client.getRightMaterial(node.getKey(), node
+                    .getVersion()));
+            }
+        } finally {
+            socket.close();
+        }
+    }
+
+    /**
+     * Test method for {@link org.versacloud.server.KeyServer#close()}.
+     */
+    @Test
+    public void testClose() {
+        server.close();
+        try {
+            client.getRightMaterial(0, 0);
+            fail();
+        } catch (final IllegalStateException exc) {
+            // expected, the connection is lost
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+/**
+ * 
+ */
+package org.versacloud.store;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+import static org.versacloud.HGTestUtil.recursiveDelete;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HGHandleFactory;
+import org.hypergraphdb.HyperGraph;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.versacloud.api.IChangeListener;
+import org.versacloud.model.ChangeEvent;
+
+/**
+ * Test case for ChangeLog
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public class ChangeLogTest {
+
+    private HyperGraph graph;
+
+    private HGHandleFactory factory;
+
+    private File file;
+
+    private ChangeLog log;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        String databaseLocation = "/tmp/bla";
+        recursiveDelete(new File(databaseLocation));
+        graph = new HyperGraph(databaseLocation);
+        factory = graph.getHandleFactory();
+        file = new File("/tmp/bla-changes");
+        file.delete();
+        log = new ChangeLog(file, factory, 1);
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        log.close();
+        file.delete();
+        graph.close();
+    }
+
+    /**
+     * Test method for {@link org.versacloud.store.ChangeLog#append(ChangeEvent)} and
+     * {@link org.versacloud.store.ChangeLog#replay(long, IChangeListener)}.
+     * 
+     * @throws IOException
+     *             if the log cannot be read
+     */
+    @Test
+    public void testReplay() throws IOException {
+        final List<ChangeEvent> events = appendEvents(10);
+        assertEquals(1, log.getFirstSequence());
+        assertEquals(10, log.getLastSequence());
+
+        final List<ChangeEvent> replayed = new ArrayList<ChangeEvent>();
+        assertEquals(10, log.replay(4, collector(replayed)));
+        assertEquals(7, replayed.size());
+        for (int i = 0; i < replayed.size(); i++) {
+            assertEvent(events.get(i + 3), replayed.get(i));
+        }
+        replayed.clear();
+        assertEquals(10, log.replay(11, collector(replayed)));
+        assertEquals(0, replayed.size());
+
+        try {
+            log.replay(0, collector(replayed));
+            fail();
+        } catch (final IllegalArgumentException exc) {
+            // expected, the log starts with 1
+        }
+        try {
+            log.append(events.get(9));
+            fail();
+        } catch (final IllegalArgumentException exc) {
+            // expected, the sequence was already appended
+        }
+    }
+
+    /**
+     * Test method for {@link org.versacloud.store.ChangeLog#ChangeLog(File, HGHandleFactory, long)}
+     * recovering a log with a partially written record.
+     * 
+     * @throws IOException
+     *             if the log cannot be reopened
+     */
+    @Test
+    public void testReopen() throws IOException {
+        final List<ChangeEvent> events = appendEvents(5);
+        log.close();
+        // cutting the last record in the middle
+        final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+        raf.setLength(raf.length() - 3);
+        raf.close();
+
+        // the stored first sequence wins over the denoted one
+        log = new ChangeLog(file, factory, 100);
+        assertEquals(1, log.getFirstSequence());
+        assertEquals(4, log.getLastSequence());
+        log.append(ChangeEvent.nodeChange(5, ChangeEvent.Type.NODE_ADDED, factory.makeHandle(), 1, 2, 1, 2));
+        final List<ChangeEvent> replayed = new ArrayList<ChangeEvent>();
+        log.replay(1, collector(replayed));
+        assertEquals(5, replayed.size());
+        for (int i = 0; i < 4; i++) {
+            assertEvent(events.get(i), replayed.get(i));
+        }
+        assertEquals(1, replayed.get(4).getKey());
+    }
+
+    /**
+     * Appending events of all types.
+     * 
+     * @param count
+     *            number of events
+     * @return the appended events
+     */
+    private List<ChangeEvent> appendEvents(final int count) {
+        final List<ChangeEvent> returnval = new ArrayList<ChangeEvent>();
+        final ChangeEvent.Type[] types = ChangeEvent.Type.values();
+        for (int i = 1; i <= count; i++) {
+            final ChangeEvent.Type type = types[i % types.length];
+            final ChangeEvent event;
+            if (type == ChangeEvent.Type.RIGHT_ACTIVATED || type == ChangeEvent.Type.RIGHT_DEACTIVATED) {
+                final Set<HGHandle> parents =
+                    new HashSet<HGHandle>(Arrays.asList(factory.makeHandle(), factory.makeHandle()));
+                final Set<HGHandle> children = new HashSet<HGHandle>(Arrays.asList(factory.makeHandle()));
+                event = ChangeEvent.rightChange(i, type, parents, children);
+            } else {
+                event = ChangeEvent.nodeChange(i, type, factory.makeHandle(), i, 0, i, 1);
+            }
+            log.append(event);
+            returnval.add(event);
+        }
+        return returnval;
+    }
+
+    /**
+     * Comparing two events.
+     * 
+     * @param expected
+     *            the expected event
+     * @param actual
+     *            the actual event
+     */
+    private static void assertEvent(final ChangeEvent expected, final ChangeEvent actual) {
+        assertEquals(expected.getSequence(), actual.getSequence());
+        assertEquals(expected.getType(), actual.getType());
+        assertEquals(expected.getHandle(), actual.getHandle());
+        assertEquals(expected.getOldKey(), actual.getOldKey());
+        assertEquals(expected.getOldVersion(), actual.getOldVersion());
+        assertEquals(expected.getKey(), actual.getKey());
+        assertEquals(expected.getVersion(), actual.getVersion());
+        assertEquals(expected.getParents(), actual.getParents());
+        assertEquals(expected.getChildren(), actual.getChildren());
+    }
+
+    /**
+     * Creating a listener collecting all events.
+     * 
+     * @param events
+     *            to add the events to
+     * @return the listener
+     */
+    private static IChangeListener collector(final List<ChangeEvent> events) {
+        return new IChangeListener() {
+            @Override
+            public void changed(final ChangeEvent event) {
+                events.add(event);
+            }
+        };
+    }
+
+}
@@ -0,0 +1,224 @@
+/**
+ * 
+ */
+package org.versacloud.store;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+/**
+ * Test case for SecretStore
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public class SecretStoreTest {
+
+    /** Small segments for crossing segment borders. */
+    private static final int SEGMENT_SIZE = 128;
+
+    private File file;
+
+    private SecretStore store;
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @Before
+    public void setUp() throws Exception {
+        file = new File("/tmp/bla-secrets");
+        file.delete();
+        store = new SecretStore(file, SEGMENT_SIZE);
+    }
+
+    /**
+     * @throws java.lang.Exception
+     */
+    @After
+    public void tearDown() throws Exception {
+        store.close();
+        file.delete();
+    }
+
+    /**
+     * Test method for {@link org.versacloud.store.SecretStore#append(long, long, byte[])} and
+     * {@link org.versacloud.store.SecretStore#read(long)}.
+     */
+    @Test
+    public void testAppend() {
+        final long first = store.append(1, 0, new byte[] {
+            1, 2, 3
+        });
+        final long second = store.append(1, 1, new byte[0]);
+        assertEquals(SecretStore.HEADER, first);
+        assertEquals(first + SecretStore.RECORD_HEADER + 3, second);
+        assertArrayEquals(new byte[] {
+            1, 2, 3
+        }, store.read(first));
+        assertArrayEquals(new byte[0], store.read(second));
+        assertEquals(2, store.size());
+
+        // appending for the same node does not modify the old record
+        final long third = store.append(1, 0, new byte[] {
+            4
+        });
+        assertArrayEquals(new byte[] {
+            4
+        }, store.read(third));
+        assertArrayEquals(new byte[] {
+            1, 2, 3
+        }, store.read(first));
+        assertTrue(third > second);
+        assertEquals(3, store.size());
+
+        try {
+            store.read(first + 1);
+            fail();
+        } catch (final IllegalArgumentException exc) {
+            // expected, the offset denotes no record
+        }
+    }
+
+    /**
+     * Test method for {@link org.versacloud.store.SecretStore#remove(long)}.
+     * 
+     * @throws IOException
+     *             if the file cannot be read
+     */
+    @Test
+    public void testRemove() throws IOException {
+        final long first = store.append(1, 0, new byte[] {
+            17, 18, 19
+        });
+        final long second = store.append(2, 0, new byte[] {
+            20
+        });
+        assertTrue(store.remove(first));
+        assertFalse(store.remove(first));
+        assertNull(store.read(first));
+        assertArrayEquals(new byte[] {
+            20
+        }, store.read(second));
+        assertEquals(1, store.size());
+
+        // the removed material is overwritten within the file
+        store.force();
+        final byte[] content = new byte[(int)store.getEnd()];
+        final RandomAccessFile raw = new RandomAccessFile(file, "r");
+        try {
+            raw.readFully(content);
+        } finally {
+            raw.close();
+        }
+        for (int i = 0; i < 3; i++) {
+            assertEquals(0, content[(int)first + SecretStore.RECORD_HEADER + i]);
+        }
+        assertEquals(20, content[(int)second + SecretStore.RECORD_HEADER]);
+    }
+
+    /**
+     * Test method for records crossing the borders of segments.
+     */
+    @Test
+    public void testSegments() {
+        final long[] offsets = new long[50];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = store.append(i, 0, material(i, i % 60));
+            final long position = offsets[i] % SEGMENT_SIZE;
+            assertTrue(position + SecretStore.RECORD_HEADER + i % 60 <= SEGMENT_SIZE);
+        }
+        for (int i = 0; i < offsets.length; i++) {
+            assertArrayEquals(material(i, i % 60), store.read(offsets[i]));
+        }
+        try {
+            store.append(100, 0, new byte[SEGMENT_SIZE]);
+            fail();
+        } catch (final IllegalArgumentException exc) {
+            // expected, the material exceeds a segment
+        }
+    }
+
+    /**
+     * Test method for {@link org.versacloud.store.SecretStore#SecretStore(File, int)} recovering an
+     * existing store.
+     * 
+     * @throws IOException
+     *             if the store cannot be reopened
+     */
+    @Test
+    public void testReopen() throws IOException {
+        final long[] offsets = new long[50];
+        for (int i = 0; i < offsets.length; i++) {
+            offsets[i] = store.append(i, 0, material(i, i % 60));
+        }
+        store.remove(offsets[4]);
+        final long end = store.getEnd();
+        store.close();
+
+        // the stored segment size wins over the denoted one
+        store = new SecretStore(file, 4096);
+        assertEquals(end, store.getEnd());
+        assertEquals(49, store.size());
+        assertNull(store.read(offsets[4]));
+        for (int i = 5; i < offsets.length; i++) {
+            assertArrayEquals(material(i, i % 60), store.read(offsets[i]));
+        }
+        // appending continues at the end
+        assertTrue(store.append(50, 0, material(50, 1)) >= end);
+        assertEquals(50, store.size());
+    }
+
+    /**
+     * Test method for {@link org.versacloud.store.SecretStore#SecretStore(File, int)} with a file
+     * not being a store.
+     * 
+     * @throws IOException
+     *             if the file cannot be written
+     */
+    @Test
+    public void testNoStore() throws IOException {
+        store.close();
+        final FileOutputStream out = new FileOutputStream(file);
+        out.write(new byte[32]);
+        out.close();
+        try {
+            store = new SecretStore(file, SEGMENT_SIZE);
+            fail();
+        } catch (final IOException exc) {
+            // expected, the magic number is missing
+        }
+        file.delete();
+        store = new SecretStore(file, SEGMENT_SIZE);
+    }
+
+    /**
+     * Generating material.
+     * 
+     * @param seed
+     *            for the content
+     * @param length
+     *            of the material
+     * @return the material
+     */
+    private static byte[] material(final int seed, final int length) {
+        final byte[] returnval = new byte[length];
+        for (int i = 0; i < length; i++) {
+            returnval[i] = (byte)(seed * 31 + i);
+        }
+        return returnval;
+    }
+
+}
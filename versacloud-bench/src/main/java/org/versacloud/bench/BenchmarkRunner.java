@@ -0,0 +1,65 @@
+/**
+ * 
+ */
+package org.versacloud.bench;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.ChainedOptionsBuilder;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Entry point of the benchmarks. All JMH command line options are supported;
+ * unless denoted otherwise, the results are written as JSON to
+ * <code>versacloud-bench-&lt;version&gt;.json</code> to be compared across
+ * releases.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+public final class BenchmarkRunner {
+
+    /**
+     * Hidden constructor.
+     */
+    private BenchmarkRunner() {
+    }
+
+    /**
+     * Running the benchmarks.
+     * 
+     * @param args
+     *            JMH command line options
+     * @throws CommandLineOptionException
+     *             if the options cannot be parsed
+     * @throws RunnerException
+     *             if a benchmark fails
+     */
+    public static void main(final String[] args) throws CommandLineOptionException, RunnerException {
+        final CommandLineOptions options = new CommandLineOptions(args);
+        if (options.shouldHelp()) {
+            options.showHelp();
+            return;
+        }
+        if (options.shouldList()) {
+            new Runner(options).list();
+            return;
+        }
+        final ChainedOptionsBuilder builder = new OptionsBuilder().parent(options);
+        if (!options.getResultFormat().hasValue()) {
+            builder.resultFormat(ResultFormatType.JSON);
+        }
+        if (!options.getResult().hasValue()) {
+            String version = BenchmarkRunner.class.getPackage().getImplementationVersion();
+            if (version == null) {
+                version = "SNAPSHOT";
+            }
+            builder.result("versacloud-bench-" + version + ".json");
+        }
+        new Runner(builder.build()).run();
+    }
+
+}
@@ -0,0 +1,202 @@
+/**
+ * 
+ */
+package org.versacloud.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.hypergraphdb.HGHandle;
+import org.hypergraphdb.HyperGraph;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.versacloud.BulkLoadSession;
+import org.versacloud.HGHandler;
+import org.versacloud.model.Node;
+
+/**
+ * Graph shared by all benchmarks of one trial. The graph consists of
+ * {@link #depth} levels with {@link #size} nodes each. Every node of a level
+ * gains the right of {@link #fanOut} randomly chosen nodes of the next level,
+ * the generation is deterministic for a given seed. The graph is stored in a
+ * temporary location removed after the trial.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+@State(Scope.Benchmark)
+public class GraphState {
+
+    /** Number of nodes per level. */
+    @Param({
+        "1000"
+    })
+    public int size;
+
+    /** Number of children each node is linked to. */
+    @Param({
+        "4"
+    })
+    public int fanOut;
+
+    /** Number of levels. */
+    @Param({
+        "4"
+    })
+    public int depth;
+
+    /** Seed for generating the graph and choosing the operands. */
+    @Param({
+        "123"
+    })
+    public long seed;
+
+    /** Size of the secret material of each node. */
+    private static final int SECRET_SIZE = 32;
+
+    /** Number of nodes inserted within one transaction. */
+    private static final int BATCH_SIZE = 1000;
+
+    /** Location of the graph. */
+    private File mLocation;
+
+    /** The graph itself. */
+    private HyperGraph mGraph;
+
+    /** Handler under test. */
+    private HGHandler mHandler;
+
+    /** Handles of the nodes, first dimension denotes the level. */
+    private HGHandle[][] mHandles;
+
+    /**
+     * Creating the graph.
+     * 
+     * @throws IOException
+     *             if the temporary location cannot be created
+     */
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        if (size <= fanOut || depth < 2) {
+            throw new IllegalArgumentException(
+                "Need more nodes per level than fan-out and at least two levels");
+        }
+        mLocation = File.createTempFile("versacloud-bench", "");
+        if (!mLocation.delete() || !mLocation.mkdirs()) {
+            throw new IOException("Cannot create " + mLocation);
+        }
+        mGraph = new HyperGraph(mLocation.getAbsolutePath());
+        mHandler = new HGHandler(mGraph);
+
+        final Random random = new Random(seed);
+        final BulkLoadSession session = mHandler.beginBulkLoad(BATCH_SIZE);
+        for (int level = 0; level < depth; level++) {
+            for (int i = 0; i < size; i++) {
+                final byte[] secret = new byte[SECRET_SIZE];
+                random.nextBytes(secret);
+                session.add(new Node("node" + getKey(level, i), getKey(level, i), 0, secret));
+            }
+        }
+        session.commit();
+
+        mHandles = new HGHandle[depth][size];
+        for (int level = 0; level < depth; level++) {
+            for (int i = 0; i < size; i++) {
+                mHandles[level][i] = mHandler.getRightHandle(getKey(level, i), 0);
+            }
+        }
+        for (int level = 0; level < depth - 1; level++) {
+            for (int i = 0; i < size; i++) {
+                final Set<HGHandle> parents = new HashSet<HGHandle>();
+                parents.add(mHandles[level][i]);
+                mHandler.activateRight(parents, pickChildren(level, random));
+            }
+        }
+    }
+
+    /**
+     * Closing and removing the graph.
+     */
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        mGraph.close();
+        delete(mLocation);
+    }
+
+    /**
+     * Getting the handler under test.
+     * 
+     * @return the handler
+     */
+    public HGHandler getHandler() {
+        return mHandler;
+    }
+
+    /**
+     * Getting the key of a node within the graph.
+     * 
+     * @param level
+     *            of the node
+     * @param index
+     *            of the node within the level
+     * @return the key
+     */
+    public long getKey(final int level, final int index) {
+        return (long)level * size + index;
+    }
+
+    /**
+     * Getting the handle of a node within the graph.
+     * 
+     * @param level
+     *            of the node
+     * @param index
+     *            of the node within the level
+     * @return the handle
+     */
+    public HGHandle getHandle(final int level, final int index) {
+        return mHandles[level][index];
+    }
+
+    /**
+     * Picking {@link #fanOut} distinct nodes of the level below the denoted
+     * one.
+     * 
+     * @param level
+     *            of the parents
+     * @param random
+     *            to choose the children
+     * @return the handles of the children
+     */
+    public Set<HGHandle> pickChildren(final int level, final Random random) {
+        final Set<HGHandle> children = new HashSet<HGHandle>();
+        while (children.size() < fanOut) {
+            children.add(mHandles[level + 1][random.nextInt(size)]);
+        }
+        return children;
+    }
+
+    /**
+     * Deleting a file recursively.
+     * 
+     * @param file
+     *            to be deleted
+     */
+    private static void delete(final File file) {
+        final File[] children = file.listFiles();
+        if (children != null) {
+            for (final File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+
+}
@@ -0,0 +1,72 @@
+/**
+ * 
+ */
+package org.versacloud.bench;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGHandle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Benchmarks for the point lookups of {@link org.versacloud.HGHandler}.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LookupBenchmark {
+
+    /** Random for choosing the nodes to be looked up. */
+    private final Random mRandom = new Random(42);
+
+    /**
+     * Looking up the handle of a random node.
+     * 
+     * @param graph
+     *            to look up in
+     * @return the handle
+     */
+    @Benchmark
+    public HGHandle getRightHandle(final GraphState graph) {
+        return graph.getHandler().getRightHandle(randomKey(graph), 0);
+    }
+
+    /**
+     * Looking up the material of a random node.
+     * 
+     * @param graph
+     *            to look up in
+     * @return the material
+     */
+    @Benchmark
+    public byte[] getRightMaterial(final GraphState graph) {
+        return graph.getHandler().getRightMaterial(randomKey(graph), 0);
+    }
+
+    /**
+     * Choosing the key of a random node within the graph.
+     * 
+     * @param graph
+     *            the node is part of
+     * @return the key
+     */
+    private long randomKey(final GraphState graph) {
+        return graph.getKey(mRandom.nextInt(graph.depth), mRandom.nextInt(graph.size));
+    }
+
+}
@@ -0,0 +1,238 @@
+/**
+ * 
+ */
+package org.versacloud.bench;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.hypergraphdb.HGHandle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.versacloud.model.Node;
+import org.versacloud.model.RemovalResult;
+
+/**
+ * Benchmarks for the modifying operations of {@link org.versacloud.HGHandler}.
+ * The operands are prepared and cleaned up per invocation outside of the
+ * measurement. Since each operation writes to the db, the overhead of the
+ * per-invocation fixtures is negligible; the latencies are sampled to get
+ * their distribution.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ModificationBenchmark {
+
+    /** Keys of the nodes inserted by the benchmarks, disjoint to the graph. */
+    private static final AtomicLong KEYS = new AtomicLong(Long.MAX_VALUE / 2);
+
+    /**
+     * Generating a node not yet part of the graph.
+     * 
+     * @param random
+     *            for generating the secret
+     * @return the node
+     */
+    private static Node newNode(final Random random) {
+        final byte[] secret = new byte[32];
+        random.nextBytes(secret);
+        final long key = KEYS.getAndIncrement();
+        return new Node("bench" + key, key, 0, secret);
+    }
+
+    /**
+     * Operand of one right: a random node of a level and random children of
+     * the next level.
+     */
+    public abstract static class RightOperand {
+
+        /** Random for choosing the operands. */
+        final Random mRandom = new Random(42);
+
+        /** Parents of the right. */
+        Set<HGHandle> mParents;
+
+        /** Children of the right. */
+        Set<HGHandle> mChildren;
+
+        /**
+         * Choosing the operand.
+         * 
+         * @param graph
+         *            the operand is part of
+         */
+        void choose(final GraphState graph) {
+            final int level = mRandom.nextInt(graph.depth - 1);
+            mParents = new HashSet<HGHandle>();
+            mParents.add(graph.getHandle(level, mRandom.nextInt(graph.size)));
+            mChildren = graph.pickChildren(level, mRandom);
+        }
+    }
+
+    /**
+     * Right activated by the benchmark and deactivated afterwards.
+     */
+    @State(Scope.Thread)
+    public static class ActivateOperand extends RightOperand {
+
+        /** Handler the right was activated in. */
+        private GraphState mGraph;
+
+        /**
+         * Choosing the right.
+         * 
+         * @param graph
+         *            the right is activated in
+         */
+        @Setup(Level.Invocation)
+        public void setUp(final GraphState graph) {
+            mGraph = graph;
+            choose(graph);
+        }
+
+        /**
+         * Deactivating the right again to keep the shape of the graph.
+         */
+        @TearDown(Level.Invocation)
+        public void tearDown() {
+            mGraph.getHandler().deactivateRight(mParents, mChildren);
+        }
+    }
+
+    /**
+     * Right activated beforehand and deactivated by the benchmark.
+     */
+    @State(Scope.Thread)
+    public static class DeactivateOperand extends RightOperand {
+
+        /**
+         * Choosing and activating the right.
+         * 
+         * @param graph
+         *            the right is activated in
+         */
+        @Setup(Level.Invocation)
+        public void setUp(final GraphState graph) {
+            choose(graph);
+            graph.getHandler().activateRight(mParents, mChildren);
+        }
+    }
+
+    /**
+     * Node inserted and linked beforehand and removed by the benchmark.
+     */
+    @State(Scope.Thread)
+    public static class RemoveOperand {
+
+        /** Random for choosing the operands. */
+        private final Random mRandom = new Random(42);
+
+        /** The node to be removed. */
+        Node mNode;
+
+        /**
+         * Inserting the node below a random node of the topmost level and
+         * above random nodes of the second level.
+         * 
+         * @param graph
+         *            the node is inserted in
+         */
+        @Setup(Level.Invocation)
+        public void setUp(final GraphState graph) {
+            mNode = newNode(mRandom);
+            final HGHandle handle = graph.getHandler().addRight(mNode)[0];
+            final Set<HGHandle> node = new HashSet<HGHandle>();
+            node.add(handle);
+            final Set<HGHandle> parents = new HashSet<HGHandle>();
+            parents.add(graph.getHandle(0, mRandom.nextInt(graph.size)));
+            graph.getHandler().activateRight(parents, node);
+            graph.getHandler().activateRight(node, graph.pickChildren(0, mRandom));
+        }
+    }
+
+    /**
+     * Random for the nodes to be added.
+     */
+    @State(Scope.Thread)
+    public static class AddOperand {
+
+        /** Random for generating the secrets. */
+        final Random mRandom = new Random(42);
+    }
+
+    /**
+     * Adding a new node.
+     * 
+     * @param graph
+     *            to add the node to
+     * @param operand
+     *            random for generating the node
+     * @return the handles of the node
+     */
+    @Benchmark
+    public HGHandle[] addRight(final GraphState graph, final AddOperand operand) {
+        return graph.getHandler().addRight(newNode(operand.mRandom));
+    }
+
+    /**
+     * Activating a right.
+     * 
+     * @param graph
+     *            to activate the right in
+     * @param operand
+     *            the right
+     * @return true if a new edge is inserted
+     */
+    @Benchmark
+    public boolean activateRight(final GraphState graph, final ActivateOperand operand) {
+        return graph.getHandler().activateRight(operand.mParents, operand.mChildren);
+    }
+
+    /**
+     * Deactivating a right.
+     * 
+     * @param graph
+     *            to deactivate the right in
+     * @param operand
+     *            the right
+     * @return true if an edge is modified
+     */
+    @Benchmark
+    public boolean deactivateRight(final GraphState graph, final DeactivateOperand operand) {
+        return graph.getHandler().deactivateRight(operand.mParents, operand.mChildren);
+    }
+
+    /**
+     * Removing a linked node.
+     * 
+     * @param graph
+     *            to remove the node from
+     * @param operand
+     *            the node
+     * @return the result of the removal
+     */
+    @Benchmark
+    public RemovalResult removeRight(final GraphState graph, final RemoveOperand operand) {
+        return graph.getHandler().removeRight(operand.mNode);
+    }
+
+}
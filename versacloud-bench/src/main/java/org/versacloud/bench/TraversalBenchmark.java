@@ -0,0 +1,99 @@
+/**
+ * 
+ */
+package org.versacloud.bench;
+
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import org.hypergraphdb.HGHandle;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.versacloud.CSRHandler;
+
+/**
+ * Benchmark for the traversal of {@link org.versacloud.HGHandler} and of the
+ * in-memory {@link CSRHandler}, starting at a random node of the topmost
+ * level. No descendant cache is set, so each invocation traverses the graph.
+ * 
+ * @author Sebastian Graf, University of Konstanz
+ * 
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TraversalBenchmark {
+
+    /** Random for choosing the roots. */
+    private final Random mRandom = new Random(42);
+
+    /**
+     * Getting all descendants of a random root.
+     * 
+     * @param graph
+     *            to be traversed
+     * @return the descendants
+     */
+    @Benchmark
+    public Set<HGHandle> getDescendants(final GraphState graph) {
+        return graph.getHandler().getDescendants(graph.getHandle(0, mRandom.nextInt(graph.size)));
+    }
+
+    /**
+     * Getting all descendants of a random root from the in-memory arrays.
+     * 
+     * @param graph
+     *            to be traversed
+     * @param engine
+     *            loaded from the graph
+     * @return the descendants
+     */
+    @Benchmark
+    public Set<HGHandle> getDescendantsCSR(final GraphState graph, final EngineState engine) {
+        return engine.mEngine.getDescendants(graph.getHandle(0, mRandom.nextInt(graph.size)));
+    }
+
+    /**
+     * In-memory engine loaded once per trial.
+     */
+    @State(Scope.Benchmark)
+    public static class EngineState {
+
+        /** The engine itself. */
+        CSRHandler mEngine;
+
+        /**
+         * Loading the engine from the graph.
+         * 
+         * @param graph
+         *            to be loaded
+         */
+        @Setup(Level.Trial)
+        public void setUp(final GraphState graph) {
+            mEngine = new CSRHandler(graph.getHandler());
+        }
+
+        /**
+         * Detaching the engine from the handler.
+         */
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            mEngine.close();
+        }
+    }
+
+}